@@ -0,0 +1,46 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler always on, so every result
+ * shows the allocation rate (gc.alloc.rate.norm, bytes per operation) next to
+ * the throughput. Accepts the usual JMH command line options.
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp()) {
+			cmd.showHelp();
+			return;
+		}
+		Options options = new OptionsBuilder().parent(cmd)
+		        .addProfiler(GCProfiler.class).build();
+		if (cmd.shouldList())
+			new Runner(options).list();
+		else
+			new Runner(options).run();
+	}
+
+}
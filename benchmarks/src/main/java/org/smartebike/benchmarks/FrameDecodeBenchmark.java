@@ -0,0 +1,151 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.smartebike.api.codec.SampleListener;
+import org.smartebike.api.codec.TelemetryBlockReader;
+import org.smartebike.api.codec.TelemetryBlockWriter;
+import org.smartebike.api.frame.Frame;
+import org.smartebike.api.frame.FrameDecoder;
+import org.smartebike.api.frame.FrameEncoder;
+import org.smartebike.api.frame.FrameListener;
+import org.smartebike.api.frame.FrameType;
+import org.smartebike.api.frame.TelemetryFrame;
+
+/**
+ * Decoding motor speed samples from the socket stream: the ASCII line format
+ * read byte by byte, as the original readBluetoothSocketInput did, against the
+ * binary frame format read in bulk into a {@link FrameDecoder}, plain and
+ * compressed into {@link FrameType#TELEMETRY_BLOCK} frames. One operation is
+ * one sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecodeBenchmark implements FrameListener, SampleListener {
+
+	private static final int SAMPLES = 1000;
+
+	private ByteArrayInputStream asciiStream;
+	private ByteArrayInputStream binaryStream;
+	private ByteArrayInputStream blockStream;
+	private final byte[] readBuffer = new byte[1024];
+	private final FrameDecoder decoder = new FrameDecoder(this);
+	private final TelemetryBlockReader blockReader = new TelemetryBlockReader();
+	private Blackhole blackhole;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		ByteArrayOutputStream ascii = new ByteArrayOutputStream();
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+		FrameEncoder encoder = new FrameEncoder();
+		FrameEncoder blockEncoder = new FrameEncoder();
+		TelemetryBlockWriter block = new TelemetryBlockWriter(1,
+		        TelemetryBlockWriter.MAX_SAMPLES);
+		float[] values = new float[1];
+		for (int i = 0; i < SAMPLES; i++) {
+			float speed = 20 + random.nextFloat() * 10;
+			ascii.write(String.format(" %.2f\n", speed).getBytes("US-ASCII"));
+			encoder.begin(FrameType.TELEMETRY).putInt(i).putFloat(speed);
+			encoder.finish();
+			encoder.writeTo(binary);
+			values[0] = speed;
+			if (!block.add(i, values)) {
+				block.finish(blockEncoder);
+				blockEncoder.writeTo(blocks);
+				block.add(i, values);
+			}
+		}
+		block.finish(blockEncoder);
+		blockEncoder.writeTo(blocks);
+		asciiStream = new ByteArrayInputStream(ascii.toByteArray());
+		binaryStream = new ByteArrayInputStream(binary.toByteArray());
+		blockStream = new ByteArrayInputStream(blocks.toByteArray());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public void asciiLines(Blackhole bh) {
+		asciiStream.reset();
+		for (int i = 0; i < SAMPLES; i++) {
+			byte b = 0;
+			StringBuilder motorSpeed = new StringBuilder();
+			// read until '\n' arrives
+			while ((char) (b = (byte) asciiStream.read()) != '\n')
+				if ((char) b != ' ')
+					motorSpeed.append((char) b);
+			bh.consume(motorSpeed.toString());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public void binaryFrames(Blackhole bh) {
+		blackhole = bh;
+		binaryStream.reset();
+		int n;
+		while ((n = binaryStream.read(readBuffer, 0, readBuffer.length)) != -1)
+			decoder.decode(readBuffer, 0, n);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public void blockFrames(Blackhole bh) {
+		blackhole = bh;
+		blockStream.reset();
+		int n;
+		while ((n = blockStream.read(readBuffer, 0, readBuffer.length)) != -1)
+			decoder.decode(readBuffer, 0, n);
+	}
+
+	@Override
+	public void onFrame(Frame frame) {
+		if (frame.getType() == FrameType.TELEMETRY_BLOCK)
+			blockReader.read(frame, this);
+		else
+			blackhole.consume(frame.getFloat(TelemetryFrame.MOTOR_SPEED));
+	}
+
+	@Override
+	public void onSample(long timestamp, float[] values) {
+		blackhole.consume(values[0]);
+	}
+
+}
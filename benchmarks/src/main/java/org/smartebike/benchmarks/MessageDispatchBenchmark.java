@@ -0,0 +1,79 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.smartebike.dashboard.message.Message;
+import org.smartebike.dashboard.message.MessageHandler;
+import org.smartebike.dashboard.message.MessageKey;
+import org.smartebike.dashboard.message.MessageType;
+
+/**
+ * Creating a {@link Message} per sample and dispatching it through a
+ * {@link MessageHandler}: a fresh message every time against one from the
+ * pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageDispatchBenchmark implements MessageHandler {
+
+	private Blackhole blackhole;
+	private float speed = 0;
+
+	@Benchmark
+	public void newMessage(Blackhole bh) {
+		blackhole = bh;
+		Message message = new Message(MessageType.UPDATE_MOTOR_SPEED);
+		message.putFloat(MessageKey.MOTOR_SPEED_VALUE, speed++);
+		handleMessage(message);
+	}
+
+	@Benchmark
+	public void pooledMessage(Blackhole bh) {
+		blackhole = bh;
+		Message message = Message.obtain(MessageType.UPDATE_MOTOR_SPEED);
+		message.putFloat(MessageKey.MOTOR_SPEED_VALUE, speed++);
+		handleMessage(message);
+		message.recycle();
+	}
+
+	@Override
+	public void handleMessage(Message message) {
+		blackhole.consume(message.getFloat(MessageKey.MOTOR_SPEED_VALUE));
+	}
+
+	@Override
+	public void registerListener(MessageHandler listener) {
+		// not needed
+	}
+
+}
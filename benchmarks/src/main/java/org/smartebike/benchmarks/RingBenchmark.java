@@ -0,0 +1,95 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.smartebike.api.ring.TelemetryRing;
+import org.smartebike.api.ring.TelemetrySample;
+
+/**
+ * {@link TelemetryRing} publish and consume, on one thread and with a
+ * producer and a consumer thread running against each other.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBenchmark {
+
+	private static final int CAPACITY = 256;
+	private static final int CHANNELS = 4;
+
+	@State(Scope.Group)
+	public static class SharedRing {
+		final TelemetryRing ring = new TelemetryRing(CAPACITY, CHANNELS);
+	}
+
+	@State(Scope.Thread)
+	public static class Producer {
+		final float[] values = new float[CHANNELS];
+		long timestamp = 0;
+	}
+
+	@State(Scope.Thread)
+	public static class Consumer {
+		TelemetrySample sample;
+	}
+
+	@State(Scope.Thread)
+	public static class LocalRing {
+		final TelemetryRing ring = new TelemetryRing(CAPACITY, CHANNELS);
+		final TelemetrySample sample = ring.newSample();
+		final float[] values = new float[CHANNELS];
+		long timestamp = 0;
+	}
+
+	@Benchmark
+	public boolean publishPoll(LocalRing local) {
+		local.ring.publish(local.timestamp++, local.values);
+		return local.ring.poll(local.sample);
+	}
+
+	@Benchmark
+	@Group("spsc")
+	@GroupThreads(1)
+	public void publish(SharedRing shared, Producer producer) {
+		shared.ring.publish(producer.timestamp++, producer.values);
+	}
+
+	@Benchmark
+	@Group("spsc")
+	@GroupThreads(1)
+	public boolean poll(SharedRing shared, Consumer consumer) {
+		if (consumer.sample == null)
+			consumer.sample = shared.ring.newSample();
+		return shared.ring.poll(consumer.sample);
+	}
+
+}
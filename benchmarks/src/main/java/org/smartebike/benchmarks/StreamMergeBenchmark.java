@@ -0,0 +1,101 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.smartebike.api.merge.MergeListener;
+import org.smartebike.api.merge.StreamMerger;
+
+/**
+ * {@link StreamMerger} cost per sample: a controller at 50 samples per
+ * second merged with a BMS at 5 and a sensor at 1, offered and drained as
+ * they arrive, and a single source passing straight through.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamMergeBenchmark {
+
+	private static final int CHANNELS = 8;
+	// ms between samples of the controller, BMS and sensor
+	private static final int[] INTERVALS = { 20, 200, 1000 };
+	// the same delays each round, so the buffers stay in a steady state
+	private static final long LINK_DELAY = 30;
+
+	@State(Scope.Thread)
+	public static class Merge implements MergeListener {
+		StreamMerger merger;
+		final float[] values = new float[CHANNELS];
+		final long[] next = new long[INTERVALS.length];
+		Blackhole blackhole;
+
+		@Setup
+		public void setUp(Blackhole blackhole) {
+			this.blackhole = blackhole;
+			merger = new StreamMerger(INTERVALS.length, CHANNELS,
+			        StreamMerger.DEFAULT_CAPACITY,
+			        StreamMerger.DEFAULT_MAX_DELAY, this);
+			for (int i = 0; i < INTERVALS.length; i++) {
+				merger.setActive(i, true);
+				merger.setPeriodic(i, i > 0);
+			}
+		}
+
+		public void onMergedSample(int source, long timestamp, float[] values) {
+			blackhole.consume(timestamp);
+		}
+
+		public void onMergeEnd() {
+		}
+	}
+
+	@Benchmark
+	public void threeSources(Merge merge) {
+		// offer whichever source is due next
+		int source = 0;
+		for (int i = 1; i < INTERVALS.length; i++)
+			if (merge.next[i] < merge.next[source])
+				source = i;
+		long timestamp = merge.next[source];
+		merge.next[source] += INTERVALS[source];
+		merge.merger.offer(source, timestamp, merge.values);
+		merge.merger.drain(timestamp + LINK_DELAY);
+	}
+
+	@Benchmark
+	public void oneSource(Merge merge) {
+		long timestamp = merge.next[0];
+		merge.next[0] += INTERVALS[0];
+		merge.merger.offer(0, timestamp, merge.values);
+		merge.merger.drain(timestamp + LINK_DELAY);
+	}
+
+}
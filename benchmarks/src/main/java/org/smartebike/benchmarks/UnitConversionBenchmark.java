@@ -0,0 +1,79 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.smartebike.dashboard.format.TextBuffer;
+import org.smartebike.dashboard.format.Unit;
+
+/**
+ * Converting a motor speed sample to imperial units for display: parsing the
+ * received text, converting and formatting it again, against converting the
+ * primitive value, and formatting it with {@link String#format} against
+ * writing it into a reusable {@link TextBuffer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnitConversionBenchmark {
+
+	private static final float KMH_TO_MPH = 0.621371192f;
+
+	private String text = "25.37";
+	private float value = 25.37f;
+	private final TextBuffer buffer = new TextBuffer(16);
+
+	@Benchmark
+	public String stringRoundTrip() {
+		return String.valueOf(Float.parseFloat(text) * KMH_TO_MPH);
+	}
+
+	@Benchmark
+	public String primitiveToString() {
+		return String.valueOf(value * KMH_TO_MPH);
+	}
+
+	@Benchmark
+	public float primitive() {
+		return value * KMH_TO_MPH;
+	}
+
+	@Benchmark
+	public String stringFormat() {
+		return String.format("%.1f mph", value * KMH_TO_MPH);
+	}
+
+	@Benchmark
+	public int textBuffer() {
+		buffer.clear().append(value, 1, Unit.MILES_PER_HOUR);
+		return buffer.length();
+	}
+
+}
@@ -0,0 +1,81 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.codec;
+
+/**
+ * Reads bits written by a {@link BitWriter}.
+ */
+public class BitReader {
+
+	private byte[] buffer;
+	private long position;
+	private long limit;
+
+	public BitReader() {
+		wrap(new byte[0], 0, 0);
+	}
+
+	/**
+	 * Read from a new range of bytes.
+	 */
+	public void wrap(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.position = offset * 8L;
+		this.limit = (offset + (long) length) * 8L;
+	}
+
+	public boolean readBit() {
+		if (position >= limit)
+			throw new IllegalStateException("Read past the end of the bits");
+		int mask = 0x80 >>> (position & 7);
+		return (buffer[(int) (position++ >>> 3)] & mask) != 0;
+	}
+
+	/**
+	 * @param count
+	 *            - 0 to 64.
+	 */
+	public long readBits(int count) {
+		long value = 0;
+		for (int i = 0; i < count; i++)
+			value = (value << 1) | (readBit() ? 1 : 0);
+		return value;
+	}
+
+	/**
+	 * Read a value written by {@link BitWriter#writeVarLong(long)}.
+	 */
+	public long readVarLong() {
+		long v = 0;
+		int shift = 0;
+		boolean more;
+		do {
+			more = readBit();
+			v |= readBits(7) << shift;
+			shift += 7;
+		} while (more && shift < 64);
+		return ZigZag.decode(v);
+	}
+
+	/**
+	 * @return bits left to read.
+	 */
+	public long remaining() {
+		return limit - position;
+	}
+
+}
@@ -0,0 +1,101 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.codec;
+
+import java.util.Arrays;
+
+/**
+ * Writes bits, most significant first, into a reusable byte array that grows
+ * as needed.
+ */
+public class BitWriter {
+
+	private byte[] buffer;
+	private long bits = 0;
+
+	public BitWriter(int initialCapacity) {
+		buffer = new byte[Math.max(1, initialCapacity)];
+	}
+
+	/**
+	 * Start over, keeping the buffer.
+	 */
+	public void reset() {
+		Arrays.fill(buffer, 0, bytesUsed(), (byte) 0);
+		bits = 0;
+	}
+
+	public void writeBit(boolean bit) {
+		ensure(1);
+		if (bit)
+			buffer[(int) (bits >>> 3)] |= 0x80 >>> (bits & 7);
+		bits++;
+	}
+
+	/**
+	 * Write the lowest bits of a value.
+	 *
+	 * @param count
+	 *            - 0 to 64.
+	 */
+	public void writeBits(long value, int count) {
+		ensure(count);
+		for (int i = count - 1; i >= 0; i--) {
+			if (((value >>> i) & 1) != 0)
+				buffer[(int) (bits >>> 3)] |= 0x80 >>> (bits & 7);
+			bits++;
+		}
+	}
+
+	/**
+	 * Write a signed value as a zig-zag varint: 7 bits per group, low groups
+	 * first, each preceded by a bit telling whether another follows. Small
+	 * magnitudes, positive or negative, take one group.
+	 */
+	public void writeVarLong(long value) {
+		long v = ZigZag.encode(value);
+		do {
+			long group = v & 0x7F;
+			v >>>= 7;
+			writeBit(v != 0);
+			writeBits(group, 7);
+		} while (v != 0);
+	}
+
+	private void ensure(int count) {
+		long needed = (bits + count + 7) >>> 3;
+		if (needed > buffer.length)
+			buffer = Arrays.copyOf(buffer, (int) Math.max(needed,
+			        buffer.length * 2L));
+	}
+
+	public long bitsUsed() {
+		return bits;
+	}
+
+	public int bytesUsed() {
+		return (int) ((bits + 7) >>> 3);
+	}
+
+	/**
+	 * @return the buffer, valid up to {@link #bytesUsed()}.
+	 */
+	public byte[] array() {
+		return buffer;
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.codec;
+
+/**
+ * Reads back samples written by a {@link SampleEncoder}. Doesn't allocate.
+ */
+public class SampleDecoder {
+
+	private final int channels;
+	private final int[] previous;
+	private final int[] leading;
+	private final int[] trailing;
+	private long previousTimestamp;
+	private long previousDelta;
+	private int count;
+
+	public SampleDecoder(int channels) {
+		if (channels < 1)
+			throw new IllegalArgumentException("Invalid channel count: "
+			        + channels);
+		this.channels = channels;
+		previous = new int[channels];
+		leading = new int[channels];
+		trailing = new int[channels];
+		reset();
+	}
+
+	/**
+	 * Start a new run, as the encoder did.
+	 */
+	public void reset() {
+		for (int i = 0; i < channels; i++) {
+			previous[i] = 0;
+			leading[i] = 0;
+			trailing[i] = 0;
+		}
+		previousTimestamp = 0;
+		previousDelta = 0;
+		count = 0;
+	}
+
+	/**
+	 * Read the next sample of the run.
+	 *
+	 * @param values
+	 *            - receives one value per channel.
+	 * @return the timestamp of the sample.
+	 * @throws IllegalStateException
+	 *             if the bits run out.
+	 */
+	public long decode(BitReader in, float[] values) {
+		long timestamp;
+		if (count == 0) {
+			timestamp = in.readVarLong();
+		} else {
+			long delta = in.readVarLong();
+			if (count > 1)
+				delta += previousDelta;
+			timestamp = previousTimestamp + delta;
+			previousDelta = delta;
+		}
+		previousTimestamp = timestamp;
+		count++;
+
+		for (int i = 0; i < channels; i++) {
+			if (in.readBit()) {
+				int xor;
+				if (!in.readBit()) {
+					int length = 32 - leading[i] - trailing[i];
+					xor = (int) in.readBits(length) << trailing[i];
+				} else {
+					int lead = (int) in.readBits(5);
+					int length = (int) in.readBits(5) + 1;
+					int trail = 32 - lead - length;
+					xor = (int) in.readBits(length) << trail;
+					leading[i] = lead;
+					trailing[i] = trail;
+				}
+				previous[i] ^= xor;
+			}
+			values[i] = Float.intBitsToFloat(previous[i]);
+		}
+		return timestamp;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return samples decoded since the last {@link #reset()}.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+}
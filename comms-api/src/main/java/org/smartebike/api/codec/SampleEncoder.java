@@ -0,0 +1,150 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.codec;
+
+/**
+ * Compresses a run of samples, each a timestamp plus one float per channel,
+ * into a {@link BitWriter}.
+ * <p>
+ * Timestamps are written as zig-zag varints: the first one as is, the second
+ * as the delta to the first, and the rest as the change of that delta, which
+ * for a steady sample rate is 0 and takes a single byte. Values use the XOR
+ * scheme of the Gorilla time series database: each value is XORed with the
+ * previous one of its channel, and only the bits between the leading and
+ * trailing zeros of the result are written.
+ *
+ * <pre>
+ * '0'                                      same value as before
+ * '1' '0' meaningful bits                  fits the previous bit window
+ * '1' '1' 5 bits leading zeros,
+ *         5 bits length - 1, meaningful bits   new bit window
+ * </pre>
+ *
+ * A slowly changing sensor value thus takes a few bits to a couple of bytes
+ * instead of four. The state starts over on {@link #reset()}, so each run
+ * can be decoded on its own by a {@link SampleDecoder}. Doesn't allocate.
+ */
+public class SampleEncoder {
+
+	/**
+	 * Upper bound of the bits {@link #encode(BitWriter, long, float[])} may
+	 * write per channel, besides the timestamp.
+	 */
+	public static final int MAX_CHANNEL_BITS = 2 + 5 + 5 + 32;
+
+	/**
+	 * Upper bound of the bits a timestamp may take.
+	 */
+	public static final int MAX_TIMESTAMP_BITS = 10 * 8;
+
+	private final int channels;
+	private final int[] previous;
+	private final int[] leading;
+	private final int[] trailing;
+	private long previousTimestamp;
+	private long previousDelta;
+	private int count;
+
+	public SampleEncoder(int channels) {
+		if (channels < 1)
+			throw new IllegalArgumentException("Invalid channel count: "
+			        + channels);
+		this.channels = channels;
+		previous = new int[channels];
+		leading = new int[channels];
+		trailing = new int[channels];
+		reset();
+	}
+
+	/**
+	 * Start a new run.
+	 */
+	public void reset() {
+		for (int i = 0; i < channels; i++) {
+			previous[i] = 0;
+			// no window to reuse yet
+			leading[i] = Integer.MAX_VALUE;
+			trailing[i] = 0;
+		}
+		previousTimestamp = 0;
+		previousDelta = 0;
+		count = 0;
+	}
+
+	/**
+	 * @return upper bound of the bits one sample may take.
+	 */
+	public int maxSampleBits() {
+		return MAX_TIMESTAMP_BITS + channels * MAX_CHANNEL_BITS;
+	}
+
+	/**
+	 * Append one sample to the run.
+	 *
+	 * @param values
+	 *            - one value per channel.
+	 */
+	public void encode(BitWriter out, long timestamp, float[] values) {
+		if (count == 0) {
+			out.writeVarLong(timestamp);
+		} else {
+			long delta = timestamp - previousTimestamp;
+			out.writeVarLong(count == 1 ? delta : delta - previousDelta);
+			previousDelta = delta;
+		}
+		previousTimestamp = timestamp;
+		count++;
+
+		for (int i = 0; i < channels; i++) {
+			int bits = Float.floatToRawIntBits(values[i]);
+			int xor = bits ^ previous[i];
+			previous[i] = bits;
+			if (xor == 0) {
+				out.writeBit(false);
+				continue;
+			}
+			out.writeBit(true);
+			int lead = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+			int trail = Integer.numberOfTrailingZeros(xor);
+			if (lead >= leading[i] && trail >= trailing[i]) {
+				out.writeBit(false);
+				out.writeBits(xor >>> trailing[i], 32 - leading[i]
+				        - trailing[i]);
+			} else {
+				int length = 32 - lead - trail;
+				out.writeBit(true);
+				out.writeBits(lead, 5);
+				out.writeBits(length - 1, 5);
+				out.writeBits(xor >>> trail, length);
+				leading[i] = lead;
+				trailing[i] = trail;
+			}
+		}
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return samples encoded since the last {@link #reset()}.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+}
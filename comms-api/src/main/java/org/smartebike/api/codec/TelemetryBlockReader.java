@@ -0,0 +1,81 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.codec;
+
+import org.smartebike.api.frame.Frame;
+import org.smartebike.api.frame.TelemetryBlockFrame;
+
+/**
+ * Decodes {@link org.smartebike.api.frame.FrameType#TELEMETRY_BLOCK} frames.
+ * Doesn't allocate, except the first time a block with a new channel count
+ * comes in. Not thread safe.
+ */
+public class TelemetryBlockReader {
+
+	private final byte[] payload = new byte[Frame.MAX_PAYLOAD_LENGTH];
+	private final BitReader bits = new BitReader();
+	private SampleDecoder decoder = null;
+	private float[] values = null;
+	private long corruptCount = 0;
+
+	/**
+	 * Pass every sample of a block frame to a listener.
+	 *
+	 * @return number of samples read, less than the block claims if it was
+	 *         cut short.
+	 */
+	public int read(Frame frame, SampleListener listener) {
+		if (frame.getPayloadLength() < TelemetryBlockFrame.SAMPLES) {
+			corruptCount++;
+			return 0;
+		}
+		int samples = frame.getUnsignedByte(TelemetryBlockFrame.SAMPLE_COUNT);
+		int channels = frame.getUnsignedByte(TelemetryBlockFrame.CHANNELS);
+		if (channels == 0) {
+			corruptCount++;
+			return 0;
+		}
+		if (decoder == null || decoder.getChannels() != channels) {
+			decoder = new SampleDecoder(channels);
+			values = new float[channels];
+		}
+		int length = frame.copyPayload(payload, 0);
+		bits.wrap(payload, TelemetryBlockFrame.SAMPLES, length
+		        - TelemetryBlockFrame.SAMPLES);
+		decoder.reset();
+		for (int i = 0; i < samples; i++) {
+			long timestamp;
+			try {
+				timestamp = decoder.decode(bits, values);
+			} catch (IllegalStateException e) {
+				corruptCount++;
+				return i;
+			}
+			listener.onSample(timestamp, values);
+		}
+		return samples;
+	}
+
+	/**
+	 * @return blocks that were too short for their header or held fewer
+	 *         samples than they claimed.
+	 */
+	public long getCorruptCount() {
+		return corruptCount;
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.codec;
+
+import org.smartebike.api.frame.FrameEncoder;
+import org.smartebike.api.frame.FrameType;
+import org.smartebike.api.frame.TelemetryBlockFrame;
+
+/**
+ * Collects telemetry samples into a {@link FrameType#TELEMETRY_BLOCK} frame.
+ *
+ * <pre>
+ * if (!block.add(timestamp, values)) {
+ * 	block.finish(encoder);
+ * 	encoder.writeTo(out);
+ * 	block.add(timestamp, values);
+ * }
+ * </pre>
+ *
+ * Not thread safe.
+ */
+public class TelemetryBlockWriter {
+
+	/**
+	 * Most samples a block may hold.
+	 */
+	public static final int MAX_SAMPLES = 255;
+
+	private static final long MAX_BITS = 8L
+	        * TelemetryBlockFrame.MAX_SAMPLES_LENGTH;
+
+	private final BitWriter bits = new BitWriter(
+	        TelemetryBlockFrame.MAX_SAMPLES_LENGTH);
+	private final SampleEncoder encoder;
+	private final int maxSamples;
+
+	/**
+	 * @param maxSamples
+	 *            - samples per block, at most {@link #MAX_SAMPLES}. Fewer
+	 *            fit if they don't compress well.
+	 */
+	public TelemetryBlockWriter(int channels, int maxSamples) {
+		if (maxSamples < 1 || maxSamples > MAX_SAMPLES)
+			throw new IllegalArgumentException("Invalid block size: "
+			        + maxSamples);
+		this.encoder = new SampleEncoder(channels);
+		this.maxSamples = maxSamples;
+	}
+
+	/**
+	 * Add a sample to the current block.
+	 *
+	 * @return <code>false</code> if the block is full, the sample wasn't
+	 *         added.
+	 */
+	public boolean add(long timestamp, float[] values) {
+		if (encoder.getCount() == maxSamples
+		        || bits.bitsUsed() + encoder.maxSampleBits() > MAX_BITS)
+			return false;
+		encoder.encode(bits, timestamp, values);
+		return true;
+	}
+
+	/**
+	 * Encode the current block as a frame and start a new one.
+	 *
+	 * @return the total frame length in bytes.
+	 */
+	public int finish(FrameEncoder frameEncoder) {
+		frameEncoder.begin(FrameType.TELEMETRY_BLOCK)
+		        .putByte(encoder.getCount()).putByte(encoder.getChannels())
+		        .putBytes(bits.array(), 0, bits.bytesUsed());
+		clear();
+		return frameEncoder.finish();
+	}
+
+	/**
+	 * Discard the current block.
+	 */
+	public void clear() {
+		bits.reset();
+		encoder.reset();
+	}
+
+	/**
+	 * @return samples in the current block.
+	 */
+	public int getSampleCount() {
+		return encoder.getCount();
+	}
+
+	public boolean isEmpty() {
+		return encoder.getCount() == 0;
+	}
+
+}
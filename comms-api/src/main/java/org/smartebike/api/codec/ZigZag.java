@@ -0,0 +1,36 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.codec;
+
+/**
+ * Zig-zag mapping of signed to unsigned values, 0, -1, 1, -2, 2... to 0, 1,
+ * 2, 3, 4..., so that small negative numbers stay small as varints.
+ */
+public final class ZigZag {
+
+	public static long encode(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	public static long decode(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private ZigZag() {
+	}
+
+}
@@ -0,0 +1,37 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.command;
+
+/**
+ * Notified when a command sent on a {@link CommandChannel} completes, on the
+ * thread that completed it: the reader thread for responses, the channel's
+ * timer thread for timeouts.
+ */
+public interface CommandCallback {
+
+	/**
+	 * The controller answered, with any status.
+	 */
+	void onResponse(CommandResponse response);
+
+	/**
+	 * No answer: the command couldn't be written, timed out, was cancelled or
+	 * the connection was lost.
+	 */
+	void onFailure(int command, Exception cause);
+
+}
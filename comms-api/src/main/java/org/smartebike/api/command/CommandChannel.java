@@ -0,0 +1,283 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.command;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.smartebike.api.frame.CommandFrame;
+import org.smartebike.api.frame.Frame;
+import org.smartebike.api.frame.FrameEncoder;
+import org.smartebike.api.frame.FrameListener;
+import org.smartebike.api.frame.FrameType;
+import org.smartebike.api.io.WriteBatcher;
+import org.smartebike.api.io.WriteListener;
+
+/**
+ * Sends commands to the controller over the same transport as telemetry,
+ * through a {@link WriteBatcher}, and matches the responses to them by
+ * sequence id.
+ * <p>
+ * Commands are pipelined: {@link #send} writes the command and returns
+ * right away, up to {@link #MAX_IN_FLIGHT} may await their response at once
+ * and they complete in whatever order the responses come. Each command has
+ * its own timeout. A failed write on the batcher's thread means the link is
+ * broken, so it fails every pending command with the write error right
+ * away. Response frames reach the channel through {@link #onFrame(Frame)},
+ * called by whoever reads the transport.
+ */
+public class CommandChannel implements FrameListener, WriteListener {
+
+	/**
+	 * Must divide 65536, so that sequence ids map onto slots consistently.
+	 */
+	public static final int MAX_IN_FLIGHT = 64;
+	public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+
+	private static final int SEQUENCE_MASK = 0xFFFF;
+
+	private final WriteBatcher writer;
+	private final ScheduledExecutorService timer;
+	// pending commands by sequence id modulo MAX_IN_FLIGHT
+	private final CommandFuture[] pending = new CommandFuture[MAX_IN_FLIGHT];
+	private int nextSequence = 0;
+	private int inFlight = 0;
+	private boolean closed = false;
+
+	// guards the encoder
+	private final Object writeLock = new Object();
+	private final FrameEncoder encoder = new FrameEncoder();
+
+	// counted on the sending, reading and timer threads
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong completedCount = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong unmatchedCount = new AtomicLong();
+	// updated with the pending slots, under the channel lock
+	private volatile int maxInFlight;
+
+	/**
+	 * @param writer
+	 *            - writes the commands to the transport, reports its failed
+	 *            writes to this channel.
+	 */
+	public CommandChannel(WriteBatcher writer) {
+		this.writer = writer;
+		writer.setListener(this);
+		this.timer = Executors
+		        .newSingleThreadScheduledExecutor(new ThreadFactory() {
+			        public Thread newThread(Runnable r) {
+				        Thread t = new Thread(r, "SmartEBike-CommandTimer");
+				        t.setDaemon(true);
+				        return t;
+			        }
+		        });
+	}
+
+	public CommandFuture send(int command, byte[] arguments) {
+		return send(command, arguments, WriteBatcher.NORMAL,
+		        DEFAULT_TIMEOUT_MILLIS, null);
+	}
+
+	/**
+	 * Send a command without waiting for its response.
+	 *
+	 * @param command
+	 *            - see {@link CommandCode}.
+	 * @param arguments
+	 *            - big endian arguments, may be <code>null</code>.
+	 * @param priority
+	 *            - write priority, {@link WriteBatcher#URGENT} to have it
+	 *            sent right away, ahead of other frames.
+	 * @param timeoutMillis
+	 *            - fail the command if no response arrives in time.
+	 * @param callback
+	 *            - notified on completion, may be <code>null</code>.
+	 * @return the pending result. It has already failed if the command
+	 *         couldn't be sent.
+	 */
+	public CommandFuture send(int command, byte[] arguments, int priority,
+	        long timeoutMillis, CommandCallback callback) {
+		int length = arguments != null ? arguments.length : 0;
+		if (length > CommandFrame.MAX_ARGUMENTS_LENGTH)
+			throw new IllegalArgumentException("Arguments too long: " + length);
+
+		final CommandFuture future;
+		synchronized (this) {
+			int sequence = nextSequence;
+			future = new CommandFuture(this, sequence, command, callback);
+			if (closed) {
+				future.fail(new IOException("Command channel closed"));
+				return future;
+			}
+			int slot = sequence % MAX_IN_FLIGHT;
+			if (pending[slot] != null) {
+				future.fail(new IOException("Too many commands in flight"));
+				return future;
+			}
+			pending[slot] = future;
+			nextSequence = (sequence + 1) & SEQUENCE_MASK;
+			if (++inFlight > maxInFlight)
+				maxInFlight = inFlight;
+			// under the lock, so that close() can't shut the timer down first
+			future.timeout = timer.schedule(new Runnable() {
+				public void run() {
+					if (release(future))
+						timeoutCount.incrementAndGet();
+					future.fail(new TimeoutException("No response to command "
+					        + future.getSequence()));
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+
+		try {
+			synchronized (writeLock) {
+				encoder.begin(FrameType.COMMAND).putShort(future.getSequence())
+				        .putByte(command);
+				if (length > 0)
+					encoder.putBytes(arguments, 0, length);
+				int frameLength = encoder.finish();
+				writer.write(encoder.array(), 0, frameLength, priority);
+				sentCount.incrementAndGet();
+			}
+		} catch (IOException e) {
+			release(future);
+			future.fail(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Free the slot of a command, if it is still pending.
+	 *
+	 * @return <code>false</code> if it wasn't pending anymore.
+	 */
+	synchronized boolean release(CommandFuture future) {
+		int slot = future.getSequence() % MAX_IN_FLIGHT;
+		if (pending[slot] != future)
+			return false;
+		pending[slot] = null;
+		inFlight--;
+		return true;
+	}
+
+	/**
+	 * Complete the command a {@link FrameType#RESPONSE} frame answers. Other
+	 * frames are ignored.
+	 */
+	@Override
+	public void onFrame(Frame frame) {
+		if (frame.getType() != FrameType.RESPONSE
+		        || frame.getPayloadLength() < CommandFrame.DATA)
+			return;
+		int sequence = frame.getUnsignedShort(CommandFrame.SEQUENCE);
+		CommandFuture future;
+		synchronized (this) {
+			int slot = sequence % MAX_IN_FLIGHT;
+			future = pending[slot];
+			if (future == null || future.getSequence() != sequence) {
+				// late, after a timeout, or not ours
+				unmatchedCount.incrementAndGet();
+				return;
+			}
+			pending[slot] = null;
+			inFlight--;
+		}
+
+		byte[] data = new byte[frame.getPayloadLength() - CommandFrame.DATA];
+		for (int i = 0; i < data.length; i++)
+			data[i] = frame.getByte(CommandFrame.DATA + i);
+		future.complete(new CommandResponse(sequence,
+		        frame.getUnsignedByte(CommandFrame.COMMAND),
+		        frame.getUnsignedByte(CommandFrame.STATUS), data,
+		        System.nanoTime() - future.sentAt));
+		completedCount.incrementAndGet();
+	}
+
+	/**
+	 * Fail every pending command, e.g. when the connection is lost. Responses
+	 * to them can't arrive anymore.
+	 */
+	public void failAll(Exception cause) {
+		CommandFuture[] failed = new CommandFuture[MAX_IN_FLIGHT];
+		synchronized (this) {
+			System.arraycopy(pending, 0, failed, 0, MAX_IN_FLIGHT);
+			for (int i = 0; i < MAX_IN_FLIGHT; i++)
+				pending[i] = null;
+			inFlight = 0;
+		}
+		for (CommandFuture future : failed)
+			if (future != null)
+				future.fail(cause);
+	}
+
+	/**
+	 * Called on the writer thread when a batch couldn't be written. Responses
+	 * to the commands sent so far can't be counted on anymore.
+	 */
+	@Override
+	public void onWriteFailed(WriteBatcher batcher, IOException cause) {
+		failAll(cause);
+	}
+
+	/**
+	 * Fail pending commands and refuse new ones.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		failAll(new IOException("Command channel closed"));
+		timer.shutdownNow();
+	}
+
+	/**
+	 * @return commands awaiting their response.
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/**
+	 * @return responses that matched no pending command.
+	 */
+	public long getUnmatchedCount() {
+		return unmatchedCount.get();
+	}
+
+}
@@ -0,0 +1,87 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.command;
+
+/**
+ * Known command codes, with their arguments and response data.
+ */
+public final class CommandCode {
+
+	/**
+	 * Read the controller configuration. No arguments, responds with the
+	 * assist level (byte) and the speed limit (float, km/h).
+	 */
+	public static final int GET_CONFIG = 0x01;
+
+	/**
+	 * Set the assist level, 0 to {@link #MAX_ASSIST_LEVEL} (byte). No response
+	 * data.
+	 */
+	public static final int SET_ASSIST_LEVEL = 0x02;
+
+	/**
+	 * Set the speed limit in km/h (float). No response data.
+	 */
+	public static final int SET_SPEED_LIMIT = 0x03;
+
+	/**
+	 * Select how telemetry is sent, {@link #ENCODING_PLAIN} or
+	 * {@link #ENCODING_BLOCK} (byte). No response data. Controllers that don't
+	 * know this command keep sending plain frames.
+	 */
+	public static final int SET_ENCODING = 0x04;
+
+	/**
+	 * Select the version of the telemetry channel schema (byte), see
+	 * {@link org.smartebike.api.schema.ChannelSchema}. No response data.
+	 * Versions the controller doesn't support are answered with an invalid
+	 * argument status and leave the current one in place.
+	 */
+	public static final int SET_SCHEMA = 0x05;
+
+	/**
+	 * Set the telemetry rate in samples per second (unsigned short), 1 to
+	 * {@link #MAX_RATE}. Responds with the rate applied (unsigned short),
+	 * which the controller caps at the most it supports. Controllers that
+	 * don't know this command keep their own rate.
+	 */
+	public static final int SET_RATE = 0x06;
+
+	public static final int MAX_ASSIST_LEVEL = 5;
+
+	/**
+	 * Highest rate {@link #SET_RATE} takes, asking for as many samples as the
+	 * controller can send.
+	 */
+	public static final int MAX_RATE = 0xFFFF;
+
+	/**
+	 * One {@link org.smartebike.api.frame.FrameType#TELEMETRY} frame per
+	 * sample, the default.
+	 */
+	public static final int ENCODING_PLAIN = 0;
+
+	/**
+	 * Samples compressed into
+	 * {@link org.smartebike.api.frame.FrameType#TELEMETRY_BLOCK} frames.
+	 */
+	public static final int ENCODING_BLOCK = 1;
+
+	private CommandCode() {
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.command;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pending result of a command sent on a {@link CommandChannel}. Completes
+ * once, with the response or a failure.
+ */
+public class CommandFuture implements Future<CommandResponse> {
+
+	private final CommandChannel channel;
+	private final int sequence;
+	private final int command;
+	private final CommandCallback callback;
+	final long sentAt;
+
+	private final AtomicBoolean completed = new AtomicBoolean();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile CommandResponse response = null;
+	private volatile Exception failure = null;
+	// set by the channel before the command is written
+	volatile ScheduledFuture<?> timeout = null;
+
+	CommandFuture(CommandChannel channel, int sequence, int command,
+	        CommandCallback callback) {
+		this.channel = channel;
+		this.sequence = sequence;
+		this.command = command;
+		this.callback = callback;
+		this.sentAt = System.nanoTime();
+	}
+
+	boolean complete(CommandResponse r) {
+		if (!completed.compareAndSet(false, true))
+			return false;
+		response = r;
+		finish();
+		if (callback != null)
+			callback.onResponse(r);
+		return true;
+	}
+
+	boolean fail(Exception cause) {
+		if (!completed.compareAndSet(false, true))
+			return false;
+		failure = cause;
+		finish();
+		if (callback != null)
+			callback.onFailure(command, cause);
+		return true;
+	}
+
+	private void finish() {
+		ScheduledFuture<?> t = timeout;
+		if (t != null)
+			t.cancel(false);
+		done.countDown();
+	}
+
+	/**
+	 * Give up on the command. A late response is ignored.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!fail(new CancellationException("Command " + sequence
+		        + " cancelled")))
+			return false;
+		channel.release(this);
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return failure instanceof CancellationException;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public CommandResponse get() throws InterruptedException,
+	        ExecutionException {
+		done.await();
+		return result();
+	}
+
+	@Override
+	public CommandResponse get(long time, TimeUnit unit)
+	        throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(time, unit))
+			throw new TimeoutException();
+		return result();
+	}
+
+	private CommandResponse result() throws ExecutionException {
+		Exception f = failure;
+		if (f instanceof CancellationException)
+			throw (CancellationException) f;
+		if (f != null)
+			throw new ExecutionException(f);
+		return response;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	public int getCommand() {
+		return command;
+	}
+
+}
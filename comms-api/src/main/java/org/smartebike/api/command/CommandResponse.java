@@ -0,0 +1,82 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.command;
+
+import java.nio.ByteBuffer;
+
+import org.smartebike.api.frame.CommandFrame;
+
+/**
+ * The controller's answer to a command.
+ */
+public class CommandResponse {
+
+	private final int sequence;
+	private final int command;
+	private final int status;
+	private final byte[] data;
+	private final long latencyNanos;
+
+	CommandResponse(int sequence, int command, int status, byte[] data,
+	        long latencyNanos) {
+		this.sequence = sequence;
+		this.command = command;
+		this.status = status;
+		this.data = data;
+		this.latencyNanos = latencyNanos;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	public int getCommand() {
+		return command;
+	}
+
+	/**
+	 * @return one of the <code>CommandFrame.STATUS_*</code> values.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	public boolean isOk() {
+		return status == CommandFrame.STATUS_OK;
+	}
+
+	/**
+	 * @return the response data, big endian.
+	 */
+	public ByteBuffer getData() {
+		return ByteBuffer.wrap(data).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return time from sending the command to receiving the response.
+	 */
+	public long getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "CommandResponse[seq=" + sequence + ", command=" + command
+		        + ", status=" + status + ", " + data.length + " bytes]";
+	}
+
+}
@@ -0,0 +1,106 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.command;
+
+/**
+ * Picks the telemetry rate to ask the controller for, see
+ * {@link CommandCode#SET_RATE}, from who consumes the samples:
+ * <ul>
+ * <li>{@link #FULL_RATE} while the dashboard is visible, or for
+ * {@link #BURST_MILLIS} after an anomaly, so it is recorded in detail.</li>
+ * <li>{@link #RECORDING_RATE} while only the ride recorder consumes them.</li>
+ * <li>{@link #IDLE_RATE} otherwise, which keeps the trip statistics and the
+ * link alive.</li>
+ * </ul>
+ * Anomalies are sudden speed changes and new controller faults, see
+ * {@link #isAnomaly(float, float, int, int)}. Times are milliseconds. Not
+ * thread safe.
+ */
+public class RatePolicy {
+
+	public static final int FULL_RATE = CommandCode.MAX_RATE;
+	public static final int RECORDING_RATE = 5;
+	public static final int IDLE_RATE = 1;
+	public static final long BURST_MILLIS = 10000;
+	/**
+	 * Speed change between two samples, in km/h, that counts as an anomaly,
+	 * e.g. a crash or a wheel lock.
+	 */
+	public static final float ANOMALY_SPEED_STEP = 10;
+
+	private boolean visible = false;
+	private boolean recording = false;
+	private long burstUntil = Long.MIN_VALUE;
+
+	public void setVisible(boolean visible) {
+		this.visible = visible;
+	}
+
+	public boolean isVisible() {
+		return visible;
+	}
+
+	public void setRecording(boolean recording) {
+		this.recording = recording;
+	}
+
+	public boolean isRecording() {
+		return recording;
+	}
+
+	/**
+	 * Go to full rate for {@link #BURST_MILLIS} from now.
+	 */
+	public void onAnomaly(long now) {
+		burstUntil = now + BURST_MILLIS;
+	}
+
+	/**
+	 * @return whether a burst started by {@link #onAnomaly(long)} lasts.
+	 */
+	public boolean isBursting(long now) {
+		return now < burstUntil;
+	}
+
+	/**
+	 * @return when the current burst ends.
+	 */
+	public long getBurstEnd() {
+		return burstUntil;
+	}
+
+	/**
+	 * @return samples per second to ask for.
+	 */
+	public int getRate(long now) {
+		if (visible || isBursting(now))
+			return FULL_RATE;
+		return recording ? RECORDING_RATE : IDLE_RATE;
+	}
+
+	/**
+	 * @return whether going from one sample to the next is worth a closer
+	 *         look: a speed step of {@link #ANOMALY_SPEED_STEP} or more, or
+	 *         a fault bit that wasn't set before.
+	 */
+	public static boolean isAnomaly(float previousSpeed, float speed,
+	        int previousFaults, int faults) {
+		return Math.abs(speed - previousSpeed) >= ANOMALY_SPEED_STEP
+		        || (faults & ~previousFaults) != 0;
+	}
+
+}
@@ -0,0 +1,90 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.export;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.smartebike.api.schema.Channel;
+import org.smartebike.api.schema.ChannelSchema;
+
+/**
+ * Comma separated values, one line per record: the time in ms since the
+ * epoch, one column per channel named after it and its unit, then latitude,
+ * longitude and distance. Unknown values are left empty.
+ */
+public class CsvWriter implements ExportWriter {
+
+	private static final char SEPARATOR = ',';
+	private static final String NEWLINE = "\r\n";
+
+	private final Writer out;
+	private final StringBuilder line = new StringBuilder(128);
+	private ChannelSchema schema;
+
+	public CsvWriter(Writer out) {
+		this.out = out;
+	}
+
+	@Override
+	public boolean needsRecordCount() {
+		return false;
+	}
+
+	@Override
+	public void begin(ChannelSchema schema, long recordCount)
+	        throws IOException {
+		this.schema = schema;
+		line.setLength(0);
+		line.append("time");
+		for (int i = 0; i < schema.size(); i++) {
+			Channel channel = schema.getChannel(i);
+			line.append(SEPARATOR).append(channel.getName());
+			if (channel.getUnit().length() > 0)
+				line.append(" [").append(channel.getUnit()).append(']');
+		}
+		line.append(",latitude,longitude,distance [m]").append(NEWLINE);
+		out.write(line.toString());
+	}
+
+	@Override
+	public void write(long time, float[] values, double latitude,
+	        double longitude, double distance) throws IOException {
+		line.setLength(0);
+		line.append(time);
+		for (int i = 0; i < schema.size(); i++) {
+			line.append(SEPARATOR);
+			if (schema.getChannel(i).getType() == Channel.TYPE_BITS)
+				line.append(Float.floatToRawIntBits(values[i]));
+			else if (!Float.isNaN(values[i]))
+				line.append(values[i]);
+		}
+		line.append(SEPARATOR);
+		if (!Double.isNaN(latitude))
+			line.append(latitude).append(SEPARATOR).append(longitude);
+		else
+			line.append(SEPARATOR);
+		line.append(SEPARATOR).append((float) distance).append(NEWLINE);
+		out.write(line.toString());
+	}
+
+	@Override
+	public void end() throws IOException {
+		out.flush();
+	}
+
+}
@@ -0,0 +1,134 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.export;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.smartebike.api.record.RideReader;
+
+/**
+ * Exports a ride copied off the device from the command line. The format
+ * follows from the output file name, a trailing <code>.gz</code> compresses
+ * it.
+ *
+ * <pre>
+ * java org.smartebike.api.export.ExportTool [options] ride-directory output
+ *   output ends in .csv, .gpx or .fit, optionally followed by .gz
+ *   --interval 1000   ms between records, default all for CSV, 1 s otherwise
+ *   --threads 4       compressing threads for .gz, default one per processor
+ *   --from 0          first controller timestamp, ms
+ *   --to 60000        controller timestamp to stop before, ms
+ * </pre>
+ */
+public class ExportTool {
+
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final long DEFAULT_TRACK_INTERVAL = 1000;
+
+	private long interval = -1;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long from = Long.MIN_VALUE;
+	private long to = Long.MAX_VALUE;
+	private File rideDirectory;
+	private File output;
+
+	public static void main(String[] args) throws Exception {
+		ExportTool tool = new ExportTool();
+		try {
+			tool.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: ExportTool [--interval ms] [--threads n]"
+			        + " [--from ms] [--to ms] ride-directory output");
+			System.exit(2);
+		}
+		tool.run();
+	}
+
+	private void parse(String[] args) {
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("--"); i += 2) {
+			String name = args[i];
+			String value = args[i + 1];
+			if ("--interval".equals(name))
+				interval = Long.parseLong(value);
+			else if ("--threads".equals(name))
+				threads = Integer.parseInt(value);
+			else if ("--from".equals(name))
+				from = Long.parseLong(value);
+			else if ("--to".equals(name))
+				to = Long.parseLong(value);
+			else
+				throw new IllegalArgumentException("Unknown option: " + name);
+		}
+		if (args.length - i != 2)
+			throw new IllegalArgumentException("Ride directory and output "
+			        + "needed");
+		rideDirectory = new File(args[i]);
+		output = new File(args[i + 1]);
+	}
+
+	private void run() throws IOException {
+		String name = output.getName().toLowerCase();
+		boolean gzip = name.endsWith(GZIP_SUFFIX);
+		if (gzip)
+			name = name.substring(0, name.length() - GZIP_SUFFIX.length());
+
+		long start = System.nanoTime();
+		RideReader reader = new RideReader(rideDirectory);
+		OutputStream out = null;
+		try {
+			RideExporter exporter = new RideExporter(reader);
+			out = RideExporter.compress(new BufferedOutputStream(
+			        new FileOutputStream(output), 64 * 1024), gzip ? threads
+			        : 0);
+			Writer text = new BufferedWriter(new OutputStreamWriter(out,
+			        "UTF-8"), 64 * 1024);
+			ExportWriter writer;
+			if (name.endsWith(".csv"))
+				writer = new CsvWriter(text);
+			else if (name.endsWith(".gpx"))
+				writer = new GpxWriter(text);
+			else if (name.endsWith(".fit"))
+				writer = new FitWriter(out);
+			else
+				throw new IOException("Unknown format: " + output);
+			exporter.setInterval(interval >= 0 ? interval
+			        : writer instanceof CsvWriter ? 0 : DEFAULT_TRACK_INTERVAL);
+
+			long written = exporter.export(from, to, writer);
+			out.close();
+			out = null;
+			System.out.println(String.format(
+			        "%d of %d records written to %s, %d bytes in %.2f s",
+			        written, reader.getRecordCount(), output, output.length(),
+			        (System.nanoTime() - start) / 1e9));
+		} finally {
+			if (out != null)
+				out.close();
+			reader.close();
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.export;
+
+import java.io.IOException;
+
+import org.smartebike.api.schema.ChannelSchema;
+
+/**
+ * Writes the records {@link RideExporter} streams to it in one file format.
+ * Implementations keep no more than the current record in memory.
+ */
+public interface ExportWriter {
+
+	/**
+	 * @return whether {@link #begin(ChannelSchema, long)} needs the record
+	 *         count, which costs the exporter an extra pass over the ride.
+	 */
+	boolean needsRecordCount();
+
+	/**
+	 * Called once before the first record.
+	 *
+	 * @param schema
+	 *            - the channels of the values.
+	 * @param recordCount
+	 *            - number of records that follow, -1 unless
+	 *            {@link #needsRecordCount()}.
+	 */
+	void begin(ChannelSchema schema, long recordCount) throws IOException;
+
+	/**
+	 * @param time
+	 *            - ms since the epoch.
+	 * @param values
+	 *            - one value per channel of the schema, bit fields as the
+	 *            float with the same bits, only valid during the call.
+	 * @param latitude
+	 *            - degrees, NaN if the position is unknown.
+	 * @param longitude
+	 *            - degrees, NaN if the position is unknown.
+	 * @param distance
+	 *            - meters since the first record.
+	 */
+	void write(long time, float[] values, double latitude, double longitude,
+	        double distance) throws IOException;
+
+	/**
+	 * Called once after the last record. Flushes, but doesn't close the
+	 * output.
+	 */
+	void end() throws IOException;
+
+}
@@ -0,0 +1,212 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.smartebike.api.schema.Channel;
+import org.smartebike.api.schema.ChannelSchema;
+
+/**
+ * Garmin Flexible and Interoperable Data Transfer (FIT) activity file: a
+ * file_id message followed by one record message per record, with the
+ * timestamp, position, distance, speed, cadence and the electrical power
+ * drawn. Fields the ride has no value for are written as invalid.
+ * <p>
+ * The header holds the size of the data, so this writer needs the record
+ * count up front. Everything is written little endian and checked with the
+ * FIT CRC as it streams out.
+ */
+public class FitWriter implements ExportWriter {
+
+	// seconds from the Unix epoch to the FIT epoch, 1989-12-31T00:00:00Z
+	private static final long FIT_EPOCH_SECONDS = 631065600L;
+	private static final int HEADER_SIZE = 14;
+	private static final int PROTOCOL_VERSION = 0x20;
+	private static final int PROFILE_VERSION = 2132;
+
+	private static final int FILE_ID_MESSAGE = 0;
+	private static final int RECORD_MESSAGE = 20;
+	private static final int FILE_TYPE_ACTIVITY = 4;
+	private static final int MANUFACTURER_DEVELOPMENT = 255;
+	private static final int LOCAL_FILE_ID = 0;
+	private static final int LOCAL_RECORD = 1;
+
+	private static final int ENUM = 0x00;
+	private static final int UINT8 = 0x02;
+	private static final int UINT16 = 0x84;
+	private static final int SINT32 = 0x85;
+	private static final int UINT32 = 0x86;
+
+	// field number, size and base type
+	private static final int[] FILE_ID_FIELDS = { 0, 1, ENUM, 1, 2, UINT16,
+	        2, 2, UINT16, 4, 4, UINT32 };
+	private static final int[] RECORD_FIELDS = { 253, 4, UINT32, 0, 4, SINT32,
+	        1, 4, SINT32, 5, 4, UINT32, 6, 2, UINT16, 4, 1, UINT8, 7, 2,
+	        UINT16 };
+	private static final int FILE_ID_SIZE = 1 + 1 + 2 + 2 + 4;
+	private static final int RECORD_SIZE = 1 + 4 + 4 + 4 + 4 + 2 + 1 + 2;
+
+	private static final double SEMICIRCLES = (1L << 31) / 180.0;
+	private static final int[] CRC_TABLE = { 0x0000, 0xCC01, 0xD801, 0x1400,
+	        0xF001, 0x3C00, 0x2800, 0xE401, 0xA001, 0x6C00, 0x7800, 0xB401,
+	        0x5000, 0x9C01, 0x8801, 0x4400 };
+
+	private final OutputStream out;
+	private int crc;
+	private long remaining;
+	private int speedPosition;
+	private int cadencePosition;
+	private int voltagePosition;
+	private int currentPosition;
+
+	public FitWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public boolean needsRecordCount() {
+		return true;
+	}
+
+	@Override
+	public void begin(ChannelSchema schema, long recordCount)
+	        throws IOException {
+		if (recordCount < 0)
+			throw new IllegalArgumentException("Record count needed");
+		speedPosition = schema.indexOf(Channel.MOTOR_SPEED);
+		cadencePosition = schema.indexOf(Channel.CADENCE);
+		voltagePosition = schema.indexOf(Channel.BATTERY_VOLTAGE);
+		currentPosition = schema.indexOf(Channel.BATTERY_CURRENT);
+
+		long dataSize = definitionSize(FILE_ID_FIELDS) + FILE_ID_SIZE
+		        + definitionSize(RECORD_FIELDS) + recordCount * RECORD_SIZE;
+		if (dataSize > 0xFFFFFFFFL)
+			throw new IOException("Too many records for a FIT file: "
+			        + recordCount);
+		remaining = recordCount;
+
+		crc = 0;
+		writeByte(HEADER_SIZE);
+		writeByte(PROTOCOL_VERSION);
+		writeShort(PROFILE_VERSION);
+		writeInt((int) dataSize);
+		writeByte('.');
+		writeByte('F');
+		writeByte('I');
+		writeByte('T');
+		writeShort(crc);
+
+		crc = 0;
+		writeDefinition(LOCAL_FILE_ID, FILE_ID_MESSAGE, FILE_ID_FIELDS);
+		writeByte(LOCAL_FILE_ID);
+		writeByte(FILE_TYPE_ACTIVITY);
+		writeShort(MANUFACTURER_DEVELOPMENT);
+		writeShort(0);
+		writeInt((int) (System.currentTimeMillis() / 1000 - FIT_EPOCH_SECONDS));
+		writeDefinition(LOCAL_RECORD, RECORD_MESSAGE, RECORD_FIELDS);
+	}
+
+	private static int definitionSize(int[] fields) {
+		return 6 + fields.length;
+	}
+
+	private void writeDefinition(int local, int global, int[] fields)
+	        throws IOException {
+		writeByte(0x40 | local);
+		writeByte(0);
+		// little endian
+		writeByte(0);
+		writeShort(global);
+		writeByte(fields.length / 3);
+		for (int i = 0; i < fields.length; i++)
+			writeByte(fields[i]);
+	}
+
+	@Override
+	public void write(long time, float[] values, double latitude,
+	        double longitude, double distance) throws IOException {
+		if (remaining-- <= 0)
+			throw new IllegalStateException("More records than announced");
+		writeByte(LOCAL_RECORD);
+		writeInt((int) (time / 1000 - FIT_EPOCH_SECONDS));
+		if (Double.isNaN(latitude)) {
+			writeInt(0x7FFFFFFF);
+			writeInt(0x7FFFFFFF);
+		} else {
+			writeInt((int) Math.round(latitude * SEMICIRCLES));
+			writeInt((int) Math.round(longitude * SEMICIRCLES));
+		}
+		writeInt((int) Math.round(distance * 100));
+		writeShort(scaled(speedPosition, values, 1000 / 3.6, 0xFFFF));
+		writeByte(scaled(cadencePosition, values, 1, 0xFF));
+		float power = Float.NaN;
+		if (voltagePosition >= 0 && currentPosition >= 0)
+			power = values[voltagePosition] * values[currentPosition];
+		writeShort(Float.isNaN(power) || power < 0 ? 0xFFFF : Math.min(
+		        0xFFFE, Math.round(power)));
+	}
+
+	/**
+	 * @return a channel value times a scale, or the invalid value if the
+	 *         channel is missing or out of range.
+	 */
+	private static int scaled(int position, float[] values, double scale,
+	        int invalid) {
+		if (position < 0 || Float.isNaN(values[position]))
+			return invalid;
+		long value = Math.round(values[position] * scale);
+		return value < 0 || value >= invalid ? invalid : (int) value;
+	}
+
+	@Override
+	public void end() throws IOException {
+		if (remaining != 0)
+			throw new IllegalStateException(remaining
+			        + " announced records missing");
+		int fileCrc = crc;
+		out.write(fileCrc & 0xFF);
+		out.write(fileCrc >>> 8);
+		out.flush();
+	}
+
+	private void writeByte(int b) throws IOException {
+		out.write(b);
+		crc = updateCrc(crc, b);
+	}
+
+	private void writeShort(int value) throws IOException {
+		writeByte(value & 0xFF);
+		writeByte((value >>> 8) & 0xFF);
+	}
+
+	private void writeInt(int value) throws IOException {
+		writeShort(value & 0xFFFF);
+		writeShort(value >>> 16);
+	}
+
+	static int updateCrc(int crc, int b) {
+		int tmp = CRC_TABLE[crc & 0xF];
+		crc = (crc >>> 4) & 0x0FFF;
+		crc = crc ^ tmp ^ CRC_TABLE[b & 0xF];
+		tmp = CRC_TABLE[crc & 0xF];
+		crc = (crc >>> 4) & 0x0FFF;
+		return crc ^ tmp ^ CRC_TABLE[(b >>> 4) & 0xF];
+	}
+
+}
@@ -0,0 +1,114 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.smartebike.api.schema.Channel;
+import org.smartebike.api.schema.ChannelSchema;
+
+/**
+ * GPS Exchange Format 1.1, one track point per record with a known
+ * position, carrying the speed and cadence in the Garmin track point
+ * extension. Records without a position are left out.
+ */
+public class GpxWriter implements ExportWriter {
+
+	private static final String CREATOR = "Smart-EBike";
+	private static final float KMH = 3.6f;
+
+	private final Writer out;
+	private final StringBuilder point = new StringBuilder(256);
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+	        "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+	private final Date date = new Date();
+	private int speedPosition;
+	private int cadencePosition;
+	private long pointCount;
+
+	public GpxWriter(Writer out) {
+		this.out = out;
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	@Override
+	public boolean needsRecordCount() {
+		return false;
+	}
+
+	@Override
+	public void begin(ChannelSchema schema, long recordCount)
+	        throws IOException {
+		speedPosition = schema.indexOf(Channel.MOTOR_SPEED);
+		cadencePosition = schema.indexOf(Channel.CADENCE);
+		pointCount = 0;
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+		        + "<gpx version=\"1.1\" creator=\"" + CREATOR + "\"\n"
+		        + "  xmlns=\"http://www.topografix.com/GPX/1/1\"\n"
+		        + "  xmlns:gpxtpx=\"http://www.garmin.com/xmlschemas/"
+		        + "TrackPointExtension/v2\">\n"
+		        + "<trk><type>cycling</type><trkseg>\n");
+	}
+
+	@Override
+	public void write(long time, float[] values, double latitude,
+	        double longitude, double distance) throws IOException {
+		if (Double.isNaN(latitude))
+			return;
+		date.setTime(time);
+		point.setLength(0);
+		point.append("<trkpt lat=\"").append(latitude).append("\" lon=\"")
+		        .append(longitude).append("\"><time>")
+		        .append(dateFormat.format(date)).append("</time>");
+		float cadence = cadencePosition >= 0 ? values[cadencePosition]
+		        : Float.NaN;
+		float speed = speedPosition >= 0 ? values[speedPosition] : Float.NaN;
+		if (!Float.isNaN(cadence) || !Float.isNaN(speed)) {
+			point.append("<extensions><gpxtpx:TrackPointExtension>");
+			// the extension's element order is fixed: cadence, then speed
+			if (!Float.isNaN(cadence))
+				point.append("<gpxtpx:cad>").append(Math.round(cadence))
+				        .append("</gpxtpx:cad>");
+			if (!Float.isNaN(speed))
+				point.append("<gpxtpx:speed>").append(speed / KMH)
+				        .append("</gpxtpx:speed>");
+			point.append("</gpxtpx:TrackPointExtension></extensions>");
+		}
+		point.append("</trkpt>\n");
+		out.write(point.toString());
+		pointCount++;
+	}
+
+	@Override
+	public void end() throws IOException {
+		out.write("</trkseg></trk>\n</gpx>\n");
+		out.flush();
+	}
+
+	/**
+	 * @return track points written, records with a position.
+	 */
+	public long getPointCount() {
+		return pointCount;
+	}
+
+}
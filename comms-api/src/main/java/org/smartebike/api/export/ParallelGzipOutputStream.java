@@ -0,0 +1,178 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compresses blocks of the output on several threads at once. Each
+ * block becomes a gzip member of its own, and concatenated members are a
+ * valid gzip stream, so any gzip reader takes the result. Compression is a
+ * little worse than a single stream, since the dictionary starts over with
+ * each block.
+ * <p>
+ * Blocks are written in order. At most two blocks per thread are in flight,
+ * so memory use doesn't grow with the output. Not thread safe.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	private final OutputStream out;
+	private final int blockSize;
+	private final int maxPending;
+	private final ExecutorService executor;
+	private final ArrayDeque<Future<byte[]>> pending =
+	        new ArrayDeque<Future<byte[]>>();
+	// input buffers not in use by a block being compressed
+	private final BlockingQueue<byte[]> free;
+	private byte[] block;
+	private int length = 0;
+	private boolean closed = false;
+
+	public ParallelGzipOutputStream(OutputStream out, int threads) {
+		this(out, threads, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param threads
+	 *            - compressing blocks at the same time.
+	 * @param blockSize
+	 *            - uncompressed bytes per block.
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int threads,
+	        int blockSize) {
+		if (threads < 1 || blockSize < 1)
+			throw new IllegalArgumentException("Invalid threads or block size");
+		this.out = out;
+		this.blockSize = blockSize;
+		this.maxPending = 2 * threads;
+		this.free = new ArrayBlockingQueue<byte[]>(maxPending + 1);
+		this.block = new byte[blockSize];
+		this.executor = Executors.newFixedThreadPool(threads,
+		        new ThreadFactory() {
+			        public Thread newThread(Runnable r) {
+				        Thread t = new Thread(r, "SmartEBike-Gzip");
+				        t.setDaemon(true);
+				        return t;
+			        }
+		        });
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		block[length++] = (byte) b;
+		if (length == blockSize)
+			submit();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, blockSize - length);
+			System.arraycopy(b, off, block, length, n);
+			length += n;
+			off += n;
+			len -= n;
+			if (length == blockSize)
+				submit();
+		}
+	}
+
+	/**
+	 * Hand the current block to the compressing threads.
+	 */
+	private void submit() throws IOException {
+		if (length == 0)
+			return;
+		if (pending.size() >= maxPending)
+			writeNext();
+		final byte[] input = block;
+		final int inputLength = length;
+		pending.add(executor.submit(new Callable<byte[]>() {
+			public byte[] call() throws IOException {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+				        inputLength / 2);
+				GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+				gzip.write(input, 0, inputLength);
+				gzip.close();
+				free.offer(input);
+				return compressed.toByteArray();
+			}
+		}));
+		byte[] next = free.poll();
+		block = next != null ? next : new byte[blockSize];
+		length = 0;
+	}
+
+	/**
+	 * Wait for the oldest block and write it out.
+	 */
+	private void writeNext() throws IOException {
+		try {
+			out.write(pending.remove().get());
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			IOException ioe = new IOException(String.valueOf(cause));
+			ioe.initCause(cause);
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Compress and write everything written so far. Ends the current block,
+	 * so flushing often hurts compression.
+	 */
+	@Override
+	public void flush() throws IOException {
+		submit();
+		while (!pending.isEmpty())
+			writeNext();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			flush();
+		} finally {
+			executor.shutdownNow();
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,415 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.smartebike.api.record.RecordVisitor;
+import org.smartebike.api.record.RideAnchor;
+import org.smartebike.api.record.RideReader;
+import org.smartebike.api.record.TrackLog;
+import org.smartebike.api.record.TrackReader;
+import org.smartebike.api.schema.Channel;
+import org.smartebike.api.schema.ChannelSchema;
+import org.smartebike.api.stats.StreamingStats;
+
+/**
+ * Streams a recorded ride into an {@link ExportWriter}, one record at a
+ * time, so memory use stays the same however long the ride is.
+ * <p>
+ * Record timestamps are controller milliseconds. They are turned into wall
+ * clock time with the ride's {@link RideAnchor}, or relative to the name of
+ * its directory for rides recorded without one. Positions come from the
+ * ride's {@link TrackLog}, read along with the records. Between fixes at
+ * most {@link #MAX_FIX_GAP_MILLIS} apart they are interpolated in time.
+ * Between bursts of fixes, as a duty-cycled GPS delivers them, they are dead
+ * reckoned along the line from one fix to the next in proportion to the
+ * distance ridden, which an extra pass over the ride finds for each gap. The
+ * distance is integrated from the motor speed of every record, including
+ * those left out by {@link #setInterval(long)}.
+ * <p>
+ * Works on the device and on a plain JVM, see {@link ExportTool}.
+ */
+public class RideExporter {
+
+	/**
+	 * Records between fixes further apart are positioned by the distance
+	 * ridden rather than the time.
+	 */
+	public static final long MAX_FIX_GAP_MILLIS = 10000;
+	/**
+	 * Records between fixes further apart get no position.
+	 */
+	public static final long MAX_BURST_GAP_MILLIS = 10 * 60000;
+
+	private final RideReader reader;
+	private final File track;
+	private final ChannelSchema schema;
+	private long startTime;
+	private long interval = 0;
+
+	/**
+	 * @param reader
+	 *            - the ride, left open.
+	 */
+	public RideExporter(RideReader reader) throws IOException {
+		this.reader = reader;
+		File file = new File(reader.getDirectory(), TrackLog.FILE_NAME);
+		this.track = file.isFile() ? file : null;
+		this.schema = schemaFor(reader.getChannels());
+		RideAnchor anchor = reader.getAnchor();
+		if (anchor != null && reader.getRecordCount() > 0) {
+			startTime = anchor.toWallClock(reader.getStartTime());
+		} else {
+			// the time the ride was started, before connecting
+			try {
+				startTime = Long.parseLong(reader.getDirectory().getName());
+			} catch (NumberFormatException e) {
+				startTime = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return the schema rides with a number of channels are recorded in.
+	 */
+	static ChannelSchema schemaFor(int channels) throws IOException {
+		for (int version = 1;; version++) {
+			ChannelSchema schema = ChannelSchema.forVersion(version);
+			if (schema == null)
+				throw new IOException("No schema with " + channels
+				        + " channels");
+			if (schema.size() == channels)
+				return schema;
+		}
+	}
+
+	/**
+	 * @param startTime
+	 *            - wall clock time of the first record, ms since the epoch.
+	 */
+	public void setStartTime(long startTime) {
+		this.startTime = startTime;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Write at most one record per interval, e.g. a second for GPX and FIT.
+	 *
+	 * @param interval
+	 *            - milliseconds, 0 for every record.
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	public ChannelSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Export the whole ride.
+	 *
+	 * @return records written.
+	 */
+	public long export(ExportWriter writer) throws IOException {
+		return export(Long.MIN_VALUE, Long.MAX_VALUE, writer);
+	}
+
+	/**
+	 * Export the records with a timestamp in [from, to).
+	 *
+	 * @return records written.
+	 */
+	public long export(long from, long to, ExportWriter writer)
+	        throws IOException {
+		long count = -1;
+		if (writer.needsRecordCount()) {
+			Walk counting = new Walk(null);
+			reader.query(from, to, counting);
+			count = counting.written;
+		}
+		Odometer odometer = null;
+		if (track != null) {
+			odometer = new Odometer(new TrackReader(track));
+			try {
+				reader.query(from, to, odometer);
+				odometer.finish();
+			} finally {
+				odometer.fixes.close();
+			}
+		}
+		writer.begin(schema, count);
+		TrackReader fixes = track != null ? new TrackReader(track) : null;
+		try {
+			Walk walk = new Walk(writer);
+			walk.fixes = fixes;
+			walk.odometer = odometer;
+			reader.query(from, to, walk);
+			if (walk.error != null)
+				throw walk.error;
+			writer.end();
+			return walk.written;
+		} finally {
+			if (fixes != null)
+				fixes.close();
+		}
+	}
+
+	/**
+	 * Visits the records, picking those to write and their position.
+	 */
+	private class Walk implements RecordVisitor {
+
+		final ExportWriter writer;
+		final long firstTimestamp = reader.getStartTime();
+		final int speedPosition = schema.indexOf(Channel.MOTOR_SPEED);
+		final StreamingStats stats = new StreamingStats();
+		TrackReader fixes;
+		Odometer odometer;
+		IOException error;
+		long written;
+		long lastWritten = Long.MIN_VALUE;
+
+		// the fixes around the current record
+		boolean hasBefore, hasAfter, trackEnded;
+		long beforeTime, afterTime;
+		double beforeLat, beforeLon, afterLat, afterLon;
+
+		/**
+		 * @param writer
+		 *            - <code>null</code> to only count.
+		 */
+		Walk(ExportWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void visit(long timestamp, float[] values) {
+			if (error != null)
+				return;
+			if (speedPosition >= 0)
+				stats.addSpeed(timestamp, values[speedPosition]);
+			if (interval > 0 && lastWritten != Long.MIN_VALUE
+			        && timestamp - lastWritten < interval)
+				return;
+			lastWritten = timestamp;
+			written++;
+			if (writer == null)
+				return;
+
+			long time = startTime + timestamp - firstTimestamp;
+			double latitude = Double.NaN;
+			double longitude = Double.NaN;
+			try {
+				double f = fixes != null && advance(time) ? fraction(time)
+				        : Double.NaN;
+				if (!Double.isNaN(f)) {
+					latitude = beforeLat + f * (afterLat - beforeLat);
+					longitude = beforeLon + f * (afterLon - beforeLon);
+				}
+				writer.write(time, values, latitude, longitude,
+				        stats.getDistance());
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+
+		/**
+		 * Read fixes until the current pair surrounds a time.
+		 *
+		 * @return whether there is a pair.
+		 */
+		private boolean advance(long time) throws IOException {
+			while (!trackEnded && (!hasAfter || afterTime < time)) {
+				if (!fixes.next()) {
+					trackEnded = true;
+					break;
+				}
+				hasBefore = hasAfter;
+				beforeTime = afterTime;
+				beforeLat = afterLat;
+				beforeLon = afterLon;
+				hasAfter = true;
+				afterTime = fixes.getTime();
+				afterLat = fixes.getLatitude();
+				afterLon = fixes.getLongitude();
+			}
+			if (hasAfter && afterTime == time) {
+				beforeTime = afterTime;
+				beforeLat = afterLat;
+				beforeLon = afterLon;
+				return true;
+			}
+			return hasBefore && hasAfter && beforeTime <= time
+			        && time <= afterTime;
+		}
+
+		/**
+		 * @return how far along from the fix before a time to the fix after
+		 *         it the record is, NaN if the fixes are too far apart.
+		 */
+		private double fraction(long time) {
+			long gap = afterTime - beforeTime;
+			if (gap == 0)
+				return 0;
+			if (gap <= MAX_FIX_GAP_MILLIS)
+				return (double) (time - beforeTime) / gap;
+			if (gap > MAX_BURST_GAP_MILLIS)
+				return Double.NaN;
+			int i = odometer.find(beforeTime);
+			if (i < 0)
+				return Double.NaN;
+			double ridden = odometer.distances[i + 1] - odometer.distances[i];
+			if (ridden <= 0)
+				// no speed recorded in between
+				return (double) (time - beforeTime) / gap;
+			double f = (stats.getDistance() - odometer.distances[i]) / ridden;
+			return Math.max(0, Math.min(1, f));
+		}
+
+	}
+
+	/**
+	 * Takes the distance ridden up to the fixes on either side of each gap
+	 * between bursts, for {@link Walk} to dead reckon through it. Keeps a
+	 * pair of entries per gap, not per record or fix.
+	 */
+	private class Odometer implements RecordVisitor {
+
+		final TrackReader fixes;
+		final long firstTimestamp = reader.getStartTime();
+		final int speedPosition = schema.indexOf(Channel.MOTOR_SPEED);
+		final StreamingStats stats = new StreamingStats();
+		IOException error;
+
+		// the next fix, not passed yet
+		boolean hasFix, trackEnded;
+		long fixTime;
+		boolean hasPrevious;
+		long previousTime;
+		double previousDistance;
+
+		// fix time and distance, before and after each gap in turn
+		long[] times = new long[16];
+		double[] distances = new double[16];
+		int count;
+		int cursor;
+
+		Odometer(TrackReader fixes) {
+			this.fixes = fixes;
+		}
+
+		@Override
+		public void visit(long timestamp, float[] values) {
+			if (error != null)
+				return;
+			try {
+				pass(startTime + timestamp - firstTimestamp);
+			} catch (IOException e) {
+				error = e;
+			}
+			if (speedPosition >= 0)
+				stats.addSpeed(timestamp, values[speedPosition]);
+		}
+
+		/**
+		 * Pass the fixes after the last record.
+		 */
+		void finish() throws IOException {
+			if (error == null)
+				pass(Long.MAX_VALUE);
+			if (error != null)
+				throw error;
+		}
+
+		/**
+		 * Take the distance ridden so far for the fixes before a time.
+		 */
+		private void pass(long time) throws IOException {
+			while (!trackEnded) {
+				if (!hasFix) {
+					if (!fixes.next()) {
+						trackEnded = true;
+						break;
+					}
+					fixTime = fixes.getTime();
+					hasFix = true;
+				}
+				if (fixTime >= time)
+					break;
+				double distance = stats.getDistance();
+				long gap = fixTime - previousTime;
+				if (hasPrevious && gap > MAX_FIX_GAP_MILLIS
+				        && gap <= MAX_BURST_GAP_MILLIS) {
+					add(previousTime, previousDistance);
+					add(fixTime, distance);
+				}
+				hasPrevious = true;
+				previousTime = fixTime;
+				previousDistance = distance;
+				hasFix = false;
+			}
+		}
+
+		private void add(long time, double distance) {
+			if (count == times.length) {
+				times = Arrays.copyOf(times, count * 2);
+				distances = Arrays.copyOf(distances, count * 2);
+			}
+			times[count] = time;
+			distances[count] = distance;
+			count++;
+		}
+
+		/**
+		 * Look up the gap starting at a fix, for times that only increase.
+		 *
+		 * @return the index of its first entry, -1 if there is none.
+		 */
+		int find(long time) {
+			while (cursor < count && times[cursor] < time)
+				cursor += 2;
+			return cursor < count && times[cursor] == time ? cursor : -1;
+		}
+
+	}
+
+	/**
+	 * Wrap an output in gzip compression.
+	 *
+	 * @param threads
+	 *            - 0 for none, 1 for a plain gzip stream, more to compress
+	 *            blocks in parallel, see {@link ParallelGzipOutputStream}.
+	 */
+	public static OutputStream compress(OutputStream out, int threads)
+	        throws IOException {
+		if (threads <= 0)
+			return out;
+		if (threads == 1)
+			return new GZIPOutputStream(out, 64 * 1024);
+		return new ParallelGzipOutputStream(out, threads);
+	}
+
+}
@@ -0,0 +1,55 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.frame;
+
+/**
+ * Payload layout of {@link FrameType#COMMAND} and {@link FrameType#RESPONSE}
+ * frames.
+ *
+ * <pre>
+ * command                              response
+ * position  type    field              position  type    field
+ *        0  ushort  sequence id               0  ushort  sequence id
+ *        2  byte    command code              2  byte    command code
+ *        3  ...     arguments                 3  byte    status
+ *                                             4  ...     data
+ * </pre>
+ *
+ * A response carries the sequence id of the command it answers. Responses may
+ * come in any order.
+ */
+public final class CommandFrame {
+
+	public static final int SEQUENCE = 0;
+	public static final int COMMAND = 2;
+	public static final int ARGUMENTS = 3;
+	public static final int STATUS = 3;
+	public static final int DATA = 4;
+
+	public static final int MAX_ARGUMENTS_LENGTH = Frame.MAX_PAYLOAD_LENGTH
+	        - ARGUMENTS;
+	public static final int MAX_DATA_LENGTH = Frame.MAX_PAYLOAD_LENGTH - DATA;
+
+	public static final int STATUS_OK = 0;
+	public static final int STATUS_UNKNOWN_COMMAND = 1;
+	public static final int STATUS_INVALID_ARGUMENT = 2;
+	public static final int STATUS_FAILED = 3;
+
+	private CommandFrame() {
+	}
+
+}
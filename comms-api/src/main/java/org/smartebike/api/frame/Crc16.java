@@ -0,0 +1,69 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.frame;
+
+/**
+ * Table driven CRC-16/CCITT-FALSE (polynomial 0x1021, initial value 0xFFFF).
+ * <p>
+ * This is the checksum used by the controller firmware, which is why we don't
+ * use {@link java.util.zip.CRC32} here.
+ */
+public final class Crc16 {
+
+	public static final int INITIAL_VALUE = 0xFFFF;
+
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i << 8;
+			for (int bit = 0; bit < 8; bit++)
+				crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+			TABLE[i] = crc & 0xFFFF;
+		}
+	}
+
+	private Crc16() {
+	}
+
+	/**
+	 * Update a running checksum with a range of bytes.
+	 *
+	 * @param crc
+	 *            - the current checksum, {@link #INITIAL_VALUE} to start.
+	 * @param buf
+	 *            - the data.
+	 * @param off
+	 *            - offset of the first byte.
+	 * @param len
+	 *            - number of bytes.
+	 * @return the updated checksum.
+	 */
+	public static int update(int crc, byte[] buf, int off, int len) {
+		for (int i = off, end = off + len; i < end; i++)
+			crc = ((crc << 8) ^ TABLE[((crc >>> 8) ^ buf[i]) & 0xFF]) & 0xFFFF;
+		return crc;
+	}
+
+	/**
+	 * Compute the checksum of a range of bytes.
+	 */
+	public static int compute(byte[] buf, int off, int len) {
+		return update(INITIAL_VALUE, buf, off, len);
+	}
+
+}
@@ -0,0 +1,131 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.frame;
+
+/**
+ * A decoded frame, as handed out by {@link FrameDecoder}.
+ * <p>
+ * On the wire every frame looks like this (multi-byte values are big endian):
+ *
+ * <pre>
+ * +------+------+------+--------+-----------------+---------+
+ * | 0xAA | 0x55 | type | length | payload         | CRC-16  |
+ * +------+------+------+--------+-----------------+---------+
+ *    1      1      1       1      0..255 bytes       2
+ * </pre>
+ *
+ * The CRC is a {@link Crc16} computed over type, length and payload.
+ * <p>
+ * Instances are views over the decoder's internal buffer and are reused for
+ * every frame, so they are only valid inside
+ * {@link FrameListener#onFrame(Frame)}. Field positions are relative to the
+ * start of the payload.
+ */
+public final class Frame {
+
+	public static final byte SYNC_0 = (byte) 0xAA;
+	public static final byte SYNC_1 = (byte) 0x55;
+	public static final int HEADER_LENGTH = 4;
+	public static final int CRC_LENGTH = 2;
+	public static final int MAX_PAYLOAD_LENGTH = 255;
+	public static final int MAX_FRAME_LENGTH = HEADER_LENGTH
+	        + MAX_PAYLOAD_LENGTH + CRC_LENGTH;
+
+	private byte[] buf;
+	private int type;
+	private int offset;
+	private int length;
+
+	Frame() {
+	}
+
+	void wrap(byte[] buf, int type, int offset, int length) {
+		this.buf = buf;
+		this.type = type;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * @return the frame type, one of {@link FrameType}.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return the payload length in bytes.
+	 */
+	public int getPayloadLength() {
+		return length;
+	}
+
+	public byte getByte(int position) {
+		return buf[index(position, 1)];
+	}
+
+	public int getUnsignedByte(int position) {
+		return buf[index(position, 1)] & 0xFF;
+	}
+
+	public short getShort(int position) {
+		int i = index(position, 2);
+		return (short) ((buf[i] << 8) | (buf[i + 1] & 0xFF));
+	}
+
+	public int getUnsignedShort(int position) {
+		return getShort(position) & 0xFFFF;
+	}
+
+	public int getInt(int position) {
+		int i = index(position, 4);
+		return (buf[i] << 24) | ((buf[i + 1] & 0xFF) << 16)
+		        | ((buf[i + 2] & 0xFF) << 8) | (buf[i + 3] & 0xFF);
+	}
+
+	public long getUnsignedInt(int position) {
+		return getInt(position) & 0xFFFFFFFFL;
+	}
+
+	public long getLong(int position) {
+		return ((long) getInt(position) << 32)
+		        | (getInt(position + 4) & 0xFFFFFFFFL);
+	}
+
+	public float getFloat(int position) {
+		return Float.intBitsToFloat(getInt(position));
+	}
+
+	/**
+	 * Copy the payload into another array, e.g. to keep it after
+	 * {@link FrameListener#onFrame(Frame)} returns.
+	 *
+	 * @return the number of bytes copied.
+	 */
+	public int copyPayload(byte[] dst, int off) {
+		System.arraycopy(buf, offset, dst, off, length);
+		return length;
+	}
+
+	private int index(int position, int size) {
+		if (position < 0 || position + size > length)
+			throw new IndexOutOfBoundsException("position " + position
+			        + " exceeds payload length " + length);
+		return offset + position;
+	}
+
+}
@@ -0,0 +1,32 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.frame;
+
+/**
+ * A {@link FrameListener} that is also told when the frames of one chunk of
+ * input have all been delivered, so it can collect frames into batches
+ * without holding the last ones back until more input arrives.
+ */
+public interface FrameBatchListener extends FrameListener {
+
+	/**
+	 * Called at the end of every {@link FrameDecoder} decode call, on the same
+	 * thread, after the complete frames of the input were delivered.
+	 */
+	void onBatchEnd();
+
+}
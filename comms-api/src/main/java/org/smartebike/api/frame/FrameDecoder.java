@@ -0,0 +1,159 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder for the binary {@link Frame} format.
+ * <p>
+ * Bytes can be fed in chunks of any size, frames split across chunks are
+ * reassembled. When a frame fails its length or CRC check the decoder drops a
+ * single byte and searches for the next sync word, so a corrupt or truncated
+ * frame costs at most the frames it overlaps.
+ * <p>
+ * A {@link FrameBatchListener} is also told when each chunk is done.
+ * <p>
+ * The decoder never allocates after construction. It is not thread safe and
+ * is meant to be owned by the reader thread.
+ */
+public class FrameDecoder {
+
+	private static final int BUFFER_SIZE = 1024;
+
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private final Frame frame = new Frame();
+	private final FrameListener listener;
+	// the listener again, if it wants to know where each input ends
+	private final FrameBatchListener batchListener;
+	private int start;
+	private int end;
+
+	private long frameCount;
+	private long crcErrorCount;
+	private long discardedByteCount;
+
+	public FrameDecoder(FrameListener listener) {
+		this.listener = listener;
+		this.batchListener = listener instanceof FrameBatchListener
+		        ? (FrameBatchListener) listener : null;
+	}
+
+	/**
+	 * Decode a range of bytes, notifying the listener of every complete frame.
+	 */
+	public void decode(byte[] src, int off, int len) {
+		while (len > 0) {
+			int n = Math.min(len, buf.length - end);
+			System.arraycopy(src, off, buf, end, n);
+			end += n;
+			off += n;
+			len -= n;
+			scan();
+		}
+		if (batchListener != null)
+			batchListener.onBatchEnd();
+	}
+
+	/**
+	 * Decode all remaining bytes of a buffer.
+	 */
+	public void decode(ByteBuffer src) {
+		while (src.hasRemaining()) {
+			int n = Math.min(src.remaining(), buf.length - end);
+			src.get(buf, end, n);
+			end += n;
+			scan();
+		}
+		if (batchListener != null)
+			batchListener.onBatchEnd();
+	}
+
+	/**
+	 * Drop any partially received frame, e.g. after a reconnect.
+	 */
+	public void reset() {
+		discardedByteCount += end - start;
+		start = 0;
+		end = 0;
+	}
+
+	private void scan() {
+		while (end - start >= Frame.HEADER_LENGTH) {
+			if (buf[start] != Frame.SYNC_0 || buf[start + 1] != Frame.SYNC_1) {
+				start++;
+				discardedByteCount++;
+				continue;
+			}
+
+			int length = buf[start + 3] & 0xFF;
+			int total = Frame.HEADER_LENGTH + length + Frame.CRC_LENGTH;
+			if (end - start < total)
+				break;
+
+			int crcAt = start + Frame.HEADER_LENGTH + length;
+			int expected = ((buf[crcAt] & 0xFF) << 8) | (buf[crcAt + 1] & 0xFF);
+			if (Crc16.compute(buf, start + 2, length + 2) != expected) {
+				// resync on the byte right after the false sync word
+				crcErrorCount++;
+				start++;
+				discardedByteCount++;
+				continue;
+			}
+
+			frame.wrap(buf, buf[start + 2] & 0xFF,
+			        start + Frame.HEADER_LENGTH, length);
+			start += total;
+			frameCount++;
+			listener.onFrame(frame);
+		}
+		compact();
+	}
+
+	private void compact() {
+		if (start == end) {
+			start = 0;
+			end = 0;
+		} else if (start > 0) {
+			System.arraycopy(buf, start, buf, 0, end - start);
+			end -= start;
+			start = 0;
+		}
+	}
+
+	/**
+	 * @return number of frames that passed the CRC check.
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return number of candidate frames rejected by the CRC check.
+	 */
+	public long getCrcErrorCount() {
+		return crcErrorCount;
+	}
+
+	/**
+	 * @return number of bytes skipped while searching for a sync word.
+	 */
+	public long getDiscardedByteCount() {
+		return discardedByteCount;
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.frame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+
+/**
+ * Builds {@link Frame}s into a reusable buffer.
+ *
+ * <pre>
+ * encoder.begin(FrameType.TELEMETRY).putInt(timestamp).putFloat(speed);
+ * encoder.finish();
+ * encoder.writeTo(out);
+ * </pre>
+ *
+ * Not thread safe.
+ */
+public class FrameEncoder {
+
+	private final byte[] buf = new byte[Frame.MAX_FRAME_LENGTH];
+	private int position;
+
+	/**
+	 * Start a new frame, discarding the previous one.
+	 */
+	public FrameEncoder begin(int type) {
+		buf[0] = Frame.SYNC_0;
+		buf[1] = Frame.SYNC_1;
+		buf[2] = (byte) type;
+		position = Frame.HEADER_LENGTH;
+		return this;
+	}
+
+	public FrameEncoder putByte(int value) {
+		ensure(1);
+		buf[position++] = (byte) value;
+		return this;
+	}
+
+	public FrameEncoder putShort(int value) {
+		ensure(2);
+		buf[position++] = (byte) (value >> 8);
+		buf[position++] = (byte) value;
+		return this;
+	}
+
+	public FrameEncoder putInt(int value) {
+		ensure(4);
+		buf[position++] = (byte) (value >> 24);
+		buf[position++] = (byte) (value >> 16);
+		buf[position++] = (byte) (value >> 8);
+		buf[position++] = (byte) value;
+		return this;
+	}
+
+	public FrameEncoder putLong(long value) {
+		putInt((int) (value >> 32));
+		return putInt((int) value);
+	}
+
+	public FrameEncoder putFloat(float value) {
+		return putInt(Float.floatToRawIntBits(value));
+	}
+
+	public FrameEncoder putBytes(byte[] src, int off, int len) {
+		ensure(len);
+		System.arraycopy(src, off, buf, position, len);
+		position += len;
+		return this;
+	}
+
+	/**
+	 * Write length and CRC of the current frame.
+	 *
+	 * @return the total frame length in bytes.
+	 */
+	public int finish() {
+		int length = position - Frame.HEADER_LENGTH;
+		buf[3] = (byte) length;
+		int crc = Crc16.compute(buf, 2, length + 2);
+		buf[position++] = (byte) (crc >> 8);
+		buf[position++] = (byte) crc;
+		return position;
+	}
+
+	/**
+	 * @return the backing array, holding a finished frame at offset 0.
+	 */
+	public byte[] array() {
+		return buf;
+	}
+
+	/**
+	 * @return the length of the finished frame.
+	 */
+	public int length() {
+		return position;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buf, 0, position);
+	}
+
+	private void ensure(int n) {
+		if (position + n > Frame.HEADER_LENGTH + Frame.MAX_PAYLOAD_LENGTH)
+			throw new BufferOverflowException();
+	}
+
+}
@@ -0,0 +1,49 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.frame;
+
+/**
+ * Known values of the {@link Frame} type byte.
+ */
+public final class FrameType {
+
+	/**
+	 * Periodic telemetry sample, see {@link TelemetryFrame}.
+	 */
+	public static final int TELEMETRY = 0x01;
+
+	/**
+	 * Several telemetry samples compressed together, see
+	 * {@link TelemetryBlockFrame}. Only sent once the dashboard asked for it.
+	 */
+	public static final int TELEMETRY_BLOCK = 0x02;
+
+	/**
+	 * Request from the dashboard to the controller, see {@link CommandFrame}.
+	 */
+	public static final int COMMAND = 0x10;
+
+	/**
+	 * Answer of the controller to a {@link #COMMAND}, see
+	 * {@link CommandFrame}.
+	 */
+	public static final int RESPONSE = 0x11;
+
+	private FrameType() {
+	}
+
+}
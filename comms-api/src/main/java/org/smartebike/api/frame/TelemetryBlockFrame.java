@@ -0,0 +1,46 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.frame;
+
+/**
+ * Payload layout of a {@link FrameType#TELEMETRY_BLOCK} frame.
+ *
+ * <pre>
+ * position  type   field
+ *        0  byte   sample count
+ *        1  byte   channels per sample
+ *        2  ...    samples, see org.smartebike.api.codec.SampleEncoder
+ * </pre>
+ *
+ * The channels are the values of a {@link TelemetryFrame} after the
+ * timestamp, in the same order, with bit fields carried as the float with the
+ * same bits. Each block is encoded on its own, so losing
+ * one doesn't affect the next.
+ */
+public final class TelemetryBlockFrame {
+
+	public static final int SAMPLE_COUNT = 0;
+	public static final int CHANNELS = 1;
+	public static final int SAMPLES = 2;
+
+	public static final int MAX_SAMPLES_LENGTH = Frame.MAX_PAYLOAD_LENGTH
+	        - SAMPLES;
+
+	private TelemetryBlockFrame() {
+	}
+
+}
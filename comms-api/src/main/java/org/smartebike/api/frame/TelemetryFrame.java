@@ -0,0 +1,42 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.frame;
+
+/**
+ * Payload layout of a {@link FrameType#TELEMETRY} frame.
+ *
+ * <pre>
+ * position  type   field
+ *        0  int    controller timestamp, milliseconds
+ *        4  ...    one value per channel, see ChannelSchema
+ * </pre>
+ *
+ * {@link #MOTOR_SPEED} and {@link #PAYLOAD_LENGTH} give the version 1
+ * layout, which only holds the motor speed (float, km/h). Motor speed comes
+ * first in every version.
+ */
+public final class TelemetryFrame {
+
+	public static final int TIMESTAMP = 0;
+	public static final int VALUES = 4;
+	public static final int MOTOR_SPEED = VALUES;
+	public static final int PAYLOAD_LENGTH = 8;
+
+	private TelemetryFrame() {
+	}
+
+}
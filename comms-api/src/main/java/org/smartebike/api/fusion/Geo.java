@@ -0,0 +1,48 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.fusion;
+
+/**
+ * Distances between locations.
+ */
+public final class Geo {
+
+	/**
+	 * Mean earth radius in meters.
+	 */
+	public static final double EARTH_RADIUS = 6371008.8;
+
+	private Geo() {
+	}
+
+	/**
+	 * Great circle distance, with the haversine formula.
+	 *
+	 * @return meters between two locations given in degrees.
+	 */
+	public static double distance(double lat1, double lon1, double lat2,
+	        double lon2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double sinLat = Math.sin(dLat / 2);
+		double sinLon = Math.sin(dLon / 2);
+		double a = sinLat * sinLat + Math.cos(Math.toRadians(lat1))
+		        * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+}
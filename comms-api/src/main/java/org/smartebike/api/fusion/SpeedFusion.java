@@ -0,0 +1,368 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.fusion;
+
+/**
+ * Fuses the wheel speed reported by the controller with occasional location
+ * fixes into a speed and distance estimate.
+ * <p>
+ * A Kalman filter tracks distance and speed with a constant speed model.
+ * Every wheel sample predicts the state up to its time and corrects the
+ * speed with the wheel speed times a calibration scale, which makes up for
+ * a wrong wheel circumference. The scale is estimated by a second, scalar
+ * filter comparing the speed of each fix with the wheel speed at the time of
+ * the fix, looked up in a short history, so fixes delivered late or in
+ * bursts still calibrate the wheel. Recent fixes also correct the speed
+ * directly, and carry the estimate alone while no wheel samples arrive.
+ * <p>
+ * All times are milliseconds on one clock chosen by the caller. Speeds are
+ * km/h, distances meters. Updates are constant time and don't allocate. Not
+ * thread safe.
+ */
+public class SpeedFusion {
+
+	/**
+	 * Wheel samples further apart than this, e.g. while disconnected, don't
+	 * advance the distance.
+	 */
+	public static final long MAX_GAP_MILLIS = 2000;
+	/**
+	 * Fixes older than this only calibrate the wheel.
+	 */
+	public static final long MAX_FIX_AGE_MILLIS = 2000;
+	/**
+	 * Scale variance below which the wheel counts as calibrated.
+	 */
+	public static final double CALIBRATED_VARIANCE = 4e-4;
+
+	private static final double KMH = 3.6;
+	// acceleration noise density, (m/s^2)^2 per second
+	private static final double ACCELERATION_NOISE = 1.0;
+	private static final double WHEEL_SPEED_VARIANCE = 0.3 * 0.3;
+	private static final double FIX_SPEED_VARIANCE = 0.5 * 0.5;
+	private static final double INITIAL_SPEED_VARIANCE = 100;
+	private static final double INITIAL_SCALE_VARIANCE = 0.1 * 0.1;
+	// lets the scale follow slow changes, e.g. tire pressure, per fix
+	private static final double SCALE_NOISE = 1e-6;
+	private static final double MIN_SCALE = 0.5;
+	private static final double MAX_SCALE = 1.5;
+	// m/s, below this the wheel speed says little about the scale
+	private static final double MIN_CALIBRATION_SPEED = 3;
+	// shortest span between fixes to derive a speed from their distance
+	private static final long MIN_FIX_INTERVAL_MILLIS = 1000;
+	private static final int HISTORY_SIZE = 256;
+	private static final long HISTORY_INTERVAL_MILLIS = 100;
+
+	// state: distance (m) and speed (m/s) at time, covariance p
+	private double distance;
+	private double speed;
+	private double p00, p01, p11;
+	private long time;
+	private boolean started;
+
+	private double scale;
+	private double scaleVariance;
+	private long lastWheelTime;
+	private boolean hasWheel;
+
+	// wheel speed (m/s) history, one entry per HISTORY_INTERVAL_MILLIS
+	private final long[] historyTimes = new long[HISTORY_SIZE];
+	private final float[] historySpeeds = new float[HISTORY_SIZE];
+	private int historyCount;
+	private int historyNext;
+
+	private long lastFixTime;
+	private double lastFixLat, lastFixLon;
+	private float lastFixAccuracy;
+	private boolean hasFix;
+
+	private long wheelCount;
+	private long fixCount;
+	private long calibrationCount;
+
+	public SpeedFusion() {
+		resetCalibration();
+		reset();
+	}
+
+	/**
+	 * Start a new trip. The wheel calibration is kept, see
+	 * {@link #resetCalibration()}.
+	 */
+	public void reset() {
+		distance = 0;
+		speed = 0;
+		p00 = 0;
+		p01 = 0;
+		p11 = INITIAL_SPEED_VARIANCE;
+		started = false;
+		hasWheel = false;
+		hasFix = false;
+		historyCount = 0;
+		historyNext = 0;
+	}
+
+	/**
+	 * Forget the wheel calibration, e.g. after changing the wheel.
+	 */
+	public void resetCalibration() {
+		scale = 1;
+		scaleVariance = INITIAL_SCALE_VARIANCE;
+	}
+
+	/**
+	 * Account for a wheel speed sample.
+	 *
+	 * @param wheelSpeed
+	 *            - km/h, as reported by the controller.
+	 */
+	public void onWheelSpeed(long timestamp, float wheelSpeed) {
+		if (Float.isNaN(wheelSpeed))
+			return;
+		double measured = wheelSpeed / KMH;
+		addHistory(timestamp, (float) measured);
+		if (!predict(timestamp))
+			return;
+		update(scale * measured, WHEEL_SPEED_VARIANCE * scale * scale);
+		lastWheelTime = timestamp;
+		hasWheel = true;
+		wheelCount++;
+	}
+
+	/**
+	 * Account for a location fix.
+	 *
+	 * @param timestamp
+	 *            - when the fix was taken, which may be before the latest
+	 *            wheel sample.
+	 * @param accuracy
+	 *            - meters, the radius of 68% confidence.
+	 * @param fixSpeed
+	 *            - km/h, NaN if the fix has none, in which case it is
+	 *            derived from the previous fix.
+	 */
+	public void onFix(long timestamp, double latitude, double longitude,
+	        float accuracy, float fixSpeed) {
+		double measured;
+		double variance;
+		if (!Float.isNaN(fixSpeed)) {
+			measured = fixSpeed / KMH;
+			variance = FIX_SPEED_VARIANCE;
+		} else if (hasFix
+		        && timestamp - lastFixTime >= MIN_FIX_INTERVAL_MILLIS) {
+			double seconds = (timestamp - lastFixTime) / 1000.0;
+			measured = Geo.distance(lastFixLat, lastFixLon, latitude,
+			        longitude) / seconds;
+			variance = ((double) accuracy * accuracy + (double) lastFixAccuracy
+			        * lastFixAccuracy)
+			        / (seconds * seconds);
+		} else {
+			measured = Double.NaN;
+			variance = 0;
+		}
+		lastFixTime = timestamp;
+		lastFixLat = latitude;
+		lastFixLon = longitude;
+		lastFixAccuracy = accuracy;
+		hasFix = true;
+		fixCount++;
+		if (Double.isNaN(measured))
+			return;
+
+		calibrate(timestamp, measured, variance);
+
+		boolean wheelStale = !hasWheel
+		        || timestamp - lastWheelTime > MAX_GAP_MILLIS;
+		if (wheelStale) {
+			// the fixes carry the estimate alone
+			if (predict(timestamp))
+				update(measured, variance);
+		} else if (time - timestamp <= MAX_FIX_AGE_MILLIS) {
+			update(measured, variance);
+		}
+	}
+
+	/**
+	 * Scalar Kalman update of the scale: fix speed = scale * wheel speed.
+	 */
+	private void calibrate(long timestamp, double measured, double variance) {
+		double wheel = wheelSpeedAt(timestamp);
+		if (Double.isNaN(wheel) || wheel < MIN_CALIBRATION_SPEED)
+			return;
+		scaleVariance += SCALE_NOISE;
+		// the wheel speed is noisy too
+		double s = wheel * wheel * scaleVariance + variance + scale * scale
+		        * WHEEL_SPEED_VARIANCE;
+		double gain = scaleVariance * wheel / s;
+		scale += gain * (measured - scale * wheel);
+		scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+		scaleVariance *= 1 - gain * wheel;
+		calibrationCount++;
+	}
+
+	/**
+	 * Advance the state to a time. After a gap longer than
+	 * {@link #MAX_GAP_MILLIS} the distance is kept and the speed uncertain.
+	 *
+	 * @return <code>false</code> if the time is before the state's.
+	 */
+	private boolean predict(long timestamp) {
+		if (!started) {
+			time = timestamp;
+			started = true;
+			return true;
+		}
+		long elapsed = timestamp - time;
+		if (elapsed < 0)
+			return false;
+		if (elapsed > MAX_GAP_MILLIS) {
+			// nothing is known about the gap, start the speed over so the
+			// next measurement seeds it without moving the distance
+			p00 = 0;
+			p01 = 0;
+			p11 = INITIAL_SPEED_VARIANCE;
+			time = timestamp;
+			return true;
+		}
+		double dt = elapsed / 1000.0;
+		distance += Math.max(0, speed) * dt;
+		double q = ACCELERATION_NOISE;
+		p00 += dt * (2 * p01 + dt * p11) + q * dt * dt * dt / 3;
+		p01 += dt * p11 + q * dt * dt / 2;
+		p11 += q * dt;
+		time = timestamp;
+		return true;
+	}
+
+	/**
+	 * Correct the state with a speed measurement.
+	 */
+	private void update(double measured, double variance) {
+		double s = p11 + variance;
+		double k0 = p01 / s;
+		double k1 = p11 / s;
+		double innovation = measured - speed;
+		distance += k0 * innovation;
+		speed = Math.max(0, speed + k1 * innovation);
+		p00 -= k0 * p01;
+		p01 -= k0 * p11;
+		p11 -= k1 * p11;
+	}
+
+	private void addHistory(long timestamp, float wheel) {
+		if (historyCount > 0) {
+			int last = (historyNext + HISTORY_SIZE - 1) % HISTORY_SIZE;
+			if (timestamp - historyTimes[last] < HISTORY_INTERVAL_MILLIS)
+				return;
+		}
+		historyTimes[historyNext] = timestamp;
+		historySpeeds[historyNext] = wheel;
+		historyNext = (historyNext + 1) % HISTORY_SIZE;
+		if (historyCount < HISTORY_SIZE)
+			historyCount++;
+	}
+
+	/**
+	 * @return the wheel speed in m/s at a time, interpolated from the
+	 *         history, NaN if the time isn't covered.
+	 */
+	private double wheelSpeedAt(long timestamp) {
+		// newest to oldest
+		int later = -1;
+		for (int n = 0; n < historyCount; n++) {
+			int i = (historyNext + HISTORY_SIZE - 1 - n) % HISTORY_SIZE;
+			long t = historyTimes[i];
+			if (t <= timestamp) {
+				if (later < 0)
+					return timestamp - t <= HISTORY_INTERVAL_MILLIS
+					        ? historySpeeds[i] : Double.NaN;
+				long span = historyTimes[later] - t;
+				if (span > MAX_GAP_MILLIS)
+					return Double.NaN;
+				double f = span == 0 ? 0 : (double) (timestamp - t) / span;
+				return historySpeeds[i] + f
+				        * (historySpeeds[later] - historySpeeds[i]);
+			}
+			later = i;
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * @return the estimated speed in km/h.
+	 */
+	public float getSpeed() {
+		return (float) (speed * KMH);
+	}
+
+	/**
+	 * @return the standard deviation of the speed in km/h.
+	 */
+	public float getSpeedError() {
+		return (float) (Math.sqrt(Math.max(0, p11)) * KMH);
+	}
+
+	/**
+	 * @return the estimated trip distance in meters.
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return true speed over wheel speed.
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	public double getScaleVariance() {
+		return scaleVariance;
+	}
+
+	/**
+	 * @return whether enough fixes were compared to wheel speeds to trust
+	 *         the scale, see {@link #CALIBRATED_VARIANCE}.
+	 */
+	public boolean isCalibrated() {
+		return scaleVariance < CALIBRATED_VARIANCE;
+	}
+
+	/**
+	 * @return whether wheel samples arrived within {@link #MAX_GAP_MILLIS}
+	 *         before a time.
+	 */
+	public boolean hasWheelSpeed(long now) {
+		return hasWheel && now - lastWheelTime <= MAX_GAP_MILLIS;
+	}
+
+	public long getWheelCount() {
+		return wheelCount;
+	}
+
+	public long getFixCount() {
+		return fixCount;
+	}
+
+	/**
+	 * @return fixes that updated the scale.
+	 */
+	public long getCalibrationCount() {
+		return calibrationCount;
+	}
+
+}
@@ -0,0 +1,98 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff between reconnect attempts.
+ * <p>
+ * The first retry after a {@link #reset()} goes out right away. Each further
+ * one waits the previous delay times the multiplier, up to a maximum, minus a
+ * random share of up to the jitter fraction, so that clients that lost the
+ * link together don't retry in lockstep. Not thread safe.
+ */
+public class Backoff {
+
+	public static final long DEFAULT_INITIAL_DELAY = 250;
+	public static final long DEFAULT_MAX_DELAY = 30000;
+	public static final double DEFAULT_MULTIPLIER = 2;
+	public static final double DEFAULT_JITTER = 0.5;
+
+	private final long initialDelay;
+	private final long maxDelay;
+	private final double multiplier;
+	private final double jitter;
+	private final Random random;
+
+	private int attempt = 0;
+	private double delay;
+
+	public Backoff() {
+		this(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MULTIPLIER,
+		        DEFAULT_JITTER, new Random());
+	}
+
+	/**
+	 * @param initialDelay
+	 *            - delay before the second retry, milliseconds.
+	 * @param maxDelay
+	 *            - upper bound of the delay, milliseconds.
+	 * @param multiplier
+	 *            - growth of the delay per attempt, at least 1.
+	 * @param jitter
+	 *            - fraction of each delay that is randomized, 0 to 1.
+	 */
+	public Backoff(long initialDelay, long maxDelay, double multiplier,
+	        double jitter, Random random) {
+		if (initialDelay < 0 || maxDelay < initialDelay || multiplier < 1
+		        || jitter < 0 || jitter > 1)
+			throw new IllegalArgumentException("Invalid backoff parameters");
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.multiplier = multiplier;
+		this.jitter = jitter;
+		this.random = random;
+	}
+
+	/**
+	 * @return how long to wait before the next attempt, milliseconds.
+	 */
+	public long nextDelay() {
+		attempt++;
+		if (attempt == 1)
+			return 0;
+		delay = attempt == 2 ? initialDelay : Math.min(maxDelay, delay
+		        * multiplier);
+		return (long) (delay * (1 - jitter * random.nextDouble()));
+	}
+
+	/**
+	 * Start over, e.g. once a connection has proven to work.
+	 */
+	public void reset() {
+		attempt = 0;
+	}
+
+	/**
+	 * @return attempts since the last {@link #reset()}.
+	 */
+	public int getAttempt() {
+		return attempt;
+	}
+
+}
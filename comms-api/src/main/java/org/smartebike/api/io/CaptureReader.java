@@ -0,0 +1,132 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the records of a {@link CaptureWriter} file one at a time, in the
+ * order they were captured. The bytes of a read are held in a buffer reused
+ * for every record.
+ *
+ * <pre>
+ * while (reader.next())
+ *     if (!reader.isConnect())
+ *         use(reader.getTime(), reader.getData(), reader.getLength());
+ * </pre>
+ */
+public class CaptureReader implements Closeable {
+
+	// longer reads than any transport returns mean the file is damaged
+	private static final int MAX_LENGTH = 1 << 20;
+
+	private final File file;
+	private final DataInputStream in;
+	private final long startTime;
+	private byte[] data = new byte[TelemetryReader.DEFAULT_BUFFER_SIZE];
+	private long time;
+	private int length;
+
+	public CaptureReader(File file) throws IOException {
+		this.file = file;
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+		        file), 64 * 1024));
+		try {
+			if (in.readInt() != CaptureWriter.MAGIC
+			        || in.readShort() != CaptureWriter.VERSION)
+				throw new IOException("Not a capture: " + file);
+			in.readShort();
+			startTime = in.readLong();
+		} catch (IOException e) {
+			in.close();
+			throw e instanceof EOFException ? new IOException(
+			        "Not a capture: " + file) : e;
+		}
+	}
+
+	/**
+	 * Move to the next record.
+	 *
+	 * @return <code>false</code> at the end of the capture.
+	 */
+	public boolean next() throws IOException {
+		try {
+			time = in.readLong();
+			length = in.readInt();
+			if (length == CaptureWriter.CONNECT)
+				return true;
+			if (length < 0 || length > MAX_LENGTH)
+				throw new IOException("Corrupt capture record in " + file
+				        + ": " + length + " bytes");
+			if (length > data.length)
+				data = new byte[Math.max(length, data.length * 2)];
+			in.readFully(data, 0, length);
+			return true;
+		} catch (EOFException e) {
+			// the end, or a record cut short
+			length = 0;
+			return false;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * @return ms since the epoch when capturing started.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return us since capturing started.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return whether the record marks the start of a connection.
+	 */
+	public boolean isConnect() {
+		return length == CaptureWriter.CONNECT;
+	}
+
+	/**
+	 * @return the bytes of the read, valid until the next record.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return bytes in {@link #getData()}, 0 for a connect.
+	 */
+	public int getLength() {
+		return length == CaptureWriter.CONNECT ? 0 : length;
+	}
+
+}
@@ -0,0 +1,131 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link TelemetryTransport} that captures everything received over another
+ * one with a {@link CaptureWriter}, exactly as each read returned it. Bytes
+ * sent are passed through as they are.
+ * <p>
+ * The writer spans connections, every {@link #connect()} adds a connect
+ * record to it. Closing the transport leaves it open, close it once done
+ * with the link.
+ */
+public class CaptureTransport implements TelemetryTransport {
+
+	private final TelemetryTransport transport;
+	private final CaptureWriter capture;
+	private volatile InputStream in = null;
+
+	public CaptureTransport(TelemetryTransport transport,
+	        CaptureWriter capture) {
+		this.transport = transport;
+		this.capture = capture;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		transport.connect();
+		capture.connected();
+		in = new CaptureInputStream(transport.getInputStream());
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		InputStream s = in;
+		if (s == null)
+			throw new IOException("Not connected to " + getName());
+		return s;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return transport.getOutputStream();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return transport.isConnected();
+	}
+
+	@Override
+	public void close() throws IOException {
+		in = null;
+		transport.close();
+	}
+
+	@Override
+	public String getName() {
+		return transport.getName();
+	}
+
+	public TelemetryTransport getTransport() {
+		return transport;
+	}
+
+	public CaptureWriter getCapture() {
+		return capture;
+	}
+
+	/**
+	 * Tees every read into the capture, on the reading thread.
+	 */
+	private class CaptureInputStream extends FilterInputStream {
+
+		CaptureInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b != -1)
+				capture.write(new byte[] { (byte) b }, 0, 1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0)
+				capture.write(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped bytes would be missing from the capture
+			byte[] buffer = new byte[(int) Math.min(n, 1024)];
+			return Math.max(read(buffer, 0, buffer.length), 0);
+		}
+
+		/**
+		 * Bytes read again after a reset would be captured twice.
+		 */
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+	}
+
+}
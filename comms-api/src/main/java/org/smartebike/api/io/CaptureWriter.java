@@ -0,0 +1,187 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Raw capture of the bytes received from a device, with the time each read
+ * returned them, for replaying a ride byte for byte, see
+ * {@link CaptureReader} and {@link ReplayTransport}.
+ * <p>
+ * The file starts with a header, followed by one record per read (big
+ * endian):
+ *
+ * <pre>
+ * header (16 bytes)              record (12 bytes + length)
+ *   0  int    magic 'SEBC'         0  long   time, us since the start
+ *   4  short  version              8  int    length, -1 for a connect
+ *   6  short  reserved            12  bytes  the bytes read
+ *   8  long   start, ms since the epoch
+ * </pre>
+ *
+ * A connect record marks the start of every connection, so replays end and
+ * restart the stream where the link dropped.
+ * <p>
+ * The file is created with the first record, so constructing a writer does
+ * no I/O. Should writing fail, capturing stops and the error is kept, the
+ * link isn't affected. Thread safe.
+ */
+public class CaptureWriter implements Closeable {
+
+	static final int MAGIC = 0x53454243;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+	static final int CONNECT = -1;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final long startNanos = System.nanoTime();
+	private DataOutputStream out = null;
+	private boolean closed = false;
+	private volatile IOException lastError = null;
+	private volatile long recordCount = 0;
+	private volatile long byteCount = 0;
+
+	public CaptureWriter(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Mark the start of a connection.
+	 */
+	public synchronized void connected() {
+		if (open()) {
+			try {
+				out.writeLong(now());
+				out.writeInt(CONNECT);
+				recordCount++;
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	/**
+	 * Append the bytes of one read. They reach the file on {@link #flush()}
+	 * or {@link #close()} at the latest.
+	 */
+	public synchronized void write(byte[] b, int off, int len) {
+		if (len <= 0 || !open())
+			return;
+		try {
+			out.writeLong(now());
+			out.writeInt(len);
+			out.write(b, off, len);
+			recordCount++;
+			byteCount += len;
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private long now() {
+		return (System.nanoTime() - startNanos) / 1000;
+	}
+
+	/**
+	 * @return whether the file is open for writing, creating it first.
+	 */
+	private boolean open() {
+		if (out != null)
+			return true;
+		if (closed)
+			return false;
+		try {
+			File directory = file.getParentFile();
+			if (directory != null && !directory.isDirectory()
+			        && !directory.mkdirs())
+				throw new IOException("Can't create " + directory);
+			out = new DataOutputStream(new BufferedOutputStream(
+			        new FileOutputStream(file), BUFFER_SIZE));
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(0);
+			out.writeLong(System.currentTimeMillis()
+			        - (System.nanoTime() - startNanos) / 1000000);
+			return true;
+		} catch (IOException e) {
+			fail(e);
+			return false;
+		}
+	}
+
+	private void fail(IOException e) {
+		lastError = e;
+		closed = true;
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException ignored) {
+				// already failing
+			}
+			out = null;
+		}
+	}
+
+	public synchronized void flush() throws IOException {
+		if (out != null)
+			out.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		if (out != null) {
+			DataOutputStream s = out;
+			out = null;
+			s.close();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return reads and connects captured.
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return bytes captured.
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * @return the error that stopped capturing, if any.
+	 */
+	public IOException getLastError() {
+		return lastError;
+	}
+
+}
@@ -0,0 +1,86 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link TelemetryTransport} that plays back a file of raw bytes as they were
+ * received from a controller. The stream ends at the end of the file and
+ * anything written to the controller is discarded.
+ */
+public class FileTransport implements TelemetryTransport {
+
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private final File file;
+	private volatile InputStream in = null;
+
+	public FileTransport(File file) {
+		this.file = file;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		in = new FileInputStream(file);
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		InputStream s = in;
+		if (s == null)
+			throw new IOException("Not connected to " + getName());
+		return s;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		getInputStream();
+		return DISCARD;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return in != null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		InputStream s = in;
+		in = null;
+		if (s != null)
+			s.close();
+	}
+
+	@Override
+	public String getName() {
+		return "file://" + file.getAbsolutePath();
+	}
+
+}
@@ -0,0 +1,274 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link TelemetryTransport} that plays back a {@link CaptureWriter} file, so
+ * a captured ride goes through the same decode and dispatch as it did on the
+ * phone.
+ * <p>
+ * Every read returns the bytes of one captured read, or the rest of one if
+ * the buffer is shorter, no sooner than they arrived relative to the first
+ * connect, scaled by the speed. The stream ends where the captured link
+ * dropped; connecting again continues with the next connection of the
+ * capture, and fails once it is played to the end or found damaged. Bytes
+ * sent are discarded.
+ * <p>
+ * Closing the transport ends the current connection only, the capture file
+ * stays open until it is played to the end.
+ */
+public class ReplayTransport implements TelemetryTransport {
+
+	/**
+	 * Replay without pausing between reads.
+	 */
+	public static final double MAX_SPEED = 0;
+
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private final File file;
+	private final double speed;
+
+	private CaptureReader reader = null;
+	private ReplayInputStream in = null;
+	private boolean finished = false;
+	// the captured read being replayed and how much of it was returned
+	private boolean pending = false;
+	private int position = 0;
+	private long baseNanos;
+	private long baseTime;
+	private long lastTime;
+	private long recordCount = 0;
+	private long connectCount = 0;
+
+	public ReplayTransport(File file) {
+		this(file, 1);
+	}
+
+	/**
+	 * @param speed
+	 *            - 1 to replay in real time, 10 ten times as fast,
+	 *            {@link #MAX_SPEED} as fast as the reader takes the bytes.
+	 */
+	public ReplayTransport(File file, double speed) {
+		if (speed < 0 || Double.isNaN(speed))
+			throw new IllegalArgumentException("Invalid speed: " + speed);
+		this.file = file;
+		this.speed = speed;
+	}
+
+	@Override
+	public synchronized void connect() throws IOException {
+		if (reader == null && !finished) {
+			try {
+				reader = new CaptureReader(file);
+			} catch (IOException e) {
+				finished = true;
+				throw e;
+			}
+			if (!advance())
+				finish();
+			else {
+				baseNanos = System.nanoTime();
+				baseTime = reader.getTime();
+				// the connect the capture starts with is this one
+				pending = !reader.isConnect();
+			}
+		}
+		if (finished)
+			throw new EOFException("End of capture " + file);
+		connectCount++;
+		in = new ReplayInputStream();
+	}
+
+	@Override
+	public synchronized InputStream getInputStream() throws IOException {
+		if (in == null)
+			throw new IOException("Not connected to " + getName());
+		return in;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		getInputStream();
+		return DISCARD;
+	}
+
+	@Override
+	public synchronized boolean isConnected() {
+		return in != null;
+	}
+
+	/**
+	 * Ends the current connection, unblocking a read waiting for its bytes.
+	 */
+	@Override
+	public synchronized void close() {
+		if (in != null) {
+			in.closed = true;
+			in = null;
+			notifyAll();
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "replay://" + file.getAbsolutePath();
+	}
+
+	/**
+	 * @return <code>false</code> at the end of the capture.
+	 */
+	private boolean advance() throws IOException {
+		try {
+			if (!reader.next())
+				return false;
+		} catch (IOException e) {
+			// there's no telling where the next record starts
+			finish();
+			throw e;
+		}
+		position = 0;
+		recordCount++;
+		lastTime = reader.getTime();
+		return true;
+	}
+
+	private void finish() throws IOException {
+		finished = true;
+		pending = false;
+		CaptureReader r = reader;
+		reader = null;
+		r.close();
+	}
+
+	/**
+	 * Read the next captured bytes of a connection once they are due.
+	 */
+	private synchronized int read(ReplayInputStream stream, byte[] b,
+	        int off, int len) throws IOException {
+		if (stream.ended)
+			return -1;
+		if (len == 0)
+			return 0;
+		while (!pending) {
+			if (stream.closed)
+				throw new IOException("Replay closed");
+			if (finished || !advance()) {
+				if (!finished)
+					finish();
+				stream.ended = true;
+				return -1;
+			}
+			if (reader.isConnect()) {
+				// the link dropped here, the next connect goes on after it
+				stream.ended = true;
+				return -1;
+			}
+			pending = true;
+		}
+		if (speed != MAX_SPEED) {
+			long due = baseNanos
+			        + (long) ((reader.getTime() - baseTime) * 1000 / speed);
+			long wait;
+			while (!stream.closed && (wait = due - System.nanoTime()) > 0) {
+				try {
+					wait(wait / 1000000, (int) (wait % 1000000));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Replay interrupted");
+				}
+			}
+		}
+		if (stream.closed)
+			throw new IOException("Replay closed");
+		int n = Math.min(len, reader.getLength() - position);
+		System.arraycopy(reader.getData(), position, b, off, n);
+		position += n;
+		if (position == reader.getLength())
+			pending = false;
+		return n;
+	}
+
+	/**
+	 * @return whether the whole capture was played.
+	 */
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return records of the capture played so far, reads and connects.
+	 */
+	public synchronized long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return us of the capture played so far, from the first connect to the
+	 *         last record.
+	 */
+	public synchronized long getReplayedTime() {
+		return recordCount > 0 ? lastTime - baseTime : 0;
+	}
+
+	/**
+	 * @return connections replayed, including the current one.
+	 */
+	public synchronized long getConnectCount() {
+		return connectCount;
+	}
+
+	private class ReplayInputStream extends InputStream {
+
+		// guarded by the transport
+		private boolean closed = false;
+		private boolean ended = false;
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return ReplayTransport.this.read(this, b, off, len);
+		}
+
+		@Override
+		public void close() {
+			ReplayTransport.this.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,35 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+/**
+ * Notified of {@link TelemetrySession} state changes, on the session thread.
+ */
+public interface SessionListener {
+
+	/**
+	 * The transport is connected and reading starts.
+	 */
+	void onSessionConnected(TelemetrySession session);
+
+	/**
+	 * The transport failed to connect or the stream broke. The transport has
+	 * already been closed. Not called when the session is stopped.
+	 */
+	void onSessionFailed(TelemetrySession session, Exception cause);
+
+}
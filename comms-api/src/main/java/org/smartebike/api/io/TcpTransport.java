@@ -0,0 +1,96 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * {@link TelemetryTransport} over a TCP socket, e.g. to a controller
+ * simulator on the local machine.
+ */
+public class TcpTransport implements TelemetryTransport {
+
+	public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+	private final String host;
+	private final int port;
+	private final int connectTimeout;
+	private volatile Socket socket = null;
+
+	public TcpTransport(String host, int port) {
+		this(host, port, DEFAULT_CONNECT_TIMEOUT);
+	}
+
+	/**
+	 * @param connectTimeout
+	 *            - connect timeout in milliseconds, 0 waits forever.
+	 */
+	public TcpTransport(String host, int port, int connectTimeout) {
+		this.host = host;
+		this.port = port;
+		this.connectTimeout = connectTimeout;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		Socket s = new Socket();
+		socket = s;
+		// small frames should go out right away
+		s.setTcpNoDelay(true);
+		s.connect(new InetSocketAddress(host, port), connectTimeout);
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return connectedSocket().getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return connectedSocket().getOutputStream();
+	}
+
+	private Socket connectedSocket() throws IOException {
+		Socket s = socket;
+		if (s == null || !s.isConnected())
+			throw new IOException("Not connected to " + getName());
+		return s;
+	}
+
+	@Override
+	public boolean isConnected() {
+		Socket s = socket;
+		return s != null && s.isConnected() && !s.isClosed();
+	}
+
+	@Override
+	public void close() throws IOException {
+		Socket s = socket;
+		if (s != null)
+			s.close();
+	}
+
+	@Override
+	public String getName() {
+		return "tcp://" + host + ":" + port;
+	}
+
+}
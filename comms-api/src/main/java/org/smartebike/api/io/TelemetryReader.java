@@ -0,0 +1,99 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.smartebike.api.frame.FrameDecoder;
+
+/**
+ * Reads a telemetry stream in bulk into a reusable buffer and feeds it to a
+ * {@link FrameDecoder}, until the stream ends, fails or the reader is
+ * cancelled.
+ * <p>
+ * {@link #run()} blocks, so it is meant to run on a dedicated thread. A read
+ * blocked on the stream can't be interrupted, so whoever calls
+ * {@link #cancel()} should close the underlying stream or socket as well.
+ */
+public class TelemetryReader implements Runnable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+	private final InputStream in;
+	private final FrameDecoder decoder;
+	private final ReaderListener listener;
+	private final byte[] buffer;
+	private volatile boolean cancelled = false;
+	private volatile long bytesRead;
+
+	public TelemetryReader(InputStream in, FrameDecoder decoder,
+	        ReaderListener listener) {
+		this(in, decoder, listener, DEFAULT_BUFFER_SIZE);
+	}
+
+	public TelemetryReader(InputStream in, FrameDecoder decoder,
+	        ReaderListener listener, int bufferSize) {
+		this.in = in;
+		this.decoder = decoder;
+		this.listener = listener;
+		this.buffer = new byte[bufferSize];
+	}
+
+	@Override
+	public void run() {
+		Exception failure = null;
+		try {
+			int n;
+			while (!cancelled && (n = in.read(buffer)) != -1) {
+				bytesRead += n;
+				decoder.decode(buffer, 0, n);
+			}
+			if (!cancelled)
+				failure = new EOFException("End of telemetry stream.");
+		} catch (IOException e) {
+			// closing the stream to cancel us makes the blocked read fail
+			if (!cancelled)
+				failure = e;
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+
+		if (listener != null)
+			listener.onReaderStopped(this, failure);
+	}
+
+	/**
+	 * Ask the reader to stop after the current read.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return total number of bytes read so far.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+}
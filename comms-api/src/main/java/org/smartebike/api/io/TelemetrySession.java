@@ -0,0 +1,170 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.io.IOException;
+
+import org.smartebike.api.frame.FrameDecoder;
+import org.smartebike.api.frame.FrameListener;
+
+/**
+ * Connects a {@link TelemetryTransport} and decodes its input on a dedicated
+ * thread, until stopped or the connection fails.
+ * <p>
+ * A session runs once. To reconnect, start a new session on the same
+ * transport.
+ */
+public class TelemetrySession implements ReaderListener {
+
+	private final TelemetryTransport transport;
+	private final FrameDecoder decoder;
+	private final SessionListener listener;
+
+	private Thread thread = null;
+	private TelemetryReader reader = null;
+	private volatile boolean running = false;
+
+	/**
+	 * @param transport
+	 *            - the connection to read.
+	 * @param frameListener
+	 *            - receives decoded frames on the session thread.
+	 * @param listener
+	 *            - session state changes, may be <code>null</code>.
+	 */
+	public TelemetrySession(TelemetryTransport transport,
+	        FrameListener frameListener, SessionListener listener) {
+		this.transport = transport;
+		this.decoder = new FrameDecoder(frameListener);
+		this.listener = listener;
+	}
+
+	/**
+	 * Connect and start reading on a new thread.
+	 *
+	 * @param threadName
+	 *            - name of the session thread.
+	 * @throws IllegalStateException
+	 *             if the session has already been started.
+	 */
+	public synchronized void start(String threadName) {
+		if (thread != null)
+			throw new IllegalStateException("Session already started.");
+		running = true;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				runSession();
+			}
+		}, threadName);
+		thread.start();
+	}
+
+	private void runSession() {
+		TelemetryReader sessionReader;
+		try {
+			transport.connect();
+			synchronized (this) {
+				if (!running) {
+					// stopped while we were connecting
+					closeTransport();
+					return;
+				}
+				sessionReader = new TelemetryReader(
+				        transport.getInputStream(), decoder, this);
+				reader = sessionReader;
+			}
+		} catch (Exception e) {
+			// e.g. a SecurityException from the Bluetooth stack, which must
+			// not end the thread without a reconnect
+			fail(e);
+			return;
+		}
+
+		if (listener != null)
+			listener.onSessionConnected(this);
+		sessionReader.run();
+	}
+
+	@Override
+	public void onReaderStopped(TelemetryReader stoppedReader, Exception cause) {
+		if (cause != null)
+			fail(cause);
+	}
+
+	private void fail(Exception cause) {
+		synchronized (this) {
+			if (!running)
+				return;
+			running = false;
+			closeTransport();
+		}
+		if (listener != null)
+			listener.onSessionFailed(this, cause);
+	}
+
+	/**
+	 * Stop reading and close the transport. Does not wait for the session
+	 * thread to exit.
+	 */
+	public synchronized void stop() {
+		if (!running)
+			return;
+		running = false;
+		if (reader != null)
+			reader.cancel();
+		// unblocks the session thread so it can exit
+		closeTransport();
+	}
+
+	private void closeTransport() {
+		try {
+			transport.close();
+		} catch (IOException e) {
+			// nothing left to do with it
+		}
+	}
+
+	/**
+	 * @return whether the session has been started and not stopped or failed.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	public TelemetryTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return the decoder, e.g. to read its counters.
+	 */
+	public FrameDecoder getDecoder() {
+		return decoder;
+	}
+
+	/**
+	 * @return bytes read from the transport so far.
+	 */
+	public long getBytesRead() {
+		TelemetryReader r;
+		synchronized (this) {
+			r = reader;
+		}
+		return r != null ? r.getBytesRead() : 0;
+	}
+
+}
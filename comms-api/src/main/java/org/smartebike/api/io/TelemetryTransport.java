@@ -0,0 +1,67 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A byte stream connection to a Smart EBike controller, or to something that
+ * stands in for one.
+ * <p>
+ * The parsing and dispatch pipeline only sees the streams, so it runs the same
+ * over Bluetooth RFCOMM on the phone, over TCP against a simulator, or from a
+ * recorded file.
+ * <p>
+ * A transport may be connected again after it has been closed.
+ * {@link #close()} may be called from any thread and must unblock pending
+ * reads and an ongoing {@link #connect()}.
+ */
+public interface TelemetryTransport extends Closeable {
+
+	/**
+	 * Open the connection, blocking until it is established.
+	 *
+	 * @throws IOException
+	 *             if the connection can't be established.
+	 */
+	void connect() throws IOException;
+
+	/**
+	 * @return the stream of bytes received from the controller.
+	 * @throws IOException
+	 *             if not connected.
+	 */
+	InputStream getInputStream() throws IOException;
+
+	/**
+	 * @return the stream of bytes sent to the controller.
+	 * @throws IOException
+	 *             if not connected.
+	 */
+	OutputStream getOutputStream() throws IOException;
+
+	boolean isConnected();
+
+	/**
+	 * @return a human readable description of the remote end, for logging.
+	 */
+	String getName();
+
+}
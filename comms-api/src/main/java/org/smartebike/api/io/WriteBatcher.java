@@ -0,0 +1,359 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Gathers outbound frames and writes them to a {@link TelemetryTransport} in
+ * batches, so that many small frames share one write, and one RFCOMM packet,
+ * rather than each getting its own.
+ * <p>
+ * Frames are copied into reusable per-priority buffers, which hold at most
+ * the maximum pending bytes: while the transport is stalled, frames beyond
+ * that are refused rather than queued without bound. A writer thread
+ * sends them when the pending bytes reach the batch size, when the oldest
+ * pending frame has waited the maximum delay, on {@link #flush()}, or right
+ * away when an {@link #URGENT} frame comes in. Each batch puts urgent frames
+ * first, then normal ones, then bulk ones. Frames are never split.
+ * <p>
+ * Writes happen on the writer thread. A failure drops the frames of that
+ * batch and is reported to the {@link WriteListener}, and kept in
+ * {@link #getLastError()}.
+ */
+public class WriteBatcher implements Closeable {
+
+	public static final int URGENT = 0;
+	public static final int NORMAL = 1;
+	public static final int BULK = 2;
+	private static final int PRIORITIES = 3;
+
+	public static final int DEFAULT_BATCH_SIZE = 512;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 5;
+	/**
+	 * 16 KiB, a few seconds of commands even at the highest rates.
+	 */
+	public static final int DEFAULT_MAX_PENDING_BYTES = 16 * 1024;
+
+	/**
+	 * Buckets of the frames per batch histogram: 1, 2-3, 4-7, ... 128 and
+	 * more.
+	 */
+	public static final int HISTOGRAM_BUCKETS = 8;
+
+	private final TelemetryTransport transport;
+	private final int batchSize;
+	private final long maxDelayNanos;
+	private final int maxPendingBytes;
+	private final Thread writer;
+	private volatile WriteListener listener = null;
+
+	// guarded by this
+	private final byte[][] buffers = new byte[PRIORITIES][];
+	private final int[] lengths = new int[PRIORITIES];
+	private int pendingBytes = 0;
+	private int pendingFrames = 0;
+	private long oldestPending = 0;
+	private boolean flushRequested = false;
+	private boolean closed = false;
+
+	// only touched by the writer thread
+	private byte[] batch;
+
+	// written by the writer thread, read by anyone
+	private final AtomicLongArray histogram = new AtomicLongArray(
+	        HISTOGRAM_BUCKETS);
+	private volatile long batchCount;
+	private volatile long frameCount;
+	private volatile long byteCount;
+	private volatile long failedBatchCount;
+	// guarded by this
+	private long refusedFrameCount;
+	private volatile IOException lastError = null;
+
+	public WriteBatcher(TelemetryTransport transport) {
+		this(transport, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS,
+		        DEFAULT_MAX_PENDING_BYTES);
+	}
+
+	/**
+	 * @param batchSize
+	 *            - pending bytes that trigger a write.
+	 * @param maxDelayMillis
+	 *            - longest a frame waits for others to join it.
+	 * @param maxPendingBytes
+	 *            - most bytes waiting to be written, at least the batch
+	 *            size.
+	 */
+	public WriteBatcher(TelemetryTransport transport, int batchSize,
+	        long maxDelayMillis, int maxPendingBytes) {
+		if (maxPendingBytes < batchSize)
+			throw new IllegalArgumentException("Invalid pending limit: "
+			        + maxPendingBytes + " bytes, batches of " + batchSize);
+		this.transport = transport;
+		this.batchSize = batchSize;
+		this.maxDelayNanos = maxDelayMillis * 1000000L;
+		this.maxPendingBytes = maxPendingBytes;
+		for (int i = 0; i < PRIORITIES; i++)
+			buffers[i] = new byte[batchSize];
+		batch = new byte[batchSize];
+		writer = new Thread(new Runnable() {
+			public void run() {
+				runWriter();
+			}
+		}, "SmartEBike-Writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queue a whole frame. Doesn't block on the transport.
+	 *
+	 * @param priority
+	 *            - {@link #URGENT}, {@link #NORMAL} or {@link #BULK}.
+	 * @throws IllegalArgumentException
+	 *             if the priority is none of these.
+	 * @throws IOException
+	 *             if the batcher is closed, or full because the transport
+	 *             doesn't keep up.
+	 */
+	public synchronized void write(byte[] frame, int off, int len,
+	        int priority) throws IOException {
+		if (priority < URGENT || priority > BULK)
+			throw new IllegalArgumentException("Invalid priority: " + priority);
+		if (closed)
+			throw new IOException("Write batcher closed");
+		if (pendingBytes + len > maxPendingBytes) {
+			refusedFrameCount++;
+			throw new IOException("Write batcher full, " + pendingBytes
+			        + " bytes pending");
+		}
+		byte[] buffer = buffers[priority];
+		int length = lengths[priority];
+		if (length + len > buffer.length) {
+			byte[] grown = new byte[Math.min(maxPendingBytes, Math.max(
+			        buffer.length * 2, length + len))];
+			System.arraycopy(buffer, 0, grown, 0, length);
+			buffers[priority] = buffer = grown;
+		}
+		System.arraycopy(frame, off, buffer, length, len);
+		lengths[priority] = length + len;
+
+		if (pendingFrames == 0)
+			oldestPending = System.nanoTime();
+		pendingFrames++;
+		pendingBytes += len;
+		if (priority == URGENT)
+			flushRequested = true;
+		// the writer only needs waking for something it can't time itself
+		if (flushRequested || pendingBytes >= batchSize || pendingFrames == 1)
+			notifyAll();
+	}
+
+	/**
+	 * Have pending frames written without waiting for more.
+	 */
+	public synchronized void flush() {
+		if (pendingFrames == 0)
+			return;
+		flushRequested = true;
+		notifyAll();
+	}
+
+	private void runWriter() {
+		while (true) {
+			int length;
+			int frames;
+			synchronized (this) {
+				try {
+					while (!closed && !isDue())
+						waitForWork();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (pendingFrames == 0)
+					return; // closed, nothing left
+				length = takeBatch();
+				frames = pendingFrames;
+				pendingFrames = 0;
+				pendingBytes = 0;
+				flushRequested = false;
+			}
+			send(length, frames);
+		}
+	}
+
+	private boolean isDue() {
+		return pendingFrames > 0
+		        && (flushRequested || pendingBytes >= batchSize || System
+		                .nanoTime() - oldestPending >= maxDelayNanos);
+	}
+
+	private void waitForWork() throws InterruptedException {
+		if (pendingFrames == 0) {
+			wait();
+			return;
+		}
+		long remaining = maxDelayNanos - (System.nanoTime() - oldestPending);
+		if (remaining > 0)
+			wait(remaining / 1000000L, (int) (remaining % 1000000L));
+	}
+
+	/**
+	 * Move the pending frames into the writer's batch buffer, most urgent
+	 * first.
+	 */
+	private int takeBatch() {
+		if (batch.length < pendingBytes)
+			batch = new byte[pendingBytes];
+		int length = 0;
+		for (int i = 0; i < PRIORITIES; i++) {
+			System.arraycopy(buffers[i], 0, batch, length, lengths[i]);
+			length += lengths[i];
+			lengths[i] = 0;
+		}
+		return length;
+	}
+
+	private void send(int length, int frames) {
+		try {
+			OutputStream out = transport.getOutputStream();
+			out.write(batch, 0, length);
+			out.flush();
+		} catch (IOException e) {
+			lastError = e;
+			failedBatchCount++;
+			WriteListener l = listener;
+			if (l != null)
+				l.onWriteFailed(this, e);
+			return;
+		}
+		batchCount++;
+		frameCount += frames;
+		byteCount += length;
+		int bucket = 31 - Integer.numberOfLeadingZeros(frames);
+		histogram.incrementAndGet(Math.min(bucket, HISTOGRAM_BUCKETS - 1));
+	}
+
+	/**
+	 * @param listener
+	 *            - notified of failed writes, may be <code>null</code>.
+	 */
+	public void setListener(WriteListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Write what is pending and stop the writer thread, see
+	 * {@link #awaitClosed(long)}. Doesn't close the transport.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			flushRequested = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Wait for the writer thread to write what was pending at
+	 * {@link #close()}, e.g. before closing the transport.
+	 *
+	 * @return <code>false</code> if it timed out.
+	 */
+	public boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+		writer.join(timeoutMillis);
+		return !writer.isAlive();
+	}
+
+	/**
+	 * @return writes to the transport, one per batch.
+	 */
+	public long getBatchCount() {
+		return batchCount;
+	}
+
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * @return batches lost to write errors.
+	 */
+	public long getFailedBatchCount() {
+		return failedBatchCount;
+	}
+
+	/**
+	 * @return frames refused because too many bytes were pending.
+	 */
+	public synchronized long getRefusedFrameCount() {
+		return refusedFrameCount;
+	}
+
+	public IOException getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * @return writes saved by batching, frames written minus batches.
+	 */
+	public long getSavedWriteCount() {
+		return frameCount - batchCount;
+	}
+
+	/**
+	 * @return a copy of the frames per batch histogram, bucket i counting
+	 *         batches of 2^i to 2^(i+1) - 1 frames, the last one everything
+	 *         above.
+	 */
+	public long[] getBatchHistogram() {
+		long[] copy = new long[HISTOGRAM_BUCKETS];
+		for (int i = 0; i < HISTOGRAM_BUCKETS; i++)
+			copy[i] = histogram.get(i);
+		return copy;
+	}
+
+	/**
+	 * @return the histogram as text, e.g. for logging.
+	 */
+	public String formatBatchHistogram() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(1 << i);
+			if (i == HISTOGRAM_BUCKETS - 1)
+				sb.append('+');
+			else if (i > 0)
+				sb.append('-').append((2 << i) - 1);
+			sb.append(": ").append(histogram.get(i));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,40 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.merge;
+
+/**
+ * Receives the merged stream of a {@link StreamMerger}.
+ */
+public interface MergeListener {
+
+	/**
+	 * Handle the next sample in timestamp order. Called on the thread that
+	 * made it ready, with the merger locked, so calls never overlap.
+	 *
+	 * @param source
+	 *            - index of the source the sample came from.
+	 * @param values
+	 *            - the sample, only valid until this method returns.
+	 */
+	void onMergedSample(int source, long timestamp, float[] values);
+
+	/**
+	 * Called after the samples that became ready at once were delivered.
+	 */
+	void onMergeEnd();
+
+}
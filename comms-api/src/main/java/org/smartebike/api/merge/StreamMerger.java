@@ -0,0 +1,330 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.merge;
+
+import java.util.Arrays;
+
+/**
+ * Merges the sample streams of several sources, each read on its own thread,
+ * into one stream in timestamp order.
+ * <p>
+ * Every source has a bounded reorder buffer. The sample with the smallest
+ * timestamp among the buffer heads is handed on as soon as no source can
+ * still deliver an earlier one: every other connected source has either
+ * buffered a sample or already sent a later timestamp. A source that falls
+ * silent holds the merge up for at most the maximum delay, measured on the
+ * clock passed to {@link #drain(long)}; disconnected sources don't hold it
+ * up at all. Sources marked periodic, such as a sensor reporting once a
+ * second, hold it up only until their next sample is due: nothing can come
+ * from them before their last timestamp plus the shortest interval seen
+ * between their samples. A full buffer hands on its oldest samples right
+ * away, so memory stays bounded whatever the sources do.
+ * <p>
+ * Samples older than the last one handed on are late: they are dropped and
+ * counted. Within a source, timestamps are expected in order; small steps
+ * back, e.g. from a clock mapping being refined, are evened out to the
+ * previous timestamp.
+ * <p>
+ * All sources share one timestamp unit and clock. Thread safe, nothing is
+ * allocated per sample.
+ */
+public class StreamMerger {
+
+	/**
+	 * Samples buffered per source, about 5 s at 50 samples per second.
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+	/**
+	 * 100 timestamp units, i.e. ms for controller timestamps.
+	 */
+	public static final long DEFAULT_MAX_DELAY = 100;
+
+	private final int channels;
+	private final int capacity;
+	private final long maxDelay;
+	private final MergeListener listener;
+
+	// a ring per source, values at slot * channels
+	private final long[][] timestamps;
+	private final float[][] values;
+	private final int[] heads;
+	private final int[] sizes;
+	private final int[] maxSizes;
+	private final boolean[] active;
+	// newest timestamp offered per source, Long.MIN_VALUE before the first
+	private final long[] latest;
+	// shortest interval between samples per source, Long.MAX_VALUE until known
+	private final long[] minIntervals;
+	private final boolean[] periodic;
+	private final long[] lateCounts;
+	private final float[] sample;
+
+	private long newest = Long.MIN_VALUE;
+	private long lastMerged = Long.MIN_VALUE;
+	private long mergedCount = 0;
+	private long forcedCount = 0;
+	private boolean delivered = false;
+
+	/**
+	 * @param sources
+	 *            - number of sources, all disconnected to begin with.
+	 * @param channels
+	 *            - number of values per sample.
+	 * @param capacity
+	 *            - samples buffered per source.
+	 * @param maxDelay
+	 *            - longest a sample waits for a silent source.
+	 * @param listener
+	 *            - receives the merged stream.
+	 */
+	public StreamMerger(int sources, int channels, int capacity,
+	        long maxDelay, MergeListener listener) {
+		if (sources < 1 || channels < 1 || capacity < 1)
+			throw new IllegalArgumentException("Invalid merger size: "
+			        + sources + " sources, " + channels + " channels, "
+			        + capacity + " samples");
+		this.channels = channels;
+		this.capacity = capacity;
+		this.maxDelay = maxDelay;
+		this.listener = listener;
+		timestamps = new long[sources][capacity];
+		values = new float[sources][capacity * channels];
+		heads = new int[sources];
+		sizes = new int[sources];
+		maxSizes = new int[sources];
+		active = new boolean[sources];
+		latest = new long[sources];
+		minIntervals = new long[sources];
+		periodic = new boolean[sources];
+		lateCounts = new long[sources];
+		sample = new float[channels];
+		Arrays.fill(latest, Long.MIN_VALUE);
+		Arrays.fill(minIntervals, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Buffer a sample. If the buffer of the source is full, the oldest
+	 * samples are handed on first, whether ready or not.
+	 *
+	 * @param values
+	 *            - one value per channel, copied.
+	 * @return <code>false</code> if the sample was late and dropped.
+	 */
+	public synchronized boolean offer(int source, long timestamp,
+	        float[] values) {
+		if (timestamp < latest[source])
+			timestamp = latest[source];
+		else if (latest[source] != Long.MIN_VALUE
+		        && timestamp > latest[source]
+		        && timestamp - latest[source] < minIntervals[source])
+			minIntervals[source] = timestamp - latest[source];
+		if (timestamp < lastMerged) {
+			lateCounts[source]++;
+			return false;
+		}
+		while (sizes[source] == capacity) {
+			deliver(first());
+			forcedCount++;
+		}
+		int slot = (heads[source] + sizes[source]) % capacity;
+		timestamps[source][slot] = timestamp;
+		System.arraycopy(values, 0, this.values[source], slot * channels,
+		        channels);
+		if (++sizes[source] > maxSizes[source])
+			maxSizes[source] = sizes[source];
+		latest[source] = timestamp;
+		if (timestamp > newest)
+			newest = timestamp;
+		return true;
+	}
+
+	/**
+	 * Hand on every sample that is ready.
+	 *
+	 * @param now
+	 *            - the current time on the clock of the timestamps.
+	 */
+	public synchronized void drain(long now) {
+		int source;
+		while ((source = first()) >= 0) {
+			long timestamp = timestamps[source][heads[source]];
+			if (now - timestamp < maxDelay && !isCaughtUp(source, timestamp))
+				break;
+			deliver(source);
+		}
+		end();
+	}
+
+	/**
+	 * Hand on all buffered samples, e.g. before stopping.
+	 */
+	public synchronized void flush() {
+		int source;
+		while ((source = first()) >= 0)
+			deliver(source);
+		end();
+	}
+
+	/**
+	 * Hand on all buffered samples and start over, for when the clock of the
+	 * timestamps was restarted.
+	 */
+	public synchronized void reset() {
+		flush();
+		Arrays.fill(latest, Long.MIN_VALUE);
+		newest = Long.MIN_VALUE;
+		lastMerged = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Mark a source connected or not. Only connected sources hold up the
+	 * merge, call {@link #drain(long)} after disconnecting one.
+	 */
+	public synchronized void setActive(int source, boolean active) {
+		this.active[source] = active;
+	}
+
+	/**
+	 * Mark a source as sampling at a steady rate, so the merge only waits for
+	 * it when its next sample is due. Its samples that come sooner than the
+	 * shortest interval seen so far may be late.
+	 */
+	public synchronized void setPeriodic(int source, boolean periodic) {
+		this.periodic[source] = periodic;
+	}
+
+	/**
+	 * @return the source with the oldest buffered sample, -1 if none.
+	 */
+	private int first() {
+		int first = -1;
+		long oldest = Long.MAX_VALUE;
+		for (int i = 0; i < sizes.length; i++) {
+			if (sizes[i] > 0
+			        && (first < 0 || timestamps[i][heads[i]] < oldest)) {
+				first = i;
+				oldest = timestamps[i][heads[i]];
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * @return whether no other connected source can still deliver a sample
+	 *         before the timestamp.
+	 */
+	private boolean isCaughtUp(int source, long timestamp) {
+		for (int i = 0; i < sizes.length; i++)
+			if (i != source && active[i] && sizes[i] == 0
+			        && getNextPossible(i) < timestamp)
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return the earliest timestamp a source can still deliver.
+	 */
+	private long getNextPossible(int source) {
+		if (periodic[source] && minIntervals[source] != Long.MAX_VALUE
+		        && latest[source] != Long.MIN_VALUE)
+			return latest[source] + minIntervals[source];
+		return latest[source];
+	}
+
+	private void deliver(int source) {
+		int head = heads[source];
+		long timestamp = timestamps[source][head];
+		System.arraycopy(values[source], head * channels, sample, 0, channels);
+		heads[source] = (head + 1) % capacity;
+		sizes[source]--;
+		lastMerged = timestamp;
+		mergedCount++;
+		delivered = true;
+		listener.onMergedSample(source, timestamp, sample);
+	}
+
+	private void end() {
+		if (delivered) {
+			delivered = false;
+			listener.onMergeEnd();
+		}
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * @return whether samples are waiting to be handed on.
+	 */
+	public synchronized boolean hasPending() {
+		for (int size : sizes)
+			if (size > 0)
+				return true;
+		return false;
+	}
+
+	public synchronized boolean isActive(int source) {
+		return active[source];
+	}
+
+	/**
+	 * @return samples of a source waiting in its buffer.
+	 */
+	public synchronized int getBuffered(int source) {
+		return sizes[source];
+	}
+
+	/**
+	 * @return the most samples a source had waiting at once.
+	 */
+	public synchronized int getMaxBuffered(int source) {
+		return maxSizes[source];
+	}
+
+	/**
+	 * @return how far the newest timestamp of a source trails the newest of
+	 *         all sources, -1 if it hasn't delivered anything yet.
+	 */
+	public synchronized long getLag(int source) {
+		return latest[source] == Long.MIN_VALUE ? -1 : newest
+		        - latest[source];
+	}
+
+	/**
+	 * @return samples of a source dropped for arriving too late.
+	 */
+	public synchronized long getLateCount(int source) {
+		return lateCounts[source];
+	}
+
+	/**
+	 * @return samples handed on.
+	 */
+	public synchronized long getMergedCount() {
+		return mergedCount;
+	}
+
+	/**
+	 * @return samples handed on before they were ready because a buffer was
+	 *         full.
+	 */
+	public synchronized long getForcedCount() {
+		return forcedCount;
+	}
+
+}
@@ -0,0 +1,78 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.metrics;
+
+/**
+ * Maps timestamps of a remote clock, such as the controller's, to the local
+ * clock, so latencies can be measured from the moment a sample was taken.
+ * <p>
+ * The offset is the smallest difference between arrival time and remote
+ * timestamp seen so far. Latencies measured with it are relative to the
+ * fastest delivery observed, which leaves out the constant part of the link
+ * delay but shows all queuing and jitter on top of it. Reset it when the
+ * remote clock may have restarted, e.g. on reconnecting.
+ * <p>
+ * Updated by a single thread, read by any.
+ */
+public class ClockOffset {
+
+	private volatile long offset;
+	private volatile boolean valid = false;
+
+	/**
+	 * Account for a timestamp that just arrived.
+	 *
+	 * @param remote
+	 *            - the remote timestamp.
+	 * @param local
+	 *            - the local time of arrival, in the same unit.
+	 */
+	public void observe(long remote, long local) {
+		long difference = local - remote;
+		if (!valid || difference < offset) {
+			offset = difference;
+			valid = true;
+		}
+	}
+
+	/**
+	 * @return the local time matching a remote timestamp.
+	 */
+	public long toLocal(long remote) {
+		return remote + offset;
+	}
+
+	/**
+	 * @return the remote timestamp matching a local time, e.g. to put the
+	 *         timestamps of another remote clock on this one.
+	 */
+	public long toRemote(long local) {
+		return local - offset;
+	}
+
+	/**
+	 * @return whether a timestamp was observed since the last reset.
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	public void reset() {
+		valid = false;
+	}
+
+}
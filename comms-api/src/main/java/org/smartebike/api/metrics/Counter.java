@@ -0,0 +1,45 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that only goes up. Safe to update from any thread, without locks.
+ */
+public class Counter implements Metric {
+
+	private final AtomicLong value = new AtomicLong();
+
+	public void increment() {
+		value.incrementAndGet();
+	}
+
+	public void add(long n) {
+		value.addAndGet(n);
+	}
+
+	public long get() {
+		return value.get();
+	}
+
+	@Override
+	public void appendTo(StringBuilder out) {
+		out.append(value.get());
+	}
+
+}
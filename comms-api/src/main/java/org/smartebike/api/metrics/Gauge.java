@@ -0,0 +1,46 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.metrics;
+
+/**
+ * A value read on demand, e.g. from the counters an object already keeps.
+ *
+ * <pre>
+ * registry.register(&quot;link.bytes&quot;, new Gauge() {
+ * 	public double getValue() {
+ * 		return session.getBytesRead();
+ * 	}
+ * });
+ * </pre>
+ */
+public abstract class Gauge implements Metric {
+
+	/**
+	 * Called on the thread reading the registry.
+	 */
+	public abstract double getValue();
+
+	@Override
+	public void appendTo(StringBuilder out) {
+		double value = getValue();
+		if (value == (long) value)
+			out.append((long) value);
+		else
+			out.append(String.format("%.2f", value));
+	}
+
+}
@@ -0,0 +1,145 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of values, e.g. latencies, counted in fixed buckets. Recording
+ * takes a binary search and a few atomic updates, without locks or
+ * allocation, so any number of threads may record at the same time.
+ * <p>
+ * Percentiles are reported as the upper bound of the bucket they fall in, so
+ * they are only as precise as the buckets. Reads while values are being
+ * recorded may be slightly inconsistent.
+ */
+public class Histogram implements Metric {
+
+	private final long[] bounds;
+	// one per bound, plus one for values above the last bound
+	private final AtomicLongArray buckets;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * @param bounds
+	 *            - inclusive upper bounds of the buckets, ascending.
+	 */
+	public Histogram(long[] bounds) {
+		if (bounds.length == 0)
+			throw new IllegalArgumentException("No buckets");
+		for (int i = 1; i < bounds.length; i++)
+			if (bounds[i] <= bounds[i - 1])
+				throw new IllegalArgumentException(
+				        "Bounds must be ascending: " + Arrays.toString(bounds));
+		this.bounds = bounds.clone();
+		this.buckets = new AtomicLongArray(bounds.length + 1);
+	}
+
+	/**
+	 * @return bounds starting at <code>first</code> and doubling, e.g. 1, 2,
+	 *         4, 8...
+	 */
+	public static long[] exponentialBounds(long first, int count) {
+		long[] bounds = new long[count];
+		for (int i = 0; i < count; i++)
+			bounds[i] = first << i;
+		return bounds;
+	}
+
+	public void record(long value) {
+		int i = Arrays.binarySearch(bounds, value);
+		buckets.incrementAndGet(i >= 0 ? i : -i - 1);
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long m;
+		while (value > (m = max.get()) && !max.compareAndSet(m, value))
+			;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the mean, 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @return the largest value recorded, 0 if none was.
+	 */
+	public long getMax() {
+		return count.get() == 0 ? 0 : max.get();
+	}
+
+	/**
+	 * @param percentile
+	 *            - 0 to 100.
+	 * @return upper bound of the bucket the percentile falls in, the maximum
+	 *         if it's in the overflow bucket, 0 if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0)
+			return 0;
+		long rank = (long) Math.ceil(n * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < bounds.length; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank)
+				return Math.min(bounds[i], getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return number of bucket counts, one more than bounds.
+	 */
+	public int getBucketCount() {
+		return bounds.length + 1;
+	}
+
+	/**
+	 * @return values counted in a bucket, the last one holding those above
+	 *         all bounds.
+	 */
+	public long getBucket(int bucket) {
+		return buckets.get(bucket);
+	}
+
+	public long getBound(int bucket) {
+		return bounds[bucket];
+	}
+
+	@Override
+	public void appendTo(StringBuilder out) {
+		out.append("count=").append(getCount())
+		        .append(" mean=").append(Math.round(getMean()))
+		        .append(" p50=").append(getPercentile(50))
+		        .append(" p90=").append(getPercentile(90))
+		        .append(" p99=").append(getPercentile(99))
+		        .append(" max=").append(getMax());
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named {@link Metric}s of the telemetry pipeline, in one place so they can
+ * be shown on screen or dumped to a file.
+ * <p>
+ * Look up counters and histograms once and keep them, updating them is
+ * cheap but looking them up isn't. Names are dot separated, e.g.
+ * <code>link.bytes</code>. Thread safe.
+ */
+public class MetricsRegistry {
+
+	private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+	/**
+	 * @return the counter of a name, created if there is none.
+	 * @throws IllegalArgumentException
+	 *             if the name is taken by another kind of metric.
+	 */
+	public Counter counter(String name) {
+		return get(name, new Counter(), Counter.class);
+	}
+
+	/**
+	 * @param bounds
+	 *            - bucket bounds, only used if the histogram is created.
+	 * @return the histogram of a name, created if there is none.
+	 * @throws IllegalArgumentException
+	 *             if the name is taken by another kind of metric.
+	 */
+	public Histogram histogram(String name, long[] bounds) {
+		Histogram existing = get(name, null, Histogram.class);
+		return existing != null ? existing : get(name, new Histogram(bounds),
+		        Histogram.class);
+	}
+
+	private <T extends Metric> T get(String name, T created, Class<T> type) {
+		Metric metric = metrics.get(name);
+		if (metric == null && created != null) {
+			metric = metrics.putIfAbsent(name, created);
+			if (metric == null)
+				metric = created;
+		}
+		if (metric != null && !type.isInstance(metric))
+			throw new IllegalArgumentException(name + " is a "
+			        + metric.getClass().getSimpleName());
+		return type.cast(metric);
+	}
+
+	/**
+	 * Add a metric, such as a {@link Gauge}, replacing any of the same name.
+	 */
+	public void register(String name, Metric metric) {
+		metrics.put(name, metric);
+	}
+
+	public void remove(String name) {
+		metrics.remove(name);
+	}
+
+	public Metric get(String name) {
+		return metrics.get(name);
+	}
+
+	/**
+	 * Append one line per metric, sorted by name.
+	 */
+	public void appendTo(StringBuilder out) {
+		for (Map.Entry<String, Metric> entry : new TreeMap<String, Metric>(
+		        metrics).entrySet()) {
+			out.append(entry.getKey()).append(": ");
+			entry.getValue().appendTo(out);
+			out.append('\n');
+		}
+	}
+
+	public String format() {
+		StringBuilder out = new StringBuilder();
+		appendTo(out);
+		return out.toString();
+	}
+
+	/**
+	 * Append the current values to a file, after a line with the time.
+	 */
+	public void dump(File file) throws IOException {
+		StringBuilder out = new StringBuilder();
+		out.append("# ").append(new Date()).append('\n');
+		appendTo(out);
+		out.append('\n');
+		Writer writer = new FileWriter(file, true);
+		try {
+			writer.write(out.toString());
+		} finally {
+			writer.close();
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.metrics;
+
+/**
+ * The rate per second at which another, growing gauge increases, e.g. bytes
+ * per second from a byte count. Measured between evaluations at least
+ * {@link #MIN_INTERVAL_MILLIS} apart, reads in between repeat the last rate.
+ */
+public class Rate extends Gauge {
+
+	public static final long MIN_INTERVAL_MILLIS = 1000;
+
+	private final Gauge total;
+	private long lastNanos = 0;
+	private double lastTotal;
+	private double rate = 0;
+
+	/**
+	 * @param total
+	 *            - the gauge to derive the rate of.
+	 */
+	public Rate(Gauge total) {
+		this.total = total;
+	}
+
+	@Override
+	public synchronized double getValue() {
+		long now = System.nanoTime();
+		if (lastNanos == 0) {
+			lastNanos = now;
+			lastTotal = total.getValue();
+		} else if (now - lastNanos >= MIN_INTERVAL_MILLIS * 1000000L) {
+			double value = total.getValue();
+			// a total that went down was reset, start over from it
+			rate = value < lastTotal ? 0 : (value - lastTotal) * 1e9
+			        / (now - lastNanos);
+			lastNanos = now;
+			lastTotal = value;
+		}
+		return rate;
+	}
+
+}
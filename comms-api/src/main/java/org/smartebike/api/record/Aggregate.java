@@ -0,0 +1,81 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.record;
+
+/**
+ * Count, min, max and sum of one channel over a time range, as returned by
+ * {@link RideReader#aggregate(long, long, int)}.
+ */
+public class Aggregate {
+
+	long count = 0;
+	float min = Float.NaN;
+	float max = Float.NaN;
+	double sum = 0;
+
+	void add(float value) {
+		add(1, value, value, value);
+	}
+
+	void add(int n, float blockMin, float blockMax, double blockSum) {
+		if (count == 0) {
+			min = blockMin;
+			max = blockMax;
+		} else {
+			min = Math.min(min, blockMin);
+			max = Math.max(max, blockMax);
+		}
+		count += n;
+		sum += blockSum;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the minimum, NaN if there were no records.
+	 */
+	public float getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the maximum, NaN if there were no records.
+	 */
+	public float getMax() {
+		return max;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return the mean, NaN if there were no records.
+	 */
+	public double getMean() {
+		return count > 0 ? sum / count : Double.NaN;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + " min=" + min + " max=" + max + " mean="
+		        + getMean();
+	}
+
+}
@@ -0,0 +1,98 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.record;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Ties the record timestamps of a ride, on the controller's clock, to the
+ * wall clock. {@link RideRecorder} takes it when the first record is
+ * appended and keeps it in {@link #FILE_NAME} next to the segments:
+ *
+ * <pre>
+ *   0  int    magic 'SEBA'
+ *   4  short  version
+ *   6  short  reserved
+ *   8  long   record timestamp
+ *  16  long   wall clock time of the record, ms since the epoch
+ * </pre>
+ */
+public class RideAnchor {
+
+	public static final String FILE_NAME = "anchor.dat";
+
+	private static final int MAGIC = 0x53454241;
+	private static final int VERSION = 1;
+
+	private final long timestamp;
+	private final long wallClock;
+
+	public RideAnchor(long timestamp, long wallClock) {
+		this.timestamp = timestamp;
+		this.wallClock = wallClock;
+	}
+
+	/**
+	 * @return the wall clock time of a record timestamp, ms since the epoch.
+	 */
+	public long toWallClock(long recordTimestamp) {
+		return wallClock + recordTimestamp - timestamp;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public long getWallClock() {
+		return wallClock;
+	}
+
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		        new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(0);
+			out.writeLong(timestamp);
+			out.writeLong(wallClock);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static RideAnchor read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+		        new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readShort() != VERSION)
+				throw new IOException("Not a ride anchor: " + file);
+			in.readShort();
+			return new RideAnchor(in.readLong(), in.readLong());
+		} finally {
+			in.close();
+		}
+	}
+
+}
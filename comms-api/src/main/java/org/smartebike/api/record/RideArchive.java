@@ -0,0 +1,302 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.record;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.smartebike.api.codec.BitReader;
+import org.smartebike.api.codec.BitWriter;
+import org.smartebike.api.codec.SampleDecoder;
+import org.smartebike.api.codec.SampleEncoder;
+
+/**
+ * A finished ride compressed into a single file, for keeping or copying off
+ * the device. The records are encoded by a {@link SampleEncoder} in blocks
+ * that can be decoded on their own (big endian):
+ *
+ * <pre>
+ * header                        block
+ *   0  int    magic 'SEBZ'        0  int    record count
+ *   4  short  format version      4  long   min timestamp
+ *   6  short  channels           12  long   max timestamp
+ *                                20  int    encoded length
+ *                                24  ...    encoded records
+ * </pre>
+ *
+ * The segments being recorded keep their fixed width records, which can be
+ * written in place and recovered after a crash. Only the block headers are
+ * read on opening, and time range queries skip the blocks that don't overlap.
+ * Not thread safe.
+ */
+public class RideArchive implements Closeable {
+
+	public static final int MAGIC = 0x5345425A;
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+	private static final int BLOCK_HEADER_SIZE = 24;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final int channels;
+	private int blockCount = 0;
+	private long recordCount = 0;
+	// per block: file offset of the encoded records, counts, lengths, bounds
+	private long[] offsets = new long[16];
+	private int[] counts = new int[16];
+	private int[] lengths = new int[16];
+	private long[] minTimestamps = new long[16];
+	private long[] maxTimestamps = new long[16];
+
+	private byte[] buffer = new byte[0];
+	private final BitReader bits = new BitReader();
+	private final SampleDecoder decoder;
+	private final float[] values;
+
+	/**
+	 * Open an archive and read its block headers.
+	 */
+	public RideArchive(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC)
+				throw new IOException("Not a ride archive: " + file);
+			if (raf.readShort() != VERSION)
+				throw new IOException("Unsupported ride archive version: "
+				        + file);
+			channels = raf.readShort();
+			if (channels < 1)
+				throw new IOException("Corrupt ride archive header: " + file);
+			readBlockHeaders();
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		decoder = new SampleDecoder(channels);
+		values = new float[channels];
+	}
+
+	private void readBlockHeaders() throws IOException {
+		long length = raf.length();
+		long position = HEADER_SIZE;
+		while (position + BLOCK_HEADER_SIZE <= length) {
+			raf.seek(position);
+			int count = raf.readInt();
+			long min = raf.readLong();
+			long max = raf.readLong();
+			int encoded = raf.readInt();
+			position += BLOCK_HEADER_SIZE;
+			if (count < 0 || encoded < 0 || position + encoded > length)
+				throw new IOException("Corrupt ride archive block at "
+				        + (position - BLOCK_HEADER_SIZE) + ": " + file);
+			if (blockCount == offsets.length)
+				grow();
+			offsets[blockCount] = position;
+			counts[blockCount] = count;
+			lengths[blockCount] = encoded;
+			minTimestamps[blockCount] = min;
+			maxTimestamps[blockCount] = max;
+			blockCount++;
+			recordCount += count;
+			position += encoded;
+		}
+	}
+
+	private void grow() {
+		int size = offsets.length * 2;
+		offsets = Arrays.copyOf(offsets, size);
+		counts = Arrays.copyOf(counts, size);
+		lengths = Arrays.copyOf(lengths, size);
+		minTimestamps = Arrays.copyOf(minTimestamps, size);
+		maxTimestamps = Arrays.copyOf(maxTimestamps, size);
+	}
+
+	/**
+	 * Compress a recorded ride into an archive file.
+	 *
+	 * @return the size of the archive in bytes.
+	 */
+	public static long write(RideReader ride, File file) throws IOException {
+		return write(ride, file, SegmentIndex.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param blockSize
+	 *            - records per block.
+	 */
+	public static long write(RideReader ride, File file, int blockSize)
+	        throws IOException {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("Invalid block size: "
+			        + blockSize);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		        new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(ride.getChannels());
+			BlockWriter blocks = new BlockWriter(out, ride.getChannels(),
+			        blockSize);
+			ride.query(Long.MIN_VALUE, Long.MAX_VALUE, blocks);
+			blocks.flush();
+			if (blocks.error != null)
+				throw blocks.error;
+		} finally {
+			out.close();
+		}
+		return file.length();
+	}
+
+	/**
+	 * Encodes the records it visits into blocks.
+	 */
+	private static class BlockWriter implements RecordVisitor {
+
+		private final DataOutputStream out;
+		private final SampleEncoder encoder;
+		private final BitWriter bits;
+		private final int blockSize;
+		private long min;
+		private long max;
+		private IOException error = null;
+
+		BlockWriter(DataOutputStream out, int channels, int blockSize) {
+			this.out = out;
+			this.encoder = new SampleEncoder(channels);
+			this.bits = new BitWriter(blockSize * (8 + 4 * channels));
+			this.blockSize = blockSize;
+		}
+
+		@Override
+		public void visit(long timestamp, float[] values) {
+			if (encoder.getCount() == 0) {
+				min = timestamp;
+				max = timestamp;
+			} else {
+				min = Math.min(min, timestamp);
+				max = Math.max(max, timestamp);
+			}
+			encoder.encode(bits, timestamp, values);
+			if (encoder.getCount() == blockSize)
+				flush();
+		}
+
+		void flush() {
+			if (encoder.getCount() == 0 || error != null)
+				return;
+			try {
+				out.writeInt(encoder.getCount());
+				out.writeLong(min);
+				out.writeLong(max);
+				out.writeInt(bits.bytesUsed());
+				out.write(bits.array(), 0, bits.bytesUsed());
+			} catch (IOException e) {
+				// query() can't throw it, write() does
+				error = e;
+			}
+			encoder.reset();
+			bits.reset();
+		}
+
+	}
+
+	/**
+	 * Visit every record with a timestamp in [from, to), in recording order.
+	 *
+	 * @return number of records visited.
+	 */
+	public long query(long from, long to, RecordVisitor visitor)
+	        throws IOException {
+		long visited = 0;
+		for (int b = 0; b < blockCount; b++) {
+			if (maxTimestamps[b] < from || minTimestamps[b] >= to)
+				continue;
+			if (buffer.length < lengths[b])
+				buffer = new byte[lengths[b]];
+			raf.seek(offsets[b]);
+			raf.readFully(buffer, 0, lengths[b]);
+			bits.wrap(buffer, 0, lengths[b]);
+			decoder.reset();
+			for (int r = 0; r < counts[b]; r++) {
+				long timestamp;
+				try {
+					timestamp = decoder.decode(bits, values);
+				} catch (IllegalStateException e) {
+					throw new IOException("Corrupt ride archive block " + b
+					        + ": " + file);
+				}
+				if (timestamp >= from && timestamp < to) {
+					visitor.visit(timestamp, values);
+					visited++;
+				}
+			}
+		}
+		return visited;
+	}
+
+	@Override
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return the earliest timestamp, {@link Long#MAX_VALUE} if the archive
+	 *         is empty.
+	 */
+	public long getStartTime() {
+		long start = Long.MAX_VALUE;
+		for (int b = 0; b < blockCount; b++)
+			start = Math.min(start, minTimestamps[b]);
+		return start;
+	}
+
+	/**
+	 * @return the latest timestamp, {@link Long#MIN_VALUE} if the archive is
+	 *         empty.
+	 */
+	public long getEndTime() {
+		long end = Long.MIN_VALUE;
+		for (int b = 0; b < blockCount; b++)
+			end = Math.max(end, maxTimestamps[b]);
+		return end;
+	}
+
+}
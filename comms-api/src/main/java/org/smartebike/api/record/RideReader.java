@@ -0,0 +1,251 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Read-only access to a ride recorded by {@link RideRecorder}, with time
+ * range and aggregate queries answered through the {@link SegmentIndex} of
+ * each segment.
+ * <p>
+ * Ranges are in record timestamps, from inclusive to exclusive. Blocks whose
+ * time bounds don't overlap the range are skipped without touching their
+ * records, and aggregates use the block summaries for blocks that lie
+ * entirely inside the range, so only the blocks at its edges are scanned.
+ * <p>
+ * Works on a plain JVM, e.g. for analysis of rides copied off the device.
+ * Not thread safe.
+ */
+public class RideReader implements Closeable {
+
+	private final File directory;
+	private final RideSegment[] segments;
+	private final SegmentIndex[] indexes;
+	// indexes that were built by scanning rather than loaded
+	private final boolean[] rebuilt;
+	private final int channels;
+	private final float[] values;
+	private final RideAnchor anchor;
+
+	/**
+	 * Open all segments of a ride. Segments without an up to date index are
+	 * indexed on the spot.
+	 */
+	public RideReader(File directory) throws IOException {
+		this.directory = directory;
+		File[] files = RideRecorder.listSegments(directory);
+		if (files.length == 0)
+			throw new IOException("No ride segments in " + directory);
+
+		segments = new RideSegment[files.length];
+		indexes = new SegmentIndex[files.length];
+		rebuilt = new boolean[files.length];
+		try {
+			for (int i = 0; i < files.length; i++) {
+				segments[i] = RideSegment.open(files[i], false);
+				indexes[i] = loadIndex(segments[i]);
+				if (indexes[i] == null) {
+					indexes[i] = SegmentIndex.build(segments[i],
+					        SegmentIndex.DEFAULT_BLOCK_SIZE);
+					rebuilt[i] = true;
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		channels = segments[0].getChannels();
+		values = new float[channels];
+		anchor = loadAnchor(new File(directory, RideAnchor.FILE_NAME));
+	}
+
+	/**
+	 * @return the anchor in a file, <code>null</code> if there is no valid
+	 *         one, e.g. for rides recorded before anchors were.
+	 */
+	private static RideAnchor loadAnchor(File file) {
+		if (file.isFile()) {
+			try {
+				return RideAnchor.read(file);
+			} catch (IOException e) {
+				// damaged, do without
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the index stored next to a segment, <code>null</code> if there
+	 *         is no up to date one.
+	 */
+	private static SegmentIndex loadIndex(RideSegment segment) {
+		File file = SegmentIndex.indexFile(segment.getFile());
+		if (file.isFile()) {
+			try {
+				SegmentIndex index = SegmentIndex.read(file);
+				if (index.getRecordCount() == segment.getCount()
+				        && index.getChannels() == segment.getChannels())
+					return index;
+			} catch (IOException e) {
+				// stale or damaged, rebuild it
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Visit every record with a timestamp in [from, to), in recording order.
+	 *
+	 * @return number of records visited.
+	 */
+	public long query(long from, long to, RecordVisitor visitor) {
+		long visited = 0;
+		for (int s = 0; s < segments.length; s++) {
+			RideSegment segment = segments[s];
+			SegmentIndex index = indexes[s];
+			for (int b = 0; b < index.getBlockCount(); b++) {
+				if (!overlaps(index, b, from, to))
+					continue;
+				int end = index.getBlockStart(b) + index.getBlockLength(b);
+				for (int r = index.getBlockStart(b); r < end; r++) {
+					long timestamp = segment.read(r, values);
+					if (timestamp >= from && timestamp < to) {
+						visitor.visit(timestamp, values);
+						visited++;
+					}
+				}
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Count, min, max and sum of a channel over [from, to).
+	 */
+	public Aggregate aggregate(long from, long to, int channel) {
+		if (channel < 0 || channel >= channels)
+			throw new IndexOutOfBoundsException("channel " + channel + " of "
+			        + channels);
+		Aggregate aggregate = new Aggregate();
+		for (int s = 0; s < segments.length; s++) {
+			RideSegment segment = segments[s];
+			SegmentIndex index = indexes[s];
+			for (int b = 0; b < index.getBlockCount(); b++) {
+				if (!overlaps(index, b, from, to))
+					continue;
+				if (index.getMinTimestamp(b) >= from
+				        && index.getMaxTimestamp(b) < to) {
+					// whole block is in range, its summary will do
+					aggregate.add(index.getBlockLength(b),
+					        index.getMin(b, channel), index.getMax(b, channel),
+					        index.getSum(b, channel));
+					continue;
+				}
+				int end = index.getBlockStart(b) + index.getBlockLength(b);
+				for (int r = index.getBlockStart(b); r < end; r++) {
+					long timestamp = segment.getTimestamp(r);
+					if (timestamp >= from && timestamp < to)
+						aggregate.add(segment.getValue(r, channel));
+				}
+			}
+		}
+		return aggregate;
+	}
+
+	private static boolean overlaps(SegmentIndex index, int block, long from,
+	        long to) {
+		return index.getMaxTimestamp(block) >= from
+		        && index.getMinTimestamp(block) < to;
+	}
+
+	/**
+	 * Write the indexes that had to be built by scanning, so the next reader
+	 * can load them instead.
+	 */
+	public void saveIndexes() throws IOException {
+		for (int s = 0; s < segments.length; s++) {
+			if (rebuilt[s]) {
+				indexes[s].write(SegmentIndex.indexFile(segments[s].getFile()));
+				rebuilt[s] = false;
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		for (RideSegment segment : segments) {
+			if (segment == null)
+				continue;
+			try {
+				segment.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return what ties the record timestamps to the wall clock,
+	 *         <code>null</code> if the ride has no anchor.
+	 */
+	public RideAnchor getAnchor() {
+		return anchor;
+	}
+
+	public long getRecordCount() {
+		long count = 0;
+		for (RideSegment segment : segments)
+			count += segment.getCount();
+		return count;
+	}
+
+	/**
+	 * @return the earliest timestamp, {@link Long#MAX_VALUE} if the ride is
+	 *         empty.
+	 */
+	public long getStartTime() {
+		long start = Long.MAX_VALUE;
+		for (SegmentIndex index : indexes)
+			for (int b = 0; b < index.getBlockCount(); b++)
+				start = Math.min(start, index.getMinTimestamp(b));
+		return start;
+	}
+
+	/**
+	 * @return the latest timestamp, {@link Long#MIN_VALUE} if the ride is
+	 *         empty.
+	 */
+	public long getEndTime() {
+		long end = Long.MIN_VALUE;
+		for (SegmentIndex index : indexes)
+			for (int b = 0; b < index.getBlockCount(); b++)
+				end = Math.max(end, index.getMaxTimestamp(b));
+		return end;
+	}
+
+}
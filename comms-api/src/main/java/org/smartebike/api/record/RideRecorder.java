@@ -0,0 +1,375 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records a ride as a directory of {@link RideSegment} files.
+ * <p>
+ * {@link #append(long, float[])} is meant to be called from the reader
+ * thread. It writes the record straight into the mapped segment and never
+ * does I/O itself: once a segment is half full, the next one is created and
+ * mapped on a background thread, and full segments are committed, forced to
+ * storage and closed there too. Should the next segment not be ready in time,
+ * records are dropped and counted rather than waiting for it.
+ * <p>
+ * Opening a directory that already holds segments, e.g. after a crash,
+ * recovers the tail of the last one and appends after it.
+ * <p>
+ * A {@link SegmentIndex} is kept up to date for the current segment and
+ * written next to it when it is retired, see {@link RideReader}. The first
+ * record appended to a ride also leaves a {@link RideAnchor}, written on the
+ * background thread.
+ */
+public class RideRecorder implements Closeable {
+
+	/**
+	 * 8 MiB, about half a million single channel records.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 8 << 20;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".ride";
+
+	private final File directory;
+	private final int channels;
+	private final int segmentSize;
+	private final ExecutorService background;
+
+	private RideSegment current = null;
+	private SegmentIndex currentIndex = null;
+	private Future<RideSegment> next = null;
+	private boolean closed = false;
+	private boolean anchored = false;
+	private volatile IOException lastError = null;
+
+	private volatile long recordCount;
+	private volatile long droppedCount;
+	private volatile int segmentCount;
+
+	public RideRecorder(File directory, int channels) {
+		this(directory, channels, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param directory
+	 *            - where the segment files of this ride go.
+	 * @param channels
+	 *            - number of float values per record.
+	 * @param segmentSize
+	 *            - size of each segment file in bytes.
+	 */
+	public RideRecorder(File directory, int channels, int segmentSize) {
+		if (channels < 1)
+			throw new IllegalArgumentException("Invalid channel count: "
+			        + channels);
+		this.directory = directory;
+		this.channels = channels;
+		this.segmentSize = segmentSize;
+		this.background = Executors
+		        .newSingleThreadExecutor(new ThreadFactory() {
+			        public Thread newThread(Runnable r) {
+				        Thread t = new Thread(r, "SmartEBike-Recorder");
+				        t.setDaemon(true);
+				        return t;
+			        }
+		        });
+	}
+
+	/**
+	 * Map the first segment, or recover and reopen the last one if the
+	 * directory already holds a ride. Does I/O on the calling thread.
+	 */
+	public synchronized void open() throws IOException {
+		if (closed)
+			throw new IOException("Recorder is closed");
+		if (current != null)
+			throw new IllegalStateException("Recorder already opened");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Can't create " + directory);
+		// a recovered ride keeps the anchor of its first record
+		anchored = new File(directory, RideAnchor.FILE_NAME).isFile();
+
+		File[] existing = listSegments(directory);
+		if (existing.length == 0) {
+			current = createSegment(0);
+			currentIndex = newIndex(current);
+		} else {
+			RideSegment last = RideSegment.open(
+			        existing[existing.length - 1], true);
+			if (last.getChannels() != channels) {
+				last.close();
+				throw new IOException("Ride in " + directory + " has "
+				        + last.getChannels() + " channels, not " + channels);
+			}
+			segmentCount = existing.length;
+			if (last.isFull()) {
+				retire(last, SegmentIndex.build(last,
+				        SegmentIndex.DEFAULT_BLOCK_SIZE));
+				current = createSegment(last.getIndex() + 1);
+				currentIndex = newIndex(current);
+			} else {
+				current = last;
+				currentIndex = SegmentIndex.build(last,
+				        SegmentIndex.DEFAULT_BLOCK_SIZE);
+			}
+		}
+	}
+
+	/**
+	 * @return whether {@link #open()} succeeded and the recorder isn't closed
+	 *         yet.
+	 */
+	public synchronized boolean isOpen() {
+		return current != null;
+	}
+
+	/**
+	 * Append one record. Called from a single producer thread.
+	 *
+	 * @param values
+	 *            - one value per channel.
+	 * @return <code>false</code> if the record was dropped, because the
+	 *         recorder isn't open or the next segment wasn't ready.
+	 */
+	public synchronized boolean append(long timestamp, float[] values) {
+		if (current == null || closed) {
+			droppedCount++;
+			return false;
+		}
+		if (!current.append(timestamp, values)) {
+			if (!rotate()) {
+				droppedCount++;
+				return false;
+			}
+			current.append(timestamp, values);
+		}
+		currentIndex.add(timestamp, values);
+		recordCount++;
+		if (!anchored) {
+			anchored = true;
+			writeAnchor(new RideAnchor(timestamp, System.currentTimeMillis()));
+		}
+
+		// get the next segment ready well before this one fills up
+		if (next == null && current.getCount() >= current.getCapacity() / 2)
+			prepareNext();
+		return true;
+	}
+
+	private void prepareNext() {
+		final int index = current.getIndex() + 1;
+		next = background.submit(new Callable<RideSegment>() {
+			public RideSegment call() throws IOException {
+				return RideSegment.create(segmentFile(index), index, channels,
+				        segmentSize);
+			}
+		});
+	}
+
+	/**
+	 * Switch to the prepared segment, without waiting for it.
+	 */
+	private boolean rotate() {
+		if (next == null)
+			prepareNext();
+		if (!next.isDone())
+			return false;
+
+		RideSegment ready;
+		try {
+			ready = next.get();
+		} catch (InterruptedException e) {
+			return false;
+		} catch (ExecutionException e) {
+			// try again on the next append
+			lastError = asIOException(e.getCause());
+			next = null;
+			return false;
+		}
+		next = null;
+		segmentCount++;
+		retire(current, currentIndex);
+		current = ready;
+		currentIndex = newIndex(ready);
+		return true;
+	}
+
+	private static SegmentIndex newIndex(RideSegment segment) {
+		return new SegmentIndex(segment.getChannels(),
+		        SegmentIndex.DEFAULT_BLOCK_SIZE, segment.getCapacity());
+	}
+
+	/**
+	 * Commit, force and close a segment and write its index on the background
+	 * thread.
+	 */
+	private void retire(final RideSegment segment, final SegmentIndex index) {
+		background.execute(new Runnable() {
+			public void run() {
+				try {
+					segment.commit();
+					segment.force();
+					segment.close();
+					index.write(SegmentIndex.indexFile(segment.getFile()));
+				} catch (IOException e) {
+					lastError = e;
+				}
+			}
+		});
+	}
+
+	private void writeAnchor(final RideAnchor anchor) {
+		background.execute(new Runnable() {
+			public void run() {
+				try {
+					anchor.write(new File(directory, RideAnchor.FILE_NAME));
+				} catch (IOException e) {
+					lastError = e;
+				}
+			}
+		});
+	}
+
+	private RideSegment createSegment(int index) throws IOException {
+		RideSegment segment = RideSegment.create(segmentFile(index), index,
+		        channels, segmentSize);
+		segmentCount++;
+		return segment;
+	}
+
+	/**
+	 * Stop recording. The current segment is committed and closed on the
+	 * background thread, see {@link #awaitClosed(long)}.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		if (current != null) {
+			retire(current, currentIndex);
+			current = null;
+			currentIndex = null;
+		}
+		if (next != null) {
+			// the prepared segment was never written to
+			final Future<RideSegment> unused = next;
+			next = null;
+			background.execute(new Runnable() {
+				public void run() {
+					try {
+						RideSegment segment = unused.get();
+						segment.close();
+						segment.getFile().delete();
+					} catch (Exception e) {
+						// nothing to clean up
+					}
+				}
+			});
+		}
+		background.shutdown();
+	}
+
+	/**
+	 * Wait for the background work started by {@link #close()}.
+	 *
+	 * @return <code>false</code> if it timed out.
+	 */
+	public boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+		return background.awaitTermination(timeoutMillis,
+		        TimeUnit.MILLISECONDS);
+	}
+
+	private File segmentFile(int index) {
+		return new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX,
+		        index, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * @return the segment files of the ride in a directory, in order.
+	 */
+	public static File[] listSegments(File directory) {
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				String name = file.getName();
+				return file.isFile() && name.startsWith(SEGMENT_PREFIX)
+				        && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null)
+			return new File[0];
+		// zero padded indexes sort by name
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static IOException asIOException(Throwable t) {
+		if (t instanceof IOException)
+			return (IOException) t;
+		IOException e = new IOException(String.valueOf(t));
+		e.initCause(t);
+		return e;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return records appended since {@link #open()}.
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return records that couldn't be appended.
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	/**
+	 * @return the last error creating or retiring a segment or writing the
+	 *         anchor, if any.
+	 */
+	public IOException getLastError() {
+		return lastError;
+	}
+
+}
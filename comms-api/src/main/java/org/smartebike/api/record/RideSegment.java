@@ -0,0 +1,259 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.record;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One memory mapped segment file of a recorded ride.
+ * <p>
+ * The file is preallocated to its full size and starts with a header,
+ * followed by fixed width records (big endian):
+ *
+ * <pre>
+ * header (32 bytes)                 record (16 + 4 * channels bytes)
+ *   0  int    magic 'SEBR'            0  long   timestamp
+ *   4  short  format version          8  float  value, one per channel
+ *   6  short  channels                .. int    seal
+ *   8  int    record size
+ *  12  int    segment index
+ *  16  long   committed record count
+ *  24  long   reserved
+ * </pre>
+ *
+ * The seal is a checksum of the record written after the rest of it. The
+ * header count is only updated on {@link #commit()}, so after a crash the
+ * records beyond it are recovered by scanning forward until the first record
+ * whose seal doesn't match, which includes the zeroed, never written tail.
+ */
+public class RideSegment {
+
+	public static final int MAGIC = 0x53454252;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 32;
+
+	private static final int SEAL = 0x5EB1CAFE;
+	private static final int COUNT_OFFSET = 16;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buf;
+	private final int index;
+	private final int channels;
+	private final int recordSize;
+	private final int capacity;
+	private int count;
+
+	private RideSegment(File file, RandomAccessFile raf, MappedByteBuffer buf,
+	        int index, int channels, int count) {
+		this.file = file;
+		this.raf = raf;
+		this.buf = buf;
+		this.index = index;
+		this.channels = channels;
+		this.recordSize = recordSize(channels);
+		this.capacity = (buf.capacity() - HEADER_SIZE) / recordSize;
+		this.count = count;
+	}
+
+	/**
+	 * @return the size of one record in bytes.
+	 */
+	public static int recordSize(int channels) {
+		return 8 + 4 * channels + 4;
+	}
+
+	/**
+	 * Create and map a new, preallocated segment file.
+	 */
+	public static RideSegment create(File file, int index, int channels,
+	        int size) throws IOException {
+		if (size < HEADER_SIZE + recordSize(channels))
+			throw new IllegalArgumentException("Segment size too small: "
+			        + size);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			MappedByteBuffer buf = raf.getChannel().map(
+			        FileChannel.MapMode.READ_WRITE, 0, size);
+			buf.putInt(0, MAGIC);
+			buf.putShort(4, (short) VERSION);
+			buf.putShort(6, (short) channels);
+			buf.putInt(8, recordSize(channels));
+			buf.putInt(12, index);
+			buf.putLong(COUNT_OFFSET, 0);
+			return new RideSegment(file, raf, buf, index, channels, 0);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Map an existing segment file and recover records written after the
+	 * last commit.
+	 *
+	 * @param writable
+	 *            - whether records may be appended.
+	 */
+	public static RideSegment open(File file, boolean writable)
+	        throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw"
+		        : "r");
+		try {
+			MappedByteBuffer buf = raf.getChannel().map(
+			        writable ? FileChannel.MapMode.READ_WRITE
+			                : FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+				throw new IOException("Not a ride segment: " + file);
+			if (buf.getShort(4) != VERSION)
+				throw new IOException("Unsupported ride segment version "
+				        + buf.getShort(4) + ": " + file);
+			int channels = buf.getShort(6);
+			if (buf.getInt(8) != recordSize(channels))
+				throw new IOException("Corrupt ride segment header: " + file);
+
+			RideSegment segment = new RideSegment(file, raf, buf,
+			        buf.getInt(12), channels, 0);
+			segment.recover(buf.getLong(COUNT_OFFSET));
+			return segment;
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	private void recover(long committed) {
+		int n = (int) Math.max(0, Math.min(committed, capacity));
+		while (n < capacity && isSealed(n))
+			n++;
+		count = n;
+	}
+
+	private boolean isSealed(int record) {
+		int at = HEADER_SIZE + record * recordSize;
+		return buf.getInt(at + recordSize - 4) == seal(at);
+	}
+
+	private int seal(int at) {
+		long timestamp = buf.getLong(at);
+		int seal = SEAL ^ (int) timestamp ^ (int) (timestamp >>> 32);
+		for (int i = 0; i < channels; i++)
+			seal = Integer.rotateLeft(seal, 5) ^ buf.getInt(at + 8 + 4 * i);
+		return seal;
+	}
+
+	/**
+	 * Append a record straight into the mapped file.
+	 *
+	 * @return <code>false</code> if the segment is full.
+	 */
+	public boolean append(long timestamp, float[] values) {
+		if (count == capacity)
+			return false;
+		int at = HEADER_SIZE + count * recordSize;
+		buf.putLong(at, timestamp);
+		for (int i = 0; i < channels; i++)
+			buf.putFloat(at + 8 + 4 * i, values[i]);
+		buf.putInt(at + recordSize - 4, seal(at));
+		count++;
+		return true;
+	}
+
+	/**
+	 * Store the record count in the header, so reopening doesn't have to
+	 * scan for it.
+	 */
+	public void commit() {
+		buf.putLong(COUNT_OFFSET, count);
+	}
+
+	/**
+	 * Write changes through to the storage device. May block for a while.
+	 */
+	public void force() {
+		buf.force();
+	}
+
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	/**
+	 * Read a whole record.
+	 *
+	 * @param values
+	 *            - receives one value per channel.
+	 * @return the timestamp of the record.
+	 */
+	public long read(int record, float[] values) {
+		int at = offset(record);
+		for (int i = 0; i < channels; i++)
+			values[i] = buf.getFloat(at + 8 + 4 * i);
+		return buf.getLong(at);
+	}
+
+	public long getTimestamp(int record) {
+		return buf.getLong(offset(record));
+	}
+
+	public float getValue(int record, int channel) {
+		return buf.getFloat(offset(record) + 8 + 4 * channel);
+	}
+
+	private int offset(int record) {
+		if (record < 0 || record >= count)
+			throw new IndexOutOfBoundsException("record " + record
+			        + " of " + count);
+		return HEADER_SIZE + record * recordSize;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return number of records in the segment.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return maximum number of records in the segment.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public boolean isFull() {
+		return count == capacity;
+	}
+
+}
@@ -0,0 +1,250 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.record;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Sparse index over one {@link RideSegment}: the records are split into
+ * blocks of a fixed number of records, and for each block the index keeps
+ * the time bounds plus the min, max and sum of every channel.
+ * <p>
+ * The recorder fills it in as records are appended and writes it next to
+ * the segment when the segment is retired. Segments without a valid index
+ * file, such as the last one after a crash, are indexed by scanning them.
+ */
+public class SegmentIndex {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+	private static final int MAGIC = 0x53454249;
+	private static final int VERSION = 1;
+	private static final String INDEX_SUFFIX = ".idx";
+
+	private final int channels;
+	private final int blockSize;
+	private int blockCount = 0;
+	private int recordCount = 0;
+
+	private long[] minTimestamps;
+	private long[] maxTimestamps;
+	// per block and channel, at block * channels + channel
+	private float[] mins;
+	private float[] maxs;
+	private double[] sums;
+
+	/**
+	 * @param capacity
+	 *            - maximum number of records, to size the block table.
+	 */
+	public SegmentIndex(int channels, int blockSize, int capacity) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("Invalid block size: "
+			        + blockSize);
+		this.channels = channels;
+		this.blockSize = blockSize;
+		allocate((capacity + blockSize - 1) / blockSize);
+	}
+
+	private void allocate(int blocks) {
+		minTimestamps = new long[blocks];
+		maxTimestamps = new long[blocks];
+		mins = new float[blocks * channels];
+		maxs = new float[blocks * channels];
+		sums = new double[blocks * channels];
+	}
+
+	/**
+	 * Account for the next record of the segment. Doesn't allocate.
+	 *
+	 * @throws IllegalStateException
+	 *             if the index is already at capacity.
+	 */
+	public void add(long timestamp, float[] values) {
+		int position = recordCount % blockSize;
+		int block = recordCount / blockSize;
+		if (block == minTimestamps.length)
+			throw new IllegalStateException("Index is full");
+
+		int base = block * channels;
+		if (position == 0) {
+			blockCount++;
+			minTimestamps[block] = timestamp;
+			maxTimestamps[block] = timestamp;
+			for (int i = 0; i < channels; i++) {
+				mins[base + i] = values[i];
+				maxs[base + i] = values[i];
+				sums[base + i] = values[i];
+			}
+		} else {
+			if (timestamp < minTimestamps[block])
+				minTimestamps[block] = timestamp;
+			if (timestamp > maxTimestamps[block])
+				maxTimestamps[block] = timestamp;
+			for (int i = 0; i < channels; i++) {
+				float value = values[i];
+				if (value < mins[base + i])
+					mins[base + i] = value;
+				if (value > maxs[base + i])
+					maxs[base + i] = value;
+				sums[base + i] += value;
+			}
+		}
+		recordCount++;
+	}
+
+	/**
+	 * Index a segment by scanning all of its records.
+	 */
+	public static SegmentIndex build(RideSegment segment, int blockSize) {
+		SegmentIndex index = new SegmentIndex(segment.getChannels(),
+		        blockSize, segment.getCount());
+		float[] values = new float[segment.getChannels()];
+		for (int i = 0; i < segment.getCount(); i++)
+			index.add(segment.read(i, values), values);
+		return index;
+	}
+
+	/**
+	 * @return the file the index of a segment file is kept in.
+	 */
+	public static File indexFile(File segmentFile) {
+		String name = segmentFile.getName();
+		int dot = name.lastIndexOf('.');
+		return new File(segmentFile.getParentFile(), (dot < 0 ? name
+		        : name.substring(0, dot)) + INDEX_SUFFIX);
+	}
+
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		        new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(channels);
+			out.writeInt(blockSize);
+			out.writeInt(blockCount);
+			out.writeInt(recordCount);
+			for (int b = 0; b < blockCount; b++) {
+				out.writeLong(minTimestamps[b]);
+				out.writeLong(maxTimestamps[b]);
+				for (int i = b * channels; i < (b + 1) * channels; i++) {
+					out.writeFloat(mins[i]);
+					out.writeFloat(maxs[i]);
+					out.writeDouble(sums[i]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static SegmentIndex read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+		        new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readShort() != VERSION)
+				throw new IOException("Not a segment index: " + file);
+			int channels = in.readShort();
+			int blockSize = in.readInt();
+			int blockCount = in.readInt();
+			int recordCount = in.readInt();
+			if (channels < 1 || blockSize < 1 || blockCount < 0
+			        || recordCount < 0
+			        || (recordCount + blockSize - 1) / blockSize != blockCount)
+				throw new IOException("Corrupt segment index: " + file);
+
+			SegmentIndex index = new SegmentIndex(channels, blockSize,
+			        recordCount);
+			index.blockCount = blockCount;
+			index.recordCount = recordCount;
+			for (int b = 0; b < blockCount; b++) {
+				index.minTimestamps[b] = in.readLong();
+				index.maxTimestamps[b] = in.readLong();
+				for (int i = b * channels; i < (b + 1) * channels; i++) {
+					index.mins[i] = in.readFloat();
+					index.maxs[i] = in.readFloat();
+					index.sums[i] = in.readDouble();
+				}
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * @return number of records indexed.
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return the first record of a block.
+	 */
+	public int getBlockStart(int block) {
+		return block * blockSize;
+	}
+
+	/**
+	 * @return number of records in a block.
+	 */
+	public int getBlockLength(int block) {
+		return Math.min(blockSize, recordCount - block * blockSize);
+	}
+
+	public long getMinTimestamp(int block) {
+		return minTimestamps[block];
+	}
+
+	public long getMaxTimestamp(int block) {
+		return maxTimestamps[block];
+	}
+
+	public float getMin(int block, int channel) {
+		return mins[block * channels + channel];
+	}
+
+	public float getMax(int block, int channel) {
+		return maxs[block * channels + channel];
+	}
+
+	public double getSum(int block, int channel) {
+		return sums[block * channels + channel];
+	}
+
+}
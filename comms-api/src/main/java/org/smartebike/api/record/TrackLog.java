@@ -0,0 +1,111 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.record;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Location fixes of a ride, appended to {@link #FILE_NAME} in its directory
+ * next to the segments, see {@link TrackReader}.
+ * <p>
+ * The file starts with a header, followed by fixed width records (big
+ * endian):
+ *
+ * <pre>
+ * header (8 bytes)         record (32 bytes)
+ *   0  int    magic 'SEBT'   0  long    time, ms since the epoch
+ *   4  short  version        8  double  latitude, degrees
+ *   6  short  reserved      16  double  longitude, degrees
+ *                           24  float   accuracy, meters
+ *                           28  float   speed, km/h, NaN if unknown
+ * </pre>
+ *
+ * Reopening a log appends to it. A record cut short by a crash is ignored
+ * when reading.
+ */
+public class TrackLog implements Closeable {
+
+	public static final String FILE_NAME = "track.dat";
+
+	static final int MAGIC = 0x53454254;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 8;
+	static final int RECORD_SIZE = 32;
+
+	private final File file;
+	private final DataOutputStream out;
+	private long count = 0;
+
+	public TrackLog(File file) throws IOException {
+		this.file = file;
+		File directory = file.getParentFile();
+		if (directory != null && !directory.isDirectory()
+		        && !directory.mkdirs())
+			throw new IOException("Can't create " + directory);
+		boolean empty = file.length() == 0;
+		out = new DataOutputStream(new BufferedOutputStream(
+		        new FileOutputStream(file, true)));
+		if (empty) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(0);
+		}
+	}
+
+	/**
+	 * Append a fix. It reaches the file on {@link #flush()} or
+	 * {@link #close()} at the latest.
+	 *
+	 * @param speed
+	 *            - km/h, NaN if the fix has none.
+	 */
+	public void append(long time, double latitude, double longitude,
+	        float accuracy, float speed) throws IOException {
+		out.writeLong(time);
+		out.writeDouble(latitude);
+		out.writeDouble(longitude);
+		out.writeFloat(accuracy);
+		out.writeFloat(speed);
+		count++;
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return fixes appended since opening.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+}
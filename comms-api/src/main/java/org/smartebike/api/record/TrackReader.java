@@ -0,0 +1,124 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.record;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the fixes of a {@link TrackLog} one at a time, in the order they
+ * were appended, without holding more than one in memory.
+ *
+ * <pre>
+ * while (reader.next())
+ *     use(reader.getTime(), reader.getLatitude(), reader.getLongitude());
+ * </pre>
+ */
+public class TrackReader implements Closeable {
+
+	private final DataInputStream in;
+	private final byte[] record = new byte[TrackLog.RECORD_SIZE];
+	private long time;
+	private double latitude;
+	private double longitude;
+	private float accuracy;
+	private float speed;
+
+	public TrackReader(File file) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+		        file)));
+		try {
+			if (in.readInt() != TrackLog.MAGIC
+			        || in.readShort() != TrackLog.VERSION)
+				throw new IOException("Not a track log: " + file);
+			in.readShort();
+		} catch (IOException e) {
+			in.close();
+			throw e instanceof EOFException ? new IOException(
+			        "Not a track log: " + file) : e;
+		}
+	}
+
+	/**
+	 * Move to the next fix.
+	 *
+	 * @return <code>false</code> at the end of the log.
+	 */
+	public boolean next() throws IOException {
+		try {
+			in.readFully(record);
+		} catch (EOFException e) {
+			// the end, or a record cut short
+			return false;
+		}
+		time = getLong(0);
+		latitude = Double.longBitsToDouble(getLong(8));
+		longitude = Double.longBitsToDouble(getLong(16));
+		accuracy = Float.intBitsToFloat(getInt(24));
+		speed = Float.intBitsToFloat(getInt(28));
+		return true;
+	}
+
+	private long getLong(int at) {
+		return ((long) getInt(at) << 32) | (getInt(at + 4) & 0xFFFFFFFFL);
+	}
+
+	private int getInt(int at) {
+		return (record[at] << 24) | ((record[at + 1] & 0xFF) << 16)
+		        | ((record[at + 2] & 0xFF) << 8) | (record[at + 3] & 0xFF);
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * @return ms since the epoch.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * @return meters.
+	 */
+	public float getAccuracy() {
+		return accuracy;
+	}
+
+	/**
+	 * @return km/h, NaN if unknown.
+	 */
+	public float getSpeed() {
+		return speed;
+	}
+
+}
@@ -0,0 +1,190 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.ring;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, lock-free ring of telemetry samples for exactly one producer
+ * thread and one consumer thread.
+ * <p>
+ * Samples live in preallocated primitive arrays: one timestamp and a fixed
+ * number of channel values per slot.
+ * <p>
+ * The producer never waits. When the ring is full, {@link #publish} drops the
+ * oldest unread sample and counts an overrun, so a slow consumer loses old
+ * samples instead of pushing back on the link.
+ * <p>
+ * Either side may move the read position: the consumer after a read, the
+ * producer when it drops the oldest sample. Both use a compare-and-set, so a
+ * consumer whose slot was taken over during the read simply discards it and
+ * retries with the next one. It never sees a half-written sample.
+ */
+public class TelemetryRing {
+
+	private final int capacity;
+	private final int mask;
+	private final int channels;
+	private final long[] timestamps;
+	private final float[] values;
+
+	// next sequence to write, only written by the producer
+	private final AtomicLong head = new AtomicLong();
+	// next sequence to read
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long overrunCount;
+
+	/**
+	 * @param capacity
+	 *            - number of slots, rounded up to a power of two.
+	 * @param channels
+	 *            - number of values per sample.
+	 */
+	public TelemetryRing(int capacity, int channels) {
+		if (capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Invalid capacity: "
+			        + capacity);
+		if (channels < 1)
+			throw new IllegalArgumentException("Invalid channel count: "
+			        + channels);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.channels = channels;
+		this.timestamps = new long[size];
+		this.values = new float[size * channels];
+	}
+
+	/**
+	 * Publish a sample, overwriting the oldest one if the ring is full. Must
+	 * only be called from the producer thread.
+	 *
+	 * @param timestamp
+	 *            - sample timestamp.
+	 * @param sample
+	 *            - the first {@link #getChannels()} values are copied.
+	 */
+	public void publish(long timestamp, float[] sample) {
+		long h = claim();
+		int slot = (int) h & mask;
+		timestamps[slot] = timestamp;
+		System.arraycopy(sample, 0, values, slot * channels, channels);
+		head.lazySet(h + 1);
+	}
+
+	/**
+	 * Publish a single channel sample, see {@link #publish(long, float[])}.
+	 */
+	public void publish(long timestamp, float value) {
+		long h = claim();
+		int slot = (int) h & mask;
+		timestamps[slot] = timestamp;
+		values[slot * channels] = value;
+		head.lazySet(h + 1);
+	}
+
+	private long claim() {
+		long h = head.get();
+		long t = tail.get();
+		// if the CAS fails the consumer has just made room for us
+		if (h - t >= capacity && tail.compareAndSet(t, t + 1))
+			overrunCount++;
+		return h;
+	}
+
+	/**
+	 * Take the oldest unread sample. Must only be called from the consumer
+	 * thread.
+	 *
+	 * @param sample
+	 *            - receives the sample, see {@link #newSample()}.
+	 * @return <code>false</code> if the ring is empty.
+	 */
+	public boolean poll(TelemetrySample sample) {
+		for (;;) {
+			long t = tail.get();
+			if (t >= head.get())
+				return false;
+
+			int slot = (int) t & mask;
+			sample.timestamp = timestamps[slot];
+			System.arraycopy(values, slot * channels, sample.values, 0,
+			        channels);
+
+			// fails if the producer dropped this slot while we copied it
+			if (tail.compareAndSet(t, t + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Take all unread samples, keeping only the newest.
+	 *
+	 * @return number of samples taken, 0 if the ring was empty.
+	 */
+	public int pollLatest(TelemetrySample sample) {
+		for (;;) {
+			long t = tail.get();
+			long h = head.get();
+			if (t >= h)
+				return 0;
+
+			// skip straight to the newest published sample
+			long last = h - 1;
+			int slot = (int) last & mask;
+			sample.timestamp = timestamps[slot];
+			System.arraycopy(values, slot * channels, sample.values, 0,
+			        channels);
+
+			if (tail.compareAndSet(t, h))
+				return (int) (h - t);
+		}
+	}
+
+	/**
+	 * @return a sample holder sized for this ring.
+	 */
+	public TelemetrySample newSample() {
+		return new TelemetrySample(channels);
+	}
+
+	/**
+	 * @return an estimate of the number of unread samples.
+	 */
+	public int size() {
+		long n = head.get() - tail.get();
+		return (int) Math.max(0, Math.min(n, capacity));
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return number of samples dropped because the ring was full.
+	 */
+	public long getOverrunCount() {
+		return overrunCount;
+	}
+
+}
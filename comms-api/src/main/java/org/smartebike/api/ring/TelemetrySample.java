@@ -0,0 +1,40 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.ring;
+
+/**
+ * Consumer-owned holder that {@link TelemetryRing#poll(TelemetrySample)}
+ * copies a sample into. Reuse one instance per consumer.
+ */
+public class TelemetrySample {
+
+	long timestamp;
+	final float[] values;
+
+	public TelemetrySample(int channels) {
+		this.values = new float[channels];
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public float getValue(int channel) {
+		return values[channel];
+	}
+
+}
@@ -0,0 +1,114 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.schema;
+
+/**
+ * One value reported with every telemetry sample. Channel ids are stable
+ * across {@link ChannelSchema} versions; what a version decides is which
+ * channels a sample carries and in what order.
+ */
+public final class Channel {
+
+	/**
+	 * A float, 4 bytes on the wire.
+	 */
+	public static final int TYPE_FLOAT = 0;
+
+	/**
+	 * A bit field, an int of 4 bytes on the wire.
+	 */
+	public static final int TYPE_BITS = 1;
+
+	public static final Channel MOTOR_SPEED = new Channel(0, "motorSpeed",
+	        "km/h", TYPE_FLOAT);
+	public static final Channel BATTERY_VOLTAGE = new Channel(1,
+	        "batteryVoltage", "V", TYPE_FLOAT);
+	public static final Channel BATTERY_CURRENT = new Channel(2,
+	        "batteryCurrent", "A", TYPE_FLOAT);
+	public static final Channel CADENCE = new Channel(3, "cadence", "rpm",
+	        TYPE_FLOAT);
+	public static final Channel TORQUE = new Channel(4, "torque", "Nm",
+	        TYPE_FLOAT);
+	public static final Channel MOTOR_TEMPERATURE = new Channel(5,
+	        "motorTemperature", "C", TYPE_FLOAT);
+	public static final Channel CONTROLLER_TEMPERATURE = new Channel(6,
+	        "controllerTemperature", "C", TYPE_FLOAT);
+	/**
+	 * Active faults, see the FAULT constants. Only the low 16 bits are used.
+	 */
+	public static final Channel FAULTS = new Channel(7, "faults", "",
+	        TYPE_BITS);
+
+	/**
+	 * Number of known channel ids.
+	 */
+	public static final int COUNT = 8;
+
+	public static final int FAULT_OVER_VOLTAGE = 1 << 0;
+	public static final int FAULT_UNDER_VOLTAGE = 1 << 1;
+	public static final int FAULT_OVER_CURRENT = 1 << 2;
+	public static final int FAULT_MOTOR_OVERHEAT = 1 << 3;
+	public static final int FAULT_CONTROLLER_OVERHEAT = 1 << 4;
+	public static final int FAULT_SENSOR = 1 << 5;
+
+	private final int id;
+	private final String name;
+	private final String unit;
+	private final int type;
+
+	private Channel(int id, String name, String unit, int type) {
+		this.id = id;
+		this.name = name;
+		this.unit = unit;
+		this.type = type;
+	}
+
+	/**
+	 * @return the stable id, 0 to {@link #COUNT} - 1.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * @return {@link #TYPE_FLOAT} or {@link #TYPE_BITS}.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return bytes the value takes in a telemetry frame.
+	 */
+	public int getWireSize() {
+		return 4;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.schema;
+
+import java.util.Arrays;
+
+import org.smartebike.api.frame.TelemetryFrame;
+
+/**
+ * Which {@link Channel}s a telemetry sample carries, in wire order, for one
+ * version of the protocol.
+ * <p>
+ * Controllers start out sending {@link #V1} samples, holding only the motor
+ * speed. The dashboard asks for a later version with
+ * {@link org.smartebike.api.command.CommandCode#SET_SCHEMA}; controllers
+ * that don't support it keep sending version 1.
+ */
+public final class ChannelSchema {
+
+	/**
+	 * Motor speed only, the original {@link TelemetryFrame} layout.
+	 */
+	public static final ChannelSchema V1 = new ChannelSchema(1,
+	        Channel.MOTOR_SPEED);
+
+	/**
+	 * Motor speed, battery, pedalling, temperatures and faults.
+	 */
+	public static final ChannelSchema V2 = new ChannelSchema(2,
+	        Channel.MOTOR_SPEED, Channel.BATTERY_VOLTAGE,
+	        Channel.BATTERY_CURRENT, Channel.CADENCE, Channel.TORQUE,
+	        Channel.MOTOR_TEMPERATURE, Channel.CONTROLLER_TEMPERATURE,
+	        Channel.FAULTS);
+
+	/**
+	 * The newest version this library knows.
+	 */
+	public static final ChannelSchema LATEST = V2;
+
+	private static final ChannelSchema[] VERSIONS = { V1, V2 };
+
+	private final int version;
+	private final Channel[] channels;
+	// position of each channel id, -1 if not in this schema
+	private final int[] positions = new int[Channel.COUNT];
+	private final int[] offsets;
+	private final int payloadLength;
+
+	private ChannelSchema(int version, Channel... channels) {
+		this.version = version;
+		this.channels = channels;
+		this.offsets = new int[channels.length];
+		Arrays.fill(positions, -1);
+		int length = TelemetryFrame.VALUES;
+		for (int i = 0; i < channels.length; i++) {
+			positions[channels[i].getId()] = i;
+			offsets[i] = length;
+			length += channels[i].getWireSize();
+		}
+		this.payloadLength = length;
+	}
+
+	/**
+	 * @return the schema of a version, <code>null</code> if unknown.
+	 */
+	public static ChannelSchema forVersion(int version) {
+		for (ChannelSchema schema : VERSIONS)
+			if (schema.version == version)
+				return schema;
+		return null;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return number of channels per sample.
+	 */
+	public int size() {
+		return channels.length;
+	}
+
+	/**
+	 * @return the channel at a position of the sample.
+	 */
+	public Channel getChannel(int position) {
+		return channels[position];
+	}
+
+	/**
+	 * @return the position of a channel in the sample, -1 if this version
+	 *         doesn't carry it.
+	 */
+	public int indexOf(Channel channel) {
+		return positions[channel.getId()];
+	}
+
+	public boolean contains(Channel channel) {
+		return positions[channel.getId()] >= 0;
+	}
+
+	/**
+	 * @return length of a {@link org.smartebike.api.frame.FrameType#TELEMETRY}
+	 *         payload in this version.
+	 */
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+
+	/**
+	 * @return position of a value in a telemetry payload.
+	 */
+	public int getPayloadPosition(int position) {
+		return offsets[position];
+	}
+
+	@Override
+	public String toString() {
+		return "schema v" + version;
+	}
+
+}
@@ -0,0 +1,198 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.schema;
+
+import org.smartebike.api.frame.Frame;
+import org.smartebike.api.frame.TelemetryFrame;
+
+/**
+ * A block of telemetry samples stored by column: the timestamps in one
+ * array, and the values of each channel in another primitive array,
+ * <code>float[]</code> for {@link Channel#TYPE_FLOAT} and <code>int[]</code>
+ * for {@link Channel#TYPE_BITS} channels.
+ * <p>
+ * The reader thread fills a batch as frames come in and hands it on whole,
+ * so consumers loop over plain arrays instead of being called per sample.
+ * The arrays are allocated once, adding samples doesn't allocate. Reuse a
+ * batch after {@link #clear()}. Not thread safe.
+ */
+public class SampleBatch {
+
+	private final ChannelSchema schema;
+	private final int capacity;
+	private final long[] timestamps;
+	// per schema position, the array of its type is set, the other is null
+	private final float[][] floats;
+	private final int[][] bits;
+	private int size = 0;
+
+	public SampleBatch(ChannelSchema schema, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Invalid capacity: "
+			        + capacity);
+		this.schema = schema;
+		this.capacity = capacity;
+		this.timestamps = new long[capacity];
+		this.floats = new float[schema.size()][];
+		this.bits = new int[schema.size()][];
+		for (int i = 0; i < schema.size(); i++) {
+			if (schema.getChannel(i).getType() == Channel.TYPE_BITS)
+				bits[i] = new int[capacity];
+			else
+				floats[i] = new float[capacity];
+		}
+	}
+
+	/**
+	 * Add the sample of a {@link org.smartebike.api.frame.FrameType#TELEMETRY}
+	 * frame laid out by the schema of this batch.
+	 *
+	 * @return <code>false</code> if the batch is full or the frame is too
+	 *         short for the schema.
+	 */
+	public boolean add(Frame frame) {
+		if (size == capacity
+		        || frame.getPayloadLength() < schema.getPayloadLength())
+			return false;
+		timestamps[size] = frame.getUnsignedInt(TelemetryFrame.TIMESTAMP);
+		for (int i = 0; i < floats.length; i++) {
+			int position = schema.getPayloadPosition(i);
+			if (floats[i] != null)
+				floats[i][size] = frame.getFloat(position);
+			else
+				bits[i][size] = frame.getInt(position);
+		}
+		size++;
+		return true;
+	}
+
+	/**
+	 * Add a sample given as one float per channel, bit fields as the float
+	 * with the same bits, as a
+	 * {@link org.smartebike.api.codec.TelemetryBlockReader} delivers them.
+	 *
+	 * @return <code>false</code> if the batch is full.
+	 */
+	public boolean add(long timestamp, float[] values) {
+		if (size == capacity)
+			return false;
+		timestamps[size] = timestamp;
+		for (int i = 0; i < floats.length; i++) {
+			if (floats[i] != null)
+				floats[i][size] = values[i];
+			else
+				bits[i][size] = Float.floatToRawIntBits(values[i]);
+		}
+		size++;
+		return true;
+	}
+
+	/**
+	 * Copy a sample out as one float per channel, bit fields as the float with
+	 * the same bits, e.g. to record it.
+	 *
+	 * @return the timestamp of the sample.
+	 */
+	public long copy(int sample, float[] values) {
+		for (int i = 0; i < floats.length; i++)
+			values[i] = floats[i] != null ? floats[i][sample] : Float
+			        .intBitsToFloat(bits[i][sample]);
+		return timestamps[sample];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public ChannelSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * @return number of samples in the batch.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean isFull() {
+		return size == capacity;
+	}
+
+	public long getTimestamp(int sample) {
+		return timestamps[sample];
+	}
+
+	/**
+	 * @return the timestamps, valid up to {@link #size()}.
+	 */
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+
+	/**
+	 * @param position
+	 *            - position of a {@link Channel#TYPE_FLOAT} channel in the
+	 *            schema.
+	 * @return its values, valid up to {@link #size()}.
+	 */
+	public float[] getFloatColumn(int position) {
+		if (floats[position] == null)
+			throw new IllegalArgumentException(schema.getChannel(position)
+			        + " is not a float channel");
+		return floats[position];
+	}
+
+	/**
+	 * @param position
+	 *            - position of a {@link Channel#TYPE_BITS} channel in the
+	 *            schema.
+	 * @return its values, valid up to {@link #size()}.
+	 */
+	public int[] getBitsColumn(int position) {
+		if (bits[position] == null)
+			throw new IllegalArgumentException(schema.getChannel(position)
+			        + " is not a bit field channel");
+		return bits[position];
+	}
+
+	/**
+	 * @return the value of a sample as a float, bit fields converted to
+	 *         their numeric value.
+	 */
+	public float getValue(int position, int sample) {
+		return floats[position] != null ? floats[position][sample]
+		        : bits[position][sample];
+	}
+
+	/**
+	 * @return the last sample's value of a channel as a float, bit fields
+	 *         converted to their numeric value.
+	 */
+	public float getLastValue(int position) {
+		return getValue(position, size - 1);
+	}
+
+}
@@ -0,0 +1,156 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.stats;
+
+/**
+ * Average and maximum of a value over a sliding time window, in constant
+ * time per sample and fixed memory whatever the sample rate.
+ * <p>
+ * The window is split into buckets that each keep the count, sum and
+ * maximum of their samples. A sample only updates the current bucket; the
+ * totals of the other buckets are gathered once whenever time moves on to
+ * a new bucket. The window therefore slides in steps of one bucket width.
+ * Not thread safe.
+ */
+public class RollingWindow {
+
+	public static final int DEFAULT_BUCKETS = 30;
+
+	private final long length;
+	private final long bucketWidth;
+	private final int buckets;
+	private final int[] counts;
+	private final double[] sums;
+	private final float[] maxs;
+
+	private long currentBucket = -1;
+	private int current = 0;
+	// totals of all buckets but the current one
+	private long olderCount = 0;
+	private double olderSum = 0;
+	private float olderMax = Float.NEGATIVE_INFINITY;
+
+	public RollingWindow(long lengthMillis) {
+		this(lengthMillis, DEFAULT_BUCKETS);
+	}
+
+	/**
+	 * @param lengthMillis
+	 *            - window length.
+	 * @param buckets
+	 *            - resolution of the window.
+	 */
+	public RollingWindow(long lengthMillis, int buckets) {
+		if (buckets < 1 || lengthMillis < buckets)
+			throw new IllegalArgumentException("Invalid window: "
+			        + lengthMillis + " ms in " + buckets + " buckets");
+		this.length = lengthMillis;
+		this.buckets = buckets;
+		this.bucketWidth = lengthMillis / buckets;
+		counts = new int[buckets];
+		sums = new double[buckets];
+		maxs = new float[buckets];
+		reset();
+	}
+
+	/**
+	 * @param timestamp
+	 *            - sample time in milliseconds. Going back in time, e.g.
+	 *            after the controller restarted, starts the window over.
+	 */
+	public void add(long timestamp, float value) {
+		long bucket = timestamp / bucketWidth;
+		if (bucket != currentBucket)
+			advance(bucket);
+		counts[current]++;
+		sums[current] += value;
+		if (value > maxs[current])
+			maxs[current] = value;
+	}
+
+	private void advance(long bucket) {
+		if (bucket < currentBucket || bucket - currentBucket >= buckets) {
+			clear();
+		} else {
+			for (long b = currentBucket + 1; b <= bucket; b++)
+				clear((int) (b % buckets));
+		}
+		currentBucket = bucket;
+		current = (int) (bucket % buckets);
+
+		olderCount = 0;
+		olderSum = 0;
+		olderMax = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < buckets; i++) {
+			if (i == current || counts[i] == 0)
+				continue;
+			olderCount += counts[i];
+			olderSum += sums[i];
+			if (maxs[i] > olderMax)
+				olderMax = maxs[i];
+		}
+	}
+
+	private void clear() {
+		for (int i = 0; i < buckets; i++)
+			clear(i);
+	}
+
+	private void clear(int i) {
+		counts[i] = 0;
+		sums[i] = 0;
+		maxs[i] = Float.NEGATIVE_INFINITY;
+	}
+
+	public void reset() {
+		clear();
+		currentBucket = -1;
+		current = 0;
+		olderCount = 0;
+		olderSum = 0;
+		olderMax = Float.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * @return number of samples in the window.
+	 */
+	public long getCount() {
+		return olderCount + counts[current];
+	}
+
+	/**
+	 * @return the average, 0 if the window is empty.
+	 */
+	public float getAverage() {
+		long count = getCount();
+		return count > 0 ? (float) ((olderSum + sums[current]) / count) : 0;
+	}
+
+	/**
+	 * @return the maximum, 0 if the window is empty.
+	 */
+	public float getMax() {
+		if (getCount() == 0)
+			return 0;
+		return Math.max(olderMax, maxs[current]);
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.stats;
+
+/**
+ * Trip statistics updated incrementally as telemetry samples arrive: rolling
+ * average and maximum speed over {@link #SHORT_WINDOW},
+ * {@link #MEDIUM_WINDOW} and {@link #LONG_WINDOW}, distance integrated from
+ * speed and energy integrated from power.
+ * <p>
+ * Every update is constant time and doesn't allocate, so it can run on the
+ * reader thread. Timestamps are controller milliseconds. Not thread safe.
+ */
+public class StreamingStats {
+
+	public static final int SHORT_WINDOW = 0;
+	public static final int MEDIUM_WINDOW = 1;
+	public static final int LONG_WINDOW = 2;
+
+	private static final long[] WINDOW_LENGTHS = { 3000, 30000, 300000 };
+
+	/**
+	 * Gaps between samples longer than this, e.g. while disconnected, aren't
+	 * integrated.
+	 */
+	public static final long MAX_GAP_MILLIS = 2000;
+
+	private final RollingWindow[] speedWindows =
+	        new RollingWindow[WINDOW_LENGTHS.length];
+	private final Integral distance = new Integral();
+	private final Integral energy = new Integral();
+
+	public StreamingStats() {
+		for (int i = 0; i < WINDOW_LENGTHS.length; i++)
+			speedWindows[i] = new RollingWindow(WINDOW_LENGTHS[i]);
+	}
+
+	/**
+	 * @param speed
+	 *            - km/h.
+	 */
+	public void addSpeed(long timestamp, float speed) {
+		for (int i = 0; i < speedWindows.length; i++)
+			speedWindows[i].add(timestamp, speed);
+		distance.add(timestamp, speed);
+	}
+
+	/**
+	 * @param power
+	 *            - electrical power drawn, watts.
+	 */
+	public void addPower(long timestamp, float power) {
+		energy.add(timestamp, power);
+	}
+
+	/**
+	 * Start a new trip.
+	 */
+	public void reset() {
+		for (int i = 0; i < speedWindows.length; i++)
+			speedWindows[i].reset();
+		distance.reset();
+		energy.reset();
+	}
+
+	/**
+	 * @param window
+	 *            - {@link #SHORT_WINDOW}, {@link #MEDIUM_WINDOW} or
+	 *            {@link #LONG_WINDOW}.
+	 * @return average speed in km/h.
+	 */
+	public float getAverageSpeed(int window) {
+		return speedWindows[window].getAverage();
+	}
+
+	/**
+	 * @return maximum speed in km/h.
+	 */
+	public float getMaxSpeed(int window) {
+		return speedWindows[window].getMax();
+	}
+
+	/**
+	 * @return window length in milliseconds.
+	 */
+	public static long getWindowLength(int window) {
+		return WINDOW_LENGTHS[window];
+	}
+
+	/**
+	 * @return trip distance in meters.
+	 */
+	public double getDistance() {
+		// km/h * ms = 1/3600 m
+		return distance.total / 3600;
+	}
+
+	/**
+	 * @return trip energy in watt hours.
+	 */
+	public double getEnergy() {
+		// W * ms = 1/3600000 Wh
+		return energy.total / 3600000;
+	}
+
+	/**
+	 * Trapezoidal integral of a value over milliseconds.
+	 */
+	private static class Integral {
+
+		double total = 0;
+		private long lastTimestamp;
+		private float lastValue;
+		private boolean started = false;
+
+		void add(long timestamp, float value) {
+			long dt = timestamp - lastTimestamp;
+			if (started && dt > 0 && dt <= MAX_GAP_MILLIS)
+				total += (lastValue + value) / 2.0 * dt;
+			lastTimestamp = timestamp;
+			lastValue = value;
+			started = true;
+		}
+
+		void reset() {
+			total = 0;
+			started = false;
+		}
+
+	}
+
+}
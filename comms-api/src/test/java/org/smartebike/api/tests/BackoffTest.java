@@ -0,0 +1,82 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.tests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.smartebike.api.io.Backoff;
+import org.testng.annotations.Test;
+
+public class BackoffTest {
+
+	@Test
+	public void growsToMaximum() {
+		Backoff backoff = new Backoff(250, 3000, 2, 0, new Random(1));
+		long[] expected = { 0, 250, 500, 1000, 2000, 3000, 3000 };
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(backoff.nextDelay(), expected[i]);
+			assertEquals(backoff.getAttempt(), i + 1);
+		}
+	}
+
+	@Test
+	public void jitterStaysInBounds() {
+		Backoff backoff = new Backoff(Backoff.DEFAULT_INITIAL_DELAY,
+		        Backoff.DEFAULT_MAX_DELAY, Backoff.DEFAULT_MULTIPLIER,
+		        Backoff.DEFAULT_JITTER, new Random(42));
+		assertEquals(backoff.nextDelay(), 0);
+		double full = Backoff.DEFAULT_INITIAL_DELAY;
+		long min = Long.MAX_VALUE;
+		long max = 0;
+		for (int i = 0; i < 1000; i++) {
+			long delay = backoff.nextDelay();
+			assertTrue(delay <= full, delay + " above " + full);
+			assertTrue(delay >= full * (1 - Backoff.DEFAULT_JITTER) - 1, delay
+			        + " below " + full);
+			if (full == Backoff.DEFAULT_MAX_DELAY) {
+				min = Math.min(min, delay);
+				max = Math.max(max, delay);
+			}
+			full = Math.min(Backoff.DEFAULT_MAX_DELAY, full
+			        * Backoff.DEFAULT_MULTIPLIER);
+		}
+		// actually spread over the jitter range
+		assertTrue(min < Backoff.DEFAULT_MAX_DELAY * 0.6, "min " + min);
+		assertTrue(max > Backoff.DEFAULT_MAX_DELAY * 0.9, "max " + max);
+	}
+
+	@Test
+	public void resetStartsOver() {
+		Backoff backoff = new Backoff(100, 10000, 3, 0, new Random(1));
+		for (int i = 0; i < 5; i++)
+			backoff.nextDelay();
+		backoff.reset();
+		assertEquals(backoff.getAttempt(), 0);
+		assertEquals(backoff.nextDelay(), 0);
+		assertEquals(backoff.nextDelay(), 100);
+		assertEquals(backoff.nextDelay(), 300);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void rejectsShrinking() {
+		new Backoff(100, 10000, 0.5, 0, new Random(1));
+	}
+
+}
@@ -0,0 +1,279 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.tests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.smartebike.api.codec.BitReader;
+import org.smartebike.api.codec.BitWriter;
+import org.smartebike.api.codec.SampleDecoder;
+import org.smartebike.api.codec.SampleEncoder;
+import org.smartebike.api.codec.SampleListener;
+import org.smartebike.api.codec.TelemetryBlockReader;
+import org.smartebike.api.codec.TelemetryBlockWriter;
+import org.smartebike.api.codec.ZigZag;
+import org.smartebike.api.frame.Frame;
+import org.smartebike.api.frame.FrameDecoder;
+import org.smartebike.api.frame.FrameEncoder;
+import org.smartebike.api.frame.FrameListener;
+import org.smartebike.api.frame.FrameType;
+import org.testng.annotations.Test;
+
+/**
+ * Round trips through the bit streams, the delta-of-delta and XOR sample
+ * codec, and telemetry block frames.
+ */
+public class CodecTest {
+
+	private static final long[] LONGS = { 0, 1, -1, 63, -64, 64, -65,
+	        1L << 32, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+	private static final float[] SPECIAL = { 0f, -0f, Float.NaN,
+	        Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.MIN_VALUE,
+	        -Float.MAX_VALUE, Float.intBitsToFloat(0x7fc00001) };
+
+	@Test
+	public void zigZag() {
+		assertEquals(ZigZag.encode(0), 0);
+		assertEquals(ZigZag.encode(-1), 1);
+		assertEquals(ZigZag.encode(1), 2);
+		for (long v : LONGS)
+			assertEquals(ZigZag.decode(ZigZag.encode(v)), v);
+	}
+
+	@Test
+	public void bits() {
+		BitWriter out = new BitWriter(1);
+		out.writeBit(true);
+		out.writeBits(0x5, 3);
+		out.writeBits(0, 0);
+		out.writeBits(-1L, 64);
+		for (long v : LONGS)
+			out.writeVarLong(v);
+		out.writeBits(0x2a, 7);
+
+		BitReader in = new BitReader();
+		in.wrap(out.array(), 0, out.bytesUsed());
+		assertEquals(in.readBit(), true);
+		assertEquals(in.readBits(3), 0x5);
+		assertEquals(in.readBits(0), 0);
+		assertEquals(in.readBits(64), -1L);
+		for (long v : LONGS)
+			assertEquals(in.readVarLong(), v);
+		assertEquals(in.readBits(7), 0x2a);
+		assertEquals(in.remaining(), out.bytesUsed() * 8 - out.bitsUsed());
+	}
+
+	@Test
+	public void smallVarLongsTakeOneGroup() {
+		BitWriter out = new BitWriter(16);
+		out.writeVarLong(0);
+		out.writeVarLong(-64);
+		out.writeVarLong(63);
+		assertEquals(out.bitsUsed(), 3 * 8);
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void readPastEnd() {
+		BitWriter out = new BitWriter(1);
+		out.writeBits(3, 2);
+		BitReader in = new BitReader();
+		in.wrap(out.array(), 0, out.bytesUsed());
+		in.readBits(8);
+		in.readBit();
+	}
+
+	@Test
+	public void samplesRoundTrip() {
+		int channels = 3;
+		List<long[]> timestamps = new ArrayList<long[]>();
+		List<float[][]> runs = new ArrayList<float[][]>();
+		Random random = new Random(16);
+		// steady, jittery and going back in time, with special values
+		for (int run = 0; run < 3; run++) {
+			long[] t = new long[200];
+			float[][] v = new float[t.length][channels];
+			long time = run * 1000000000000L;
+			for (int i = 0; i < t.length; i++) {
+				time += run == 0 ? 20 : run == 1 ? 20 + random.nextInt(5)
+				        : random.nextInt(1000) - 500;
+				t[i] = time;
+				v[i][0] = i < 100 ? 25.5f : 25.5f + i * 0.01f;
+				v[i][1] = random.nextFloat() * 1000 - 500;
+				v[i][2] = SPECIAL[i % SPECIAL.length];
+			}
+			timestamps.add(t);
+			runs.add(v);
+		}
+
+		SampleEncoder encoder = new SampleEncoder(channels);
+		BitWriter out = new BitWriter(64);
+		long[] bitsAfter = new long[3];
+		for (int run = 0; run < 3; run++) {
+			encoder.reset();
+			long[] t = timestamps.get(run);
+			for (int i = 0; i < t.length; i++) {
+				long before = out.bitsUsed();
+				encoder.encode(out, t[i], runs.get(run)[i]);
+				assertTrue(out.bitsUsed() - before <= encoder.maxSampleBits());
+			}
+			assertEquals(encoder.getCount(), t.length);
+			bitsAfter[run] = out.bitsUsed();
+		}
+
+		BitReader in = new BitReader();
+		in.wrap(out.array(), 0, out.bytesUsed());
+		SampleDecoder decoder = new SampleDecoder(channels);
+		float[] values = new float[channels];
+		for (int run = 0; run < 3; run++) {
+			decoder.reset();
+			long[] t = timestamps.get(run);
+			for (int i = 0; i < t.length; i++) {
+				assertEquals(decoder.decode(in, values), t[i]);
+				for (int c = 0; c < channels; c++)
+					assertEquals(Float.floatToRawIntBits(values[c]),
+					        Float.floatToRawIntBits(runs.get(run)[i][c]),
+					        "run " + run + " sample " + i + " channel " + c);
+			}
+			assertEquals(out.bytesUsed() * 8L - in.remaining(), bitsAfter[run]);
+		}
+	}
+
+	@Test
+	public void steadySamplesCompress() {
+		SampleEncoder encoder = new SampleEncoder(2);
+		BitWriter out = new BitWriter(64);
+		float[] values = { 20f, 0.5f };
+		for (int i = 0; i < 1000; i++)
+			encoder.encode(out, 1000 + i * 20L, values);
+		// a byte for the timestamp and a bit per unchanged value
+		assertTrue(out.bitsUsed() < 1000 * (8 + 2) + 100, out.bitsUsed()
+		        + " bits");
+	}
+
+	@Test
+	public void blocksRoundTrip() {
+		final int channels = 4;
+		TelemetryBlockWriter block = new TelemetryBlockWriter(channels,
+		        TelemetryBlockWriter.MAX_SAMPLES);
+		FrameEncoder frames = new FrameEncoder();
+		final List<long[]> decoded = new ArrayList<long[]>();
+		final TelemetryBlockReader blockReader = new TelemetryBlockReader();
+		final int[] blockCount = new int[1];
+		FrameDecoder decoder = new FrameDecoder(new FrameListener() {
+			public void onFrame(Frame frame) {
+				assertEquals(frame.getType(), FrameType.TELEMETRY_BLOCK);
+				blockCount[0]++;
+				blockReader.read(frame, new SampleListener() {
+					public void onSample(long timestamp, float[] values) {
+						long[] sample = new long[channels + 1];
+						sample[0] = timestamp;
+						for (int c = 0; c < channels; c++)
+							sample[c + 1] = Float.floatToRawIntBits(values[c]);
+						decoded.add(sample);
+					}
+				});
+			}
+		});
+
+		Random random = new Random(3);
+		float[] values = new float[channels];
+		int count = 1000;
+		long[][] sent = new long[count][channels + 1];
+		for (int i = 0; i < count; i++) {
+			long timestamp = i * 5L;
+			for (int c = 0; c < channels; c++)
+				values[c] = c == 0 ? i : random.nextFloat();
+			sent[i][0] = timestamp;
+			for (int c = 0; c < channels; c++)
+				sent[i][c + 1] = Float.floatToRawIntBits(values[c]);
+			if (!block.add(timestamp, values)) {
+				block.finish(frames);
+				decoder.decode(frames.array(), 0, frames.length());
+				assertTrue(block.add(timestamp, values));
+			}
+		}
+		block.finish(frames);
+		decoder.decode(frames.array(), 0, frames.length());
+
+		assertTrue(blockCount[0] > 1, blockCount[0] + " blocks");
+		assertEquals(decoder.getCrcErrorCount(), 0);
+		assertEquals(blockReader.getCorruptCount(), 0);
+		assertEquals(decoded.size(), count);
+		for (int i = 0; i < count; i++)
+			for (int c = 0; c <= channels; c++)
+				assertEquals(decoded.get(i)[c], sent[i][c], "sample " + i);
+	}
+
+	@Test
+	public void blockCutShort() {
+		SampleEncoder encoder = new SampleEncoder(1);
+		BitWriter bits = new BitWriter(64);
+		for (int i = 0; i < 3; i++)
+			encoder.encode(bits, i * 10L, new float[] { i * 1.5f });
+		FrameEncoder frames = new FrameEncoder();
+		// claims ten samples
+		frames.begin(FrameType.TELEMETRY_BLOCK).putByte(10).putByte(1)
+		        .putBytes(bits.array(), 0, bits.bytesUsed());
+		frames.finish();
+
+		final TelemetryBlockReader blockReader = new TelemetryBlockReader();
+		final int[] read = new int[1];
+		FrameDecoder decoder = new FrameDecoder(new FrameListener() {
+			public void onFrame(Frame frame) {
+				read[0] = blockReader.read(frame, new SampleListener() {
+					public void onSample(long timestamp, float[] values) {
+						if (values[0] != timestamp / 10 * 1.5f)
+							fail(values[0] + " at " + timestamp);
+					}
+				});
+			}
+		});
+		decoder.decode(frames.array(), 0, frames.length());
+		assertEquals(read[0], 3);
+		assertEquals(blockReader.getCorruptCount(), 1);
+	}
+
+	@Test
+	public void blockWithoutHeader() {
+		FrameEncoder frames = new FrameEncoder();
+		// only the sample count, no channel count
+		frames.begin(FrameType.TELEMETRY_BLOCK).putByte(10);
+		frames.finish();
+
+		final TelemetryBlockReader blockReader = new TelemetryBlockReader();
+		final int[] read = { -1 };
+		FrameDecoder decoder = new FrameDecoder(new FrameListener() {
+			public void onFrame(Frame frame) {
+				read[0] = blockReader.read(frame, new SampleListener() {
+					public void onSample(long timestamp, float[] values) {
+						fail("sample at " + timestamp);
+					}
+				});
+			}
+		});
+		decoder.decode(frames.array(), 0, frames.length());
+		assertEquals(read[0], 0);
+		assertEquals(blockReader.getCorruptCount(), 1);
+	}
+
+}
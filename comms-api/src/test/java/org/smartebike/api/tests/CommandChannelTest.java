@@ -0,0 +1,199 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.tests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.smartebike.api.command.CommandChannel;
+import org.smartebike.api.command.CommandCode;
+import org.smartebike.api.command.CommandFuture;
+import org.smartebike.api.command.CommandResponse;
+import org.smartebike.api.frame.CommandFrame;
+import org.smartebike.api.frame.FrameDecoder;
+import org.smartebike.api.frame.FrameEncoder;
+import org.smartebike.api.frame.FrameType;
+import org.smartebike.api.io.WriteBatcher;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Plays the controller by feeding response frames to the channel.
+ */
+public class CommandChannelTest {
+
+	private static final long WAIT_MILLIS = 5000;
+
+	private MemoryTransport transport;
+	private WriteBatcher batcher;
+	private CommandChannel channel;
+	private FrameDecoder responses;
+
+	@BeforeMethod
+	public void connect() {
+		transport = new MemoryTransport();
+		transport.connect();
+		batcher = new WriteBatcher(transport);
+		channel = new CommandChannel(batcher);
+		responses = new FrameDecoder(channel);
+	}
+
+	@AfterMethod
+	public void close() throws InterruptedException {
+		channel.close();
+		batcher.close();
+		assertTrue(batcher.awaitClosed(WAIT_MILLIS));
+	}
+
+	@Test
+	public void completesOutOfOrder() throws Exception {
+		CommandFuture first = send(WAIT_MILLIS);
+		CommandFuture second = send(WAIT_MILLIS);
+		assertEquals(channel.getInFlight(), 2);
+
+		respond(second.getSequence(), 7);
+		respond(first.getSequence(), 3);
+		CommandResponse response = first.get(WAIT_MILLIS,
+		        TimeUnit.MILLISECONDS);
+		assertEquals(response.getSequence(), first.getSequence());
+		assertEquals(response.getCommand(), CommandCode.SET_ASSIST_LEVEL);
+		assertTrue(response.isOk());
+		assertEquals(response.getData().get(), 3);
+		assertEquals(second.get(WAIT_MILLIS, TimeUnit.MILLISECONDS)
+		        .getData().get(), 7);
+		assertEquals(channel.getInFlight(), 0);
+		assertEquals(channel.getCompletedCount(), 2);
+	}
+
+	@Test
+	public void timesOut() throws Exception {
+		CommandFuture future = send(50);
+		try {
+			future.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			fail("no response, but no timeout either");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException,
+			        String.valueOf(e.getCause()));
+		}
+		assertEquals(channel.getTimeoutCount(), 1);
+		assertEquals(channel.getInFlight(), 0);
+
+		// too late now
+		respond(future.getSequence(), 0);
+		assertEquals(channel.getUnmatchedCount(), 1);
+		assertEquals(channel.getCompletedCount(), 0);
+	}
+
+	@Test
+	public void reusesSlots() throws Exception {
+		CommandFuture[] sent = new CommandFuture[CommandChannel.MAX_IN_FLIGHT];
+		for (int i = 0; i < sent.length; i++)
+			sent[i] = send(WAIT_MILLIS);
+		assertEquals(channel.getInFlight(), CommandChannel.MAX_IN_FLIGHT);
+		assertEquals(channel.getMaxInFlight(), CommandChannel.MAX_IN_FLIGHT);
+
+		// every slot is taken
+		CommandFuture refused = send(WAIT_MILLIS);
+		assertTrue(refused.isDone());
+		assertFailed(refused, IOException.class);
+
+		respond(sent[0].getSequence(), 0);
+		CommandFuture reused = send(WAIT_MILLIS);
+		assertEquals(reused.getSequence(), CommandChannel.MAX_IN_FLIGHT);
+		// a repeated response to the old command doesn't complete the new one
+		respond(sent[0].getSequence(), 0);
+		assertEquals(channel.getUnmatchedCount(), 1);
+		assertFalse(reused.isDone());
+
+		respond(reused.getSequence(), 1);
+		assertEquals(reused.get(WAIT_MILLIS, TimeUnit.MILLISECONDS)
+		        .getData().get(), 1);
+	}
+
+	@Test
+	public void failsAll() throws Exception {
+		CommandFuture first = send(WAIT_MILLIS);
+		CommandFuture second = send(WAIT_MILLIS);
+		channel.failAll(new IOException("Link lost"));
+
+		// both fail right away, long before their timeout
+		assertFailed(first, IOException.class);
+		assertFailed(second, IOException.class);
+		assertEquals(channel.getInFlight(), 0);
+		assertEquals(channel.getTimeoutCount(), 0);
+	}
+
+	@Test
+	public void failsAllOnWriteFailure() throws Exception {
+		CommandFuture first = send(WAIT_MILLIS);
+		assertEquals(transport.awaitWrites(1, WAIT_MILLIS).size(), 1);
+		transport.fail();
+		CommandFuture second = send(WAIT_MILLIS);
+
+		// both fail with the write error, long before their timeout
+		assertFailed(first, IOException.class);
+		assertFailed(second, IOException.class);
+		assertEquals(channel.getInFlight(), 0);
+		assertEquals(channel.getTimeoutCount(), 0);
+	}
+
+	@Test
+	public void refusesAfterClose() throws Exception {
+		CommandFuture pending = send(WAIT_MILLIS);
+		channel.close();
+		assertFailed(pending, IOException.class);
+		CommandFuture refused = send(WAIT_MILLIS);
+		assertTrue(refused.isDone());
+		assertFailed(refused, IOException.class);
+	}
+
+	private CommandFuture send(long timeoutMillis) {
+		return channel.send(CommandCode.SET_ASSIST_LEVEL, new byte[] { 2 },
+		        WriteBatcher.URGENT, timeoutMillis, null);
+	}
+
+	private void respond(int sequence, int data) {
+		FrameEncoder encoder = new FrameEncoder();
+		encoder.begin(FrameType.RESPONSE).putShort(sequence)
+		        .putByte(CommandCode.SET_ASSIST_LEVEL)
+		        .putByte(CommandFrame.STATUS_OK).putByte(data);
+		int length = encoder.finish();
+		responses.decode(encoder.array(), 0, length);
+	}
+
+	private static void assertFailed(CommandFuture future,
+	        Class<? extends Exception> cause) throws InterruptedException {
+		try {
+			future.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			fail("completed without failing");
+		} catch (ExecutionException e) {
+			assertTrue(cause.isInstance(e.getCause()),
+			        String.valueOf(e.getCause()));
+		} catch (TimeoutException e) {
+			fail("still pending");
+		}
+	}
+
+}
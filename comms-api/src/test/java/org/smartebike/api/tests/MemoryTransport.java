@@ -0,0 +1,147 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.smartebike.api.io.TelemetryTransport;
+
+/**
+ * {@link TelemetryTransport} that keeps every write to the controller as a
+ * separate chunk, and can be made to stall or fail them.
+ */
+class MemoryTransport implements TelemetryTransport {
+
+	private final List<byte[]> writes = new ArrayList<byte[]>();
+	private volatile boolean connected = false;
+	private volatile boolean failing = false;
+	private volatile CountDownLatch stall = null;
+	private final CountDownLatch stalled = new CountDownLatch(1);
+
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			CountDownLatch s = stall;
+			if (s != null) {
+				stalled.countDown();
+				try {
+					s.await();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted");
+				}
+			}
+			if (failing)
+				throw new IOException("Link lost");
+			synchronized (writes) {
+				writes.add(Arrays.copyOfRange(b, off, off + len));
+				writes.notifyAll();
+			}
+		}
+	};
+
+	@Override
+	public void connect() {
+		connected = true;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		getOutputStream();
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (!connected)
+			throw new IOException("Not connected to " + getName());
+		return out;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+
+	@Override
+	public void close() {
+		connected = false;
+	}
+
+	@Override
+	public String getName() {
+		return "memory";
+	}
+
+	/**
+	 * Fail every write from now on.
+	 */
+	void fail() {
+		failing = true;
+	}
+
+	/**
+	 * Block writes until {@link #resume()}.
+	 */
+	void stall() {
+		stall = new CountDownLatch(1);
+	}
+
+	/**
+	 * @return whether a write blocked on the stall in time.
+	 */
+	boolean awaitStalled(long timeoutMillis) throws InterruptedException {
+		return stalled.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	void resume() {
+		CountDownLatch s = stall;
+		stall = null;
+		if (s != null)
+			s.countDown();
+	}
+
+	/**
+	 * Wait until at least a number of writes went through.
+	 *
+	 * @return the writes so far, fewer if it timed out.
+	 */
+	List<byte[]> awaitWrites(int count, long timeoutMillis)
+	        throws InterruptedException {
+		long end = System.currentTimeMillis() + timeoutMillis;
+		synchronized (writes) {
+			long remaining;
+			while (writes.size() < count
+			        && (remaining = end - System.currentTimeMillis()) > 0)
+				writes.wait(remaining);
+			return new ArrayList<byte[]>(writes);
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.tests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.smartebike.api.export.ExportWriter;
+import org.smartebike.api.export.RideExporter;
+import org.smartebike.api.fusion.Geo;
+import org.smartebike.api.record.RideAnchor;
+import org.smartebike.api.record.RideReader;
+import org.smartebike.api.record.RideRecorder;
+import org.smartebike.api.record.TrackLog;
+import org.smartebike.api.schema.ChannelSchema;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Exports a ride riding north at 18 km/h for 60 s and at 36 km/h for 60 s,
+ * with bursts of fixes at the start and after 100 s.
+ */
+public class RideExporterTest {
+
+	private static final long FIRST_TIMESTAMP = 5000;
+	private static final long WALL_CLOCK = 1400000000000L;
+	private static final double LATITUDE = 52;
+	private static final double LONGITUDE = 13;
+	private static final double METERS_PER_DEGREE = Geo.EARTH_RADIUS
+	        * Math.PI / 180;
+
+	private File directory;
+
+	@BeforeMethod
+	public void record() throws Exception {
+		directory = File.createTempFile("ride", "");
+		directory.delete();
+		RideRecorder recorder = new RideRecorder(directory,
+		        ChannelSchema.V1.size());
+		recorder.open();
+		float[] values = new float[ChannelSchema.V1.size()];
+		for (long t = 0; t <= 120000; t += 100) {
+			values[0] = t < 60000 ? 18 : 36;
+			assertTrue(recorder.append(FIRST_TIMESTAMP + t, values));
+		}
+		recorder.close();
+		assertTrue(recorder.awaitClosed(5000));
+		assertTrue(new File(directory, RideAnchor.FILE_NAME).isFile());
+		// replace the anchor taken now with a known one
+		new RideAnchor(FIRST_TIMESTAMP, WALL_CLOCK).write(new File(directory,
+		        RideAnchor.FILE_NAME));
+
+		TrackLog track = new TrackLog(new File(directory, TrackLog.FILE_NAME));
+		try {
+			for (long t = 0; t < 5000; t += 1000)
+				fix(track, t);
+			for (long t = 100000; t < 105000; t += 1000)
+				fix(track, t);
+		} finally {
+			track.close();
+		}
+	}
+
+	private static void fix(TrackLog track, long t) throws IOException {
+		track.append(WALL_CLOCK + t, LATITUDE + ridden(t) / METERS_PER_DEGREE,
+		        LONGITUDE, 5, Float.NaN);
+	}
+
+	/**
+	 * @return meters ridden after t ms.
+	 */
+	private static double ridden(long t) {
+		return t < 60000 ? 5 * t / 1000.0 : 300 + 10 * (t - 60000) / 1000.0;
+	}
+
+	@AfterMethod
+	public void delete() {
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void deadReckonsBetweenBursts() throws IOException {
+		List<double[]> rows = export();
+		assertEquals(rows.size(), 121);
+		for (double[] row : rows) {
+			long t = (long) row[0] - WALL_CLOCK;
+			if (t > 104000) {
+				// after the last fix
+				assertTrue(Double.isNaN(row[1]));
+				continue;
+			}
+			assertFalse(Double.isNaN(row[1]), "no position at " + t);
+			double meters = (row[1] - LATITUDE) * METERS_PER_DEGREE;
+			assertEquals(meters, ridden(t), 5, "at " + t);
+			assertEquals(row[2], LONGITUDE, 1e-9);
+		}
+	}
+
+	@Test
+	public void anchorsWallClock() throws IOException {
+		List<double[]> rows = export();
+		assertEquals((long) rows.get(0)[0], WALL_CLOCK);
+		assertEquals((long) rows.get(rows.size() - 1)[0], WALL_CLOCK + 120000);
+	}
+
+	/**
+	 * @return time, latitude and longitude of a record per second.
+	 */
+	private List<double[]> export() throws IOException {
+		final List<double[]> rows = new ArrayList<double[]>();
+		RideReader reader = new RideReader(directory);
+		try {
+			RideExporter exporter = new RideExporter(reader);
+			exporter.setInterval(1000);
+			exporter.export(new ExportWriter() {
+				public boolean needsRecordCount() {
+					return false;
+				}
+
+				public void begin(ChannelSchema schema, long recordCount) {
+				}
+
+				public void write(long time, float[] values, double latitude,
+				        double longitude, double distance) {
+					rows.add(new double[] { time, latitude, longitude });
+				}
+
+				public void end() {
+				}
+			});
+		} finally {
+			reader.close();
+		}
+		return rows;
+	}
+
+}
@@ -0,0 +1,203 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.tests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.smartebike.api.record.Aggregate;
+import org.smartebike.api.record.RecordVisitor;
+import org.smartebike.api.record.RideReader;
+import org.smartebike.api.record.RideRecorder;
+import org.smartebike.api.record.RideSegment;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Records rides in segments of 100 two channel records, then damages them
+ * the way a crash would.
+ */
+public class RideRecorderTest {
+
+	private static final int CHANNELS = 2;
+	private static final int CAPACITY = 100;
+	private static final int SEGMENT_SIZE = RideSegment.HEADER_SIZE
+	        + CAPACITY * RideSegment.recordSize(CHANNELS);
+	// offset of the committed record count in the header
+	private static final int COUNT_OFFSET = 16;
+
+	private File directory;
+
+	@BeforeMethod
+	public void create() throws IOException {
+		directory = File.createTempFile("ride", "");
+		directory.delete();
+	}
+
+	@AfterMethod
+	public void delete() {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void rollsOverSegments() throws Exception {
+		record(0, 250);
+
+		File[] files = RideRecorder.listSegments(directory);
+		assertEquals(files.length, 3);
+		long timestamp = 0;
+		int[] counts = { CAPACITY, CAPACITY, 50 };
+		for (int i = 0; i < files.length; i++) {
+			RideSegment segment = RideSegment.open(files[i], false);
+			assertEquals(segment.getIndex(), i);
+			assertEquals(segment.getCount(), counts[i]);
+			timestamp = checkRecords(segment, timestamp);
+			segment.close();
+		}
+		assertEquals(timestamp, 250);
+	}
+
+	@Test
+	public void stopsAtBrokenSeal() throws Exception {
+		record(0, 80);
+		File file = RideRecorder.listSegments(directory)[0];
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			// as if it crashed before committing, with record 30 half written
+			raf.seek(COUNT_OFFSET);
+			raf.writeLong(0);
+			int at = RideSegment.HEADER_SIZE + 30
+			        * RideSegment.recordSize(CHANNELS) + 8;
+			raf.seek(at);
+			raf.writeFloat(-1);
+		} finally {
+			raf.close();
+		}
+
+		RideSegment segment = RideSegment.open(file, false);
+		assertEquals(segment.getCount(), 30);
+		assertEquals(checkRecords(segment, 0), 30);
+		segment.close();
+	}
+
+	@Test
+	public void recoversTail() throws Exception {
+		record(0, 70);
+		cutShort(RideRecorder.listSegments(directory)[0], 60);
+
+		// reopening keeps the sealed records and appends after them
+		record(60, 5);
+		File[] files = RideRecorder.listSegments(directory);
+		assertEquals(files.length, 2);
+		RideSegment first = RideSegment.open(files[0], false);
+		assertEquals(first.getCount(), 60);
+		assertEquals(checkRecords(first, 0), 60);
+		first.close();
+		RideSegment second = RideSegment.open(files[1], false);
+		assertEquals(second.getCount(), 5);
+		assertEquals(checkRecords(second, 60), 65);
+		second.close();
+	}
+
+	@Test
+	public void readerRecoversTail() throws Exception {
+		record(0, 170);
+		File[] files = RideRecorder.listSegments(directory);
+		assertEquals(files.length, 2);
+		// the index written at close no longer matches
+		cutShort(files[1], 40);
+
+		RideReader reader = new RideReader(directory);
+		try {
+			assertEquals(reader.getRecordCount(), 140);
+			assertEquals(reader.getStartTime(), 0);
+			assertEquals(reader.getEndTime(), 139);
+			final long[] next = new long[1];
+			long visited = reader.query(90, 200, new RecordVisitor() {
+				public void visit(long timestamp, float[] values) {
+					assertEquals(timestamp, 90 + next[0]++);
+					assertEquals(values[0], (float) timestamp);
+				}
+			});
+			assertEquals(visited, 50);
+			Aggregate aggregate = reader.aggregate(0, 200, 1);
+			assertEquals(aggregate.getCount(), 140);
+			assertEquals(aggregate.getMin(), -139f);
+			assertEquals(aggregate.getMax(), 0f);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Leave a segment as a crash would: uncommitted and cut off in the middle
+	 * of a record.
+	 */
+	private static void cutShort(File file, int records) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(COUNT_OFFSET);
+			raf.writeLong(0);
+			raf.setLength(RideSegment.HEADER_SIZE + records
+			        * RideSegment.recordSize(CHANNELS) + 7);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Append records with consecutive timestamps and close the recorder.
+	 */
+	private void record(long from, int count) throws Exception {
+		RideRecorder recorder = new RideRecorder(directory, CHANNELS,
+		        SEGMENT_SIZE);
+		recorder.open();
+		float[] values = new float[CHANNELS];
+		for (long t = from; t < from + count; t++) {
+			values[0] = t;
+			values[1] = -t;
+			// dropped while the next segment isn't mapped yet
+			while (!recorder.append(t, values))
+				Thread.sleep(1);
+		}
+		recorder.close();
+		assertTrue(recorder.awaitClosed(5000));
+		assertEquals(recorder.getLastError(), null);
+	}
+
+	/**
+	 * @return the timestamp after the last record.
+	 */
+	private static long checkRecords(RideSegment segment, long timestamp) {
+		for (int r = 0; r < segment.getCount(); r++, timestamp++) {
+			assertEquals(segment.getTimestamp(r), timestamp);
+			assertEquals(segment.getValue(r, 0), (float) timestamp);
+			assertEquals(segment.getValue(r, 1), (float) -timestamp);
+		}
+		return timestamp;
+	}
+
+}
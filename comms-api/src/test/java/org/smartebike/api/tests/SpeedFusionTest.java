@@ -0,0 +1,163 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.tests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.smartebike.api.fusion.SpeedFusion;
+import org.testng.annotations.Test;
+
+/**
+ * Replays a wheel and location trace through {@link SpeedFusion}.
+ * <p>
+ * The trace in fusion-ride.csv is a 7 min ride with a wheel reading 6% slow,
+ * bursts of five fixes every 30 s, every other burst without a speed, two
+ * stops and a 60 s outage of both wheel and location from 240 s to 300 s.
+ */
+public class SpeedFusionTest {
+
+	private static final String RIDE = "/fusion-ride.csv";
+	// meters ridden outside the outage
+	private static final double RIDE_DISTANCE = 1697.9;
+	// meters the raw wheel speed adds up to
+	private static final double WHEEL_DISTANCE = 1601.8;
+
+	/**
+	 * Fusion state sampled while replaying the ride.
+	 */
+	private static class Ride {
+		final SpeedFusion fusion = new SpeedFusion();
+		double gapJump = Double.NaN;
+		float maxStoppedSpeed;
+		float speedAt200;
+		float speedAt310;
+		float minSpeed = Float.MAX_VALUE;
+		double minStep;
+	}
+
+	private static Ride replay() throws IOException {
+		Ride ride = new Ride();
+		SpeedFusion fusion = ride.fusion;
+		InputStream in = SpeedFusionTest.class.getResourceAsStream(RIDE);
+		assertTrue(in != null, RIDE);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+		        "US-ASCII"));
+		try {
+			long lastWheel = -1;
+			double lastDistance = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#"))
+					continue;
+				String[] fields = line.split(",");
+				long time = Long.parseLong(fields[1]);
+				if (fields[0].equals("wheel")) {
+					fusion.onWheelSpeed(time, Float.parseFloat(fields[2]));
+					double step = fusion.getDistance() - lastDistance;
+					if (lastWheel >= 0
+					        && time - lastWheel > SpeedFusion.MAX_GAP_MILLIS)
+						ride.gapJump = step;
+					ride.minStep = Math.min(ride.minStep, step);
+					lastDistance = fusion.getDistance();
+					lastWheel = time;
+				} else {
+					fusion.onFix(time, Double.parseDouble(fields[2]),
+					        Double.parseDouble(fields[3]),
+					        Float.parseFloat(fields[4]),
+					        Float.parseFloat(fields[5]));
+				}
+				float speed = fusion.getSpeed();
+				ride.minSpeed = Math.min(ride.minSpeed, speed);
+				if ((time >= 135000 && time < 160000) || time >= 415000)
+					ride.maxStoppedSpeed = Math.max(ride.maxStoppedSpeed,
+					        speed);
+				if (time == 200000)
+					ride.speedAt200 = speed;
+				if (time == 310000)
+					ride.speedAt310 = speed;
+			}
+		} finally {
+			reader.close();
+		}
+		return ride;
+	}
+
+	@Test
+	public void distanceBeatsRawWheel() throws IOException {
+		Ride ride = replay();
+		double distance = ride.fusion.getDistance();
+		assertEquals(distance, RIDE_DISTANCE, RIDE_DISTANCE * 0.05);
+		assertTrue(Math.abs(distance - RIDE_DISTANCE) < Math.abs(WHEEL_DISTANCE
+		        - RIDE_DISTANCE), "fused " + distance);
+		assertTrue(ride.minStep >= 0, "distance went back by "
+		        + ride.minStep);
+	}
+
+	@Test
+	public void calibratesWheel() throws IOException {
+		Ride ride = replay();
+		assertTrue(ride.fusion.isCalibrated());
+		assertEquals(ride.fusion.getScale(), 1.06, 0.04);
+		assertTrue(ride.fusion.getCalibrationCount() > 0);
+	}
+
+	@Test
+	public void tracksSpeed() throws IOException {
+		Ride ride = replay();
+		assertTrue(ride.minSpeed >= 0, "negative speed " + ride.minSpeed);
+		// fixes derived from noisy positions nudge it while stopped
+		assertTrue(ride.maxStoppedSpeed < 2, "stopped at "
+		        + ride.maxStoppedSpeed + " km/h");
+		assertEquals(ride.speedAt200, 20, 1.5);
+		assertEquals(ride.speedAt310, 15, 1.5);
+	}
+
+	@Test
+	public void outageKeepsDistance() throws IOException {
+		Ride ride = replay();
+		assertTrue(!Double.isNaN(ride.gapJump), "no outage in the trace");
+		// at most one sample at 15 km/h
+		assertEquals(ride.gapJump, 0, 1);
+	}
+
+	@Test
+	public void longOutageKeepsDistance() {
+		SpeedFusion fusion = new SpeedFusion();
+		long time = 0;
+		for (; time <= 60000; time += 200)
+			fusion.onWheelSpeed(time, 30);
+		double distance = fusion.getDistance();
+		assertEquals(distance, 500, 10);
+
+		// back after 10 min, stopped
+		time += 10 * 60000;
+		fusion.onWheelSpeed(time, 0);
+		assertEquals(fusion.getDistance(), distance, 0.001);
+		assertEquals(fusion.getSpeed(), 0, 1);
+		for (int i = 0; i < 50; i++)
+			fusion.onWheelSpeed(time += 200, 0);
+		assertEquals(fusion.getDistance(), distance, 0.1);
+		assertTrue(fusion.getSpeed() < 0.5);
+	}
+
+}
@@ -0,0 +1,223 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.tests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.smartebike.api.merge.MergeListener;
+import org.smartebike.api.merge.StreamMerger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class StreamMergerTest implements MergeListener {
+
+	private static final long MAX_DELAY = 100;
+
+	private final List<long[]> merged = new ArrayList<long[]>();
+	private int endCount;
+
+	@BeforeMethod
+	public void clear() {
+		merged.clear();
+		endCount = 0;
+	}
+
+	@Override
+	public void onMergedSample(int source, long timestamp, float[] values) {
+		// the value is the offered timestamp, steps back are evened out
+		assertTrue(values[0] <= timestamp, values[0] + " at " + timestamp);
+		merged.add(new long[] { source, timestamp });
+	}
+
+	@Override
+	public void onMergeEnd() {
+		endCount++;
+	}
+
+	private StreamMerger newMerger(int sources, int capacity) {
+		StreamMerger merger = new StreamMerger(sources, 1, capacity,
+		        MAX_DELAY, this);
+		for (int i = 0; i < sources; i++)
+			merger.setActive(i, true);
+		return merger;
+	}
+
+	private static boolean offer(StreamMerger merger, int source,
+	        long timestamp) {
+		return merger.offer(source, timestamp, new float[] { timestamp });
+	}
+
+	/**
+	 * @return the merged timestamps so far, in order.
+	 */
+	private long[] timestamps() {
+		long[] timestamps = new long[merged.size()];
+		for (int i = 0; i < timestamps.length; i++)
+			timestamps[i] = merged.get(i)[1];
+		return timestamps;
+	}
+
+	@Test
+	public void mergesInOrder() {
+		StreamMerger merger = newMerger(2, 16);
+		offer(merger, 0, 0);
+		offer(merger, 0, 10);
+		offer(merger, 0, 20);
+		offer(merger, 1, 5);
+		offer(merger, 1, 15);
+		merger.drain(20);
+		// 20 waits for the other source, which may still send up to it
+		assertEquals(timestamps(), new long[] { 0, 5, 10, 15 });
+		assertEquals(merged.get(1)[0], 1);
+		assertEquals(endCount, 1);
+		assertTrue(merger.hasPending());
+
+		offer(merger, 1, 25);
+		merger.drain(25);
+		assertEquals(timestamps(), new long[] { 0, 5, 10, 15, 20 });
+		assertEquals(merger.getMergedCount(), 5);
+		assertEquals(merger.getLag(0), 5);
+	}
+
+	@Test
+	public void waitsForSilentSourceUpToMaxDelay() {
+		StreamMerger merger = newMerger(2, 16);
+		offer(merger, 0, 1000);
+		merger.drain(1000 + MAX_DELAY - 1);
+		assertEquals(merged.size(), 0);
+		assertEquals(endCount, 0);
+		merger.drain(1000 + MAX_DELAY);
+		assertEquals(timestamps(), new long[] { 1000 });
+	}
+
+	@Test
+	public void inactiveSourceDoesntHoldUp() {
+		StreamMerger merger = newMerger(2, 16);
+		merger.setActive(1, false);
+		offer(merger, 0, 1000);
+		merger.drain(1000);
+		assertEquals(timestamps(), new long[] { 1000 });
+	}
+
+	@Test
+	public void periodicSourceHoldsUpUntilDue() {
+		StreamMerger merger = newMerger(2, 16);
+		merger.setPeriodic(1, true);
+		offer(merger, 1, 0);
+		offer(merger, 1, 1000);
+		offer(merger, 0, 1500);
+		offer(merger, 0, 2500);
+		merger.drain(2500);
+		// nothing can come from source 1 before 2000
+		assertEquals(timestamps(), new long[] { 0, 1000, 1500 });
+	}
+
+	@Test
+	public void dropsLateSamples() {
+		StreamMerger merger = newMerger(2, 16);
+		offer(merger, 0, 100);
+		offer(merger, 1, 200);
+		// source 0 stays silent for longer than the maximum delay
+		merger.drain(300);
+		assertEquals(timestamps(), new long[] { 100, 200 });
+
+		assertFalse(offer(merger, 0, 150));
+		assertTrue(offer(merger, 0, 250));
+		assertEquals(merger.getLateCount(0), 1);
+		assertEquals(merger.getLateCount(1), 0);
+		merger.flush();
+		assertEquals(timestamps(), new long[] { 100, 200, 250 });
+	}
+
+	@Test
+	public void evensOutStepsBack() {
+		StreamMerger merger = newMerger(1, 16);
+		offer(merger, 0, 100);
+		assertTrue(merger.offer(0, 95, new float[] { 100 }));
+		offer(merger, 0, 110);
+		merger.flush();
+		assertEquals(timestamps(), new long[] { 100, 100, 110 });
+		assertEquals(merger.getLateCount(0), 0);
+	}
+
+	@Test
+	public void fullBufferHandsOnOldest() {
+		StreamMerger merger = newMerger(2, 4);
+		for (long t = 0; t < 6; t++)
+			offer(merger, 0, t);
+		assertEquals(merger.getForcedCount(), 2);
+		assertEquals(merger.getBuffered(0), 4);
+		assertEquals(merger.getMaxBuffered(0), 4);
+		assertEquals(timestamps(), new long[] { 0, 1 });
+		merger.flush();
+		assertEquals(timestamps(), new long[] { 0, 1, 2, 3, 4, 5 });
+		assertFalse(merger.hasPending());
+	}
+
+	@Test
+	public void resetAcceptsRestartedClock() {
+		StreamMerger merger = newMerger(1, 16);
+		offer(merger, 0, 5000);
+		merger.flush();
+		merger.reset();
+		assertTrue(offer(merger, 0, 10));
+		merger.flush();
+		assertEquals(timestamps(), new long[] { 5000, 10 });
+	}
+
+	/**
+	 * Sources with jitter, delivered in bursts and drained at random times,
+	 * still come out in timestamp order, each sample merged or counted late.
+	 */
+	@Test
+	public void randomInterleaving() {
+		int sources = 3;
+		StreamMerger merger = newMerger(sources, 32);
+		Random random = new Random(23);
+		long[] next = new long[sources];
+		int offered = 0;
+		for (long now = 0; now < 100000; now += 1 + random.nextInt(20)) {
+			int source = random.nextInt(sources);
+			// a burst of samples that were due
+			while (next[source] <= now) {
+				long timestamp = next[source] - random.nextInt(30);
+				offer(merger, source, timestamp);
+				offered++;
+				next[source] += 5 + source * 7 + random.nextInt(5);
+			}
+			if (random.nextInt(4) == 0)
+				merger.drain(now);
+		}
+		merger.flush();
+
+		long late = 0;
+		for (int i = 0; i < sources; i++)
+			late += merger.getLateCount(i);
+		assertEquals(merged.size() + late, offered);
+		assertTrue(late < offered / 10, late + " late of " + offered);
+		long[] timestamps = timestamps();
+		for (int i = 1; i < timestamps.length; i++)
+			assertTrue(timestamps[i] >= timestamps[i - 1], "at " + i);
+	}
+
+}
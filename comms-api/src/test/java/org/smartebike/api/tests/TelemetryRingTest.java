@@ -0,0 +1,142 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.tests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.smartebike.api.ring.TelemetryRing;
+import org.smartebike.api.ring.TelemetrySample;
+import org.testng.annotations.Test;
+
+public class TelemetryRingTest {
+
+	@Test
+	public void roundsCapacityUp() {
+		assertEquals(new TelemetryRing(5, 1).getCapacity(), 8);
+		assertEquals(new TelemetryRing(8, 1).getCapacity(), 8);
+	}
+
+	@Test
+	public void pollsInOrder() {
+		TelemetryRing ring = new TelemetryRing(4, 2);
+		TelemetrySample sample = ring.newSample();
+		assertFalse(ring.poll(sample));
+		ring.publish(1, new float[] { 10, 11 });
+		ring.publish(2, new float[] { 20, 21, 22 });
+		assertEquals(ring.size(), 2);
+
+		assertTrue(ring.poll(sample));
+		assertEquals(sample.getTimestamp(), 1);
+		assertEquals(sample.getValue(0), 10f);
+		assertEquals(sample.getValue(1), 11f);
+		assertTrue(ring.poll(sample));
+		assertEquals(sample.getTimestamp(), 2);
+		assertEquals(sample.getValue(1), 21f);
+		assertFalse(ring.poll(sample));
+		assertEquals(ring.getOverrunCount(), 0);
+	}
+
+	@Test
+	public void overwritesOldest() {
+		TelemetryRing ring = new TelemetryRing(4, 1);
+		for (int i = 0; i < 10; i++)
+			ring.publish(i, i * 10f);
+		assertEquals(ring.size(), 4);
+		assertEquals(ring.getOverrunCount(), 6);
+
+		TelemetrySample sample = ring.newSample();
+		for (int i = 6; i < 10; i++) {
+			assertTrue(ring.poll(sample));
+			assertEquals(sample.getTimestamp(), i);
+			assertEquals(sample.getValue(0), i * 10f);
+		}
+		assertFalse(ring.poll(sample));
+	}
+
+	@Test
+	public void wrapsAround() {
+		TelemetryRing ring = new TelemetryRing(4, 1);
+		TelemetrySample sample = ring.newSample();
+		for (int i = 0; i < 100; i++) {
+			ring.publish(i, i);
+			if (i % 3 == 2) {
+				// fall behind now and then, but never by more than the ring
+				for (int j = i - 2; j <= i; j++) {
+					assertTrue(ring.poll(sample));
+					assertEquals(sample.getTimestamp(), j);
+				}
+			}
+		}
+		assertEquals(ring.getOverrunCount(), 0);
+	}
+
+	@Test
+	public void pollsLatest() {
+		TelemetryRing ring = new TelemetryRing(4, 1);
+		TelemetrySample sample = ring.newSample();
+		assertEquals(ring.pollLatest(sample), 0);
+		for (int i = 0; i < 6; i++)
+			ring.publish(i, i);
+		assertEquals(ring.pollLatest(sample), 4);
+		assertEquals(sample.getTimestamp(), 5);
+		assertEquals(ring.size(), 0);
+		assertEquals(ring.getOverrunCount(), 2);
+	}
+
+	/**
+	 * A consumer falling behind a producer only ever sees whole samples, in
+	 * order, and every sample is either read or counted as an overrun.
+	 */
+	@Test
+	public void overrunByProducer() throws InterruptedException {
+		final int count = 200000;
+		final TelemetryRing ring = new TelemetryRing(16, 3);
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				float[] values = new float[3];
+				for (int i = 0; i < count; i++) {
+					values[0] = i;
+					values[1] = -i;
+					values[2] = i * 2;
+					ring.publish(i, values);
+				}
+			}
+		});
+		producer.start();
+
+		TelemetrySample sample = ring.newSample();
+		long read = 0;
+		long last = -1;
+		while (producer.isAlive() || ring.size() > 0) {
+			if (!ring.poll(sample))
+				continue;
+			long t = sample.getTimestamp();
+			assertTrue(t > last, t + " after " + last);
+			assertEquals(sample.getValue(0), (float) t);
+			assertEquals(sample.getValue(1), (float) -t);
+			assertEquals(sample.getValue(2), (float) (t * 2));
+			last = t;
+			read++;
+		}
+		producer.join();
+		assertEquals(last, count - 1);
+		assertEquals(read + ring.getOverrunCount(), count);
+	}
+
+}
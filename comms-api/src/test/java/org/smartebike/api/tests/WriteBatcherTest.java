@@ -0,0 +1,156 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.api.tests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.smartebike.api.io.WriteBatcher;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class WriteBatcherTest {
+
+	private static final long WAIT_MILLIS = 5000;
+
+	private MemoryTransport transport;
+	private WriteBatcher batcher;
+
+	@BeforeMethod
+	public void connect() {
+		transport = new MemoryTransport();
+		transport.connect();
+	}
+
+	@AfterMethod
+	public void close() throws InterruptedException {
+		transport.resume();
+		if (batcher != null) {
+			batcher.close();
+			assertTrue(batcher.awaitClosed(WAIT_MILLIS));
+			batcher = null;
+		}
+	}
+
+	@Test
+	public void urgentGoesFirst() throws Exception {
+		// nothing would be written for a minute but for the urgent frame
+		batcher = new WriteBatcher(transport, 512, 60000, 1024);
+		batcher.write(frame(1, 4), 0, 4, WriteBatcher.NORMAL);
+		batcher.write(frame(2, 3), 0, 3, WriteBatcher.BULK);
+		batcher.write(frame(3, 4), 0, 4, WriteBatcher.NORMAL);
+		batcher.write(frame(4, 2), 0, 2, WriteBatcher.URGENT);
+
+		List<byte[]> writes = transport.awaitWrites(1, WAIT_MILLIS);
+		assertEquals(writes.size(), 1);
+		assertEquals(writes.get(0), new byte[] { 4, 4, 1, 1, 1, 1, 3, 3, 3,
+		        3, 2, 2, 2 });
+		// the counts are updated after the write
+		batcher.close();
+		assertTrue(batcher.awaitClosed(WAIT_MILLIS));
+		assertEquals(batcher.getBatchCount(), 1);
+		assertEquals(batcher.getFrameCount(), 4);
+		assertEquals(batcher.getSavedWriteCount(), 3);
+		// four frames in the 4-7 bucket
+		assertEquals(batcher.getBatchHistogram()[2], 1);
+	}
+
+	@Test
+	public void refusesBeyondMaxPending() throws Exception {
+		batcher = new WriteBatcher(transport, 64, 60000, 128);
+		transport.stall();
+		batcher.write(frame(1, 32), 0, 32, WriteBatcher.NORMAL);
+		batcher.write(frame(2, 32), 0, 32, WriteBatcher.NORMAL);
+		assertTrue(transport.awaitStalled(WAIT_MILLIS));
+
+		// the first batch is stuck in the transport, this one can't go out
+		for (int i = 0; i < 4; i++)
+			batcher.write(frame(3, 32), 0, 32, WriteBatcher.BULK);
+		try {
+			batcher.write(frame(4, 1), 0, 1, WriteBatcher.URGENT);
+			fail("accepted more than the maximum pending bytes");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(batcher.getRefusedFrameCount(), 1);
+
+		transport.resume();
+		List<byte[]> writes = transport.awaitWrites(2, WAIT_MILLIS);
+		assertEquals(writes.size(), 2);
+		assertEquals(writes.get(0).length, 64);
+		assertEquals(writes.get(1).length, 128);
+		// room again
+		batcher.write(frame(5, 1), 0, 1, WriteBatcher.URGENT);
+		assertEquals(transport.awaitWrites(3, WAIT_MILLIS).size(), 3);
+	}
+
+	@Test
+	public void waitsForMaxDelay() throws Exception {
+		batcher = new WriteBatcher(transport, 512, 200, 1024);
+		long start = System.nanoTime();
+		batcher.write(frame(1, 8), 0, 8, WriteBatcher.NORMAL);
+		batcher.write(frame(2, 8), 0, 8, WriteBatcher.BULK);
+		List<byte[]> writes = transport.awaitWrites(1, WAIT_MILLIS);
+		long waited = (System.nanoTime() - start) / 1000000L;
+
+		assertEquals(writes.size(), 1);
+		assertEquals(writes.get(0).length, 16);
+		assertTrue(waited >= 190, "written after " + waited + " ms");
+	}
+
+	@Test
+	public void flushWritesRightAway() throws Exception {
+		batcher = new WriteBatcher(transport, 512, 60000, 1024);
+		batcher.write(frame(1, 8), 0, 8, WriteBatcher.BULK);
+		batcher.flush();
+		assertEquals(transport.awaitWrites(1, WAIT_MILLIS).size(), 1);
+	}
+
+	@Test
+	public void writesPendingOnClose() throws Exception {
+		batcher = new WriteBatcher(transport, 512, 60000, 1024);
+		batcher.write(frame(1, 8), 0, 8, WriteBatcher.BULK);
+		batcher.close();
+		assertTrue(batcher.awaitClosed(WAIT_MILLIS));
+		assertEquals(transport.awaitWrites(1, 0).size(), 1);
+		try {
+			batcher.write(frame(2, 8), 0, 8, WriteBatcher.BULK);
+			fail("accepted a frame after closing");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void rejectsUnknownPriority() throws Exception {
+		batcher = new WriteBatcher(transport);
+		batcher.write(frame(1, 8), 0, 8, WriteBatcher.BULK + 1);
+	}
+
+	private static byte[] frame(int value, int length) {
+		byte[] frame = new byte[length];
+		for (int i = 0; i < length; i++)
+			frame[i] = (byte) value;
+		return frame;
+	}
+
+}
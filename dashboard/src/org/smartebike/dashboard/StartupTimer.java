@@ -0,0 +1,103 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard;
+
+import java.util.Arrays;
+
+import org.smartebike.api.metrics.Gauge;
+import org.smartebike.api.metrics.MetricsRegistry;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Milestones of a cold start, in milliseconds since the process started
+ * running application code, i.e. since {@link DashboardApplication} was
+ * loaded. Only the first time each milestone is reached counts.
+ */
+public final class StartupTimer {
+
+	private static final String TAG = "StartupTimer";
+
+	public static final int ACTIVITY_CREATED = 0;
+	public static final int SERVICE_CREATED = 1;
+	public static final int SERVICE_BOUND = 2;
+	public static final int CONNECTED = 3;
+	public static final int FIRST_SAMPLE = 4;
+	/**
+	 * The first motor speed reading on screen, the number to track.
+	 */
+	public static final int FIRST_SPEED_SHOWN = 5;
+
+	/**
+	 * Milestone names, as used in metric names.
+	 */
+	public static final String[] MILESTONES = { "activityCreated",
+	        "serviceCreated", "serviceBound", "connected", "firstSample",
+	        "firstSpeedShown" };
+
+	private static final long origin = SystemClock.elapsedRealtime();
+	private static final long[] times = new long[MILESTONES.length];
+
+	static {
+		Arrays.fill(times, -1);
+	}
+
+	private StartupTimer() {
+	}
+
+	/**
+	 * Make sure the clock runs, call as early as possible.
+	 */
+	static void start() {
+		// loading the class sets the origin
+	}
+
+	/**
+	 * Note that a milestone was reached, if it is the first time.
+	 */
+	public static synchronized void mark(int milestone) {
+		if (times[milestone] >= 0)
+			return;
+		times[milestone] = SystemClock.elapsedRealtime() - origin;
+		Log.d(TAG, "Startup " + MILESTONES[milestone] + " after "
+		        + times[milestone] + " ms.");
+	}
+
+	/**
+	 * @return milliseconds from the start to a milestone, -1 if it wasn't
+	 *         reached yet.
+	 */
+	public static synchronized long get(int milestone) {
+		return times[milestone];
+	}
+
+	/**
+	 * Expose every milestone as a <code>startup.</code> gauge.
+	 */
+	public static void registerGauges(MetricsRegistry metrics) {
+		for (int i = 0; i < MILESTONES.length; i++) {
+			final int milestone = i;
+			metrics.register("startup." + MILESTONES[i], new Gauge() {
+				public double getValue() {
+					return get(milestone);
+				}
+			});
+		}
+	}
+
+}
@@ -39,8 +39,12 @@ public class ConfigActivity extends RoboPreferenceActivity implements
         OnPreferenceChangeListener {
 
 	public static final String BLUETOOTH_LIST_KEY = "bluetooth_list_preference";
+	public static final String BMS_DEVICE_KEY = "bms_list_preference";
+	public static final String SENSOR_DEVICE_KEY = "sensor_list_preference";
 	public static final String IMPERIAL_UNITS_KEY = "imperial_units_preference";
 	public static final String ENABLE_GPS_KEY = "enable_gps_preference";
+	public static final String RECORD_RIDES_KEY = "record_rides_preference";
+	public static final String CAPTURE_LINK_KEY = "capture_link_preference";
 
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -52,6 +56,12 @@ public class ConfigActivity extends RoboPreferenceActivity implements
 		ArrayList<CharSequence> vals = new ArrayList<CharSequence>();
 		ListPreference listBtDevices = (ListPreference) getPreferenceScreen()
 		        .findPreference(BLUETOOTH_LIST_KEY);
+		// the other devices are optional
+		ListPreference[] listOptionalDevices = {
+		        (ListPreference) getPreferenceScreen().findPreference(
+		                BMS_DEVICE_KEY),
+		        (ListPreference) getPreferenceScreen().findPreference(
+		                SENSOR_DEVICE_KEY) };
 
 		/*
 		 * Let's use this device Bluetooth adapter to select which paired
@@ -63,6 +73,8 @@ public class ConfigActivity extends RoboPreferenceActivity implements
 			listBtDevices.setEntries(pairedDeviceStrings
 			        .toArray(new CharSequence[0]));
 			listBtDevices.setEntryValues(vals.toArray(new CharSequence[0]));
+			for (ListPreference list : listOptionalDevices)
+				list.setEnabled(false);
 
 			// we shouldn't get here, still warn user
 			Toast.makeText(this, "This device does not support Bluetooth.",
@@ -101,6 +113,13 @@ public class ConfigActivity extends RoboPreferenceActivity implements
 		listBtDevices.setEntries(pairedDeviceStrings
 		        .toArray(new CharSequence[0]));
 		listBtDevices.setEntryValues(vals.toArray(new CharSequence[0]));
+
+		pairedDeviceStrings.add(0, "None");
+		vals.add(0, "");
+		for (ListPreference list : listOptionalDevices) {
+			list.setEntries(pairedDeviceStrings.toArray(new CharSequence[0]));
+			list.setEntryValues(vals.toArray(new CharSequence[0]));
+		}
 	}
 
 	@Override
@@ -16,16 +16,40 @@
  */
 package org.smartebike.dashboard.activity;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.smartebike.api.export.CsvWriter;
+import org.smartebike.api.export.ExportWriter;
+import org.smartebike.api.export.FitWriter;
+import org.smartebike.api.export.GpxWriter;
+import org.smartebike.api.export.RideExporter;
+import org.smartebike.api.metrics.ClockOffset;
+import org.smartebike.api.metrics.Histogram;
+import org.smartebike.api.metrics.MetricsRegistry;
+import org.smartebike.api.record.RideReader;
 import org.smartebike.dashboard.R;
+import org.smartebike.dashboard.StartupTimer;
+import org.smartebike.dashboard.format.TextBuffer;
+import org.smartebike.dashboard.format.Unit;
+import org.smartebike.dashboard.format.Units;
 import org.smartebike.dashboard.io.BluetoothService;
+import org.smartebike.dashboard.io.BluetoothService.BluetoothServiceBinder;
 import org.smartebike.dashboard.message.Message;
 import org.smartebike.dashboard.message.MessageHandler;
 import org.smartebike.dashboard.message.MessageKey;
 import org.smartebike.dashboard.message.MessageType;
+import org.smartebike.dashboard.message.Subscription;
+import org.smartebike.dashboard.ui.HandlerExecutor;
+import org.smartebike.dashboard.ui.RenderScheduler;
 
-import roboguice.activity.RoboActivity;
-import roboguice.inject.ContentView;
-import roboguice.inject.InjectView;
+import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.bluetooth.BluetoothAdapter;
@@ -34,21 +58,29 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.preference.PreferenceManager;
+import android.provider.Settings;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.widget.TextView;
-
-import com.google.inject.Inject;
+import android.widget.Toast;
 
 /**
  * The main activity.
+ * <p>
+ * It is on the cold start path, so views and system services are looked up
+ * directly rather than injected.
  */
-@ContentView(R.layout.activity_main)
-public class MainActivity extends RoboActivity implements MessageHandler {
+public class MainActivity extends Activity implements MessageHandler,
+        RenderScheduler.Renderer, OnSharedPreferenceChangeListener {
 
 	private static final String TAG = "MainActivity";
 
@@ -57,40 +89,109 @@ public class MainActivity extends RoboActivity implements MessageHandler {
 	private static final int START_LIVE_DATA = 3;
 	private static final int STOP_LIVE_DATA = 4;
 	private static final int SETTINGS = 5;
+	private static final int METRICS = 6;
+	private static final int DUMP_METRICS = 7;
+	private static final int EXPORT_RIDE = 8;
+
+	// render channels follow BluetoothService.LIVE_CHANNELS
+	private static final MessageKey[] CHANNELS = BluetoothService.LIVE_CHANNELS;
+	private static final int MOTOR_SPEED_CHANNEL = 0;
+	private static final int FIRST_STATS_CHANNEL = 1;
+	// redraw rate cap once the screen has dimmed
+	private static final float DIMMED_MAX_RATE = 10;
+	private static final int DEFAULT_SCREEN_OFF_TIMEOUT = 30000;
+	private static final long METRICS_REFRESH_MILLIS = 1000;
+	private static final String METRICS_FILE = "metrics.txt";
+	private static final String EXPORT_DIRECTORY = "SmartEBike";
+	private static final long EXPORT_TRACK_INTERVAL = 1000;
+	private static final int EXPORT_THREADS = 2;
+	private static final int SPEED_TEXT_CAPACITY = 16;
+	private static final int STATS_TEXT_CAPACITY = 160;
 
 	private boolean isServiceBound;
+	private Subscription liveDataSubscription = null;
 
-	@Inject
-	BluetoothService btService;
+	private BluetoothService btService;
 
 	private ServiceConnection serviceConn = new ServiceConnection() {
 		public void onServiceConnected(ComponentName className, IBinder binder) {
 			Log.d(TAG, "BluetoothService is bound");
-			// register this activity as a service listener
-			btService.registerListener(MainActivity.this);
+			StartupTimer.mark(StartupTimer.SERVICE_BOUND);
+			btService = ((BluetoothServiceBinder) binder).getService();
+			// have live data delivered to this activity on the main thread
+			liveDataSubscription = btService.getMessageBus().subscribe(
+			        MessageType.UPDATE_MOTOR_SPEED, MainActivity.this,
+			        new HandlerExecutor(handler));
+			sensorToScreenLatency = btService.getMetrics().histogram(
+			        BluetoothService.SENSOR_TO_SCREEN_LATENCY,
+			        BluetoothService.LATENCY_BOUNDS);
+			uiLatency = btService.getMetrics().histogram(
+			        BluetoothService.UI_LATENCY,
+			        BluetoothService.LATENCY_BOUNDS);
 			isServiceBound = true;
+			btService.setDashboardVisible(visible);
 		}
 
 		public void onServiceDisconnected(ComponentName className) {
 			Log.d(TAG, "BluetoothService is unbound");
 			isServiceBound = false;
+			btService = null;
 		}
 	};
 
-	@Inject
 	private SharedPreferences prefs;
-	@Inject
 	private PowerManager powerManager;
 	private PowerManager.WakeLock wakeLock;
 
-	@InjectView(R.id.tvMotorSpeed)
 	private TextView tvMotorSpeed;
+	private TextView tvStats;
+	private TextView tvMetricsOverlay;
+
+	// one buffer per view, the views keep referencing them
+	private final TextBuffer speedText = new TextBuffer(SPEED_TEXT_CAPACITY);
+	private final TextBuffer statsText = new TextBuffer(STATS_TEXT_CAPACITY);
+	private Units units = Units.METRIC;
+
+	// the sample last handed to the render scheduler
+	private long sampleTimestamp = -1;
+	private long receiveTime;
+	private Histogram sensorToScreenLatency = null;
+	private Histogram uiLatency = null;
 
 	private boolean preRequisites = true;
+	// between onResume() and onPause(), telemetry comes at full rate
+	private boolean visible = false;
+
+	private final Handler handler = new Handler();
+	private RenderScheduler renderScheduler;
+	private final Runnable dimTask = new Runnable() {
+		public void run() {
+			Log.d(TAG, "Screen dimmed, capping redraw rate.");
+			renderScheduler.setMaxRate(DIMMED_MAX_RATE);
+		}
+	};
+	private final Runnable metricsTask = new Runnable() {
+		public void run() {
+			if (isServiceBound)
+				tvMetricsOverlay.setText(btService.getMetrics().format());
+			handler.postDelayed(this, METRICS_REFRESH_MILLIS);
+		}
+	};
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		StartupTimer.mark(StartupTimer.ACTIVITY_CREATED);
+
+		setContentView(R.layout.activity_main);
+		tvMotorSpeed = (TextView) findViewById(R.id.tvMotorSpeed);
+		tvStats = (TextView) findViewById(R.id.tvStats);
+		tvMetricsOverlay = (TextView) findViewById(R.id.tvMetricsOverlay);
+		prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+
+		renderScheduler = new RenderScheduler(handler, this, CHANNELS.length,
+		        getWindowManager().getDefaultDisplay().getRefreshRate());
 
 		// Bluetooth device exists?
 		final BluetoothAdapter mBtAdapter = BluetoothAdapter
@@ -140,6 +241,18 @@ public class MainActivity extends RoboActivity implements MessageHandler {
 		// get wakelock
 		wakeLock = powerManager.newWakeLock(PowerManager.SCREEN_DIM_WAKE_LOCK,
 		        "Smart EBike");
+
+		// units may have been changed in the settings
+		prefs.registerOnSharedPreferenceChangeListener(this);
+		setUnits(prefs.getBoolean(ConfigActivity.IMPERIAL_UNITS_KEY, false));
+
+		visible = true;
+		if (isServiceBound)
+			btService.setDashboardVisible(true);
+		renderScheduler.start();
+		if (tvMetricsOverlay.getVisibility() == View.VISIBLE)
+			handler.post(metricsTask);
+		onUserInteraction();
 	}
 
 	@Override
@@ -151,6 +264,58 @@ public class MainActivity extends RoboActivity implements MessageHandler {
 			Log.d(TAG, "BluetoothService is bound...");
 
 		releaseWakeLockIfHeld();
+
+		prefs.unregisterOnSharedPreferenceChangeListener(this);
+		// screen off or another activity on top, let the rate drop
+		visible = false;
+		if (isServiceBound)
+			btService.setDashboardVisible(false);
+		renderScheduler.stop();
+		handler.removeCallbacks(dimTask);
+		handler.removeCallbacks(metricsTask);
+		Log.d(TAG, "Redraws: " + renderScheduler.getRenderCount()
+		        + ", updates: " + renderScheduler.getUpdateCount()
+		        + ", conflated: " + renderScheduler.getConflatedCount()
+		        + ", dropped: " + renderScheduler.getDroppedCount());
+		if (liveDataSubscription != null)
+			Log.d(TAG, "Live data delivered: "
+			        + liveDataSubscription.getDeliveredCount()
+			        + ", dropped: " + liveDataSubscription.getDroppedCount()
+			        + ", max queue depth: "
+			        + liveDataSubscription.getMaxQueueDepth());
+	}
+
+	/**
+	 * Redraw at full rate while the rider interacts with the screen, and
+	 * fall back to {@link #DIMMED_MAX_RATE} once the wake lock lets it dim.
+	 */
+	@Override
+	public void onUserInteraction() {
+		super.onUserInteraction();
+		renderScheduler.setMaxRate(0);
+		handler.removeCallbacks(dimTask);
+		handler.postDelayed(dimTask, Settings.System.getInt(
+		        getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT,
+		        DEFAULT_SCREEN_OFF_TIMEOUT));
+	}
+
+	@Override
+	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+	        String key) {
+		if (ConfigActivity.IMPERIAL_UNITS_KEY.equals(key))
+			setUnits(sharedPreferences.getBoolean(key, false));
+	}
+
+	/**
+	 * Switch units, redrawing the latest values in the new ones.
+	 */
+	private void setUnits(boolean imperial) {
+		Units selected = Units.of(imperial);
+		if (selected == units)
+			return;
+		Log.d(TAG, "Showing " + (imperial ? "imperial" : "metric") + " units.");
+		units = selected;
+		renderScheduler.invalidate();
 	}
 
 	private void doBindService() {
@@ -164,6 +329,10 @@ public class MainActivity extends RoboActivity implements MessageHandler {
 	private void doUnbindService() {
 		if (isServiceBound) {
 			Log.d(TAG, "Unbinding BluetoothService..");
+			if (liveDataSubscription != null) {
+				btService.getMessageBus().unsubscribe(liveDataSubscription);
+				liveDataSubscription = null;
+			}
 			unbindService(serviceConn);
 		}
 	}
@@ -221,6 +390,9 @@ public class MainActivity extends RoboActivity implements MessageHandler {
 		menu.add(0, START_LIVE_DATA, 0, "Start Live Data");
 		menu.add(0, STOP_LIVE_DATA, 0, "Stop");
 		menu.add(0, SETTINGS, 0, "Settings");
+		menu.add(0, METRICS, 0, "Metrics");
+		menu.add(0, DUMP_METRICS, 0, "Dump Metrics");
+		menu.add(0, EXPORT_RIDE, 0, "Export Last Ride");
 		return true;
 	}
 
@@ -235,10 +407,148 @@ public class MainActivity extends RoboActivity implements MessageHandler {
 		case SETTINGS:
 			updateConfig();
 			return true;
+		case METRICS:
+			toggleMetricsOverlay();
+			return true;
+		case DUMP_METRICS:
+			dumpMetrics();
+			return true;
+		case EXPORT_RIDE:
+			exportLastRide();
+			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Show or hide the metrics overlay, refreshed every second while shown.
+	 */
+	private void toggleMetricsOverlay() {
+		handler.removeCallbacks(metricsTask);
+		if (tvMetricsOverlay.getVisibility() == View.VISIBLE) {
+			tvMetricsOverlay.setVisibility(View.GONE);
+		} else {
+			tvMetricsOverlay.setVisibility(View.VISIBLE);
+			handler.post(metricsTask);
+		}
+	}
+
+	/**
+	 * Append the metrics to a file in the application's files directory, on
+	 * a thread of its own.
+	 */
+	private void dumpMetrics() {
+		if (!isServiceBound)
+			return;
+		final MetricsRegistry metrics = btService.getMetrics();
+		final File file = new File(getFilesDir(), METRICS_FILE);
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					metrics.dump(file);
+				} catch (IOException e) {
+					Log.e(TAG, "Can't write metrics: ", e);
+					return;
+				}
+				handler.post(new Runnable() {
+					public void run() {
+						Toast.makeText(MainActivity.this,
+						        "Metrics written to " + file,
+						        Toast.LENGTH_SHORT).show();
+					}
+				});
+			}
+		}, "SmartEBike-Metrics").start();
+	}
+
+	/**
+	 * Export the latest recorded ride to CSV, GPX and FIT files on the
+	 * external storage, on a thread of its own.
+	 */
+	private void exportLastRide() {
+		File[] rides = new File(getFilesDir(),
+		        BluetoothService.RIDES_DIRECTORY).listFiles();
+		File last = null;
+		if (rides != null)
+			for (File ride : rides)
+				if (ride.isDirectory()
+				        && (last == null || ride.getName().compareTo(
+				                last.getName()) > 0))
+					last = ride;
+		if (last == null) {
+			Toast.makeText(this, "No ride recorded yet", Toast.LENGTH_SHORT)
+			        .show();
+			return;
+		}
+		final File ride = last;
+		final File target = new File(Environment.getExternalStorageDirectory(),
+		        EXPORT_DIRECTORY);
+		new Thread(new Runnable() {
+			public void run() {
+				final String result = exportRide(ride, target);
+				handler.post(new Runnable() {
+					public void run() {
+						Toast.makeText(MainActivity.this, result,
+						        Toast.LENGTH_LONG).show();
+					}
+				});
+			}
+		}, "SmartEBike-Export").start();
+	}
+
+	/**
+	 * @return what happened, to show the rider.
+	 */
+	private static String exportRide(File ride, File target) {
+		if (!target.isDirectory() && !target.mkdirs())
+			return "Can't create " + target;
+		long start = System.currentTimeMillis();
+		RideReader reader = null;
+		try {
+			reader = new RideReader(ride);
+			String name = ride.getName();
+			exportRide(reader, new File(target, name + ".csv.gz"), 0);
+			exportRide(reader, new File(target, name + ".gpx"),
+			        EXPORT_TRACK_INTERVAL);
+			exportRide(reader, new File(target, name + ".fit"),
+			        EXPORT_TRACK_INTERVAL);
+			Log.d(TAG, "Exported " + reader.getRecordCount() + " records in "
+			        + (System.currentTimeMillis() - start) + " ms.");
+			return "Ride exported to " + target;
+		} catch (IOException e) {
+			Log.e(TAG, "Can't export " + ride + ": ", e);
+			return "Export failed: " + e.getMessage();
+		} finally {
+			if (reader != null)
+				reader.close();
+		}
+	}
+
+	private static void exportRide(RideReader reader, File file,
+	        long interval) throws IOException {
+		String name = file.getName();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(
+		        file));
+		try {
+			if (name.endsWith(".gz"))
+				out = RideExporter.compress(out, EXPORT_THREADS);
+			Writer text = new BufferedWriter(new OutputStreamWriter(out,
+			        "UTF-8"));
+			ExportWriter writer;
+			if (name.endsWith(".fit"))
+				writer = new FitWriter(out);
+			else if (name.endsWith(".gpx"))
+				writer = new GpxWriter(text);
+			else
+				writer = new CsvWriter(text);
+			RideExporter exporter = new RideExporter(reader);
+			exporter.setInterval(interval);
+			exporter.export(writer);
+		} finally {
+			out.close();
+		}
+	}
+
 	private void updateConfig() {
 		Intent configIntent = new Intent(this, ConfigActivity.class);
 		startActivity(configIntent);
@@ -251,14 +561,84 @@ public class MainActivity extends RoboActivity implements MessageHandler {
 	public void handleMessage(Message message) {
 		switch (message.getMessageType()) {
 		case UPDATE_MOTOR_SPEED:
-			tvMotorSpeed
-			        .setText(message.getExtra(MessageKey.MOTOR_SPEED_VALUE));
+			if (message.hasExtra(MessageKey.RECEIVE_TIME)) {
+				sampleTimestamp = message.getLong(MessageKey.SAMPLE_TIMESTAMP);
+				receiveTime = message.getLong(MessageKey.RECEIVE_TIME);
+			}
+			for (int i = 0; i < CHANNELS.length; i++)
+				if (message.hasExtra(CHANNELS[i]))
+					renderScheduler.update(i, message.getFloat(CHANNELS[i]));
 			break;
 		default:
 			break;
 		}
 	}
 
+	/**
+	 * Draws the latest values, at most once per display frame. The text is
+	 * built in reusable buffers, so redraws don't allocate.
+	 */
+	@Override
+	public void render(RenderScheduler scheduler) {
+		if (scheduler.isDirty(MOTOR_SPEED_CHANNEL)) {
+			speedText.clear().append(
+			        scheduler.getValue(MOTOR_SPEED_CHANNEL), 1,
+			        units.getSpeed());
+			tvMotorSpeed.setText(speedText.getChars(), 0, speedText.length());
+			if (sampleTimestamp >= 0)
+				StartupTimer.mark(StartupTimer.FIRST_SPEED_SHOWN);
+			recordLatency();
+		}
+
+		boolean statsDirty = false;
+		for (int i = FIRST_STATS_CHANNEL; i < CHANNELS.length; i++)
+			statsDirty |= scheduler.isDirty(i);
+		if (statsDirty) {
+			formatStats(scheduler, units, statsText.clear());
+			tvStats.setText(statsText.getChars(), 0, statsText.length());
+		}
+	}
+
+	/**
+	 * Account for the latest sample reaching the screen.
+	 */
+	private void recordLatency() {
+		if (sampleTimestamp < 0 || uiLatency == null)
+			return;
+		long now = System.nanoTime() / 1000;
+		uiLatency.record(now - receiveTime);
+		ClockOffset clock = btService.getClockOffset();
+		if (clock.isValid())
+			sensorToScreenLatency.record(now
+			        - clock.toLocal(sampleTimestamp * 1000));
+		sampleTimestamp = -1;
+	}
+
+	/**
+	 * One line per statistic, in {@link BluetoothService#LIVE_CHANNELS}
+	 * order.
+	 */
+	private static void formatStats(RenderScheduler scheduler, Units units,
+	        TextBuffer text) {
+		Unit speed = units.getSpeed();
+		appendAvgMax(text, "avg/max 3s: ", scheduler, 1, speed);
+		appendAvgMax(text, "avg/max 30s: ", scheduler, 3, speed);
+		appendAvgMax(text, "avg/max 5min: ", scheduler, 5, speed);
+		text.append("distance: ").append(scheduler.getValue(7), 2,
+		        units.getDistance());
+		text.append("\nenergy: ").append(scheduler.getValue(8), 1,
+		        Unit.WATT_HOURS);
+	}
+
+	private static void appendAvgMax(TextBuffer text, String label,
+	        RenderScheduler scheduler, int avgChannel, Unit unit) {
+		text.append(label)
+		        .append(unit.convert(scheduler.getValue(avgChannel)), 1)
+		        .append(" / ")
+		        .append(scheduler.getValue(avgChannel + 1), 1, unit)
+		        .append('\n');
+	}
+
 	@Override
 	public void registerListener(MessageHandler listener) {
 		// not needed
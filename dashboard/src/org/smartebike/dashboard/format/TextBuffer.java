@@ -0,0 +1,174 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.format;
+
+/**
+ * Builds text in a reusable <code>char[]</code>, with numbers written digit
+ * by digit, so that redrawing a view doesn't create strings:
+ *
+ * <pre>
+ * text.clear().append(speed, 1).append(' ').append(Unit.KILOMETERS_PER_HOUR);
+ * textView.setText(text.getChars(), 0, text.length());
+ * </pre>
+ *
+ * A view given the array keeps using it, so use one buffer per view and only
+ * change it right before passing it to the view again. Doesn't allocate
+ * unless the text outgrows the buffer. Not thread safe.
+ */
+public class TextBuffer {
+
+	/**
+	 * Most decimals {@link #append(float, int)} writes.
+	 */
+	public static final int MAX_DECIMALS = 6;
+
+	private static final long[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000,
+	        100000, 1000000 };
+	// beyond what a long holds once scaled
+	private static final double MAX_SCALED = 1e18;
+
+	private char[] chars;
+	private int length = 0;
+
+	public TextBuffer(int capacity) {
+		chars = new char[Math.max(1, capacity)];
+	}
+
+	public TextBuffer clear() {
+		length = 0;
+		return this;
+	}
+
+	public TextBuffer append(char c) {
+		ensure(1);
+		chars[length++] = c;
+		return this;
+	}
+
+	public TextBuffer append(char[] src) {
+		ensure(src.length);
+		System.arraycopy(src, 0, chars, length, src.length);
+		length += src.length;
+		return this;
+	}
+
+	/**
+	 * Append a string. The characters are copied, nothing is allocated.
+	 */
+	public TextBuffer append(String s) {
+		ensure(s.length());
+		s.getChars(0, s.length(), chars, length);
+		length += s.length();
+		return this;
+	}
+
+	/**
+	 * Append the symbol of a unit.
+	 */
+	public TextBuffer append(Unit unit) {
+		return append(unit.getSymbolChars());
+	}
+
+	public TextBuffer append(long value) {
+		if (value < 0) {
+			append('-');
+			if (value == Long.MIN_VALUE) {
+				// can't be negated
+				return append("9223372036854775808");
+			}
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value / 10; v != 0; v /= 10)
+			digits++;
+		ensure(digits);
+		for (int i = length + digits - 1; i >= length; i--) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		length += digits;
+		return this;
+	}
+
+	/**
+	 * Append a number with a fixed count of decimals, rounded half up. NaN,
+	 * infinite and huge values are written as "--".
+	 *
+	 * @param decimals
+	 *            - 0 to {@link #MAX_DECIMALS}.
+	 */
+	public TextBuffer append(float value, int decimals) {
+		if (decimals < 0 || decimals > MAX_DECIMALS)
+			throw new IllegalArgumentException("Invalid decimals: "
+			        + decimals);
+		long power = POWERS_OF_TEN[decimals];
+		double scaled = Math.abs((double) value) * power;
+		// also true for NaN
+		if (!(scaled < MAX_SCALED))
+			return append('-').append('-');
+		long rounded = (long) (scaled + 0.5);
+		// no sign for values that round to zero
+		if (value < 0 && rounded != 0)
+			append('-');
+		append(rounded / power);
+		if (decimals > 0) {
+			ensure(1 + decimals);
+			chars[length++] = '.';
+			long fraction = rounded % power;
+			for (int i = length + decimals - 1; i >= length; i--) {
+				chars[i] = (char) ('0' + fraction % 10);
+				fraction /= 10;
+			}
+			length += decimals;
+		}
+		return this;
+	}
+
+	/**
+	 * Convert a value to a unit, then append it and the unit symbol after a
+	 * space.
+	 */
+	public TextBuffer append(float value, int decimals, Unit unit) {
+		return append(unit.convert(value), decimals).append(' ').append(unit);
+	}
+
+	private void ensure(int n) {
+		if (length + n > chars.length) {
+			char[] grown = new char[Math.max(length + n, chars.length * 2)];
+			System.arraycopy(chars, 0, grown, 0, length);
+			chars = grown;
+		}
+	}
+
+	/**
+	 * @return the backing array, valid up to {@link #length()}. Changes when
+	 *         the buffer grows.
+	 */
+	public char[] getChars() {
+		return chars;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public String toString() {
+		return new String(chars, 0, length);
+	}
+
+}
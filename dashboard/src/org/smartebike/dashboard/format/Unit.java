@@ -0,0 +1,80 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.format;
+
+/**
+ * A display unit, converted to from the unit the pipeline works in with a
+ * precomputed linear factor and offset.
+ */
+public final class Unit {
+
+	public static final Unit KILOMETERS_PER_HOUR = new Unit("km/h", 1, 0);
+	public static final Unit MILES_PER_HOUR = new Unit("mph",
+	        1 / 1.609344f, 0);
+	public static final Unit KILOMETERS = new Unit("km", 1e-3f, 0);
+	public static final Unit MILES = new Unit("mi", 1 / 1609.344f, 0);
+	public static final Unit CELSIUS = new Unit("\u00b0C", 1, 0);
+	public static final Unit FAHRENHEIT = new Unit("\u00b0F", 1.8f, 32);
+	public static final Unit WATT_HOURS = new Unit("Wh", 1, 0);
+	public static final Unit VOLTS = new Unit("V", 1, 0);
+	public static final Unit AMPERES = new Unit("A", 1, 0);
+
+	private final String symbol;
+	private final char[] symbolChars;
+	private final float factor;
+	private final float offset;
+
+	/**
+	 * @param factor
+	 *            - multiplies the base value.
+	 * @param offset
+	 *            - added after multiplying.
+	 */
+	private Unit(String symbol, float factor, float offset) {
+		this.symbol = symbol;
+		this.symbolChars = symbol.toCharArray();
+		this.factor = factor;
+		this.offset = offset;
+	}
+
+	/**
+	 * @param value
+	 *            - in the base unit: km/h for speeds, meters for distances,
+	 *            degrees Celsius for temperatures.
+	 * @return the value in this unit.
+	 */
+	public float convert(float value) {
+		return value * factor + offset;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * @return the symbol, not to be modified.
+	 */
+	char[] getSymbolChars() {
+		return symbolChars;
+	}
+
+	@Override
+	public String toString() {
+		return symbol;
+	}
+
+}
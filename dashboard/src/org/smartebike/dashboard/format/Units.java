@@ -0,0 +1,64 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.format;
+
+/**
+ * The display unit of each kind of quantity, metric or imperial.
+ */
+public final class Units {
+
+	public static final Units METRIC = new Units(Unit.KILOMETERS_PER_HOUR,
+	        Unit.KILOMETERS, Unit.CELSIUS);
+	public static final Units IMPERIAL = new Units(Unit.MILES_PER_HOUR,
+	        Unit.MILES, Unit.FAHRENHEIT);
+
+	private final Unit speed;
+	private final Unit distance;
+	private final Unit temperature;
+
+	private Units(Unit speed, Unit distance, Unit temperature) {
+		this.speed = speed;
+		this.distance = distance;
+		this.temperature = temperature;
+	}
+
+	public static Units of(boolean imperial) {
+		return imperial ? IMPERIAL : METRIC;
+	}
+
+	/**
+	 * @return the unit speeds in km/h are shown in.
+	 */
+	public Unit getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * @return the unit distances in meters are shown in.
+	 */
+	public Unit getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return the unit temperatures in degrees Celsius are shown in.
+	 */
+	public Unit getTemperature() {
+		return temperature;
+	}
+
+}
@@ -16,54 +16,188 @@
  */
 package org.smartebike.dashboard.io;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Arrays;
 import java.util.UUID;
 
+import org.smartebike.api.command.CommandCallback;
+import org.smartebike.api.command.CommandChannel;
+import org.smartebike.api.command.CommandCode;
+import org.smartebike.api.command.CommandResponse;
+import org.smartebike.api.command.RatePolicy;
+import org.smartebike.api.fusion.SpeedFusion;
+import org.smartebike.api.io.CaptureTransport;
+import org.smartebike.api.io.CaptureWriter;
+import org.smartebike.api.io.SessionListener;
+import org.smartebike.api.io.TelemetrySession;
+import org.smartebike.api.io.TelemetryTransport;
+import org.smartebike.api.io.WriteBatcher;
+import org.smartebike.api.merge.MergeListener;
+import org.smartebike.api.merge.StreamMerger;
+import org.smartebike.api.metrics.ClockOffset;
+import org.smartebike.api.metrics.Counter;
+import org.smartebike.api.metrics.Gauge;
+import org.smartebike.api.metrics.Histogram;
+import org.smartebike.api.metrics.MetricsRegistry;
+import org.smartebike.api.metrics.Rate;
+import org.smartebike.api.record.RideRecorder;
+import org.smartebike.api.record.TrackLog;
+import org.smartebike.api.schema.Channel;
+import org.smartebike.api.schema.ChannelSchema;
+import org.smartebike.api.schema.SampleBatch;
+import org.smartebike.api.stats.StreamingStats;
 import org.smartebike.dashboard.R;
+import org.smartebike.dashboard.StartupTimer;
 import org.smartebike.dashboard.activity.ConfigActivity;
 import org.smartebike.dashboard.activity.MainActivity;
 import org.smartebike.dashboard.message.Message;
+import org.smartebike.dashboard.message.MessageBus;
 import org.smartebike.dashboard.message.MessageHandler;
 import org.smartebike.dashboard.message.MessageKey;
 import org.smartebike.dashboard.message.MessageType;
+import org.smartebike.dashboard.message.Subscription;
+import org.smartebike.dashboard.ui.HandlerExecutor;
 
-import roboguice.service.RoboService;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.location.LocationManager;
 import android.os.Binder;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.widget.Toast;
 
-import com.google.inject.Inject;
-
 /**
  * This service is primarily responsible for establishing and maintaining a
  * permanent connection between the device where the application runs and a
  * Bluetooth Smart EBike controller.
+ * <p>
+ * A battery management system and a cadence sensor can be connected at the
+ * same time, each on its own reader thread. Their samples are merged with the
+ * controller's in timestamp order, and every controller sample is handed on
+ * with the latest value of each channel from any device.
+ * <p>
+ * As soon as it is created, the service connects to the last used controller
+ * on a background thread, so live data shows without waiting for a ride to
+ * be started. Starting one adds recording and GPS.
  */
-public class BluetoothService extends RoboService implements MessageHandler {
+public class BluetoothService extends Service implements MessageHandler,
+        SessionListener, MergeListener {
 
 	private static final String TAG = "BluetoothService";
 
 	private final IBinder binder = new BluetoothServiceBinder();
-	private MessageHandler listener = null;
 	private boolean isRunning = false;
+	private final Handler mainHandler = new Handler();
+	// drains and flushes the merger and retries connections off the main
+	// thread, as draining processes the merged samples
+	private final HandlerThread mergeThread = new HandlerThread(
+	        MERGE_THREAD_NAME);
+	private Handler mergeHandler;
+
+	// live data is published on the reader threads
+	private final MessageBus bus = new MessageBus();
+	// the listener set through registerListener()
+	private Subscription listenerSubscription = null;
+	// orders the samples of all devices, its listener runs with it locked
+	private final StreamMerger merger = new StreamMerger(SOURCE_COUNT,
+	        RECORD_CHANNEL_COUNT, StreamMerger.DEFAULT_CAPACITY,
+	        StreamMerger.DEFAULT_MAX_DELAY, this);
+
+	private final MetricsRegistry metrics = new MetricsRegistry();
+	private final ClockOffset clockOffset = new ClockOffset();
+	private final Histogram linkLatency = metrics.histogram(LINK_LATENCY,
+	        LATENCY_BOUNDS);
+	private final Counter sampleCount = metrics.counter("pipeline.samples");
+	private final Counter batchCount = metrics.counter("pipeline.batches");
+	private final Counter anomalyCount = metrics.counter("pipeline.anomalies");
+	private final Counter rateChangeCount = metrics.counter("link.rateChanges");
+
+	// picks the telemetry rate, used on the main thread
+	private final RatePolicy ratePolicy = new RatePolicy();
+	// asked for on the current connection, 0 if nothing yet
+	private int requestedRate = 0;
+	// confirmed by the controller, 0 while it runs at its own rate
+	private volatile int appliedRate = 0;
+	// last sample checked for anomalies, in the merged stream
+	private float lastSpeed = Float.NaN;
+	private int lastFaults = 0;
+	private final Runnable rateTask = new Runnable() {
+		public void run() {
+			updateRate();
+		}
+	};
+	private final Runnable rateRetryTask = new Runnable() {
+		public void run() {
+			// forget the unconfirmed request so it is sent again
+			requestedRate = 0;
+			updateRate();
+		}
+	};
+	private final Runnable anomalyTask = new Runnable() {
+		public void run() {
+			ratePolicy.onAnomaly(SystemClock.uptimeMillis());
+			updateRate();
+		}
+	};
+	private final Runnable connectedTask = new Runnable() {
+		public void run() {
+			// a new connection starts at the controller's own rate
+			requestedRate = 0;
+			appliedRate = 0;
+			updateRate();
+		}
+	};
 
-	@Inject
 	private NotificationManager notificationManager;
-	@Inject
 	private SharedPreferences prefs;
+	private LocationManager locationManager;
 
+	private BluetoothAdapter btAdapter = null;
 	private BluetoothDevice btDevice = null;
-	private BluetoothSocket btSocket = null;
+	// set once the service is going away, so a late pre-connect won't start
+	private boolean destroyed = false;
+	private final Runnable preconnectTask = new Runnable() {
+		public void run() {
+			if (connect())
+				Log.d(TAG, "Pre-connecting to the last used controller.");
+		}
+	};
+	// by source index, null for devices not in use
+	private final TelemetrySource[] sources = new TelemetrySource[SOURCE_COUNT];
+	private volatile TelemetrySource controller = null;
+	// by source index, set while capturing the links
+	private final CaptureWriter[] captures = new CaptureWriter[SOURCE_COUNT];
+	// opened on the controller's reader thread, appended to by the merged
+	// stream
+	private volatile RideRecorder recorder = null;
+	private final float[] recordValues = new float[RECORD_CHANNEL_COUNT];
+	// updated and published by the merged stream
+	private final StreamingStats stats = new StreamingStats();
+	// fed on the reader thread and by the GPS sampler, locked by either
+	private final SpeedFusion fusion = new SpeedFusion();
+	// set while live data runs with GPS enabled
+	private volatile GpsSampler gps = null;
+	private final float[] liveValues = new float[CHANNEL_COUNT];
+	// latest value of each record channel from any device, and whether a
+	// device reported it
+	private final float[] mergedValues = new float[RECORD_CHANNEL_COUNT];
+	private final boolean[] reported = new boolean[RECORD_CHANNEL_COUNT];
+	// controller samples of the merged stream
+	private final SampleBatch batch = new SampleBatch(ChannelSchema.LATEST,
+	        BATCH_CAPACITY);
+
 	/*
 	 * http://developer.android.com/reference/android/bluetooth/BluetoothDevice.html
 	 * #createRfcommSocketToServiceRecord(java.util.UUID)
@@ -75,11 +209,105 @@ public class BluetoothService extends RoboService implements MessageHandler {
 	 */
 	private static final UUID MY_UUID = UUID
 	        .fromString("00001101-0000-1000-8000-00805F9B34FB");
+	private static final String PRECONNECT_THREAD_NAME = "SmartEBike-Start";
+	private static final String MERGE_THREAD_NAME = "SmartEBike-Merge";
+
+	/**
+	 * Index of the controller among the telemetry sources. Its timestamps
+	 * are the ones the merge runs on.
+	 */
+	public static final int CONTROLLER = 0;
+	/**
+	 * Names of the telemetry sources, by index, as used in metric names.
+	 */
+	public static final String[] SOURCE_NAMES = { "controller", "bms",
+	        "sensor" };
+	// preference holding the device address of each source
+	private static final String[] SOURCE_KEYS = {
+	        ConfigActivity.BLUETOOTH_LIST_KEY, ConfigActivity.BMS_DEVICE_KEY,
+	        ConfigActivity.SENSOR_DEVICE_KEY };
+	private static final int SOURCE_COUNT = SOURCE_NAMES.length;
+
+	/**
+	 * Values delivered with every {@link MessageType#UPDATE_MOTOR_SPEED}
+	 * message: the raw motor speed followed by the trip statistics.
+	 */
+	public static final MessageKey[] LIVE_CHANNELS = {
+	        MessageKey.MOTOR_SPEED_VALUE, MessageKey.AVERAGE_SPEED_3S,
+	        MessageKey.MAX_SPEED_3S, MessageKey.AVERAGE_SPEED_30S,
+	        MessageKey.MAX_SPEED_30S, MessageKey.AVERAGE_SPEED_5MIN,
+	        MessageKey.MAX_SPEED_5MIN, MessageKey.TRIP_DISTANCE,
+	        MessageKey.TRIP_ENERGY };
+
+	/**
+	 * Bounds of the latency histograms, in microseconds.
+	 */
+	public static final long[] LATENCY_BOUNDS = Histogram.exponentialBounds(
+	        250, 16);
+	/**
+	 * Controller timestamp to the sample leaving the merge, in microseconds.
+	 */
+	public static final String LINK_LATENCY = "latency.link";
+	/**
+	 * Controller timestamp to the motor speed on screen, in microseconds.
+	 */
+	public static final String SENSOR_TO_SCREEN_LATENCY = "latency.sensorToScreen";
+	/**
+	 * Decoded sample to the motor speed on screen, in microseconds.
+	 */
+	public static final String UI_LATENCY = "latency.ui";
+
+	/**
+	 * Keys of the values delivered with every
+	 * {@link MessageType#UPDATE_TELEMETRY} message, by {@link Channel} id.
+	 * Only the channels some device reported are present.
+	 */
+	public static final MessageKey[] TELEMETRY_CHANNELS = {
+	        MessageKey.MOTOR_SPEED_VALUE, MessageKey.BATTERY_VOLTAGE,
+	        MessageKey.BATTERY_CURRENT, MessageKey.CADENCE, MessageKey.TORQUE,
+	        MessageKey.MOTOR_TEMPERATURE, MessageKey.CONTROLLER_TEMPERATURE,
+	        MessageKey.FAULTS };
+
+	private static final int CHANNEL_COUNT = LIVE_CHANNELS.length;
+	private static final int MOTOR_SPEED_CHANNEL = 0;
+	private static final int BATCH_CAPACITY = 64;
+	// before asking again for a rate the controller didn't confirm
+	private static final long RATE_RETRY_MILLIS = 5000;
+	// rides are recorded raw in the latest schema, statistics can be derived
+	// again, and all devices are merged into it
+	private static final int RECORD_CHANNEL_COUNT = ChannelSchema.LATEST
+	        .size();
+	/**
+	 * Under the files directory, holds one directory per recorded ride,
+	 * named after its start time.
+	 */
+	public static final String RIDES_DIRECTORY = "rides";
+	/**
+	 * Under the external storage, holds one directory per connection with a
+	 * raw capture of each device, named after the time it was made.
+	 */
+	public static final String CAPTURES_DIRECTORY = "SmartEBike/captures";
+	private static final String CAPTURE_SUFFIX = ".cap";
 
 	@Override
 	public void onCreate() {
 		super.onCreate();
+		StartupTimer.mark(StartupTimer.SERVICE_CREATED);
+		// looked up directly rather than injected, this is on the cold start
+		// path
+		notificationManager = (NotificationManager) getSystemService(
+		        NOTIFICATION_SERVICE);
+		locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
+		prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		// on the main thread, older releases need a looper for it
+		btAdapter = BluetoothAdapter.getDefaultAdapter();
+		mergeThread.start();
+		mergeHandler = new Handler(mergeThread.getLooper());
+		registerGauges();
 		showNotification();
+		// have the last used controller connected by the time the dashboard
+		// shows
+		new Thread(preconnectTask, PRECONNECT_THREAD_NAME).start();
 		Log.d(TAG, "Service started.");
 	}
 
@@ -87,34 +315,184 @@ public class BluetoothService extends RoboService implements MessageHandler {
 	public void onDestroy() {
 		super.onDestroy();
 		Log.d(TAG, "Destroying BluetoothService...");
+		synchronized (this) {
+			destroyed = true;
+		}
 		stopLiveData();
+		// after the flush stopLiveData() posted
+		mergeHandler.post(new Runnable() {
+			public void run() {
+				mergeThread.quit();
+			}
+		});
 		clearNotification();
-		listener = null;
+		registerListener(null);
 		Log.d(TAG, "BluetoothService destroyed.");
 	}
 
-	private void startLiveData() {
-		Log.d(TAG, "Starting live data..");
+	/**
+	 * Expose the counters the pipeline already keeps through the registry.
+	 */
+	private void registerGauges() {
+		Gauge bytes = new Gauge() {
+			public double getValue() {
+				ConnectionManager c = getConnectionManager();
+				return c != null ? c.getBytesRead() : 0;
+			}
+		};
+		Gauge frames = new Gauge() {
+			public double getValue() {
+				ConnectionManager c = getConnectionManager();
+				return c != null ? c.getFrameCount() : 0;
+			}
+		};
+		metrics.register("link.bytes", bytes);
+		metrics.register("link.bytesPerSecond", new Rate(bytes));
+		metrics.register("link.frames", frames);
+		metrics.register("link.framesPerSecond", new Rate(frames));
+		metrics.register("link.crcErrors", new Gauge() {
+			public double getValue() {
+				ConnectionManager c = getConnectionManager();
+				return c != null ? c.getCrcErrorCount() : 0;
+			}
+		});
+		metrics.register("link.discardedBytes", new Gauge() {
+			public double getValue() {
+				ConnectionManager c = getConnectionManager();
+				return c != null ? c.getDiscardedByteCount() : 0;
+			}
+		});
+		metrics.register("link.reconnects", new Gauge() {
+			public double getValue() {
+				ConnectionManager c = getConnectionManager();
+				return c != null ? c.getReconnectCount() : 0;
+			}
+		});
+		metrics.register("link.corruptBlocks", new Gauge() {
+			public double getValue() {
+				TelemetrySource c = controller;
+				return c != null ? c.getCorruptBlockCount() : 0;
+			}
+		});
+		metrics.register("pipeline.schemaMismatches", new Gauge() {
+			public double getValue() {
+				TelemetrySource c = controller;
+				return c != null ? c.getSchemaMismatchCount() : 0;
+			}
+		});
+		// live data dropped because a subscriber fell behind
+		metrics.register("bus.dropped", new Gauge() {
+			public double getValue() {
+				long dropped = 0;
+				for (MessageType type : MessageType.values())
+					for (Subscription s : bus.getSubscriptions(type))
+						dropped += s.getDroppedCount();
+				return dropped;
+			}
+		});
+		metrics.register("recorder.dropped", new Gauge() {
+			public double getValue() {
+				RideRecorder r = recorder;
+				return r != null ? r.getDroppedCount() : 0;
+			}
+		});
+		metrics.register("link.rate", new Gauge() {
+			public double getValue() {
+				return appliedRate;
+			}
+		});
+		metrics.register("gps.fixes", new Gauge() {
+			public double getValue() {
+				GpsSampler g = gps;
+				return g != null ? g.getFixCount() : 0;
+			}
+		});
+		metrics.register("gps.dutyCycle", new Gauge() {
+			public double getValue() {
+				GpsSampler g = gps;
+				return g != null ? g.getDutyCycle() : 0;
+			}
+		});
+		metrics.register("fusion.scale", new Gauge() {
+			public double getValue() {
+				synchronized (fusion) {
+					return fusion.getScale();
+				}
+			}
+		});
+		metrics.register("commands.timeouts", new Gauge() {
+			public double getValue() {
+				CommandChannel c = getCommandChannel();
+				return c != null ? c.getTimeoutCount() : 0;
+			}
+		});
+		StartupTimer.registerGauges(metrics);
+		metrics.register("merge.forced", new Gauge() {
+			public double getValue() {
+				return merger.getForcedCount();
+			}
+		});
+		for (int i = 0; i < SOURCE_COUNT; i++)
+			registerSourceGauges(i);
+	}
+
+	/**
+	 * How far each device trails the merged stream, and what it loses.
+	 */
+	private void registerSourceGauges(final int source) {
+		String prefix = "source." + SOURCE_NAMES[source] + ".";
+		metrics.register(prefix + "lag", new Gauge() {
+			public double getValue() {
+				return merger.getLag(source);
+			}
+		});
+		metrics.register(prefix + "buffered", new Gauge() {
+			public double getValue() {
+				return merger.getBuffered(source);
+			}
+		});
+		metrics.register(prefix + "late", new Gauge() {
+			public double getValue() {
+				return merger.getLateCount(source);
+			}
+		});
+		metrics.register(prefix + "unaligned", new Gauge() {
+			public double getValue() {
+				TelemetrySource s = getSource(source);
+				return s != null ? s.getUnalignedCount() : 0;
+			}
+		});
+		metrics.register(prefix + "frames", new Gauge() {
+			public double getValue() {
+				TelemetrySource s = getSource(source);
+				return s != null ? s.getConnectionManager().getFrameCount()
+				        : 0;
+			}
+		});
+	}
+
+	/**
+	 * Resolve the selected devices and start reading from them, unless that
+	 * is already done. Doesn't block on the connections, they are made on the
+	 * reader threads.
+	 *
+	 * @return <code>false</code> if no controller was selected.
+	 */
+	private synchronized boolean connect() {
+		if (controller != null)
+			return true;
+		if (destroyed || btAdapter == null)
+			return false;
 
 		// let's get the remote Bluetooth device
 		String remoteDevice = prefs.getString(
 		        ConfigActivity.BLUETOOTH_LIST_KEY, null);
-		if (remoteDevice == null || "".equals(remoteDevice)) {
-			Toast.makeText(this, "No Bluetooth device selected",
-			        Toast.LENGTH_LONG).show();
+		if (remoteDevice == null || "".equals(remoteDevice))
+			return false;
 
-			// log error
-			Log.e(TAG, "No Bluetooth device has been selected.");
-
-			// TODO kill this service gracefully
-			stopLiveData();
-		}
-
-		final BluetoothAdapter btAdapter = BluetoothAdapter.getDefaultAdapter();
-		btDevice = btAdapter.getRemoteDevice(remoteDevice);
-
-		boolean imperialUnits = prefs.getBoolean(
-		        ConfigActivity.IMPERIAL_UNITS_KEY, false);
+		// the device lookup is only redone when another device was picked
+		if (btDevice == null || !remoteDevice.equals(btDevice.getAddress()))
+			btDevice = btAdapter.getRemoteDevice(remoteDevice);
 
 		/*
 		 * Establish Bluetooth connection
@@ -134,79 +512,525 @@ public class BluetoothService extends RoboService implements MessageHandler {
 		Log.d(TAG, "Stopping Bluetooth discovery.");
 		btAdapter.cancelDiscovery();
 
-		try {
-			startConnection();
-		} catch (Exception e) {
-			Log.e(TAG, "There was an error while establishing connection. -> "
-			        + e.getMessage());
+		// a new trip, reset before the reader threads start
+		merger.reset();
+		stats.reset();
+		Arrays.fill(mergedValues, Float.NaN);
+		Arrays.fill(reported, false);
+		synchronized (fusion) {
+			fusion.reset();
+		}
 
-			// in case of failure, stop this service.
-			stopLiveData();
+		/*
+		 * Connect and read on a dedicated thread per device, never on the
+		 * caller's. When a link fails its connection manager reconnects to the
+		 * same device on its own, without going through the lookup and
+		 * discovery above.
+		 */
+		Log.d(TAG, "Starting Bluetooth connection..");
+		File captureDirectory = null;
+		if (prefs.getBoolean(ConfigActivity.CAPTURE_LINK_KEY, false))
+			captureDirectory = new File(new File(
+			        Environment.getExternalStorageDirectory(),
+			        CAPTURES_DIRECTORY), String.valueOf(System
+			        .currentTimeMillis()));
+		TelemetrySource source = new TelemetrySource(CONTROLLER,
+		        SOURCE_NAMES[CONTROLLER], newTransport(CONTROLLER, btDevice,
+		                captureDirectory), clockOffset, null, merger, this,
+		        mergeHandler);
+		setSource(CONTROLLER, source);
+		for (int i = 0; i < SOURCE_COUNT; i++) {
+			if (i == CONTROLLER)
+				continue;
+			String address = prefs.getString(SOURCE_KEYS[i], null);
+			if (address == null || "".equals(address)
+			        || address.equals(remoteDevice))
+				continue;
+			setSource(i, new TelemetrySource(i, SOURCE_NAMES[i],
+			        newTransport(i, btAdapter.getRemoteDevice(address),
+			                captureDirectory), new ClockOffset(), clockOffset,
+			        merger, null, mergeHandler));
+			// the controller rate changes, theirs don't
+			merger.setPeriodic(i, true);
 		}
+		for (TelemetrySource s : sources)
+			if (s != null)
+				s.start();
+		return true;
 	}
 
 	/**
-	 * Start and configure the connection to the Smart EBike interface.
-	 * 
-	 * @throws IOException
+	 * @param captureDirectory
+	 *            - where to capture the bytes received from the device, in a
+	 *            file named after its source, <code>null</code> not to.
 	 */
-	private void startConnection() throws IOException {
-		Log.d(TAG, "Starting Bluetooth connection..");
+	private TelemetryTransport newTransport(int index, BluetoothDevice device,
+	        File captureDirectory) {
+		TelemetryTransport transport = new RfcommTransport(device, MY_UUID);
+		if (captureDirectory == null)
+			return transport;
+		// created with the first bytes, on the reader thread
+		captures[index] = new CaptureWriter(new File(captureDirectory,
+		        SOURCE_NAMES[index] + CAPTURE_SUFFIX));
+		return new CaptureTransport(transport, captures[index]);
+	}
+
+	/**
+	 * Start a ride: connect if the service didn't already, and record it.
+	 */
+	private synchronized void startLiveData() {
+		if (isRunning) {
+			Log.d(TAG, "Live data is already running.");
+			return;
+		}
+		Log.d(TAG, "Starting live data..");
 
-		// Instantiate a BluetoothSocket for the remote device and connect it.
-		btSocket = btDevice.createRfcommSocketToServiceRecord(MY_UUID);
-		btSocket.connect();
+		if (!connect()) {
+			Toast.makeText(this, "No Bluetooth device selected",
+			        Toast.LENGTH_LONG).show();
+
+			// log error
+			Log.e(TAG, "No Bluetooth device has been selected.");
 
+			// TODO kill this service gracefully
+			stopLiveData();
+			return;
+		}
 		isRunning = true;
 
-		// listen socket
+		// the trip starts now, even if the controller was connected before
+		synchronized (merger) {
+			stats.reset();
+		}
+		synchronized (fusion) {
+			fusion.reset();
+		}
+
+		// one directory per ride, named after its start time, opened with
+		// the first samples
+		if (prefs.getBoolean(ConfigActivity.RECORD_RIDES_KEY, true))
+			recorder = new RideRecorder(new File(new File(getFilesDir(),
+			        RIDES_DIRECTORY), String.valueOf(System.currentTimeMillis())),
+			        RECORD_CHANNEL_COUNT);
+		ratePolicy.setRecording(recorder != null);
+		updateRate();
+
+		if (prefs.getBoolean(ConfigActivity.ENABLE_GPS_KEY, false)) {
+			gps = new GpsSampler(locationManager, fusion, mainHandler);
+			if (recorder != null) {
+				// for exporting the ride with its track
+				File track = new File(recorder.getDirectory(),
+				        TrackLog.FILE_NAME);
+				try {
+					gps.setTrackLog(new TrackLog(track));
+				} catch (IOException e) {
+					Log.e(TAG, "Can't record the track: ", e);
+				}
+			}
+			gps.start();
+		}
+	}
+
+	private synchronized void setSource(int index, TelemetrySource source) {
+		sources[index] = source;
+		if (index == CONTROLLER)
+			controller = source;
+	}
+
+	/**
+	 * @return the telemetry source of an index, <code>null</code> if the
+	 *         device isn't in use or live data isn't running.
+	 */
+	public synchronized TelemetrySource getSource(int index) {
+		return sources[index];
+	}
+
+	/**
+	 * Called on the reader thread once the controller is connected. Its
+	 * source has already negotiated the schema and reset its clock.
+	 */
+	@Override
+	public void onSessionConnected(TelemetrySession connectedSession) {
+		// the controller clock may have restarted, start the merge over
+		synchronized (merger) {
+			merger.reset();
+			lastSpeed = Float.NaN;
+			lastFaults = 0;
+		}
+		mainHandler.post(connectedTask);
+		StartupTimer.mark(StartupTimer.CONNECTED);
+	}
+
+	private final CommandCallback rateCallback = new CommandCallback() {
+		@Override
+		public void onResponse(CommandResponse response) {
+			if (response.isOk()) {
+				appliedRate = response.getData().getShort() & 0xFFFF;
+				Log.d(TAG, "Telemetry rate " + appliedRate + " per second.");
+			} else {
+				Log.d(TAG, "Controller keeps its telemetry rate, status "
+				        + response.getStatus() + ".");
+				retry();
+			}
+		}
+
+		@Override
+		public void onFailure(int command, Exception cause) {
+			Log.d(TAG, "Couldn't set the telemetry rate: " + cause);
+			retry();
+		}
+
+		private void retry() {
+			mainHandler.removeCallbacks(rateRetryTask);
+			mainHandler.postDelayed(rateRetryTask, RATE_RETRY_MILLIS);
+		}
+	};
+
+	/**
+	 * Ask the controller for the rate the policy picks, if it changed, and
+	 * come back when an anomaly burst ends. Runs on the main thread.
+	 */
+	private void updateRate() {
+		mainHandler.removeCallbacks(rateTask);
+		long now = SystemClock.uptimeMillis();
+		int rate = ratePolicy.getRate(now);
+		CommandChannel c = getCommandChannel();
+		if (c != null && rate != requestedRate) {
+			requestedRate = rate;
+			rateChangeCount.increment();
+			c.send(CommandCode.SET_RATE, new byte[] { (byte) (rate >> 8),
+			        (byte) rate }, WriteBatcher.URGENT,
+			        CommandChannel.DEFAULT_TIMEOUT_MILLIS, rateCallback);
+		}
+		if (ratePolicy.isBursting(now))
+			mainHandler.postAtTime(rateTask, ratePolicy.getBurstEnd());
+	}
+
+	/**
+	 * Tell the service whether the dashboard is on screen, so it gets
+	 * telemetry at full rate. Call on the main thread.
+	 */
+	public void setDashboardVisible(boolean visible) {
+		ratePolicy.setVisible(visible);
+		updateRate();
+	}
+
+	/**
+	 * Called on the reader thread when the controller connection can't be
+	 * established or breaks. The connection manager has already scheduled
+	 * the next attempt.
+	 */
+	@Override
+	public void onSessionFailed(TelemetrySession failedSession, Exception cause) {
+		Log.e(TAG, "There was an error on the Bluetooth connection: ", cause);
+	}
+
+	/**
+	 * Takes the next sample of the merged stream: every device updates the
+	 * channels it reports, and each controller sample is collected with the
+	 * latest values of all channels.
+	 */
+	@Override
+	public void onMergedSample(int source, long timestamp, float[] values) {
+		for (int c = 0; c < RECORD_CHANNEL_COUNT; c++) {
+			if (!Float.isNaN(values[c])) {
+				mergedValues[c] = values[c];
+				reported[c] = true;
+			}
+		}
+		if (source != CONTROLLER)
+			return;
+		if (batch.isFull())
+			processBatch();
+		batch.add(timestamp, mergedValues);
+	}
+
+	/**
+	 * Hands on what became ready.
+	 */
+	@Override
+	public void onMergeEnd() {
+		processBatch();
+	}
+
+	/**
+	 * Process the collected samples column by column, then publish the
+	 * latest values once. Runs with the merger locked, on a reader thread or
+	 * the merge thread, never the main thread.
+	 */
+	private void processBatch() {
+		SampleBatch b = batch;
+		int n = b.size();
+		if (n == 0)
+			return;
+		long receiveTime = System.nanoTime() / 1000;
+		long[] timestamps = b.getTimestamps();
+		float[] speeds = b.getFloatColumn(b.getSchema().indexOf(
+		        Channel.MOTOR_SPEED));
+		for (int i = 0; i < n; i++)
+			stats.addSpeed(timestamps[i], speeds[i]);
+		for (int i = 0; i < n; i++)
+			linkLatency.record(receiveTime
+			        - clockOffset.toLocal(timestamps[i] * 1000));
+		if (gps != null) {
+			// on the clock of the fixes, see GpsSampler.now()
+			synchronized (fusion) {
+				for (int i = 0; i < n; i++)
+					fusion.onWheelSpeed(
+					        clockOffset.toLocal(timestamps[i] * 1000) / 1000,
+					        speeds[i]);
+			}
+		}
+		sampleCount.add(n);
+		batchCount.increment();
+		StartupTimer.mark(StartupTimer.FIRST_SAMPLE);
+		checkAnomalies(b, speeds);
+
+		RideRecorder r = recorder;
+		if (r != null && (r.isOpen() || openRecorder(r))) {
+			for (int i = 0; i < n; i++) {
+				long timestamp = b.copy(i, recordValues);
+				r.append(timestamp, recordValues);
+			}
+		}
+
+		publishLive(b, receiveTime);
+		publishTelemetry(b, receiveTime);
+		b.clear();
+	}
+
+	/**
+	 * Open the recorder of a new ride when its first samples come in, off the
+	 * main thread.
+	 */
+	private boolean openRecorder(RideRecorder r) {
 		try {
-			readBluetoothSocketInput(btSocket.getInputStream());
-		} catch (Exception e) {
-			Log.e(TAG,
-			        "There was an error reading Bluetooth socket inputstream: ",
-			        e);
-			stopLiveData();
+			r.open();
+			Log.d(TAG, "Recording ride to " + r.getDirectory());
+			return true;
+		} catch (IOException e) {
+			Log.e(TAG, "Can't record ride: ", e);
+			r.close();
+			// don't try again with every batch
+			recorder = null;
+			return false;
 		}
 	}
 
 	/**
-	 * @throws IOException
-	 * 
+	 * Have the rate raised for a while if the batch holds an anomaly.
 	 */
-	private void readBluetoothSocketInput(InputStream in) throws IOException {
-		byte b = 0;
-		StringBuilder motorSpeed = new StringBuilder();
-		// read until '\n' arrives
-		while ((char) (b = (byte) in.read()) != '\n')
-			if ((char) b != ' ')
-				motorSpeed.append((char) b);
+	private void checkAnomalies(SampleBatch b, float[] speeds) {
+		int position = b.getSchema().indexOf(Channel.FAULTS);
+		int[] faults = reported[position] ? b.getBitsColumn(position) : null;
+		boolean found = false;
+		for (int i = 0; i < b.size(); i++) {
+			int sampleFaults = faults != null ? faults[i] : 0;
+			if (RatePolicy.isAnomaly(lastSpeed, speeds[i], lastFaults,
+			        sampleFaults))
+				found = true;
+			lastSpeed = speeds[i];
+			lastFaults = sampleFaults;
+		}
+		if (found) {
+			anomalyCount.increment();
+			mainHandler.post(anomalyTask);
+		}
+	}
+
+	/**
+	 * Publish the latest motor speed and the current statistics on the bus.
+	 */
+	private void publishLive(SampleBatch b, long receiveTime) {
+		if (!bus.hasSubscribers(MessageType.UPDATE_MOTOR_SPEED))
+			return;
+
+		// in LIVE_CHANNELS order
+		float[] v = liveValues;
+		v[MOTOR_SPEED_CHANNEL] = b.getLastValue(b.getSchema().indexOf(
+		        Channel.MOTOR_SPEED));
+		v[1] = stats.getAverageSpeed(StreamingStats.SHORT_WINDOW);
+		v[2] = stats.getMaxSpeed(StreamingStats.SHORT_WINDOW);
+		v[3] = stats.getAverageSpeed(StreamingStats.MEDIUM_WINDOW);
+		v[4] = stats.getMaxSpeed(StreamingStats.MEDIUM_WINDOW);
+		v[5] = stats.getAverageSpeed(StreamingStats.LONG_WINDOW);
+		v[6] = stats.getMaxSpeed(StreamingStats.LONG_WINDOW);
+		if (gps != null) {
+			synchronized (fusion) {
+				v[7] = (float) fusion.getDistance();
+			}
+		} else
+			v[7] = (float) stats.getDistance();
+		v[8] = (float) stats.getEnergy();
+
+		Message updateMotorSpeedMessage = Message
+		        .obtain(MessageType.UPDATE_MOTOR_SPEED);
+		updateMotorSpeedMessage.putLong(MessageKey.SAMPLE_TIMESTAMP,
+		        b.getTimestamp(b.size() - 1));
+		updateMotorSpeedMessage.putLong(MessageKey.RECEIVE_TIME, receiveTime);
+		for (int i = 0; i < CHANNEL_COUNT; i++)
+			updateMotorSpeedMessage.putFloat(LIVE_CHANNELS[i], v[i]);
+		bus.publish(updateMotorSpeedMessage);
+		updateMotorSpeedMessage.recycle();
+	}
+
+	/**
+	 * Publish the latest value of every channel of the schema on the bus.
+	 */
+	private void publishTelemetry(SampleBatch b, long receiveTime) {
+		if (!bus.hasSubscribers(MessageType.UPDATE_TELEMETRY))
+			return;
+
+		int last = b.size() - 1;
+		ChannelSchema schema = b.getSchema();
+		Message message = Message.obtain(MessageType.UPDATE_TELEMETRY);
+		message.putLong(MessageKey.SAMPLE_TIMESTAMP, b.getTimestamp(last));
+		message.putLong(MessageKey.RECEIVE_TIME, receiveTime);
+		for (int i = 0; i < schema.size(); i++) {
+			if (!reported[i])
+				continue;
+			Channel channel = schema.getChannel(i);
+			MessageKey key = TELEMETRY_CHANNELS[channel.getId()];
+			if (channel.getType() == Channel.TYPE_BITS)
+				message.putInt(key, b.getBitsColumn(i)[last]);
+			else
+				message.putFloat(key, b.getFloatColumn(i)[last]);
+		}
+		if (gps != null) {
+			synchronized (fusion) {
+				message.putFloat(MessageKey.FUSED_SPEED, fusion.getSpeed());
+			}
+		}
+		bus.publish(message);
+		message.recycle();
+	}
+
+	/**
+	 * @return the connection of the running live data, <code>null</code> if
+	 *         it isn't running.
+	 */
+	public ConnectionManager getConnectionManager() {
+		TelemetrySource c = controller;
+		return c != null ? c.getConnectionManager() : null;
+	}
 
-		// received \n so we need to update UI
-		Message updateMotorSpeedMessage = new Message(
-		        MessageType.UPDATE_MOTOR_SPEED);
-		updateMotorSpeedMessage.putExtra(MessageKey.MOTOR_SPEED_VALUE,
-		        motorSpeed.toString());
-		listener.handleMessage(updateMotorSpeedMessage);
+	/**
+	 * @return the channel to send commands to the controller on,
+	 *         <code>null</code> if live data isn't running.
+	 */
+	public CommandChannel getCommandChannel() {
+		TelemetrySource c = controller;
+		return c != null ? c.getCommandChannel() : null;
+	}
 
-		// restart method
-		readBluetoothSocketInput(in);
+	/**
+	 * @return the bus live data is published on. Subscribe with
+	 *         {@link MessageBus#DIRECT} to be called on a reader thread, one
+	 *         at a time.
+	 */
+	public MessageBus getMessageBus() {
+		return bus;
 	}
 
 	/**
-	 * Stop Bluetooth connection.
+	 * @return the metrics of the live data pipeline.
 	 */
-	public void stopLiveData() {
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return maps controller timestamps, in microseconds, to
+	 *         {@link System#nanoTime()} in microseconds.
+	 */
+	public ClockOffset getClockOffset() {
+		return clockOffset;
+	}
+
+	/**
+	 * Stop the ride and the Bluetooth connections.
+	 */
+	public synchronized void stopLiveData() {
 		if (isRunning) {
 			Log.d(TAG, "Stopping live data..");
-			// close socket
-			try {
-				btSocket.close();
-			} catch (IOException e) {
-				Log.e(TAG, e.getMessage());
-			}
 			isRunning = false;
+			if (gps != null) {
+				double scale;
+				synchronized (fusion) {
+					scale = fusion.getScale();
+				}
+				Log.d(TAG, "GPS fixes: " + gps.getFixCount() + " in "
+				        + gps.getBurstCount() + " bursts, duty cycle "
+				        + gps.getDutyCycle() + ", wheel scale " + scale);
+				gps.stop();
+				gps = null;
+			}
+			ratePolicy.setRecording(false);
 		}
+		disconnect();
+		// hand on what is still waiting for the other devices on the merge
+		// thread, and close the recorder after those last samples
+		final RideRecorder r = recorder;
+		mergeHandler.post(new Runnable() {
+			public void run() {
+				merger.flush();
+				Log.d(TAG, "Merged " + merger.getMergedCount()
+				        + " samples, forced " + merger.getForcedCount() + ".");
+				if (r != null)
+					closeRecorder(r);
+			}
+		});
+	}
+
+	/**
+	 * Stop recording a ride. A new ride may have been started meanwhile.
+	 */
+	private void closeRecorder(RideRecorder r) {
+		synchronized (this) {
+			if (recorder == r)
+				recorder = null;
+		}
+		boolean open = r.isOpen();
+		r.close();
+		if (open)
+			Log.d(TAG, "Recorded " + r.getRecordCount() + " samples in "
+			        + r.getSegmentCount() + " segments, dropped "
+			        + r.getDroppedCount());
+	}
+
+	private synchronized void disconnect() {
+		if (controller == null)
+			return;
+		// closes the sockets, which unblocks the reader threads so they can
+		// exit
+		for (int i = 0; i < SOURCE_COUNT; i++) {
+			if (sources[i] != null) {
+				sources[i].stop();
+				setSource(i, null);
+			}
+		}
+		mainHandler.removeCallbacks(rateTask);
+		mainHandler.removeCallbacks(rateRetryTask);
+		for (int i = 0; i < SOURCE_COUNT; i++) {
+			if (captures[i] != null) {
+				closeCapture(captures[i]);
+				captures[i] = null;
+			}
+		}
+	}
+
+	private void closeCapture(CaptureWriter capture) {
+		try {
+			capture.close();
+		} catch (IOException e) {
+			Log.e(TAG, "Can't close capture: ", e);
+		}
+		if (capture.getLastError() != null)
+			Log.e(TAG, "Capture failed: ", capture.getLastError());
+		else
+			Log.d(TAG, "Captured " + capture.getByteCount() + " bytes in "
+			        + capture.getRecordCount() + " records to "
+			        + capture.getFile());
 	}
 
 	/**
@@ -248,9 +1072,17 @@ public class BluetoothService extends RoboService implements MessageHandler {
 		}
 	}
 
+	/**
+	 * Subscribe a listener to live data on the main thread, replacing the
+	 * previous one. Use {@link #getMessageBus()} for more than one.
+	 */
 	@Override
-	public void registerListener(MessageHandler listener) {
-		this.listener = listener;
+	public synchronized void registerListener(MessageHandler listener) {
+		if (listenerSubscription != null)
+			bus.unsubscribe(listenerSubscription);
+		listenerSubscription = listener == null ? null : bus.subscribe(
+		        MessageType.UPDATE_MOTOR_SPEED, listener, new HandlerExecutor(
+		                mainHandler));
 	}
 
 	/**
@@ -0,0 +1,279 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.io;
+
+import org.smartebike.api.frame.Frame;
+import org.smartebike.api.frame.FrameBatchListener;
+import org.smartebike.api.frame.FrameDecoder;
+import org.smartebike.api.frame.FrameListener;
+import org.smartebike.api.io.Backoff;
+import org.smartebike.api.io.SessionListener;
+import org.smartebike.api.io.TelemetrySession;
+import org.smartebike.api.io.TelemetryTransport;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps a {@link TelemetrySession} running over one transport until
+ * stopped: when connecting fails or the link drops, a new session is started
+ * on the same transport after a {@link Backoff} delay. Nothing blocks the
+ * caller, connecting happens on the session thread.
+ * <p>
+ * It also measures the time from {@link #start()} to the first frame, and
+ * the reconnect latency, from losing a working link to the first frame on
+ * the next one. Byte, frame and error counts add up over all sessions.
+ */
+public class ConnectionManager implements FrameBatchListener,
+        SessionListener {
+
+	private static final String TAG = "ConnectionManager";
+
+	private final TelemetryTransport transport;
+	private final FrameListener frameListener;
+	private final SessionListener listener;
+	private final Handler handler;
+	private final String threadName;
+	private final Backoff backoff = new Backoff();
+
+	private boolean running = false;
+	private TelemetrySession session = null;
+	private final Runnable connectTask = new Runnable() {
+		public void run() {
+			connect();
+		}
+	};
+
+	// set on the reader thread once the current session delivers a frame
+	private volatile boolean receiving = false;
+	private long startedAt;
+	private long lostAt = 0;
+	private volatile long timeToFirstSample = -1;
+	private volatile long lastReconnectLatency = -1;
+	private volatile int attemptCount = 0;
+	private volatile int reconnectCount = 0;
+	// totals of the sessions before the current one
+	private long pastBytesRead = 0;
+	private long pastFrameCount = 0;
+	private long pastCrcErrorCount = 0;
+	private long pastDiscardedByteCount = 0;
+
+	/**
+	 * @param transport
+	 *            - reused for every attempt.
+	 * @param frameListener
+	 *            - receives decoded frames on the session thread, and the
+	 *            end of each chunk if it is a {@link FrameBatchListener}.
+	 * @param listener
+	 *            - notified of every session connecting or failing, may be
+	 *            <code>null</code>.
+	 * @param handler
+	 *            - schedules the retries.
+	 * @param threadName
+	 *            - name of the session threads.
+	 */
+	public ConnectionManager(TelemetryTransport transport,
+	        FrameListener frameListener, SessionListener listener,
+	        Handler handler, String threadName) {
+		this.transport = transport;
+		this.frameListener = frameListener;
+		this.listener = listener;
+		this.handler = handler;
+		this.threadName = threadName;
+	}
+
+	/**
+	 * Connect right away, and keep reconnecting until {@link #stop()}.
+	 */
+	public synchronized void start() {
+		if (running)
+			return;
+		running = true;
+		backoff.reset();
+		startedAt = SystemClock.elapsedRealtime();
+		lostAt = 0;
+		timeToFirstSample = -1;
+		connect();
+	}
+
+	private synchronized void connect() {
+		if (!running || session != null)
+			return;
+		attemptCount++;
+		receiving = false;
+		session = new TelemetrySession(transport, this, this);
+		session.start(threadName);
+	}
+
+	/**
+	 * Stop the current session and any pending retry.
+	 */
+	public synchronized void stop() {
+		if (!running)
+			return;
+		running = false;
+		handler.removeCallbacks(connectTask);
+		if (session != null) {
+			session.stop();
+			endSession();
+		}
+	}
+
+	private void endSession() {
+		pastBytesRead += session.getBytesRead();
+		FrameDecoder decoder = session.getDecoder();
+		pastFrameCount += decoder.getFrameCount();
+		pastCrcErrorCount += decoder.getCrcErrorCount();
+		pastDiscardedByteCount += decoder.getDiscardedByteCount();
+		session = null;
+	}
+
+	@Override
+	public void onSessionConnected(TelemetrySession connectedSession) {
+		if (listener != null)
+			listener.onSessionConnected(connectedSession);
+	}
+
+	@Override
+	public void onSessionFailed(TelemetrySession failedSession, Exception cause) {
+		synchronized (this) {
+			if (failedSession != session)
+				return;
+			endSession();
+			if (receiving && lostAt == 0)
+				lostAt = SystemClock.elapsedRealtime();
+			long delay = backoff.nextDelay();
+			if (running) {
+				handler.postDelayed(connectTask, delay);
+				Log.d(TAG, "Retry " + backoff.getAttempt() + " in " + delay
+				        + " ms.");
+			}
+		}
+		if (listener != null)
+			listener.onSessionFailed(failedSession, cause);
+	}
+
+	@Override
+	public void onFrame(Frame frame) {
+		if (!receiving)
+			onFirstFrame();
+		frameListener.onFrame(frame);
+	}
+
+	@Override
+	public void onBatchEnd() {
+		if (frameListener instanceof FrameBatchListener)
+			((FrameBatchListener) frameListener).onBatchEnd();
+	}
+
+	private synchronized void onFirstFrame() {
+		receiving = true;
+		// the link works, so the next drop retries right away again
+		backoff.reset();
+		long now = SystemClock.elapsedRealtime();
+		if (timeToFirstSample < 0) {
+			timeToFirstSample = now - startedAt;
+			Log.d(TAG, "Time to first sample: " + timeToFirstSample + " ms.");
+		}
+		if (lostAt != 0) {
+			lastReconnectLatency = now - lostAt;
+			reconnectCount++;
+			lostAt = 0;
+			Log.d(TAG, "Reconnected in " + lastReconnectLatency + " ms.");
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return whether the current session has delivered a frame.
+	 */
+	public boolean isReceiving() {
+		return receiving;
+	}
+
+	public TelemetryTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return milliseconds from {@link #start()} to the first frame, -1 until
+	 *         then.
+	 */
+	public long getTimeToFirstSample() {
+		return timeToFirstSample;
+	}
+
+	/**
+	 * @return milliseconds from the last lost link to the first frame after
+	 *         reconnecting, -1 if it never reconnected.
+	 */
+	public long getLastReconnectLatency() {
+		return lastReconnectLatency;
+	}
+
+	/**
+	 * @return bytes read over all sessions.
+	 */
+	public synchronized long getBytesRead() {
+		return pastBytesRead + (session != null ? session.getBytesRead() : 0);
+	}
+
+	/**
+	 * @return frames that passed the CRC check over all sessions.
+	 */
+	public synchronized long getFrameCount() {
+		return pastFrameCount
+		        + (session != null ? session.getDecoder().getFrameCount() : 0);
+	}
+
+	/**
+	 * @return frames rejected by the CRC check over all sessions.
+	 */
+	public synchronized long getCrcErrorCount() {
+		return pastCrcErrorCount
+		        + (session != null ? session.getDecoder().getCrcErrorCount()
+		                : 0);
+	}
+
+	/**
+	 * @return bytes skipped while searching for frames over all sessions.
+	 */
+	public synchronized long getDiscardedByteCount() {
+		return pastDiscardedByteCount
+		        + (session != null ? session.getDecoder()
+		                .getDiscardedByteCount() : 0);
+	}
+
+	/**
+	 * @return sessions started, including the first one.
+	 */
+	public int getAttemptCount() {
+		return attemptCount;
+	}
+
+	/**
+	 * @return links that were lost and restored.
+	 */
+	public int getReconnectCount() {
+		return reconnectCount;
+	}
+
+}
@@ -0,0 +1,265 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.io;
+
+import java.io.IOException;
+
+import org.smartebike.api.fusion.SpeedFusion;
+import org.smartebike.api.record.TrackLog;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Feeds location fixes to a {@link SpeedFusion} while keeping the GPS off
+ * most of the time.
+ * <p>
+ * The GPS is switched on for short bursts of {@link #FIXES_PER_BURST}
+ * accurate fixes, then off again for a while: {@link #CALIBRATED_INTERVAL}
+ * once the wheel speed is calibrated, {@link #CALIBRATING_INTERVAL} until
+ * then. It stays on while no wheel speed arrives, since the fixes are the
+ * only speed source then. A burst without a fix gives up after
+ * {@link #BURST_TIMEOUT}.
+ * <p>
+ * Fix times are handed to the fusion as {@link System#nanoTime()} in
+ * milliseconds. The fusion is locked for each fix, the reader thread must
+ * hold the same lock while feeding it wheel speeds. With a
+ * {@link TrackLog} set, the fixes are recorded too.
+ */
+public class GpsSampler implements LocationListener {
+
+	private static final String TAG = "GpsSampler";
+
+	public static final int FIXES_PER_BURST = 5;
+	public static final long CALIBRATING_INTERVAL = 30000;
+	public static final long CALIBRATED_INTERVAL = 300000;
+	public static final long BURST_TIMEOUT = 60000;
+	/**
+	 * Fixes less accurate than this, in meters, are ignored.
+	 */
+	public static final float MAX_ACCURACY = 25;
+
+	private static final long UPDATE_INTERVAL = 1000;
+
+	private final LocationManager locationManager;
+	private final SpeedFusion fusion;
+	private final Handler handler;
+	private TrackLog trackLog = null;
+
+	private boolean running = false;
+	private boolean on = false;
+	private int burstFixes;
+	private long onSince;
+	private long startedAt;
+	private long onTime = 0;
+	private volatile int fixCount = 0;
+	private volatile int burstCount = 0;
+
+	private final Runnable burstTask = new Runnable() {
+		public void run() {
+			startBurst();
+		}
+	};
+	private final Runnable timeoutTask = new Runnable() {
+		public void run() {
+			Log.d(TAG, "No accurate fix in " + BURST_TIMEOUT + " ms.");
+			endBurst();
+		}
+	};
+
+	/**
+	 * @param handler
+	 *            - delivers the fixes and runs the duty cycle, on its
+	 *            thread.
+	 */
+	public GpsSampler(LocationManager locationManager, SpeedFusion fusion,
+	        Handler handler) {
+		this.locationManager = locationManager;
+		this.fusion = fusion;
+		this.handler = handler;
+	}
+
+	/**
+	 * Start with a burst right away. Call on the handler's thread.
+	 */
+	public void start() {
+		if (running)
+			return;
+		running = true;
+		startedAt = SystemClock.elapsedRealtime();
+		onTime = 0;
+		startBurst();
+	}
+
+	/**
+	 * Switch the GPS off for good. Call on the handler's thread.
+	 */
+	public void stop() {
+		if (!running)
+			return;
+		running = false;
+		handler.removeCallbacks(burstTask);
+		handler.removeCallbacks(timeoutTask);
+		switchOff();
+		if (trackLog != null) {
+			closeTrackLog();
+			trackLog = null;
+		}
+	}
+
+	/**
+	 * Record the accurate fixes, until {@link #stop()} closes the log. Call
+	 * on the handler's thread.
+	 */
+	public void setTrackLog(TrackLog trackLog) {
+		this.trackLog = trackLog;
+	}
+
+	private void closeTrackLog() {
+		try {
+			trackLog.close();
+		} catch (IOException e) {
+			Log.e(TAG, "Can't close " + trackLog.getFile() + ": ", e);
+		}
+	}
+
+	private void startBurst() {
+		if (!running)
+			return;
+		burstFixes = 0;
+		burstCount++;
+		if (!on) {
+			try {
+				locationManager.requestLocationUpdates(
+				        LocationManager.GPS_PROVIDER, UPDATE_INTERVAL, 0, this,
+				        handler.getLooper());
+			} catch (IllegalArgumentException e) {
+				Log.e(TAG, "No GPS on this device: ", e);
+				running = false;
+				return;
+			}
+			on = true;
+			onSince = SystemClock.elapsedRealtime();
+		}
+		handler.postDelayed(timeoutTask, BURST_TIMEOUT);
+	}
+
+	private void endBurst() {
+		handler.removeCallbacks(timeoutTask);
+		long interval;
+		synchronized (fusion) {
+			if (!fusion.hasWheelSpeed(now())) {
+				// the fixes are all there is, keep them coming
+				burstFixes = 0;
+				handler.postDelayed(timeoutTask, BURST_TIMEOUT);
+				return;
+			}
+			interval = fusion.isCalibrated() ? CALIBRATED_INTERVAL
+			        : CALIBRATING_INTERVAL;
+		}
+		switchOff();
+		handler.postDelayed(burstTask, interval);
+	}
+
+	private void switchOff() {
+		if (!on)
+			return;
+		locationManager.removeUpdates(this);
+		on = false;
+		onTime += SystemClock.elapsedRealtime() - onSince;
+	}
+
+	@Override
+	public void onLocationChanged(Location location) {
+		if (!running || !location.hasAccuracy()
+		        || location.getAccuracy() > MAX_ACCURACY)
+			return;
+		// fixes may be delivered late, date them back by their age
+		long age = Math.max(0,
+		        System.currentTimeMillis() - location.getTime());
+		float speed = location.hasSpeed() ? location.getSpeed() * 3.6f
+		        : Float.NaN;
+		synchronized (fusion) {
+			fusion.onFix(now() - age, location.getLatitude(),
+			        location.getLongitude(), location.getAccuracy(), speed);
+		}
+		if (trackLog != null) {
+			try {
+				trackLog.append(location.getTime(), location.getLatitude(),
+				        location.getLongitude(), location.getAccuracy(), speed);
+			} catch (IOException e) {
+				Log.e(TAG, "Can't record fixes: ", e);
+				closeTrackLog();
+				trackLog = null;
+			}
+		}
+		fixCount++;
+		if (++burstFixes >= FIXES_PER_BURST)
+			endBurst();
+	}
+
+	@Override
+	public void onStatusChanged(String provider, int status, Bundle extras) {
+		// not needed
+	}
+
+	@Override
+	public void onProviderEnabled(String provider) {
+		// not needed
+	}
+
+	@Override
+	public void onProviderDisabled(String provider) {
+		Log.d(TAG, "GPS disabled, fusing wheel speed only.");
+	}
+
+	/**
+	 * @return the clock of the fusion: {@link System#nanoTime()} in
+	 *         milliseconds.
+	 */
+	public static long now() {
+		return System.nanoTime() / 1000000;
+	}
+
+	/**
+	 * @return accurate fixes received.
+	 */
+	public int getFixCount() {
+		return fixCount;
+	}
+
+	public int getBurstCount() {
+		return burstCount;
+	}
+
+	/**
+	 * @return share of the time since {@link #start()} the GPS was on, 0 to
+	 *         1. Call on the handler's thread.
+	 */
+	public double getDutyCycle() {
+		long now = SystemClock.elapsedRealtime();
+		long total = now - startedAt;
+		long active = onTime + (on ? now - onSince : 0);
+		return total > 0 ? (double) active / total : 0;
+	}
+
+}
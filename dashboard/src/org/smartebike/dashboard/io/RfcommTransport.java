@@ -0,0 +1,96 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import org.smartebike.api.io.TelemetryTransport;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+/**
+ * {@link TelemetryTransport} over a Bluetooth RFCOMM socket.
+ * <p>
+ * This one lives in the dashboard rather than in comms-api because it needs
+ * the Android Bluetooth classes.
+ */
+public class RfcommTransport implements TelemetryTransport {
+
+	private final BluetoothDevice device;
+	private final UUID uuid;
+	private volatile BluetoothSocket socket = null;
+
+	public RfcommTransport(BluetoothDevice device, UUID uuid) {
+		this.device = device;
+		this.uuid = uuid;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		// Instantiate a BluetoothSocket for the remote device and connect it.
+		BluetoothSocket s = device.createRfcommSocketToServiceRecord(uuid);
+		socket = s;
+		s.connect();
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return connectedSocket().getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return connectedSocket().getOutputStream();
+	}
+
+	private BluetoothSocket connectedSocket() throws IOException {
+		BluetoothSocket s = socket;
+		if (s == null)
+			throw new IOException("Not connected to " + getName());
+		return s;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return socket != null;
+	}
+
+	/**
+	 * Closing the socket also aborts a pending connect().
+	 */
+	@Override
+	public void close() throws IOException {
+		BluetoothSocket s = socket;
+		socket = null;
+		if (s != null)
+			s.close();
+	}
+
+	@Override
+	public String getName() {
+		return "rfcomm://" + device.getAddress();
+	}
+
+	public BluetoothDevice getDevice() {
+		return device;
+	}
+
+}
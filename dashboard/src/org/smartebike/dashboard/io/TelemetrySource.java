@@ -0,0 +1,396 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.io;
+
+import java.util.Arrays;
+
+import org.smartebike.api.codec.SampleListener;
+import org.smartebike.api.codec.TelemetryBlockReader;
+import org.smartebike.api.command.CommandCallback;
+import org.smartebike.api.command.CommandChannel;
+import org.smartebike.api.command.CommandCode;
+import org.smartebike.api.command.CommandResponse;
+import org.smartebike.api.frame.Frame;
+import org.smartebike.api.frame.FrameBatchListener;
+import org.smartebike.api.frame.FrameType;
+import org.smartebike.api.io.SessionListener;
+import org.smartebike.api.io.TelemetrySession;
+import org.smartebike.api.io.TelemetryTransport;
+import org.smartebike.api.io.WriteBatcher;
+import org.smartebike.api.merge.StreamMerger;
+import org.smartebike.api.metrics.ClockOffset;
+import org.smartebike.api.schema.ChannelSchema;
+import org.smartebike.api.schema.SampleBatch;
+
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * One device streaming telemetry, such as the controller, a battery
+ * management system or a cadence sensor, with its own connection, reader
+ * thread and command channel.
+ * <p>
+ * On every connection it asks for the latest channel schema and the block
+ * encoding, like the controller. Its samples are offered to a
+ * {@link StreamMerger} in the layout of {@link ChannelSchema#LATEST}, with NaN
+ * for the channels it doesn't report, at the end of every read.
+ * <p>
+ * Timestamps are put on the clock of a reference source, the controller,
+ * through the {@link ClockOffset}s of both against the local clock. Samples
+ * arriving while the reference clock is unknown can't be placed and are
+ * dropped.
+ */
+public class TelemetrySource implements FrameBatchListener, SessionListener,
+        SampleListener {
+
+	private static final String TAG = "TelemetrySource";
+	private static final String READER_THREAD_NAME = "SmartEBike-Reader";
+	private static final int BATCH_CAPACITY = 64;
+	// stop() may run on the main thread
+	private static final long WRITER_CLOSE_TIMEOUT_MILLIS = 50;
+	private static final int RECORD_CHANNEL_COUNT = ChannelSchema.LATEST
+	        .size();
+
+	private final int index;
+	private final String name;
+	private final ClockOffset clock;
+	private final ClockOffset reference;
+	private final StreamMerger merger;
+	private final SessionListener listener;
+	private final Handler handler;
+	private final WriteBatcher writer;
+	private final CommandChannel commands;
+	private final ConnectionManager connection;
+
+	// used on the reader thread only
+	private final TelemetryBlockReader blockReader = new TelemetryBlockReader();
+	private SampleBatch batch = newBatch(ChannelSchema.V1);
+	// record channel of each position of the batch schema
+	private final int[] recordPositions = new int[RECORD_CHANNEL_COUNT];
+	private final float[] sampleValues = new float[RECORD_CHANNEL_COUNT];
+	private final float[] recordValues = new float[RECORD_CHANNEL_COUNT];
+	private volatile long schemaMismatchCount = 0;
+	private volatile long unalignedCount = 0;
+
+	// releases samples held for a source that fell silent
+	private final Runnable drainTask = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * @param index
+	 *            - index of this source in the merger.
+	 * @param name
+	 *            - for logs and metrics.
+	 * @param transport
+	 *            - the device connection.
+	 * @param clock
+	 *            - maps the timestamps of this source to the local clock.
+	 * @param reference
+	 *            - clock of the source whose timestamps the merge runs on,
+	 *            <code>null</code> for that source itself.
+	 * @param merger
+	 *            - receives the samples.
+	 * @param listener
+	 *            - notified of every session connecting or failing, after
+	 *            this source handled it, may be <code>null</code>.
+	 * @param handler
+	 *            - schedules retries and drains, not on the main thread as
+	 *            drains process the merged samples.
+	 */
+	public TelemetrySource(int index, String name,
+	        TelemetryTransport transport, ClockOffset clock,
+	        ClockOffset reference, StreamMerger merger,
+	        SessionListener listener, Handler handler) {
+		this.index = index;
+		this.name = name;
+		this.clock = clock;
+		this.reference = reference;
+		this.merger = merger;
+		this.listener = listener;
+		this.handler = handler;
+		this.writer = new WriteBatcher(transport);
+		this.commands = new CommandChannel(writer);
+		this.connection = new ConnectionManager(transport, this, this,
+		        handler, READER_THREAD_NAME + "-" + name);
+	}
+
+	/**
+	 * Connect, and keep reconnecting until {@link #stop()}.
+	 */
+	public void start() {
+		connection.start();
+	}
+
+	/**
+	 * Disconnect. Samples already offered stay in the merger. Frames still
+	 * waiting in the batcher are written first, for a short while at most.
+	 */
+	public void stop() {
+		commands.close();
+		writer.close();
+		try {
+			if (!writer.awaitClosed(WRITER_CLOSE_TIMEOUT_MILLIS))
+				Log.d(TAG, name + ": pending frames not written in time.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		connection.stop();
+		handler.removeCallbacks(drainTask);
+		merger.setActive(index, false);
+		Log.d(TAG, name + ": time to first sample "
+		        + connection.getTimeToFirstSample() + " ms, reconnects: "
+		        + connection.getReconnectCount() + ", last took "
+		        + connection.getLastReconnectLatency() + " ms, late samples "
+		        + merger.getLateCount(index) + ", unaligned "
+		        + unalignedCount + ".");
+		Log.d(TAG, name + ": frames written " + writer.getFrameCount()
+		        + " in " + writer.getBatchCount()
+		        + " writes, frames per write: "
+		        + writer.formatBatchHistogram());
+	}
+
+	/**
+	 * Called on the reader thread once the device is connected.
+	 */
+	@Override
+	public void onSessionConnected(TelemetrySession connectedSession) {
+		Log.d(TAG, name + " connected to "
+		        + connectedSession.getTransport().getName());
+		// the device clock may have restarted, and it starts over with the
+		// first schema
+		clock.reset();
+		batch = newBatch(ChannelSchema.V1);
+		merger.setActive(index, true);
+
+		commands.send(CommandCode.SET_SCHEMA,
+		        new byte[] { (byte) ChannelSchema.LATEST.getVersion() },
+		        WriteBatcher.URGENT, CommandChannel.DEFAULT_TIMEOUT_MILLIS,
+		        schemaCallback);
+		// about a third of the bytes per sample, if supported
+		commands.send(CommandCode.SET_ENCODING,
+		        new byte[] { CommandCode.ENCODING_BLOCK },
+		        WriteBatcher.URGENT, CommandChannel.DEFAULT_TIMEOUT_MILLIS,
+		        encodingCallback);
+
+		if (listener != null)
+			listener.onSessionConnected(connectedSession);
+	}
+
+	/**
+	 * Called on the reader thread when the connection can't be established or
+	 * breaks. The connection manager has already scheduled the next attempt.
+	 */
+	@Override
+	public void onSessionFailed(TelemetrySession failedSession, Exception cause) {
+		// responses to commands sent on this connection won't come anymore
+		commands.failAll(cause);
+		// the others needn't wait for it
+		merger.setActive(index, false);
+		drain();
+		if (listener != null)
+			listener.onSessionFailed(failedSession, cause);
+	}
+
+	/**
+	 * Responses are handled on the reader thread, in stream order, so the
+	 * frames after an OK come in the new schema.
+	 */
+	private final CommandCallback schemaCallback = new CommandCallback() {
+		@Override
+		public void onResponse(CommandResponse response) {
+			if (response.isOk()) {
+				offerBatch();
+				batch = newBatch(ChannelSchema.LATEST);
+				Log.d(TAG, name + " sends telemetry in "
+				        + ChannelSchema.LATEST);
+			} else
+				Log.d(TAG, name + " keeps " + batch.getSchema() + ", status "
+				        + response.getStatus() + ".");
+		}
+
+		@Override
+		public void onFailure(int command, Exception cause) {
+			Log.d(TAG, "Couldn't select the channel schema of " + name + ": "
+			        + cause);
+		}
+	};
+
+	private final CommandCallback encodingCallback = new CommandCallback() {
+		@Override
+		public void onResponse(CommandResponse response) {
+			if (response.isOk())
+				Log.d(TAG, name + " sends compressed telemetry.");
+			else
+				Log.d(TAG, name + " keeps plain telemetry, status "
+				        + response.getStatus() + ".");
+		}
+
+		@Override
+		public void onFailure(int command, Exception cause) {
+			Log.d(TAG, "Couldn't select the telemetry encoding of " + name
+			        + ": " + cause);
+		}
+	};
+
+	/**
+	 * A batch for a schema, with the record channels of its positions.
+	 */
+	private SampleBatch newBatch(ChannelSchema schema) {
+		for (int i = 0; i < schema.size(); i++)
+			recordPositions[i] = ChannelSchema.LATEST.indexOf(schema
+			        .getChannel(i));
+		// channels the device doesn't report stay NaN
+		Arrays.fill(recordValues, Float.NaN);
+		return new SampleBatch(schema, BATCH_CAPACITY);
+	}
+
+	/**
+	 * Handles decoded frames, collecting telemetry into the batch.
+	 */
+	@Override
+	public void onFrame(Frame frame) {
+		switch (frame.getType()) {
+		case FrameType.TELEMETRY:
+			if (batch.isFull())
+				offerBatch();
+			if (!batch.add(frame))
+				schemaMismatchCount++;
+			break;
+		case FrameType.TELEMETRY_BLOCK:
+			blockReader.read(frame, this);
+			break;
+		case FrameType.RESPONSE:
+			commands.onFrame(frame);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Collects the samples of a telemetry block, in schema order.
+	 */
+	@Override
+	public void onSample(long timestamp, float[] values) {
+		if (values.length != batch.getSchema().size()) {
+			schemaMismatchCount++;
+			return;
+		}
+		if (batch.isFull())
+			offerBatch();
+		batch.add(timestamp, values);
+	}
+
+	/**
+	 * Hands on what the last read brought in.
+	 */
+	@Override
+	public void onBatchEnd() {
+		offerBatch();
+		drain();
+	}
+
+	/**
+	 * Offer the collected samples to the merger, on the reference clock.
+	 */
+	private void offerBatch() {
+		SampleBatch b = batch;
+		int n = b.size();
+		if (n == 0)
+			return;
+		long receiveTime = System.nanoTime() / 1000;
+		int channels = b.getSchema().size();
+		for (int i = 0; i < n; i++) {
+			long timestamp = b.copy(i, sampleValues);
+			clock.observe(timestamp * 1000, receiveTime);
+			if (reference != null) {
+				if (!reference.isValid()) {
+					unalignedCount++;
+					continue;
+				}
+				timestamp = reference.toRemote(clock
+				        .toLocal(timestamp * 1000)) / 1000;
+			}
+			for (int c = 0; c < channels; c++)
+				recordValues[recordPositions[c]] = sampleValues[c];
+			merger.offer(index, timestamp, recordValues);
+		}
+		b.clear();
+	}
+
+	/**
+	 * Hand on what is ready, and come back for what has to wait.
+	 */
+	private void drain() {
+		ClockOffset c = reference != null ? reference : clock;
+		if (!c.isValid())
+			return;
+		merger.drain(c.toRemote(System.nanoTime() / 1000) / 1000);
+		handler.removeCallbacks(drainTask);
+		if (merger.hasPending())
+			handler.postDelayed(drainTask, merger.getMaxDelay());
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public ConnectionManager getConnectionManager() {
+		return connection;
+	}
+
+	public CommandChannel getCommandChannel() {
+		return commands;
+	}
+
+	/**
+	 * @return maps the timestamps of this source, in microseconds, to
+	 *         {@link System#nanoTime()} in microseconds.
+	 */
+	public ClockOffset getClockOffset() {
+		return clock;
+	}
+
+	/**
+	 * @return telemetry blocks that failed to decode.
+	 */
+	public long getCorruptBlockCount() {
+		return blockReader.getCorruptCount();
+	}
+
+	/**
+	 * @return samples that didn't match the negotiated schema.
+	 */
+	public long getSchemaMismatchCount() {
+		return schemaMismatchCount;
+	}
+
+	/**
+	 * @return samples dropped because the reference clock was unknown.
+	 */
+	public long getUnalignedCount() {
+		return unalignedCount;
+	}
+
+}
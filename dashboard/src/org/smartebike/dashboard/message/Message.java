@@ -16,19 +16,85 @@
  */
 package org.smartebike.dashboard.message;
 
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * TODO add description
+ * A message exchanged between {@link MessageHandler}s.
+ * <p>
+ * Extras are primitive slots indexed by {@link MessageKey}, so putting a value
+ * neither boxes nor allocates. Messages sent per sample should come from
+ * {@link #obtain(MessageType)} and be handed back with {@link #recycle()} once
+ * dispatched, the same way {@link android.os.Message} works. Handlers must
+ * not keep a reference to a message after
+ * {@link MessageHandler#handleMessage(Message)} returns.
  */
 public class Message {
+
+	private static final int KEY_COUNT = MessageKey.values().length;
+	// covers the messages queued on the bus for a few subscribers
+	private static final int MAX_POOL_SIZE = 64;
+
+	private static final Object poolLock = new Object();
+	private static Message pool;
+	private static int poolSize = 0;
+
 	private MessageType messageType;
-	private Map<MessageKey, String> extras;
+	private final boolean[] present = new boolean[KEY_COUNT];
+	private final int[] intExtras = new int[KEY_COUNT];
+	private final long[] longExtras = new long[KEY_COUNT];
+	private final float[] floatExtras = new float[KEY_COUNT];
+	private Message next;
 
 	public Message(MessageType messageType) {
 		this.messageType = messageType;
 	}
 
+	/**
+	 * Get a message from the pool, or a new one if the pool is empty.
+	 */
+	public static Message obtain(MessageType messageType) {
+		synchronized (poolLock) {
+			if (pool != null) {
+				Message m = pool;
+				pool = m.next;
+				m.next = null;
+				poolSize--;
+				m.messageType = messageType;
+				return m;
+			}
+		}
+		return new Message(messageType);
+	}
+
+	/**
+	 * Get a copy of a message, from the pool if possible.
+	 */
+	public static Message obtain(Message original) {
+		Message m = obtain(original.messageType);
+		System.arraycopy(original.present, 0, m.present, 0, KEY_COUNT);
+		System.arraycopy(original.intExtras, 0, m.intExtras, 0, KEY_COUNT);
+		System.arraycopy(original.longExtras, 0, m.longExtras, 0, KEY_COUNT);
+		System.arraycopy(original.floatExtras, 0, m.floatExtras, 0,
+		        KEY_COUNT);
+		return m;
+	}
+
+	/**
+	 * Clear this message and return it to the pool. It must not be used
+	 * afterwards.
+	 */
+	public void recycle() {
+		messageType = null;
+		Arrays.fill(present, false);
+		synchronized (poolLock) {
+			if (poolSize < MAX_POOL_SIZE) {
+				next = pool;
+				pool = this;
+				poolSize++;
+			}
+		}
+	}
+
 	public MessageType getMessageType() {
 		return messageType;
 	}
@@ -37,16 +103,47 @@ public class Message {
 		this.messageType = messageType;
 	}
 
-	public Map<MessageKey, String> getExtras() {
-		return extras;
+	public boolean hasExtra(MessageKey key) {
+		return present[key.ordinal()];
+	}
+
+	/**
+	 * @return the value, or 0 if the extra is not set.
+	 */
+	public int getInt(MessageKey key) {
+		int i = key.ordinal();
+		return present[i] ? intExtras[i] : 0;
+	}
+
+	public void putInt(MessageKey key, int extra) {
+		intExtras[key.ordinal()] = extra;
+		present[key.ordinal()] = true;
+	}
+
+	/**
+	 * @return the value, or 0 if the extra is not set.
+	 */
+	public long getLong(MessageKey key) {
+		int i = key.ordinal();
+		return present[i] ? longExtras[i] : 0;
+	}
+
+	public void putLong(MessageKey key, long extra) {
+		longExtras[key.ordinal()] = extra;
+		present[key.ordinal()] = true;
 	}
 
-	public String getExtra(MessageKey key) {
-		return this.extras.get(key);
+	/**
+	 * @return the value, or 0 if the extra is not set.
+	 */
+	public float getFloat(MessageKey key) {
+		int i = key.ordinal();
+		return present[i] ? floatExtras[i] : 0;
 	}
 
-	public void putExtra(MessageKey key, String extra) {
-		this.extras.put(key, extra);
+	public void putFloat(MessageKey key, float extra) {
+		floatExtras[key.ordinal()] = extra;
+		present[key.ordinal()] = true;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,141 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.message;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Publish/subscribe bus with one topic per {@link MessageType}.
+ * <p>
+ * Subscriber lists are copy-on-write arrays swapped in with a compare and
+ * set, so publishing never locks and subscribing doesn't disturb it. Each
+ * {@link Subscription} picks the executor its handler runs on:
+ * {@link #DIRECT} calls it on the publishing thread, e.g. the reader thread,
+ * anything else gets a copy of the message through a bounded queue of its
+ * own. When that queue is full its oldest message is dropped for that
+ * subscriber only, so a slow one can't hold up the publisher or the others,
+ * and still gets the latest value.
+ */
+public class MessageBus {
+
+	/**
+	 * Runs handlers on the publishing thread, without copying or queueing.
+	 */
+	public static final Executor DIRECT = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+	private static final Subscription[] NONE = new Subscription[0];
+
+	private final AtomicReferenceArray<Subscription[]> topics;
+
+	public MessageBus() {
+		int count = MessageType.values().length;
+		topics = new AtomicReferenceArray<Subscription[]>(count);
+		for (int i = 0; i < count; i++)
+			topics.set(i, NONE);
+	}
+
+	public Subscription subscribe(MessageType type, MessageHandler handler,
+	        Executor executor) {
+		return subscribe(type, handler, executor, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * @param executor
+	 *            - runs the handler, {@link #DIRECT} for the publishing
+	 *            thread.
+	 * @param queueCapacity
+	 *            - messages queued for the handler before dropping the
+	 *            oldest, ignored for {@link #DIRECT}.
+	 */
+	public Subscription subscribe(MessageType type, MessageHandler handler,
+	        Executor executor, int queueCapacity) {
+		Subscription subscription = new Subscription(type, handler, executor,
+		        executor == DIRECT ? 0 : queueCapacity);
+		int topic = type.ordinal();
+		Subscription[] current;
+		Subscription[] updated;
+		do {
+			current = topics.get(topic);
+			updated = new Subscription[current.length + 1];
+			System.arraycopy(current, 0, updated, 0, current.length);
+			updated[current.length] = subscription;
+		} while (!topics.compareAndSet(topic, current, updated));
+		return subscription;
+	}
+
+	/**
+	 * Stop delivering to a subscription. Messages already queued for it are
+	 * discarded.
+	 */
+	public void unsubscribe(Subscription subscription) {
+		subscription.cancel();
+		int topic = subscription.getMessageType().ordinal();
+		Subscription[] current;
+		Subscription[] updated;
+		do {
+			current = topics.get(topic);
+			int i = indexOf(current, subscription);
+			if (i < 0)
+				return;
+			updated = new Subscription[current.length - 1];
+			System.arraycopy(current, 0, updated, 0, i);
+			System.arraycopy(current, i + 1, updated, i, updated.length - i);
+		} while (!topics.compareAndSet(topic, current, updated));
+	}
+
+	private static int indexOf(Subscription[] subscriptions,
+	        Subscription subscription) {
+		for (int i = 0; i < subscriptions.length; i++)
+			if (subscriptions[i] == subscription)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Deliver a message to the subscribers of its type. The caller still owns
+	 * the message and may recycle it once this returns.
+	 */
+	public void publish(Message message) {
+		Subscription[] subscriptions = topics.get(message.getMessageType()
+		        .ordinal());
+		for (int i = 0; i < subscriptions.length; i++)
+			subscriptions[i].deliver(message);
+	}
+
+	/**
+	 * @return whether publishing a message of this type would reach anyone,
+	 *         so publishers can skip building it.
+	 */
+	public boolean hasSubscribers(MessageType type) {
+		return topics.get(type.ordinal()).length > 0;
+	}
+
+	/**
+	 * @return the current subscribers of a topic, e.g. to read their metrics.
+	 */
+	public Subscription[] getSubscriptions(MessageType type) {
+		return topics.get(type.ordinal()).clone();
+	}
+
+}
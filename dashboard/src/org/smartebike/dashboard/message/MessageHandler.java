@@ -20,8 +20,8 @@ package org.smartebike.dashboard.message;
  * This interface shall be implemented by Activities and Services that need to
  * be able to send and receive {@link Message} from each other.
  * <p>
- * This only works with Services sharing the same thread where the Activity is
- * running.
+ * Handlers subscribed to a {@link MessageBus} are called on the executor they
+ * chose when subscribing.
  */
 public interface MessageHandler {
 
@@ -16,6 +16,87 @@
  */
 package org.smartebike.dashboard.message;
 
+/**
+ * Keys of the primitive extras carried by a {@link Message}.
+ */
 public enum MessageKey {
-	MOTOR_SPEED_VALUE;
+	/**
+	 * Controller timestamp of the sample, milliseconds (long).
+	 */
+	SAMPLE_TIMESTAMP,
+	/**
+	 * When the sample was decoded, {@link System#nanoTime()} in microseconds
+	 * (long).
+	 */
+	RECEIVE_TIME,
+	/**
+	 * Motor speed, km/h (float).
+	 */
+	MOTOR_SPEED_VALUE,
+	/**
+	 * Battery voltage, volts (float).
+	 */
+	BATTERY_VOLTAGE,
+	/**
+	 * Battery current, amperes (float).
+	 */
+	BATTERY_CURRENT,
+	/**
+	 * Pedalling cadence, rpm (float).
+	 */
+	CADENCE,
+	/**
+	 * Pedalling torque, newton meters (float).
+	 */
+	TORQUE,
+	/**
+	 * Motor temperature, degrees Celsius (float).
+	 */
+	MOTOR_TEMPERATURE,
+	/**
+	 * Controller temperature, degrees Celsius (float).
+	 */
+	CONTROLLER_TEMPERATURE,
+	/**
+	 * Active controller faults, FAULT bits of the Channel class (int).
+	 */
+	FAULTS,
+	/**
+	 * Average speed over the last 3 seconds, km/h (float).
+	 */
+	AVERAGE_SPEED_3S,
+	/**
+	 * Maximum speed over the last 3 seconds, km/h (float).
+	 */
+	MAX_SPEED_3S,
+	/**
+	 * Average speed over the last 30 seconds, km/h (float).
+	 */
+	AVERAGE_SPEED_30S,
+	/**
+	 * Maximum speed over the last 30 seconds, km/h (float).
+	 */
+	MAX_SPEED_30S,
+	/**
+	 * Average speed over the last 5 minutes, km/h (float).
+	 */
+	AVERAGE_SPEED_5MIN,
+	/**
+	 * Maximum speed over the last 5 minutes, km/h (float).
+	 */
+	MAX_SPEED_5MIN,
+	/**
+	 * Trip distance, meters (float). Fused with location fixes while GPS is
+	 * enabled.
+	 */
+	TRIP_DISTANCE,
+	/**
+	 * Trip energy, watt hours (float).
+	 */
+	TRIP_ENERGY,
+	/**
+	 * Speed fused from wheel speed and location fixes, km/h (float). Only
+	 * present while GPS is enabled.
+	 */
+	FUSED_SPEED;
 }
\ No newline at end of file
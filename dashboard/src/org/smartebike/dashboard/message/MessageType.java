@@ -19,5 +19,10 @@ package org.smartebike.dashboard.message;
 public enum MessageType {
 	START_LIVE_DATA,
 	STOP_LIVE_DATA,
-	UPDATE_MOTOR_SPEED;
+	UPDATE_MOTOR_SPEED,
+	/**
+	 * Latest value of every channel the controller reports, see
+	 * BluetoothService.TELEMETRY_CHANNELS.
+	 */
+	UPDATE_TELEMETRY;
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.message;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link MessageHandler} subscribed to one topic of a {@link MessageBus},
+ * with its delivery metrics.
+ * <p>
+ * Unless delivered directly, messages are copied into a bounded queue and
+ * drained by a single task on the subscriber's executor, scheduled only when
+ * none is pending. Handlers therefore see messages in publishing order and
+ * never concurrently, whatever the executor.
+ * <p>
+ * When the queue is full the oldest messages are dropped to make room, like
+ * the overwrite-oldest telemetry ring: a handler that falls behind skips
+ * stale values but always gets the latest one. Publishing never waits for
+ * the handler.
+ */
+public class Subscription {
+
+	private final MessageType messageType;
+	private final MessageHandler handler;
+	private final Executor executor;
+	// null for direct delivery
+	private final ArrayBlockingQueue<Message> queue;
+	private volatile boolean active = true;
+
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+	private final Runnable drainTask = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile long deliveredCount = 0;
+	private volatile int maxQueueDepth = 0;
+
+	Subscription(MessageType messageType, MessageHandler handler,
+	        Executor executor, int queueCapacity) {
+		this.messageType = messageType;
+		this.handler = handler;
+		this.executor = executor;
+		this.queue = queueCapacity > 0 ? new ArrayBlockingQueue<Message>(
+		        queueCapacity) : null;
+	}
+
+	void deliver(Message message) {
+		if (!active)
+			return;
+		if (queue == null) {
+			handler.handleMessage(message);
+			deliveredCount++;
+			return;
+		}
+
+		Message copy = Message.obtain(message);
+		while (!queue.offer(copy)) {
+			// make room, the handler never got to see the oldest one
+			Message oldest = queue.poll();
+			if (oldest != null) {
+				oldest.recycle();
+				droppedCount.incrementAndGet();
+			}
+		}
+		int depth = queue.size();
+		if (depth > maxQueueDepth)
+			maxQueueDepth = depth;
+		if (drainScheduled.compareAndSet(false, true))
+			executor.execute(drainTask);
+	}
+
+	private void drain() {
+		do {
+			Message message;
+			while ((message = queue.poll()) != null) {
+				if (active) {
+					handler.handleMessage(message);
+					deliveredCount++;
+				}
+				message.recycle();
+			}
+			drainScheduled.set(false);
+			// a message may have slipped in after the last poll
+		} while (!queue.isEmpty() && drainScheduled.compareAndSet(false, true));
+	}
+
+	void cancel() {
+		active = false;
+	}
+
+	public MessageType getMessageType() {
+		return messageType;
+	}
+
+	public MessageHandler getHandler() {
+		return handler;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * @return messages waiting for the handler.
+	 */
+	public int getQueueDepth() {
+		return queue != null ? queue.size() : 0;
+	}
+
+	/**
+	 * @return the deepest the queue has been.
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	/**
+	 * @return messages handed to the handler.
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount;
+	}
+
+	/**
+	 * @return older messages dropped to make room for newer ones because the
+	 *         queue was full.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+}
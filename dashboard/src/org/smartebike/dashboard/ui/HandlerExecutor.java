@@ -0,0 +1,41 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.ui;
+
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+
+/**
+ * Runs tasks on the thread of a {@link Handler}, e.g. to have a
+ * {@link org.smartebike.dashboard.message.MessageBus} subscriber called on
+ * the main thread.
+ */
+public class HandlerExecutor implements Executor {
+
+	private final Handler handler;
+
+	public HandlerExecutor(Handler handler) {
+		this.handler = handler;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		handler.post(command);
+	}
+
+}
@@ -0,0 +1,211 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.dashboard.ui;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Coalesces value updates into redraws.
+ * <p>
+ * Every update latches the newest value of its channel. A redraw is scheduled
+ * no sooner than one frame interval after the previous one, so however fast
+ * the controller streams, views are updated at most once per display frame,
+ * or less often if a lower rate cap is set.
+ * <p>
+ * All methods must be called on the thread owning the {@link Handler}, i.e.
+ * the main thread.
+ */
+public class RenderScheduler {
+
+	/**
+	 * Draws the latched values.
+	 */
+	public interface Renderer {
+
+		/**
+		 * Called once per redraw. Use {@link RenderScheduler#isDirty(int)} to
+		 * skip channels that haven't changed since the last redraw.
+		 */
+		void render(RenderScheduler scheduler);
+
+	}
+
+	private final Handler handler;
+	private final Renderer renderer;
+	private final long frameIntervalMillis;
+	private long minIntervalMillis;
+
+	private final float[] values;
+	private final boolean[] dirty;
+	private boolean anyDirty = false;
+	private boolean scheduled = false;
+	private boolean running = false;
+	private long lastRenderTime = 0;
+
+	private long updateCount = 0;
+	private long conflatedCount = 0;
+	private long droppedCount = 0;
+	private long renderCount = 0;
+
+	private final Runnable renderTask = new Runnable() {
+		public void run() {
+			scheduled = false;
+			render();
+		}
+	};
+
+	/**
+	 * @param handler
+	 *            - main thread handler.
+	 * @param renderer
+	 *            - draws latched values.
+	 * @param channels
+	 *            - number of value channels.
+	 * @param refreshRate
+	 *            - display refresh rate in Hz, see
+	 *            {@link android.view.Display#getRefreshRate()}.
+	 */
+	public RenderScheduler(Handler handler, Renderer renderer, int channels,
+	        float refreshRate) {
+		this.handler = handler;
+		this.renderer = renderer;
+		this.values = new float[channels];
+		this.dirty = new boolean[channels];
+		this.frameIntervalMillis = Math.max(1,
+		        (long) (1000 / (refreshRate > 0 ? refreshRate : 60)));
+		this.minIntervalMillis = frameIntervalMillis;
+	}
+
+	/**
+	 * Start accepting updates.
+	 */
+	public void start() {
+		running = true;
+		if (anyDirty)
+			schedule();
+	}
+
+	/**
+	 * Stop redrawing, updates received until {@link #start()} are dropped.
+	 */
+	public void stop() {
+		running = false;
+		handler.removeCallbacks(renderTask);
+		scheduled = false;
+	}
+
+	/**
+	 * Cap the redraw rate below the display refresh rate.
+	 *
+	 * @param maxRate
+	 *            - redraws per second, 0 for one redraw per display frame.
+	 */
+	public void setMaxRate(float maxRate) {
+		minIntervalMillis = maxRate > 0 ? Math.max(frameIntervalMillis,
+		        (long) (1000 / maxRate)) : frameIntervalMillis;
+	}
+
+	/**
+	 * Latch a new value and schedule a redraw.
+	 */
+	public void update(int channel, float value) {
+		updateCount++;
+		if (!running) {
+			droppedCount++;
+			return;
+		}
+		if (dirty[channel])
+			conflatedCount++;
+		values[channel] = value;
+		dirty[channel] = true;
+		anyDirty = true;
+		schedule();
+	}
+
+	/**
+	 * Redraw all channels with their latched values, e.g. after a display
+	 * setting changed.
+	 */
+	public void invalidate() {
+		for (int i = 0; i < dirty.length; i++)
+			dirty[i] = true;
+		anyDirty = true;
+		if (running)
+			schedule();
+	}
+
+	private void schedule() {
+		if (scheduled)
+			return;
+		long delay = lastRenderTime + minIntervalMillis
+		        - SystemClock.uptimeMillis();
+		handler.postDelayed(renderTask, Math.max(0, delay));
+		scheduled = true;
+	}
+
+	private void render() {
+		if (!running || !anyDirty)
+			return;
+		lastRenderTime = SystemClock.uptimeMillis();
+		renderer.render(this);
+		for (int i = 0; i < dirty.length; i++)
+			dirty[i] = false;
+		anyDirty = false;
+		renderCount++;
+	}
+
+	public float getValue(int channel) {
+		return values[channel];
+	}
+
+	/**
+	 * @return whether the channel was updated since the last redraw.
+	 */
+	public boolean isDirty(int channel) {
+		return dirty[channel];
+	}
+
+	/**
+	 * @return number of updates received.
+	 */
+	public long getUpdateCount() {
+		return updateCount;
+	}
+
+	/**
+	 * @return number of updates replaced by a newer value before being drawn.
+	 */
+	public long getConflatedCount() {
+		return conflatedCount;
+	}
+
+	/**
+	 * @return number of updates received while stopped.
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return number of redraws.
+	 */
+	public long getRenderCount() {
+		return renderCount;
+	}
+
+}
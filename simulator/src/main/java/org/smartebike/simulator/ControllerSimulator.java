@@ -0,0 +1,572 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.simulator;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.smartebike.api.codec.TelemetryBlockWriter;
+import org.smartebike.api.command.CommandCode;
+import org.smartebike.api.frame.CommandFrame;
+import org.smartebike.api.frame.Frame;
+import org.smartebike.api.frame.FrameDecoder;
+import org.smartebike.api.frame.FrameEncoder;
+import org.smartebike.api.frame.FrameListener;
+import org.smartebike.api.frame.FrameType;
+import org.smartebike.api.frame.TelemetryFrame;
+import org.smartebike.api.schema.Channel;
+import org.smartebike.api.schema.ChannelSchema;
+
+/**
+ * Stands in for a Smart EBike controller: serves synthetic telemetry frames
+ * over a local TCP socket, one client at a time.
+ * <p>
+ * Motor speed follows a slow sine wave plus optional Gaussian noise. Frames
+ * are paced at {@link #setRate(double)}, with optional bursts of back-to-back
+ * frames, random bytes injected between frames and frames corrupted in flight.
+ * <p>
+ * Commands are answered on a separate thread as they come in, see
+ * {@link CommandCode}. The speed limit caps the simulated motor speed.
+ * <p>
+ * Samples follow {@link ChannelSchema#V1} until the client selects another
+ * version. The other channels are derived from the motor speed and assist
+ * level: battery current and voltage sag, cadence, torque, slowly rising
+ * temperatures and the faults they imply.
+ * <p>
+ * Every telemetry frame carries a trace stamp after the regular payload, at
+ * {@link #TRACE_NANOS} for version 1 samples: the {@link System#nanoTime()}
+ * at which it was written. Receivers in the same JVM can use it to measure
+ * per-sample latency. Regular receivers ignore it.
+ * <p>
+ * Once a client selects {@link CommandCode#ENCODING_BLOCK}, samples are
+ * compressed into {@link FrameType#TELEMETRY_BLOCK} frames instead, sent when
+ * full or {@link #BLOCK_DELAY_MILLIS} after their first sample. Blocks carry
+ * no trace stamps. Each new client starts with plain frames.
+ * <p>
+ * {@link #setRate(double)} is the most the simulated controller sends. A
+ * client may ask for fewer samples per second with
+ * {@link CommandCode#SET_RATE}, until it disconnects.
+ */
+public class ControllerSimulator {
+
+	/**
+	 * Position of the trace stamp (long) in telemetry payloads.
+	 */
+	public static final int TRACE_NANOS = TelemetryFrame.PAYLOAD_LENGTH;
+
+	/**
+	 * Longest a sample waits in a block before it is sent.
+	 */
+	public static final long BLOCK_DELAY_MILLIS = 50;
+
+	private static final int BLOCK_SAMPLES = 64;
+	private static final int MAX_BATCH = 4096;
+	private static final long MAX_LAG_NANOS = 1000000000L;
+
+	private final ServerSocket serverSocket;
+	private final Random random = new Random();
+	private final FrameEncoder encoder = new FrameEncoder();
+	private final FrameEncoder responseEncoder = new FrameEncoder();
+	private TelemetryBlockWriter block = new TelemetryBlockWriter(1,
+	        BLOCK_SAMPLES);
+	private ChannelSchema blockSchema = ChannelSchema.V1;
+	private final float[] values = new float[ChannelSchema.LATEST.size()];
+	private long blockStarted;
+	private Thread thread = null;
+	private volatile boolean running = false;
+	private volatile Socket client = null;
+
+	private volatile double rate = 100;
+	// asked for by the current client, 0 for the full rate
+	private volatile int requestedRate = 0;
+	private volatile boolean rateChanged = false;
+	private volatile float signalNoise = 0;
+	private volatile double lineNoise = 0;
+	private volatile double corruption = 0;
+	private volatile int burstSize = 0;
+	private volatile long burstIntervalMillis = 1000;
+
+	private volatile long framesSent;
+	private volatile long samplesSent;
+	private volatile long corruptFramesSent;
+	// counted on the serving and the responder thread
+	private final AtomicLong bytesSent = new AtomicLong();
+	private volatile long commandsReceived;
+
+	private volatile int assistLevel = 0;
+	private volatile float speedLimit = 45;
+	private volatile int encoding = CommandCode.ENCODING_PLAIN;
+	private volatile ChannelSchema schema = ChannelSchema.V1;
+
+	/**
+	 * @param port
+	 *            - local port to listen on, 0 for any free port.
+	 */
+	public ControllerSimulator(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 1,
+		        InetAddress.getByName("localhost"));
+	}
+
+	/**
+	 * Start serving on a background thread.
+	 */
+	public synchronized void start() {
+		if (running)
+			return;
+		running = true;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				serve();
+			}
+		}, "SmartEBike-Simulator");
+		thread.start();
+	}
+
+	/**
+	 * Stop serving and close the server socket.
+	 */
+	public void stop() throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			running = false;
+			t = thread;
+		}
+		closeQuietly(serverSocket);
+		closeQuietly(client);
+		if (t != null)
+			t.join();
+	}
+
+	private void serve() {
+		while (running) {
+			try {
+				Socket s = serverSocket.accept();
+				client = s;
+				s.setTcpNoDelay(true);
+				encoding = CommandCode.ENCODING_PLAIN;
+				schema = ChannelSchema.V1;
+				requestedRate = 0;
+				block.clear();
+				OutputStream out = new BufferedOutputStream(
+				        s.getOutputStream(), 8192);
+				// ends when the socket is closed below
+				startResponder(s.getInputStream(), out);
+				stream(out);
+			} catch (IOException e) {
+				// client went away or we were stopped, wait for the next one
+			} finally {
+				closeQuietly(client);
+				client = null;
+			}
+		}
+	}
+
+	private void stream(OutputStream out) throws IOException {
+		long start = System.nanoTime();
+		long next = start;
+		long nextBurst = start + burstIntervalMillis * 1000000L;
+
+		while (running) {
+			long now = System.nanoTime();
+			if (rateChanged) {
+				// don't sit out the rest of a slow period
+				rateChanged = false;
+				next = Math.min(next, now + (long) (1e9 / getEffectiveRate()));
+			}
+			// responses are written in between batches
+			synchronized (out) {
+				int n = 0;
+				while (next <= now && n < MAX_BATCH) {
+					writeFrame(out, start);
+					next += (long) (1e9 / getEffectiveRate());
+					n++;
+				}
+				if (burstSize > 0 && now >= nextBurst) {
+					for (int i = 0; i < burstSize; i++)
+						writeFrame(out, start);
+					nextBurst = now + burstIntervalMillis * 1000000L;
+				}
+				if (!block.isEmpty() && (encoding != CommandCode.ENCODING_BLOCK
+				        || schema != blockSchema
+				        || now - blockStarted >= BLOCK_DELAY_MILLIS * 1000000L))
+					writeBlock(out);
+				out.flush();
+			}
+			// don't try to catch up on more than a second of lag
+			if (now - next > MAX_LAG_NANOS)
+				next = now;
+
+			long wakeUp = burstSize > 0 ? Math.min(next, nextBurst) : next;
+			if (!block.isEmpty())
+				wakeUp = Math.min(wakeUp, blockStarted + BLOCK_DELAY_MILLIS
+				        * 1000000L);
+			long wait = wakeUp - System.nanoTime();
+			if (wait > 0)
+				LockSupport.parkNanos(wait);
+		}
+	}
+
+	private void writeFrame(OutputStream out, long start) throws IOException {
+		if (lineNoise > 0 && random.nextDouble() < lineNoise) {
+			int garbage = 1 + random.nextInt(8);
+			for (int i = 0; i < garbage; i++)
+				out.write(random.nextInt(256));
+			bytesSent.addAndGet(garbage);
+		}
+
+		long now = System.nanoTime();
+		double seconds = (now - start) / 1e9;
+		float speed = (float) (25 + 10 * Math.sin(seconds * Math.PI / 10));
+		if (signalNoise > 0)
+			speed += (float) random.nextGaussian() * signalNoise;
+		speed = Math.max(0, Math.min(speed, speedLimit));
+		int timestamp = (int) ((now - start) / 1000000L);
+		ChannelSchema sampleSchema = schema;
+		fillValues(sampleSchema, seconds, speed);
+		samplesSent++;
+
+		if (encoding == CommandCode.ENCODING_BLOCK) {
+			if (sampleSchema != blockSchema) {
+				if (!block.isEmpty())
+					writeBlock(out);
+				block = new TelemetryBlockWriter(sampleSchema.size(),
+				        BLOCK_SAMPLES);
+				blockSchema = sampleSchema;
+			}
+			if (!block.isEmpty() && !block.add(timestamp, values))
+				writeBlock(out);
+			if (block.isEmpty()) {
+				blockStarted = now;
+				block.add(timestamp, values);
+			}
+			return;
+		}
+		if (!block.isEmpty())
+			writeBlock(out);
+		encoder.begin(FrameType.TELEMETRY).putInt(timestamp);
+		for (int i = 0; i < sampleSchema.size(); i++)
+			encoder.putFloat(values[i]);
+		encoder.putLong(now);
+		send(out, encoder.finish());
+	}
+
+	/**
+	 * Fill in the values of a sample in schema order, bit fields as the float
+	 * with the same bits.
+	 */
+	private void fillValues(ChannelSchema sampleSchema, double seconds,
+	        float speed) {
+		float current = 0.5f + assistLevel * speed / 10;
+		float voltage = (float) Math.max(33, 42 - seconds / 600) - 0.05f
+		        * current;
+		float motorTemperature = (float) (25 + Math.min(60, seconds / 30))
+		        + current / 2;
+		float controllerTemperature = (float) (25 + Math.min(30, seconds / 60));
+		int faults = 0;
+		if (voltage < 34)
+			faults |= Channel.FAULT_UNDER_VOLTAGE;
+		if (motorTemperature > 80)
+			faults |= Channel.FAULT_MOTOR_OVERHEAT;
+
+		for (int i = 0; i < sampleSchema.size(); i++) {
+			Channel channel = sampleSchema.getChannel(i);
+			float value;
+			if (channel == Channel.MOTOR_SPEED)
+				value = speed;
+			else if (channel == Channel.BATTERY_VOLTAGE)
+				value = voltage;
+			else if (channel == Channel.BATTERY_CURRENT)
+				value = current;
+			else if (channel == Channel.CADENCE)
+				value = speed * 2.6f;
+			else if (channel == Channel.TORQUE)
+				value = 5 + assistLevel * 3;
+			else if (channel == Channel.MOTOR_TEMPERATURE)
+				value = motorTemperature;
+			else if (channel == Channel.CONTROLLER_TEMPERATURE)
+				value = controllerTemperature;
+			else if (channel == Channel.FAULTS)
+				value = Float.intBitsToFloat(faults);
+			else
+				value = 0;
+			values[i] = value;
+		}
+	}
+
+	private void writeBlock(OutputStream out) throws IOException {
+		send(out, block.finish(encoder));
+	}
+
+	private void send(OutputStream out, int length) throws IOException {
+		if (corruption > 0 && random.nextDouble() < corruption) {
+			encoder.array()[random.nextInt(length)] ^= 1 << random.nextInt(8);
+			corruptFramesSent++;
+		}
+		encoder.writeTo(out);
+		framesSent++;
+		bytesSent.addAndGet(length);
+	}
+
+	/**
+	 * Read commands from the client and answer them, on a thread of its own.
+	 */
+	private void startResponder(final InputStream in, final OutputStream out) {
+		final FrameDecoder decoder = new FrameDecoder(new FrameListener() {
+			public void onFrame(Frame frame) {
+				if (frame.getType() != FrameType.COMMAND
+				        || frame.getPayloadLength() < CommandFrame.ARGUMENTS)
+					return;
+				try {
+					respond(frame, out);
+				} catch (IOException e) {
+					// the client is gone, the reading side will notice too
+				}
+			}
+		});
+		Thread responder = new Thread(new Runnable() {
+			public void run() {
+				byte[] buffer = new byte[1024];
+				try {
+					int n;
+					while ((n = in.read(buffer)) >= 0)
+						decoder.decode(buffer, 0, n);
+				} catch (IOException e) {
+					// client went away or we were stopped
+				}
+			}
+		}, "SmartEBike-SimulatorResponder");
+		responder.setDaemon(true);
+		responder.start();
+	}
+
+	private void respond(Frame command, OutputStream out) throws IOException {
+		commandsReceived++;
+		int code = command.getUnsignedByte(CommandFrame.COMMAND);
+		int arguments = command.getPayloadLength() - CommandFrame.ARGUMENTS;
+		responseEncoder.begin(FrameType.RESPONSE)
+		        .putShort(command.getUnsignedShort(CommandFrame.SEQUENCE))
+		        .putByte(code);
+		switch (code) {
+		case CommandCode.GET_CONFIG:
+			responseEncoder.putByte(CommandFrame.STATUS_OK)
+			        .putByte(assistLevel).putFloat(speedLimit);
+			break;
+		case CommandCode.SET_ASSIST_LEVEL:
+			int level = arguments >= 1 ? command
+			        .getUnsignedByte(CommandFrame.ARGUMENTS) : -1;
+			if (level >= 0 && level <= CommandCode.MAX_ASSIST_LEVEL) {
+				assistLevel = level;
+				responseEncoder.putByte(CommandFrame.STATUS_OK);
+			} else
+				responseEncoder.putByte(CommandFrame.STATUS_INVALID_ARGUMENT);
+			break;
+		case CommandCode.SET_SPEED_LIMIT:
+			float limit = arguments >= 4 ? command
+			        .getFloat(CommandFrame.ARGUMENTS) : -1;
+			if (limit > 0) {
+				speedLimit = limit;
+				responseEncoder.putByte(CommandFrame.STATUS_OK);
+			} else
+				responseEncoder.putByte(CommandFrame.STATUS_INVALID_ARGUMENT);
+			break;
+		case CommandCode.SET_SCHEMA:
+			ChannelSchema requested = arguments >= 1 ? ChannelSchema
+			        .forVersion(command.getUnsignedByte(CommandFrame.ARGUMENTS))
+			        : null;
+			if (requested != null) {
+				schema = requested;
+				responseEncoder.putByte(CommandFrame.STATUS_OK);
+			} else
+				responseEncoder.putByte(CommandFrame.STATUS_INVALID_ARGUMENT);
+			break;
+		case CommandCode.SET_RATE:
+			int wanted = arguments >= 2 ? command
+			        .getUnsignedShort(CommandFrame.ARGUMENTS) : 0;
+			if (wanted > 0) {
+				requestedRate = wanted;
+				rateChanged = true;
+				LockSupport.unpark(thread);
+				responseEncoder.putByte(CommandFrame.STATUS_OK).putShort(
+				        (int) Math.round(getEffectiveRate()));
+			} else
+				responseEncoder.putByte(CommandFrame.STATUS_INVALID_ARGUMENT);
+			break;
+		case CommandCode.SET_ENCODING:
+			int selected = arguments >= 1 ? command
+			        .getUnsignedByte(CommandFrame.ARGUMENTS) : -1;
+			if (selected == CommandCode.ENCODING_PLAIN
+			        || selected == CommandCode.ENCODING_BLOCK) {
+				encoding = selected;
+				responseEncoder.putByte(CommandFrame.STATUS_OK);
+			} else
+				responseEncoder.putByte(CommandFrame.STATUS_INVALID_ARGUMENT);
+			break;
+		default:
+			responseEncoder.putByte(CommandFrame.STATUS_UNKNOWN_COMMAND);
+			break;
+		}
+		int length = responseEncoder.finish();
+		synchronized (out) {
+			responseEncoder.writeTo(out);
+			out.flush();
+			bytesSent.addAndGet(length);
+		}
+	}
+
+	private static void closeQuietly(ServerSocket s) {
+		try {
+			s.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private static void closeQuietly(Socket s) {
+		if (s == null)
+			return;
+		try {
+			s.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * @return the port clients should connect to.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @param rate
+	 *            - telemetry frames per second.
+	 */
+	public void setRate(double rate) {
+		if (rate <= 0)
+			throw new IllegalArgumentException("Invalid rate: " + rate);
+		this.rate = rate;
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * @return telemetry frames per second sent to the current client, the
+	 *         rate it asked for capped at {@link #getRate()}.
+	 */
+	public double getEffectiveRate() {
+		int requested = requestedRate;
+		return requested > 0 ? Math.min(requested, rate) : rate;
+	}
+
+	/**
+	 * @param signalNoise
+	 *            - standard deviation of the noise added to motor speed, km/h.
+	 */
+	public void setSignalNoise(float signalNoise) {
+		this.signalNoise = signalNoise;
+	}
+
+	/**
+	 * @param lineNoise
+	 *            - probability of injecting 1 to 8 random bytes before a frame.
+	 */
+	public void setLineNoise(double lineNoise) {
+		this.lineNoise = lineNoise;
+	}
+
+	/**
+	 * @param corruption
+	 *            - probability of flipping one bit of a frame.
+	 */
+	public void setCorruption(double corruption) {
+		this.corruption = corruption;
+	}
+
+	/**
+	 * Send bursts of extra back-to-back frames.
+	 *
+	 * @param burstSize
+	 *            - frames per burst, 0 disables bursts.
+	 * @param burstIntervalMillis
+	 *            - time between bursts.
+	 */
+	public void setBursts(int burstSize, long burstIntervalMillis) {
+		this.burstIntervalMillis = burstIntervalMillis;
+		this.burstSize = burstSize;
+	}
+
+	/**
+	 * @return frames sent, including corrupted ones.
+	 */
+	public long getFramesSent() {
+		return framesSent;
+	}
+
+	/**
+	 * @return telemetry samples sent, plain or in blocks.
+	 */
+	public long getSamplesSent() {
+		return samplesSent;
+	}
+
+	/**
+	 * @return the telemetry encoding selected by the current client, one of
+	 *         the ENCODING values of {@link CommandCode}.
+	 */
+	public int getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * @return the channel schema selected by the current client.
+	 */
+	public ChannelSchema getSchema() {
+		return schema;
+	}
+
+	public long getCorruptFramesSent() {
+		return corruptFramesSent;
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public long getCommandsReceived() {
+		return commandsReceived;
+	}
+
+	public int getAssistLevel() {
+		return assistLevel;
+	}
+
+	public float getSpeedLimit() {
+		return speedLimit;
+	}
+
+}
@@ -0,0 +1,75 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.simulator;
+
+import java.util.Arrays;
+
+/**
+ * Keeps per-sample latencies for percentile reporting. Once full, every
+ * other recorded value is kept, so long runs are sampled evenly at the cost of
+ * resolution. Not thread safe.
+ */
+class LatencyRecorder {
+
+	private long[] values;
+	private int size = 0;
+	private int stride = 1;
+	private long seen = 0;
+	private long max = 0;
+
+	LatencyRecorder(int capacity) {
+		values = new long[capacity];
+	}
+
+	void record(long nanos) {
+		if (nanos > max)
+			max = nanos;
+		if (seen++ % stride != 0)
+			return;
+		if (size == values.length) {
+			// keep every other value and halve the sampling rate
+			for (int i = 0; i < size / 2; i++)
+				values[i] = values[i * 2];
+			size /= 2;
+			stride *= 2;
+		}
+		values[size++] = nanos;
+	}
+
+	long count() {
+		return seen;
+	}
+
+	long max() {
+		return max;
+	}
+
+	/**
+	 * @param p
+	 *            - percentile between 0 and 100.
+	 * @return the latency in nanoseconds, 0 if nothing was recorded.
+	 */
+	long percentile(double p) {
+		if (size == 0)
+			return 0;
+		long[] sorted = Arrays.copyOf(values, size);
+		Arrays.sort(sorted);
+		int i = (int) Math.ceil(p / 100 * size) - 1;
+		return sorted[Math.max(0, Math.min(size - 1, i))];
+	}
+
+}
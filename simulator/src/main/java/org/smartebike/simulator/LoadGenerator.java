@@ -0,0 +1,227 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.simulator;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.smartebike.api.frame.Frame;
+import org.smartebike.api.frame.FrameListener;
+import org.smartebike.api.frame.FrameType;
+import org.smartebike.api.frame.TelemetryFrame;
+import org.smartebike.api.io.TcpTransport;
+import org.smartebike.api.io.TelemetrySession;
+import org.smartebike.api.ring.TelemetryRing;
+import org.smartebike.api.ring.TelemetrySample;
+
+/**
+ * Drives the telemetry pipeline with a {@link ControllerSimulator} at
+ * increasing rates and reports where it saturates.
+ * <p>
+ * Each step runs the same chain as the dashboard: a {@link TelemetrySession}
+ * decoding a TCP stream on its reader thread, publishing into a
+ * {@link TelemetryRing}, drained by a consumer thread. It reports frames sent
+ * against frames decoded and delivered, ring overruns and reader-to-consumer
+ * latency percentiles.
+ *
+ * <pre>
+ * java org.smartebike.simulator.LoadGenerator [options]
+ *   --rates 10,100,1000,10000,50000   frames per second, one step each
+ *   --duration 5                      seconds per step
+ *   --noise 0.5                       motor speed noise, km/h
+ *   --line-noise 0.001                probability of garbage before a frame
+ *   --corrupt 0.001                   probability of a corrupted frame
+ *   --burst 100                       frames per burst, once a second
+ *   --min-delivery 0.999              delivered / intact frames to pass
+ *   --guard-rate 1000                 exit with 1 if saturated at this rate
+ * </pre>
+ */
+public class LoadGenerator {
+
+	private static final int RING_CAPACITY = 1024;
+	// the simulator may fall this far short of its target rate
+	private static final double MIN_SEND_RATIO = 0.95;
+
+	private double[] rates = { 10, 100, 1000, 10000, 20000, 50000 };
+	private int durationSeconds = 5;
+	private float noise = 0.5f;
+	private double lineNoise = 0;
+	private double corruption = 0;
+	private int burstSize = 0;
+	private double minDelivery = 0.999;
+	private double guardRate = 0;
+
+	public static void main(String[] args) throws Exception {
+		LoadGenerator generator = new LoadGenerator();
+		generator.parse(args);
+		System.exit(generator.run() ? 0 : 1);
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String name = args[i];
+			String value = args[i + 1];
+			if ("--rates".equals(name)) {
+				String[] parts = value.split(",");
+				rates = new double[parts.length];
+				for (int j = 0; j < parts.length; j++)
+					rates[j] = Double.parseDouble(parts[j].trim());
+			} else if ("--duration".equals(name))
+				durationSeconds = Integer.parseInt(value);
+			else if ("--noise".equals(name))
+				noise = Float.parseFloat(value);
+			else if ("--line-noise".equals(name))
+				lineNoise = Double.parseDouble(value);
+			else if ("--corrupt".equals(name))
+				corruption = Double.parseDouble(value);
+			else if ("--burst".equals(name))
+				burstSize = Integer.parseInt(value);
+			else if ("--min-delivery".equals(name))
+				minDelivery = Double.parseDouble(value);
+			else if ("--guard-rate".equals(name))
+				guardRate = Double.parseDouble(value);
+			else
+				throw new IllegalArgumentException("Unknown option: " + name);
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the pipeline saturated at or below the
+	 *         guard rate.
+	 */
+	private boolean run() throws Exception {
+		System.out.println(String.format(
+		        "%9s %9s %9s %9s %9s %9s %8s %9s %9s %9s %s", "rate",
+		        "sent/s", "sent", "corrupt", "decoded", "delivered",
+		        "overrun", "p50(us)", "p99(us)", "max(us)", ""));
+
+		double saturation = 0;
+		for (double rate : rates) {
+			Step step = new Step(rate);
+			step.run();
+			boolean saturated = step.sentRate() < rate * MIN_SEND_RATIO
+			        || step.deliveryRatio() < minDelivery;
+			System.out.println(String.format(
+			        "%9.0f %9.0f %9d %9d %9d %9d %8d %9.1f %9.1f %9.1f %s",
+			        rate, step.sentRate(), step.sent, step.corrupt,
+			        step.decoded, step.delivered, step.overruns,
+			        step.latency.percentile(50) / 1e3,
+			        step.latency.percentile(99) / 1e3,
+			        step.latency.max() / 1e3, saturated ? "SATURATED" : ""));
+			if (saturated && saturation == 0)
+				saturation = rate;
+		}
+
+		if (saturation == 0) {
+			System.out.println("Pipeline kept up at all rates.");
+			return true;
+		}
+		System.out.println("Pipeline saturates at " + saturation
+		        + " frames/s.");
+		return guardRate <= 0 || saturation > guardRate;
+	}
+
+	/**
+	 * One load step at a fixed rate.
+	 */
+	private class Step implements FrameListener {
+
+		private final double rate;
+		private final TelemetryRing ring = new TelemetryRing(RING_CAPACITY, 1);
+		private final LatencyRecorder latency = new LatencyRecorder(1 << 20);
+		private volatile boolean consuming = true;
+		private long started;
+		private long stopped;
+
+		private long sent;
+		private long corrupt;
+		private long decoded;
+		private long delivered;
+		private long overruns;
+
+		Step(double rate) {
+			this.rate = rate;
+		}
+
+		void run() throws Exception {
+			ControllerSimulator simulator = new ControllerSimulator(0);
+			simulator.setRate(rate);
+			simulator.setSignalNoise(noise);
+			simulator.setLineNoise(lineNoise);
+			simulator.setCorruption(corruption);
+			simulator.setBursts(burstSize, 1000);
+
+			Thread consumer = new Thread(new Runnable() {
+				public void run() {
+					consume();
+				}
+			}, "SmartEBike-Consumer");
+			consumer.start();
+
+			TelemetrySession session = new TelemetrySession(new TcpTransport(
+			        "localhost", simulator.getPort()), this, null);
+			simulator.start();
+			started = System.nanoTime();
+			session.start("SmartEBike-Reader");
+
+			Thread.sleep(durationSeconds * 1000L);
+			simulator.stop();
+			stopped = System.nanoTime();
+
+			// let the pipeline drain whatever is still in flight
+			Thread.sleep(500);
+			session.stop();
+			consuming = false;
+			consumer.join();
+
+			sent = simulator.getFramesSent();
+			corrupt = simulator.getCorruptFramesSent();
+			decoded = session.getDecoder().getFrameCount();
+			overruns = ring.getOverrunCount();
+		}
+
+		@Override
+		public void onFrame(Frame frame) {
+			if (frame.getType() != FrameType.TELEMETRY
+			        || frame.getPayloadLength() < ControllerSimulator.TRACE_NANOS + 8)
+				return;
+			ring.publish(frame.getLong(ControllerSimulator.TRACE_NANOS),
+			        frame.getFloat(TelemetryFrame.MOTOR_SPEED));
+		}
+
+		private void consume() {
+			TelemetrySample sample = ring.newSample();
+			while (consuming || ring.size() > 0) {
+				if (ring.poll(sample)) {
+					latency.record(System.nanoTime() - sample.getTimestamp());
+					delivered++;
+				} else
+					LockSupport.parkNanos(50000);
+			}
+		}
+
+		double sentRate() {
+			return sent / ((stopped - started) / 1e9);
+		}
+
+		double deliveryRatio() {
+			long intact = sent - corrupt;
+			return intact > 0 ? (double) delivered / intact : 1;
+		}
+
+	}
+
+}
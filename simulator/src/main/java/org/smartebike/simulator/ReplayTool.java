@@ -0,0 +1,409 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.simulator;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import org.smartebike.api.codec.SampleListener;
+import org.smartebike.api.codec.TelemetryBlockReader;
+import org.smartebike.api.command.CommandCode;
+import org.smartebike.api.frame.CommandFrame;
+import org.smartebike.api.frame.Frame;
+import org.smartebike.api.frame.FrameBatchListener;
+import org.smartebike.api.frame.FrameDecoder;
+import org.smartebike.api.frame.FrameType;
+import org.smartebike.api.io.ReplayTransport;
+import org.smartebike.api.io.SessionListener;
+import org.smartebike.api.io.TelemetrySession;
+import org.smartebike.api.ring.TelemetryRing;
+import org.smartebike.api.ring.TelemetrySample;
+import org.smartebike.api.schema.Channel;
+import org.smartebike.api.schema.ChannelSchema;
+import org.smartebike.api.schema.SampleBatch;
+import org.smartebike.api.stats.StreamingStats;
+
+/**
+ * Replays a capture taken on the phone, see
+ * {@link org.smartebike.api.io.CaptureWriter}, through the telemetry
+ * pipeline on the JVM.
+ * <p>
+ * The bytes go through a {@link TelemetrySession} on a
+ * {@link ReplayTransport}, read by read as they were captured, so framing,
+ * CRC checks and block decoding run as on the phone. The samples are then
+ * collected into a {@link SampleBatch} per read, in the schema the
+ * controller switched to, fed to {@link StreamingStats}, and the latest speed
+ * of each batch published into a {@link TelemetryRing} drained by a consumer
+ * thread. That stands in for the dashboard's processing: the stream merger,
+ * fusion, recorder and message bus aren't part of the replay. A dropped link
+ * in the capture ends the session, and the next one replays the reconnect.
+ * <p>
+ * The counters and statistics of a replay only depend on the capture, so
+ * they are printed as a summary that can be saved and compared against
+ * later, e.g. after changing the decoder. Timings are printed apart: at
+ * <code>--speed max</code> they give the throughput of the pipeline on real
+ * field data.
+ *
+ * <pre>
+ * java org.smartebike.simulator.ReplayTool [options] capture
+ *   --speed 1            1 for real time, 10 for ten times as fast, max
+ *   --save summary.txt   write the summary to a file
+ *   --expect summary.txt exit with 1 if the summary differs from the file
+ * </pre>
+ */
+public class ReplayTool implements FrameBatchListener, SampleListener,
+        SessionListener {
+
+	private static final int BATCH_CAPACITY = 64;
+	private static final int RING_CAPACITY = 1024;
+
+	private final File capture;
+	private final double speed;
+
+	private ReplayTransport transport;
+	private final CountDownLatch done = new CountDownLatch(1);
+	// why the replay ended before the end of the capture
+	private volatile Exception failure = null;
+
+	// used on the session thread only
+	private final TelemetryBlockReader blockReader = new TelemetryBlockReader();
+	private final StreamingStats stats = new StreamingStats();
+	private SampleBatch batch;
+	private long sessionCount;
+	private long bytesRead;
+	private long frameCount;
+	private long crcErrorCount;
+	private long discardedByteCount;
+	private long schemaMismatchCount;
+	private long schemaChangeCount;
+	private long batchCount;
+	private long sampleCount;
+	private long firstTimestamp = -1;
+	private long lastTimestamp = -1;
+	private float maxSpeed = 0;
+
+	// dispatch to the consumer thread
+	private final TelemetryRing ring = new TelemetryRing(RING_CAPACITY, 1);
+	private final LatencyRecorder latency = new LatencyRecorder(1 << 20);
+	private volatile boolean consuming = true;
+	private long delivered;
+	// wall time of the replay
+	private double seconds;
+
+	public static void main(String[] args) throws Exception {
+		double speed = 1;
+		File save = null;
+		File expect = null;
+		int i = 0;
+		try {
+			for (; i + 1 < args.length && args[i].startsWith("--"); i += 2) {
+				String name = args[i];
+				String value = args[i + 1];
+				if ("--speed".equals(name))
+					speed = "max".equals(value) ? ReplayTransport.MAX_SPEED
+					        : Double.parseDouble(value);
+				else if ("--save".equals(name))
+					save = new File(value);
+				else if ("--expect".equals(name))
+					expect = new File(value);
+				else
+					throw new IllegalArgumentException("Unknown option: "
+					        + name);
+			}
+			if (args.length - i != 1)
+				throw new IllegalArgumentException("Capture file needed");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: ReplayTool [--speed 1|n|max]"
+			        + " [--save file] [--expect file] capture");
+			System.exit(2);
+		}
+		ReplayTool tool = new ReplayTool(new File(args[i]), speed);
+		System.exit(tool.run(save, expect) ? 0 : 1);
+	}
+
+	/**
+	 * @param speed
+	 *            - times real time, {@link ReplayTransport#MAX_SPEED} for as
+	 *            fast as possible.
+	 */
+	public ReplayTool(File capture, double speed) {
+		this.capture = capture;
+		this.speed = speed;
+	}
+
+	/**
+	 * Replay, print the summary and timings, and save or compare the
+	 * summary.
+	 *
+	 * @return <code>false</code> if the capture couldn't be replayed to the
+	 *         end, or the summary didn't match the expected one.
+	 */
+	private boolean run(File save, File expect) throws Exception {
+		List<String> summary = replay();
+		for (String line : summary)
+			System.out.println(line);
+		System.out.println(String.format(Locale.US,
+		        "replayed %.3f s in %.3f s, %.1fx real time, %.0f bytes/s, "
+		                + "%.0f samples/s", transport.getReplayedTime() / 1e6,
+		        seconds, transport.getReplayedTime() / 1e6 / seconds,
+		        bytesRead / seconds, sampleCount / seconds));
+		System.out.println(String.format(Locale.US,
+		        "dispatched %d of %d batches, overruns %d, latency "
+		                + "p50 %.1f us, p99 %.1f us, max %.1f us", delivered,
+		        batchCount, ring.getOverrunCount(),
+		        latency.percentile(50) / 1e3, latency.percentile(99) / 1e3,
+		        latency.max() / 1e3));
+
+		if (failure != null) {
+			System.out.println("Replay failed: " + failure);
+			return false;
+		}
+		if (save != null)
+			write(save, summary);
+		if (expect == null)
+			return true;
+		List<String> expected = read(expect);
+		if (expected.equals(summary)) {
+			System.out.println("Summary matches " + expect + ".");
+			return true;
+		}
+		System.out.println("Summary differs from " + expect + ":");
+		for (int i = 0; i < Math.max(expected.size(), summary.size()); i++) {
+			String e = i < expected.size() ? expected.get(i) : "";
+			String a = i < summary.size() ? summary.get(i) : "";
+			if (!e.equals(a))
+				System.out.println("  expected \"" + e + "\", got \"" + a
+				        + "\"");
+		}
+		return false;
+	}
+
+	/**
+	 * Replay the whole capture, only once per tool.
+	 *
+	 * @return the summary, see {@link #getFailure()} for whether the capture
+	 *         was replayed to the end.
+	 */
+	public List<String> replay() throws InterruptedException {
+		transport = new ReplayTransport(capture, speed);
+		Thread consumer = new Thread(new Runnable() {
+			public void run() {
+				consume();
+			}
+		}, "SmartEBike-Consumer");
+		consumer.start();
+
+		long start = System.nanoTime();
+		startSession();
+		done.await();
+		seconds = (System.nanoTime() - start) / 1e9;
+		consuming = false;
+		consumer.join();
+		return summarize();
+	}
+
+	/**
+	 * @return why the last replay ended before the end of the capture,
+	 *         <code>null</code> if it didn't.
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Replay the next connection of the capture.
+	 */
+	private void startSession() {
+		new TelemetrySession(transport, this, this)
+		        .start("SmartEBike-Reader");
+	}
+
+	/**
+	 * Like the dashboard, every connection starts over with the first
+	 * schema.
+	 */
+	@Override
+	public void onSessionConnected(TelemetrySession connectedSession) {
+		sessionCount++;
+		batch = new SampleBatch(ChannelSchema.V1, BATCH_CAPACITY);
+	}
+
+	@Override
+	public void onSessionFailed(TelemetrySession failedSession, Exception cause) {
+		// nothing more comes from this session, its thread is done
+		bytesRead += failedSession.getBytesRead();
+		FrameDecoder decoder = failedSession.getDecoder();
+		frameCount += decoder.getFrameCount();
+		crcErrorCount += decoder.getCrcErrorCount();
+		discardedByteCount += decoder.getDiscardedByteCount();
+		if (transport.isFinished()) {
+			if (!(cause instanceof EOFException))
+				failure = cause;
+			done.countDown();
+		}
+		else
+			startSession();
+	}
+
+	@Override
+	public void onFrame(Frame frame) {
+		switch (frame.getType()) {
+		case FrameType.TELEMETRY:
+			if (batch.isFull())
+				processBatch();
+			if (!batch.add(frame))
+				schemaMismatchCount++;
+			break;
+		case FrameType.TELEMETRY_BLOCK:
+			blockReader.read(frame, this);
+			break;
+		case FrameType.RESPONSE:
+			// what the dashboard asked for isn't captured, but the answer is
+			if (frame.getPayloadLength() >= CommandFrame.DATA
+			        && frame.getUnsignedByte(CommandFrame.COMMAND)
+			                == CommandCode.SET_SCHEMA
+			        && frame.getUnsignedByte(CommandFrame.STATUS)
+			                == CommandFrame.STATUS_OK) {
+				processBatch();
+				batch = new SampleBatch(ChannelSchema.LATEST, BATCH_CAPACITY);
+				schemaChangeCount++;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void onSample(long timestamp, float[] values) {
+		if (values.length != batch.getSchema().size()) {
+			schemaMismatchCount++;
+			return;
+		}
+		if (batch.isFull())
+			processBatch();
+		batch.add(timestamp, values);
+	}
+
+	@Override
+	public void onBatchEnd() {
+		processBatch();
+	}
+
+	private void processBatch() {
+		SampleBatch b = batch;
+		int n = b.size();
+		if (n == 0)
+			return;
+		long[] timestamps = b.getTimestamps();
+		float[] speeds = b.getFloatColumn(b.getSchema().indexOf(
+		        Channel.MOTOR_SPEED));
+		for (int i = 0; i < n; i++) {
+			stats.addSpeed(timestamps[i], speeds[i]);
+			if (speeds[i] > maxSpeed)
+				maxSpeed = speeds[i];
+		}
+		if (firstTimestamp < 0)
+			firstTimestamp = timestamps[0];
+		lastTimestamp = timestamps[n - 1];
+		sampleCount += n;
+		batchCount++;
+		ring.publish(System.nanoTime(), speeds[n - 1]);
+		b.clear();
+	}
+
+	private void consume() {
+		TelemetrySample sample = ring.newSample();
+		while (consuming || ring.size() > 0) {
+			if (ring.poll(sample)) {
+				latency.record(System.nanoTime() - sample.getTimestamp());
+				delivered++;
+			} else
+				LockSupport.parkNanos(50000);
+		}
+	}
+
+	/**
+	 * @return what the replay found, the same for every replay of the
+	 *         capture.
+	 */
+	private List<String> summarize() {
+		List<String> lines = new ArrayList<String>();
+		lines.add("connections " + sessionCount);
+		lines.add("bytes " + bytesRead);
+		lines.add("frames " + frameCount);
+		lines.add("crcErrors " + crcErrorCount);
+		lines.add("discardedBytes " + discardedByteCount);
+		lines.add("corruptBlocks " + blockReader.getCorruptCount());
+		lines.add("schemaChanges " + schemaChangeCount);
+		lines.add("schemaMismatches " + schemaMismatchCount);
+		lines.add("batches " + batchCount);
+		lines.add("samples " + sampleCount);
+		lines.add("timestamps " + firstTimestamp + " " + lastTimestamp);
+		lines.add(String.format(Locale.US, "maxSpeed %.3f", maxSpeed));
+		lines.add(String.format(Locale.US, "distance %.3f",
+		        stats.getDistance()));
+		for (int w = StreamingStats.SHORT_WINDOW;
+		        w <= StreamingStats.LONG_WINDOW; w++)
+			lines.add(String.format(Locale.US,
+			        "window %d average %.3f max %.3f",
+			        StreamingStats.getWindowLength(w),
+			        stats.getAverageSpeed(w), stats.getMaxSpeed(w)));
+		return lines;
+	}
+
+	private static void write(File file, List<String> lines)
+	        throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file),
+		        "UTF-8");
+		try {
+			for (String line : lines)
+				out.write(line + "\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static List<String> read(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+		        new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null)
+				if (line.length() > 0)
+					lines.add(line);
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+
+}
@@ -0,0 +1,92 @@
+/**
+ * This file is part of Smart-EBike.
+ *
+ * Smart-EBike is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Smart-EBike is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Smart-EBike.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.smartebike.simulator.tests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.smartebike.api.io.ReplayTransport;
+import org.smartebike.simulator.ReplayTool;
+import org.testng.annotations.Test;
+
+/**
+ * Replays a capture of the simulator through {@link ReplayTool}.
+ * <p>
+ * ride.cap holds two connections of about 3 s at 200 samples per second
+ * with 1% of the bytes corrupted, the first switching to the latest schema
+ * and to block encoding. ride.summary is what replaying it found when it was
+ * taken.
+ */
+public class ReplayToolTest {
+
+	@Test
+	public void summaryMatches() throws Exception {
+		ReplayTool tool = new ReplayTool(resource("/ride.cap"),
+		        ReplayTransport.MAX_SPEED);
+		List<String> summary = tool.replay();
+		assertNull(tool.getFailure());
+		assertEquals(summary, readLines("/ride.summary"));
+	}
+
+	@Test
+	public void notACapture() throws Exception {
+		File file = File.createTempFile("replay", ".cap");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write("not a capture".getBytes("US-ASCII"));
+			} finally {
+				out.close();
+			}
+			ReplayTool tool = new ReplayTool(file, ReplayTransport.MAX_SPEED);
+			tool.replay();
+			assertNotNull(tool.getFailure());
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static File resource(String name) throws URISyntaxException {
+		return new File(ReplayToolTest.class.getResource(name).toURI());
+	}
+
+	private static List<String> readLines(String name) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+		        ReplayToolTest.class.getResourceAsStream(name), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null)
+				if (line.length() > 0)
+					lines.add(line);
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+
+}